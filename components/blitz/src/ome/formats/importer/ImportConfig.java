@@ -143,6 +143,8 @@ public class ImportConfig {
     public final FileValue savedDirectory;
     public final StrValue readersPath;
     public final StrValue checksumAlgorithm;
+    /** Number of filesets which may be imported at once. */
+    public final IntValue parallelFileset;
 
     public final BoolValue encryptedConnection;
     public final BoolValue autoClose;
@@ -294,6 +296,7 @@ public class ImportConfig {
 
         readersPath = new StrValue("readersPath", this);
         checksumAlgorithm = new StrValue("checksumAlgorithm", this);
+        parallelFileset = new IntValue("parallelFileset", this, 1);
     }
 
     public String getBioFormatsVersion() {
@@ -27,6 +27,13 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import loci.common.Location;
 import loci.formats.FormatException;
@@ -222,19 +229,38 @@ public class ImportLibrary implements IObservable
         category = omero.client.getRouter(ic).getCategoryForClient();
     }
 
+    /**
+     * Constructor for subclasses which override
+     * {@link #importImage(ImportContainer, int, int, int)} and so need no
+     * server, e.g. in tests.
+     */
+    protected ImportLibrary()
+    {
+        this.store = null;
+        this.repo = null;
+        this.sf = null;
+        this.transfer = null;
+        this.minutesToWait = -1;
+        this.oa = null;
+        this.category = null;
+    }
+
     //
     // Observable methods
     //
 
     public boolean addObserver(IObserver object)
     {
-        return observers.add(object);
+        synchronized (observers) {
+            return observers.add(object);
+        }
     }
 
     public boolean deleteObserver(IObserver object)
     {
-        return observers.remove(object);
-
+        synchronized (observers) {
+            return observers.remove(object);
+        }
     }
 
     /* (non-Javadoc)
@@ -242,8 +268,12 @@ public class ImportLibrary implements IObservable
      */
     public void notifyObservers(ImportEvent event)
     {
-        for (IObserver observer : observers) {
-            observer.update(this, event);
+        // Filesets imported in parallel and import callbacks notify from
+        // several threads; observers see one event at a time.
+        synchronized (observers) {
+            for (IObserver observer : observers) {
+                observer.update(this, event);
+            }
         }
     }
 
@@ -253,6 +283,9 @@ public class ImportLibrary implements IObservable
 
     /**
      * Primary user method for importing a number of import candidates.
+     * If {@link ImportConfig#parallelFileset} is greater than one, that many
+     * containers are imported at once so that the upload of one fileset
+     * overlaps with the server-side processing of others.
      * @param config The configuration information.
      * @param candidates Hosts information about the files to import.
      * @return if the import did not exit because of an error
@@ -261,52 +294,157 @@ public class ImportLibrary implements IObservable
     {
         List<ImportContainer> containers = candidates.getContainers();
         if (containers != null) {
-            int numDone = 0;
-            for (int index = 0; index < containers.size(); index++) {
-                ImportContainer ic = containers.get(index);
-                ImportTarget target = config.getTarget();
-                if (target != null) {
-                    try {
-                        IObject obj = target.load(store, ic);
-                        if (!(obj instanceof Annotation)) {
-                            ic.setTarget(obj);
-                        } else {
-                            // This is likely a "post-processing" annotation
-                            // so that we don't have to resolve the target
-                            // until later.
-                            ic.getCustomAnnotationList().add((Annotation) obj);
-                        }
-                    } catch (Exception e) {
-                        log.error("Could not load target: {}", target);
-                        throw new RuntimeException("Failed to load target", e);
-                    }
-                }
-                if (config.checksumAlgorithm.get() != null) {
-                    ic.setChecksumAlgorithm(config.checksumAlgorithm.get());
+            return importContainers(config, containers);
+        }
+        return true;
+    }
+
+    /**
+     * Imports the given containers as
+     * {@link #importCandidates(ImportConfig, ImportCandidates)} does.
+     * @param config The configuration information.
+     * @param containers The containers to import, in order.
+     * @return if the import did not exit because of an error
+     */
+    public boolean importContainers(ImportConfig config,
+            List<ImportContainer> containers)
+    {
+        final Integer parallel = config.parallelFileset.get();
+        if (parallel != null && parallel > 1 && containers.size() > 1) {
+            return importContainers(config, containers, parallel);
+        }
+        int numDone = 0;
+        for (int index = 0; index < containers.size(); index++) {
+            ImportContainer ic = containers.get(index);
+            prepareContainer(config, ic);
+
+            try {
+                importImage(ic,index,numDone,containers.size());
+                numDone++;
+            } catch (Throwable t) {
+                if (!continueAfterError(config, t)) {
+                    return false;
                 }
+            }
+        }
+        return true;
+    }
 
-                try {
-                    importImage(ic,index,numDone,containers.size());
-                    numDone++;
-                } catch (Throwable t) {
-                    String message = "Error on import";
-                    if (t instanceof ServerError) {
-                        final ServerError se = (ServerError) t;
-                        if (StringUtils.isNotBlank(se.message)) {
-                            message += ": " + se.message;
-                        }
+    /**
+     * Imports the containers using the given number of threads. Targets are
+     * resolved on the calling thread in the order of the containers. If
+     * {@link ImportConfig#contOnError} is not set, containers not yet
+     * started when an import fails are skipped, and those already running
+     * are waited for.
+     * @return if the import did not exit because of an error
+     */
+    private boolean importContainers(final ImportConfig config,
+            final List<ImportContainer> containers, final int threads)
+    {
+        log.info("Importing {} filesets with {} threads", containers.size(),
+                threads);
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                threads, new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "ImportLibrary-"
+                                + count.incrementAndGet());
                     }
-                    log.error(message, t);
-                    if (!config.contOnError.get()) {
-                        log.info("Exiting on error");
-                        return false;
-                    } else {
-                        log.info("Continuing after error");
+                });
+        final int total = containers.size();
+        final AtomicInteger numDone = new AtomicInteger();
+        final AtomicBoolean failed = new AtomicBoolean();
+        final List<Future<?>> futures = new ArrayList<Future<?>>(total);
+        try {
+            for (int i = 0; i < total && !failed.get(); i++) {
+                final int index = i;
+                final ImportContainer ic = containers.get(index);
+                prepareContainer(config, ic);
+                futures.add(executor.submit(new Runnable() {
+                    public void run() {
+                        if (failed.get()) {
+                            return;
+                        }
+                        try {
+                            importImage(ic, index, numDone.get(), total);
+                            final int done = numDone.incrementAndGet();
+                            log.info("Imported {} of {} filesets", done,
+                                    total);
+                        } catch (Throwable t) {
+                            if (!continueAfterError(config, t)) {
+                                failed.set(true);
+                            }
+                        }
                     }
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException ee) {
+                    // Errors are handled by the task itself.
+                    log.error("Unexpected error on import", ee.getCause());
+                    failed.set(true);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    failed.set(true);
+                    break;
                 }
             }
+        } finally {
+            executor.shutdown();
+        }
+        return !failed.get();
+    }
+
+    /**
+     * Resolves the configured target and checksum algorithm of a container.
+     */
+    private void prepareContainer(ImportConfig config, ImportContainer ic)
+    {
+        ImportTarget target = config.getTarget();
+        if (target != null) {
+            try {
+                IObject obj = target.load(store, ic);
+                if (!(obj instanceof Annotation)) {
+                    ic.setTarget(obj);
+                } else {
+                    // This is likely a "post-processing" annotation
+                    // so that we don't have to resolve the target
+                    // until later.
+                    ic.getCustomAnnotationList().add((Annotation) obj);
+                }
+            } catch (Exception e) {
+                log.error("Could not load target: {}", target);
+                throw new RuntimeException("Failed to load target", e);
+            }
+        }
+        if (config.checksumAlgorithm.get() != null) {
+            ic.setChecksumAlgorithm(config.checksumAlgorithm.get());
+        }
+    }
+
+    /**
+     * Logs a failed import.
+     * @return if the remaining containers should still be imported
+     */
+    private boolean continueAfterError(ImportConfig config, Throwable t)
+    {
+        String message = "Error on import";
+        if (t instanceof ServerError) {
+            final ServerError se = (ServerError) t;
+            if (StringUtils.isNotBlank(se.message)) {
+                message += ": " + se.message;
+            }
+        }
+        log.error(message, t);
+        if (!config.contOnError.get()) {
+            log.info("Exiting on error");
+            return false;
+        } else {
+            log.info("Continuing after error");
+            return true;
         }
-        return true;
     }
 
     /**
@@ -467,6 +467,14 @@ public class CommandLineImporter {
             + "    --no-upgrade-check\t\tDisable upgrade check for each import\n"
             + "  e.g. $ bin/omero import -- --no-upgrade-check foo.tiff\n"
             + "       $ ./importer-cli --no-upgrade-check bar.tiff\n\n"
+            + "    --parallel-upload=ARG\tNumber of chunk writes awaiting the server at once\n"
+            + "                            \twhen uploading, for high-latency connections (default: 1)\n\n"
+            + "  e.g. $ bin/omero import -- --parallel-upload=4 foo.tiff\n"
+            + "       $ ./importer-cli --parallel-upload=4 bar.tiff\n\n"
+            + "    --parallel-fileset=ARG\tNumber of filesets to import at once, overlapping\n"
+            + "                            \tuploads with server-side processing (default: 1)\n\n"
+            + "  e.g. $ bin/omero import -- --parallel-fileset=4 some_directory/\n"
+            + "       $ ./importer-cli --parallel-fileset=4 some_directory/\n\n"
             + "\n"
             + "  Feedback:\n"
             + "  ---------\n\n"
@@ -600,6 +608,11 @@ public class CommandLineImporter {
         LongOpt outputFormat =
                 new LongOpt("output", LongOpt.REQUIRED_ARGUMENT, null, 25);
 
+        LongOpt parallelUpload =
+                new LongOpt("parallel-upload", LongOpt.REQUIRED_ARGUMENT, null, 26);
+        LongOpt parallelFileset =
+                new LongOpt("parallel-fileset", LongOpt.REQUIRED_ARGUMENT, null, 27);
+
         // DEPRECATED OPTIONS
         LongOpt minutesWaitDeprecated =
                 new LongOpt("minutes_wait", LongOpt.REQUIRED_ARGUMENT, null, 86);
@@ -637,7 +650,7 @@ public class CommandLineImporter {
                                 closeCompleted, waitCompleted, autoClose,
                                 exclude, target, noStatsInfo,
                                 noUpgradeCheck, qaBaseURL,
-                                outputFormat,
+                                outputFormat, parallelUpload, parallelFileset,
                                 plateName, plateName2,
                                 plateDescription, plateDescription2,
                                 noThumbnailsDeprecated,
@@ -668,6 +681,7 @@ public class CommandLineImporter {
         List<String> textAnnotations = new ArrayList<String>();
         List<Long> annotationIds = new ArrayList<Long>();
         List<FileExclusion> exclusions = new ArrayList<FileExclusion>();
+        int parallelUploads = 1;
         while ((a = g.getopt()) != -1) {
             switch (a) {
             case 1: {
@@ -796,6 +810,27 @@ public class CommandLineImporter {
                 outputChoice = ImportOutput.valueOf(outputArg);
                 break;
             }
+            case 26: {
+                String arg = g.getOptarg();
+                parallelUploads = parsePositive(arg);
+                if (parallelUploads < 1) {
+                    log.error("--parallel-upload requires a positive integer, not {}", arg);
+                    usage(); // exits
+                }
+                log.info("Setting parallel uploads to {}", parallelUploads);
+                break;
+            }
+            case 27: {
+                String arg = g.getOptarg();
+                int parallelFilesets = parsePositive(arg);
+                if (parallelFilesets < 1) {
+                    log.error("--parallel-fileset requires a positive integer, not {}", arg);
+                    usage(); // exits
+                }
+                log.info("Setting parallel filesets to {}", parallelFilesets);
+                config.parallelFileset.set(parallelFilesets);
+                break;
+            }
             // ADVANCED END ---------------------------------------------------
             // DEPRECATED OPTIONS
             case 90:
@@ -902,6 +937,15 @@ public class CommandLineImporter {
             }
         }
 
+        if (parallelUploads != 1) {
+            if (transfer instanceof UploadFileTransfer) {
+                ((UploadFileTransfer) transfer).setParallelUploads(
+                        parallelUploads);
+            } else {
+                log.warn("--parallel-upload only applies to upload transfers");
+            }
+        }
+
         // Let the user know at what level we're logging
         log.info(String.format(
                 "Log levels -- Bio-Formats: %s OMERO.importer: %s",
@@ -974,6 +1018,19 @@ public class CommandLineImporter {
         map.put(key, true);
     }
 
+    /**
+     * Parses the argument of an option which takes a positive integer.
+     * @param arg the option argument
+     * @return the integer, or 0 if the argument is not a positive integer
+     */
+    static int parsePositive(String arg) {
+        try {
+            return Math.max(0, Integer.parseInt(arg.trim()));
+        } catch (NumberFormatException nfe) {
+            return 0;
+        }
+    }
+
     /**
      * Reads a list of paths from stdin.
      * @return the paths
@@ -71,6 +71,12 @@ public class TransferState implements TimeEstimator {
 
     private String checksum;
 
+    /** When {@link #uploadStarted()} was called, in milliseconds. */
+    private long uploadStartTime;
+
+    /** The offset last passed to {@link #uploadBytes(long)}. */
+    private long uploadedBytes;
+
     /**
      * Cache of the latest return value from
      * {@link #getUploader(String)} which can be used to cleanup
@@ -269,6 +275,8 @@ public class TransferState implements TimeEstimator {
      * event to all observers.
      */
     public void uploadStarted() {
+        uploadStartTime = System.currentTimeMillis();
+        uploadedBytes = 0;
         library.notifyObservers(
                 new ImportEvent.FILE_UPLOAD_STARTED(
                 file.getAbsolutePath(), index, total,
@@ -281,6 +289,7 @@ public class TransferState implements TimeEstimator {
      * @param offset how many bytes are uploaded
      */
     public void uploadBytes(long offset) {
+        uploadedBytes = offset;
         library.notifyObservers(
                 new ImportEvent.FILE_UPLOAD_BYTES(
                 file.getAbsolutePath(), index, total,
@@ -298,6 +307,19 @@ public class TransferState implements TimeEstimator {
                 offset, length, null));
     }
 
+    /**
+     * Get the average upload rate since {@link #uploadStarted()}, based on
+     * the offset last reported to {@link #uploadBytes(long)}.
+     * @return the upload throughput in bytes per second
+     */
+    public double getUploadRate() {
+        final long elapsed = System.currentTimeMillis() - uploadStartTime;
+        if (uploadStartTime == 0 || elapsed <= 0) {
+            return 0;
+        }
+        return uploadedBytes * 1000.0 / elapsed;
+    }
+
     //
     // ESTIMATOR DELEGATION
     //
@@ -22,7 +22,17 @@ package ome.formats.importer.transfers;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
 
 import ome.util.checksum.ChecksumProvider;
 import omero.ServerError;
@@ -30,18 +40,55 @@ import omero.api.RawFileStorePrx;
 
 import org.apache.commons.lang.ArrayUtils;
 
+import Ice.AsyncResult;
+
 /**
  * Traditional file transfer mechanism which uploads
  * files using the API. This is done by reading from
  * {@link TransferState#getFile()} into {@link TransferState#getBuffer()}
  * and then {@link RawFileStorePrx#write(byte[], long, int) writing} to the
  * server. <em>Not thread safe</em>
+ * <p>
+ * If {@link #setParallelUploads(int) more than one upload} is allowed, the
+ * transfer is pipelined instead: a separate thread reads the file and
+ * calculates its checksum while up to the given number of
+ * {@link RawFileStorePrx#begin_write(byte[], long, int) asynchronous writes}
+ * are awaiting the server. This hides the round-trip time of each write on
+ * high-latency connections.
+ * </p>
  *
  * @since 5.0
  */
 public class UploadFileTransfer extends AbstractFileTransfer {
 
+    /** The number of writes which may be awaiting the server at once. */
+    private int parallelUploads = 1;
+
+    /**
+     * Sets the number of writes which may be awaiting the server at once.
+     * One, the default, uploads each chunk only once the previous one has
+     * been written.
+     * @param parallelUploads a positive number of writes
+     */
+    public void setParallelUploads(int parallelUploads) {
+        if (parallelUploads < 1) {
+            throw new IllegalArgumentException(
+                    "parallel uploads must be positive: " + parallelUploads);
+        }
+        this.parallelUploads = parallelUploads;
+    }
+
+    /**
+     * @return the number of writes which may be awaiting the server at once
+     */
+    public int getParallelUploads() {
+        return parallelUploads;
+    }
+
     public String transfer(TransferState state) throws IOException, ServerError {
+        if (parallelUploads > 1) {
+            return transferPipelined(state);
+        }
 
         final RawFileStorePrx rawFileStore = start(state);
         final File file = state.getFile();
@@ -88,6 +135,235 @@ public class UploadFileTransfer extends AbstractFileTransfer {
         }
     }
 
+    /**
+     * Uploads the file with up to {@link #parallelUploads} writes in flight
+     * while {@link ChunkReader} reads ahead on another thread.
+     */
+    private String transferPipelined(TransferState state)
+            throws IOException, ServerError {
+
+        final RawFileStorePrx rawFileStore = start(state);
+        final Deque<Chunk> inFlight = new ArrayDeque<Chunk>();
+        final ExecutorService executor =
+                Executors.newSingleThreadExecutor(READER_THREADS);
+
+        FileInputStream stream = null;
+
+        try {
+            stream = new FileInputStream(state.getFile());
+            long offset = 0;
+
+            state.uploadStarted();
+
+            // "touch" the file otherwise zero-length files
+            rawFileStore.write(ArrayUtils.EMPTY_BYTE_ARRAY, offset, 0);
+            state.stop();
+            state.uploadBytes(offset);
+
+            final ChunkReader reader = new ChunkReader(stream, state,
+                    parallelUploads + 2);
+            final Future<?> reading = executor.submit(reader);
+            try {
+                state.start();
+                Chunk chunk;
+                while ((chunk = reader.next()) != null) {
+                    final byte[] bufferToWrite;
+                    if (chunk.length < chunk.buffer.length) {
+                        bufferToWrite = new byte[chunk.length];
+                        System.arraycopy(chunk.buffer, 0, bufferToWrite, 0,
+                                chunk.length);
+                    } else {
+                        bufferToWrite = chunk.buffer;
+                    }
+                    chunk.result = rawFileStore.begin_write(bufferToWrite,
+                            chunk.offset, chunk.length);
+                    inFlight.add(chunk);
+                    if (inFlight.size() >= parallelUploads) {
+                        offset = written(rawFileStore, inFlight.remove(),
+                                reader, state);
+                    }
+                }
+                while (!inFlight.isEmpty()) {
+                    offset = written(rawFileStore, inFlight.remove(),
+                            reader, state);
+                }
+            } finally {
+                reading.cancel(true);
+            }
+
+            log.info(String.format("Uploaded %s bytes at %.1f MB/s "
+                    + "with %s parallel writes", offset,
+                    state.getUploadRate() / 1048576, parallelUploads));
+            return finish(state, offset);
+        } finally {
+            executor.shutdownNow();
+            cleanupUpload(rawFileStore, stream);
+        }
+    }
+
+    /**
+     * Waits for the write of the given chunk to complete, returns its buffer
+     * for reuse and reports progress.
+     * @return the offset up to which the file has been uploaded
+     */
+    private long written(RawFileStorePrx rawFileStore, Chunk chunk,
+            ChunkReader reader, TransferState state) throws ServerError {
+        rawFileStore.end_write(chunk.result);
+        reader.release(chunk.buffer);
+        final long offset = chunk.offset + chunk.length;
+        state.stop(chunk.length);
+        state.uploadBytes(offset);
+        state.start();
+        return offset;
+    }
+
+    /** Names the threads which read ahead for pipelined uploads. */
+    private static final ThreadFactory READER_THREADS = new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "UploadFileTransfer-reader");
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    /** A chunk of the file read for upload. */
+    private static class Chunk {
+
+        final byte[] buffer;
+
+        final long offset;
+
+        final int length;
+
+        /** The pending write, once issued. */
+        AsyncResult result;
+
+        Chunk(byte[] buffer, long offset, int length) {
+            this.buffer = buffer;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Fills buffers from the file and feeds them to the checksum provider,
+     * handing them on in order via {@link #next()}. At most the given number
+     * of buffers are allocated, the first being
+     * {@link TransferState#getBuffer()}; {@link #release(byte[])} returns
+     * them for reuse once written.
+     */
+    private static class ChunkReader implements Runnable {
+
+        /** Marks the end of the file, or a failure to read it. */
+        private static final Chunk END = new Chunk(null, -1, -1);
+
+        private final FileInputStream stream;
+
+        private final ChecksumProvider cp;
+
+        private final BlockingQueue<byte[]> free;
+
+        private final BlockingQueue<Chunk> ready =
+                new LinkedBlockingQueue<Chunk>();
+
+        private final int maxBuffers;
+
+        private final int bufferSize;
+
+        /** The number of buffers allocated so far. */
+        private int buffers;
+
+        private byte[] first;
+
+        private volatile IOException error;
+
+        ChunkReader(FileInputStream stream, TransferState state,
+                int maxBuffers) {
+            this.stream = stream;
+            this.cp = state.getChecksumProvider();
+            this.first = state.getBuffer();
+            this.bufferSize = first.length;
+            this.maxBuffers = maxBuffers;
+            this.free = new ArrayBlockingQueue<byte[]>(maxBuffers);
+        }
+
+        public void run() {
+            try {
+                long offset = 0;
+                while (true) {
+                    final byte[] buffer = acquire();
+                    final int length = fill(buffer);
+                    if (length <= 0) {
+                        break;
+                    }
+                    cp.putBytes(buffer, 0, length);
+                    ready.add(new Chunk(buffer, offset, length));
+                    offset += length;
+                }
+            } catch (InterruptedException ie) {
+                error = new InterruptedIOException("upload cancelled");
+            } catch (IOException ioe) {
+                error = ioe;
+            } finally {
+                ready.add(END);
+            }
+        }
+
+        /**
+         * @return the next chunk of the file or {@code null} at its end
+         * @throws IOException if the file could not be read
+         */
+        Chunk next() throws IOException {
+            final Chunk chunk;
+            try {
+                chunk = ready.take();
+            } catch (InterruptedException ie) {
+                throw new InterruptedIOException("upload interrupted");
+            }
+            if (chunk == END) {
+                if (error != null) {
+                    throw error;
+                }
+                return null;
+            }
+            return chunk;
+        }
+
+        void release(byte[] buffer) {
+            free.offer(buffer);
+        }
+
+        private byte[] acquire() throws InterruptedException {
+            byte[] buffer = free.poll();
+            if (buffer != null) {
+                return buffer;
+            } else if (first != null) {
+                buffer = first;
+                first = null;
+            } else if (buffers < maxBuffers) {
+                buffer = new byte[bufferSize];
+            } else {
+                return free.take();
+            }
+            buffers++;
+            return buffer;
+        }
+
+        /** Reads until the buffer is full or the file ends. */
+        private int fill(byte[] buffer) throws IOException {
+            int length = 0;
+            while (length < buffer.length) {
+                final int rlen = stream.read(buffer, length,
+                        buffer.length - length);
+                if (rlen == -1) {
+                    break;
+                }
+                length += rlen;
+            }
+            return length;
+        }
+    }
+
     /**
      * Since the {@link RawFileStorePrx} instances are cleaned up after each
      * transfer, there's no need to cleanup per {@link File}.
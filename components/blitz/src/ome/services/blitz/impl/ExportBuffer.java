@@ -0,0 +1,261 @@
+/*
+ *   Copyright 2017 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.blitz.impl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded buffer between a thread writing an export and the clients reading
+ * it through {@link ExporterI}, so that the export need not be written out
+ * in full before the first bytes are read. The writer blocks once the buffer
+ * is full, until the reader moves on. Bytes before the position of the
+ * latest read are released, so that a read may be repeated but the export
+ * cannot be read backwards. Optionally, reads give up after waiting too
+ * long for the writer, and the writer cancels the export after waiting too
+ * long for the reader, e.g. because the client has gone away.
+ *
+ * @since 5.3.0
+ */
+public class ExportBuffer extends OutputStream {
+
+    /** The buffered bytes, byte <code>n</code> of the export at
+     * <code>n % ring.length</code>. */
+    private final byte[] ring;
+
+    /** The position of the first byte not released. */
+    private long start;
+
+    /** The position after the last byte written. */
+    private long end;
+
+    /** The greatest position read from. */
+    private long readPos;
+
+    /** Whether the writer is done. */
+    private boolean finished;
+
+    /** Whether the reader is gone. */
+    private boolean cancelled;
+
+    /** Why the writer failed, if it did. */
+    private Throwable failure;
+
+    /** How long a read waits for bytes, in milliseconds; 0 for ever. */
+    private final long readTimeout;
+
+    /** How long a write waits for space, in milliseconds; 0 for ever. */
+    private final long writeTimeout;
+
+    /**
+     * Creates a new instance which waits for ever.
+     *
+     * @param capacity The maximum number of bytes buffered.
+     */
+    public ExportBuffer(int capacity) {
+        this(capacity, 0, 0);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param capacity The maximum number of bytes buffered.
+     * @param readTimeout How long a read waits for the bytes to be written,
+     *            in milliseconds, or 0 to wait for ever.
+     * @param writeTimeout How long a write waits for the bytes to be read,
+     *            in milliseconds, or 0 to wait for ever. Once it is over,
+     *            the export is cancelled.
+     */
+    public ExportBuffer(int capacity, long readTimeout, long writeTimeout) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        if (readTimeout < 0 || writeTimeout < 0) {
+            throw new IllegalArgumentException("Timeouts cannot be negative");
+        }
+        ring = new byte[capacity];
+        this.readTimeout = readTimeout;
+        this.writeTimeout = writeTimeout;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    /**
+     * Writes the bytes, waiting for the reader to release space as needed.
+     *
+     * @throws IOException If the reader has cancelled the export, or has
+     *             not read for longer than the write timeout, in which case
+     *             the export is cancelled.
+     */
+    @Override
+    public synchronized void write(byte[] b, int off, int len)
+            throws IOException {
+        if (finished) {
+            throw new IOException("Export already finished");
+        }
+        while (len > 0) {
+            final long deadline = deadline(writeTimeout);
+            while (!cancelled && end - start >= ring.length) {
+                if (!await(deadline)) {
+                    cancel();
+                    throw new IOException(
+                            "Export not read for " + writeTimeout + " ms");
+                }
+            }
+            if (cancelled) {
+                throw new IOException("Export cancelled");
+            }
+            int n = (int) Math.min(len, ring.length - (end - start));
+            int at = (int) (end % ring.length);
+            int first = Math.min(n, ring.length - at);
+            System.arraycopy(b, off, ring, at, first);
+            System.arraycopy(b, off + first, ring, 0, n - first);
+            end += n;
+            off += n;
+            len -= n;
+            release();
+            notifyAll();
+        }
+    }
+
+    /**
+     * Marks the end of the export. Reads past the end return fewer bytes
+     * than asked for.
+     */
+    @Override
+    public synchronized void close() {
+        finished = true;
+        notifyAll();
+    }
+
+    /**
+     * Marks the export as failed, so that reads fail too.
+     *
+     * @param t Why the export failed.
+     */
+    public synchronized void fail(Throwable t) {
+        failure = t;
+        notifyAll();
+    }
+
+    /**
+     * Releases the buffer, so that the writer fails on its next write.
+     */
+    public synchronized void cancel() {
+        cancelled = true;
+        notifyAll();
+    }
+
+    /**
+     * @return whether {@link #cancel()} was called.
+     */
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Reads bytes of the export, waiting for them to be written. The bytes
+     * before <code>pos</code> are released.
+     *
+     * @param pos The position to read from.
+     * @param size The number of bytes to read, which must not be more than
+     *            the capacity of the buffer.
+     * @return The bytes, fewer than <code>size</code> only at the end of the
+     *         export.
+     * @throws IllegalArgumentException If the bytes at <code>pos</code> have
+     *             already been released or <code>size</code> is out of range.
+     * @throws IOException If the export failed or was cancelled, or the
+     *             bytes were not written within the read timeout.
+     */
+    public synchronized byte[] read(long pos, int size) throws IOException {
+        if (size < 0 || size > ring.length) {
+            throw new IllegalArgumentException("Size not in [0, "
+                    + ring.length + "]: " + size);
+        }
+        checkPosition(pos);
+        if (pos > readPos) {
+            readPos = pos;
+            release();
+            notifyAll();
+        }
+        final long deadline = deadline(readTimeout);
+        while (failure == null && !cancelled && !finished
+                && end < pos + size) {
+            if (!await(deadline)) {
+                throw new IOException(
+                        "Export not written for " + readTimeout + " ms");
+            }
+        }
+        if (failure != null) {
+            throw new IOException("Export failed", failure);
+        }
+        if (cancelled) {
+            throw new IOException("Export cancelled");
+        }
+        checkPosition(pos);
+        int n = (int) Math.max(0, Math.min(end, pos + size) - pos);
+        byte[] buf = new byte[n];
+        int at = (int) (pos % ring.length);
+        int first = Math.min(n, ring.length - at);
+        System.arraycopy(ring, at, buf, 0, first);
+        System.arraycopy(ring, 0, buf, first, n - first);
+        return buf;
+    }
+
+    private void checkPosition(long pos) {
+        if (pos < start) {
+            throw new IllegalArgumentException("Position " + pos
+                    + " already read past, export is at " + start);
+        }
+    }
+
+    /** Releases the bytes written before the greatest position read. */
+    private void release() {
+        start = Math.max(start, Math.min(readPos, end));
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} by which a wait of the given
+     *         timeout is over, or 0 for no timeout.
+     */
+    private static long deadline(long timeout) {
+        if (timeout == 0) {
+            return 0;
+        }
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+    }
+
+    /**
+     * Waits to be notified, or until the deadline.
+     *
+     * @param deadline As returned by {@link #deadline(long)}.
+     * @return <code>false</code> if the deadline had passed.
+     */
+    private boolean await(long deadline) throws InterruptedIOException {
+        try {
+            if (deadline == 0) {
+                wait();
+            } else {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(
+                        deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    return false;
+                }
+                wait(remaining);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+}
@@ -11,6 +11,7 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -41,9 +42,11 @@ import ome.services.util.Executor;
 import ome.system.ServiceFactory;
 import ome.xml.model.MetadataOnly;
 import ome.xml.model.OME;
+import ome.xml.model.primitives.NonNegativeInteger;
 import omero.ServerError;
 import omero.api.AMD_Exporter_addImage;
 import omero.api.AMD_Exporter_generateTiff;
+import omero.api.AMD_Exporter_generateTiffStream;
 import omero.api.AMD_Exporter_generateXml;
 import omero.api.AMD_Exporter_read;
 import omero.api._ExporterOperations;
@@ -91,6 +94,26 @@ public class ExporterI extends AbstractCloseableAmdServant implements
      */
     private final static long BIG_TIFF_SIZE = 2L * Integer.MAX_VALUE;
 
+    /**
+     * The maximum number of bytes of a streamed OME-TIFF held in memory
+     * ahead of the reads.
+     *
+     * @see #generateTiffStream_async(AMD_Exporter_generateTiffStream, Current)
+     */
+    private final static int STREAM_BUFFER_SIZE = 16 * MAX_SIZE;
+
+    /**
+     * How long, in milliseconds, a read of a streamed OME-TIFF waits for
+     * the bytes to be generated, so as not to hold a dispatch thread.
+     */
+    private final static long STREAM_READ_TIMEOUT = 60 * 1000L;
+
+    /**
+     * How long, in milliseconds, the generation of a streamed OME-TIFF
+     * waits for the client to read before it is cancelled.
+     */
+    private final static long STREAM_WRITE_TIMEOUT = 10 * 60 * 1000L;
+
 
     /**
      * Utility enum for asserting the state of Exporter instances.
@@ -99,7 +122,8 @@ public class ExporterI extends AbstractCloseableAmdServant implements
         config, output;
         static State check(ExporterI self) {
 
-            if (self.file != null && self.retrieve != null) {
+            if ((self.file != null || self.stream != null)
+                    && self.retrieve != null) {
                 throw new InternalException("Doing 2 things at once");
             }
 
@@ -122,6 +146,12 @@ public class ExporterI extends AbstractCloseableAmdServant implements
      */
     private volatile File file;
 
+    /**
+     * The OME-TIFF which is currently being streamed. If null, then
+     * generateTiffStream has not been called.
+     */
+    private volatile ExportBuffer stream;
+
     /**
      * Encapsulates the logic for creating new LSIDs and comparing existing ones
      * to the internal value for this DB.
@@ -205,6 +235,23 @@ public class ExporterI extends AbstractCloseableAmdServant implements
         return;
     }
 
+    /**
+     * Generates the OME-TIFF while it is read.
+     */
+    public void generateTiffStream_async(AMD_Exporter_generateTiffStream __cb,
+            Current __current) throws ServerError {
+
+        State state = State.check(this);
+        ServerError se = assertConfig(state);
+        if (se != null) {
+            __cb.ice_exception(se);
+            return;
+        }
+        // sets retrieve, then stream, then unsets retrieve
+        do_tiff_stream(__cb, __current);
+        return;
+    }
+
     public void read_async(AMD_Exporter_read __cb, long pos, int size,
             Current __current) throws ServerError {
 
@@ -435,29 +482,107 @@ public class ExporterI extends AbstractCloseableAmdServant implements
 
                             return null; // see calls to __cb above
                         }
+                    });
+        } catch (Exception e) {
+            IceMapper mapper = new IceMapper();
+            Ice.UserException ue = mapper.handleException(e, factory.getExecutor().getContext());
+            __cb.ice_exception(ue);
+        }
+    }
 
-                        private void cleanup(RawPixelsStore raw,
-                                OmeroReader reader, IFormatWriter writer) {
-                            try {
-                                if (raw != null) {
-                                    raw.close();
-                                }
-                            } catch (Exception e) {
-                                log.error("Error closing pix", e);
+    /**
+     * Transitions from config to output, responding as soon as the length
+     * of the OME-TIFF is known. The metadata is read in one transaction on
+     * the calling thread, then the planes are written to {@link #stream} by
+     * a {@link TiffStream} in the background, which blocks while the reads
+     * fall behind.
+     */
+    private void do_tiff_stream(final AMD_Exporter_generateTiffStream __cb,
+            final Current __current) {
+        final TiffStream tiff;
+        try {
+            tiff = (TiffStream) factory.executor.execute(factory.principal,
+                    new Executor.SimpleWork(this, "generateTiffStream") {
+                        @Transactional(readOnly = true)
+                        public Object doWork(Session session, ServiceFactory sf) {
+                            retrieve.initialize(session);
+
+                            int num = retrieve.sizeImages();
+                            if (num != 1) {
+                                omero.ApiUsageException a = new omero.ApiUsageException(
+                                        null, null,
+                                        "Only one image supported for TIFF, not "+num);
+                                __cb.ice_exception(a);
+                                return null;
                             }
+
+                            RawPixelsStore raw = null;
+                            OmeroReader reader = null;
                             try {
-                                if (reader != null) {
-                                    reader.close();
+
+                                Image image = retrieve.getImage(0);
+                                Pixels pix = image.getPixels(0);
+                                long id = image.getId().getValue();
+                                if (requiresPyramid(sf, pix.getId().getValue())) {
+                                    throw new omero.ApiUsageException(
+                                            null, null, String.format(
+                                            "Image:%s is too large for export (sizeX=%s, sizeY=%s)",
+                                            id, pix.getSizeX().getValue(),
+                                            pix.getSizeY().getValue()));
                                 }
-                            } catch (Exception e) {
-                                log.error("Error closing reader", e);
-                            }
-                            try {
-                                if (writer != null) {
-                                    writer.close();
+
+                                raw = sf.createRawPixelsStore();
+                                raw.setPixelsId(pix.getId().getValue(), true);
+
+                                reader = new OmeroReader(raw, pix);
+                                reader.setId("OMERO");
+                                if (reader.getPixelType() == FormatTools.BIT) {
+                                    throw new omero.ApiUsageException(
+                                            null, null, String.format(
+                                            "Image:%s has bit pixels, use generateTiff",
+                                            id));
                                 }
+
+                                String order =
+                                    retrieve.getPixelsDimensionOrder(0).getValue();
+                                int planeCount = reader.planes;
+                                long mSize = getMetadataBytes(reader);
+                                long dSize = getDataBytes(reader);
+                                final boolean bigtiff =
+                                    ( ( mSize + dSize ) > BIG_TIFF_SIZE );
+                                String xml = getTiffXml(planeCount);
+
+                                ExportBuffer buffer = new ExportBuffer(
+                                        (int) Math.min(STREAM_BUFFER_SIZE,
+                                                mSize + dSize),
+                                        STREAM_READ_TIMEOUT,
+                                        STREAM_WRITE_TIMEOUT);
+                                OmeTiffStreamWriter writer = new OmeTiffStreamWriter(
+                                        buffer, reader.sizeX, reader.sizeY,
+                                        planeCount, reader.getPixelType(), xml,
+                                        bigtiff);
+                                log.info(String.format(
+                                            "Streaming TIFF: big TIFF? %s " +
+                                            "length=%d planeCount=%d",
+                                            bigtiff, writer.getLength(),
+                                            planeCount));
+                                return new TiffStream(raw, reader, writer,
+                                        buffer, order,
+                                        RomioPixelBuffer.safeLongToInteger(
+                                                raw.getPlaneSize()));
                             } catch (Exception e) {
-                                log.error("Error closing writer", e);
+                                cleanup(raw, reader, null);
+                                ServerError se;
+                                if (e instanceof ServerError) {
+                                    se = (ServerError) e;
+                                } else {
+                                    se = new omero.InternalException(
+                                            null, null,
+                                            "Error during TIFF generation");
+                                    IceMapper.fillServerError(se, e);
+                                }
+                                __cb.ice_exception(se);
+                                return null;
                             }
                         }
                     });
@@ -465,6 +590,126 @@ public class ExporterI extends AbstractCloseableAmdServant implements
             IceMapper mapper = new IceMapper();
             Ice.UserException ue = mapper.handleException(e, factory.getExecutor().getContext());
             __cb.ice_exception(ue);
+            return;
+        }
+        if (tiff == null) {
+            return; // see calls to __cb above
+        }
+
+        retrieve = null;
+        stream = tiff.buffer;
+        try {
+            factory.executor.submit(__current.ctx, tiff);
+        } catch (Exception e) {
+            stream = null;
+            tiff.buffer.cancel();
+            cleanup(tiff.raw, tiff.reader, null);
+            omero.InternalException ie = new omero.InternalException(
+                    null, null, "Cannot start TIFF generation");
+            IceMapper.fillServerError(ie, e);
+            __cb.ice_exception(ie);
+            return;
+        }
+        __cb.ice_response(tiff.writer.getLength());
+    }
+
+    /**
+     * Writes the planes of a streamed OME-TIFF to its buffer, reading each
+     * plane in a short read-only transaction so that no transaction is held
+     * while waiting for the client to read. Stops once the buffer is
+     * cancelled, i.e. once the exporter is closed or the client has not
+     * read for {@link #STREAM_WRITE_TIMEOUT}.
+     */
+    private class TiffStream implements Callable<Object> {
+
+        final RawPixelsStore raw;
+
+        final OmeroReader reader;
+
+        final OmeTiffStreamWriter writer;
+
+        final ExportBuffer buffer;
+
+        final String order;
+
+        final int planeSize;
+
+        TiffStream(RawPixelsStore raw, OmeroReader reader,
+                OmeTiffStreamWriter writer, ExportBuffer buffer, String order,
+                int planeSize) {
+            this.raw = raw;
+            this.reader = reader;
+            this.writer = writer;
+            this.buffer = buffer;
+            this.order = order;
+            this.planeSize = planeSize;
+        }
+
+        public Object call() {
+            try {
+                final byte[] plane = new byte[planeSize];
+                for (int i = 0; i < reader.planes; i++) {
+                    if (buffer.isCancelled()) {
+                        throw new IOException("Export cancelled");
+                    }
+                    final int[] zct = FormatTools.getZCTCoords(order,
+                            reader.getSizeZ(), reader.getSizeC(),
+                            reader.getSizeT(), reader.planes, i);
+                    factory.executor.execute(factory.principal,
+                            new Executor.SimpleWork(ExporterI.this,
+                                    "generateTiffStreamPlane", i) {
+                                @Transactional(readOnly = true)
+                                public Object doWork(Session session,
+                                        ServiceFactory sf) {
+                                    try {
+                                        reader.openBytes(reader.getIndex(
+                                                zct[0], zct[1], zct[2]), plane);
+                                    } catch (Exception e) {
+                                        throw new InternalException(
+                                                "Failed to read plane: " + e);
+                                    }
+                                    return null;
+                                }
+                            });
+                    writer.writePlane(plane);
+                }
+                buffer.close();
+            } catch (Exception e) {
+                if (buffer.isCancelled()) {
+                    log.info("TIFF stream closed before the end");
+                } else {
+                    log.error("Error during TIFF generation", e);
+                    buffer.fail(e);
+                }
+            } finally {
+                cleanup(raw, reader, null);
+            }
+            return null;
+        }
+    }
+
+    private void cleanup(RawPixelsStore raw, OmeroReader reader,
+            IFormatWriter writer) {
+        try {
+            if (raw != null) {
+                raw.close();
+            }
+        } catch (Exception e) {
+            log.error("Error closing pix", e);
+        }
+        try {
+            if (reader != null) {
+                reader.close();
+            }
+        } catch (Exception e) {
+            log.error("Error closing reader", e);
+        }
+        try {
+            if (writer != null) {
+                writer.close();
+            }
+        } catch (Exception e) {
+            log.error("Error closing writer", e);
         }
     }
 
@@ -477,6 +722,17 @@ public class ExporterI extends AbstractCloseableAmdServant implements
             throw new ApiUsageException("Max read size is: " + MAX_SIZE);
         }
 
+        if (stream != null) {
+            try {
+                return stream.read(pos, size);
+            } catch (IllegalArgumentException iae) {
+                throw new omero.ApiUsageException(null, null,
+                        iae.getMessage());
+            } catch (IOException io) {
+                throw new RuntimeException(io);
+            }
+        }
+
         byte[] buf = new byte[size];
 
         RandomAccessFile ra = null;
@@ -540,6 +796,10 @@ public class ExporterI extends AbstractCloseableAmdServant implements
     @Override
     protected void preClose(Ice.Current current) {
         retrieve = null;
+        if (stream != null) {
+            stream.cancel();
+            stream = null;
+        }
         if (file != null) {
             file.delete();
             file = null;
@@ -569,6 +829,17 @@ public class ExporterI extends AbstractCloseableAmdServant implements
         return planebytes + xmlbytes;
     }
 
+    /**
+     * Generates the OME-XML of a single file OME-TIFF whose IFDs hold the
+     * planes in the dimension order of the image.
+     */
+    private String getTiffXml(int planeCount) throws ServiceException {
+        IMetadata xmlMeta = convertXml(retrieve);
+        xmlMeta.setTiffDataIFD(new NonNegativeInteger(0), 0, 0);
+        xmlMeta.setTiffDataPlaneCount(new NonNegativeInteger(planeCount), 0, 0);
+        return service.getOMEXML(xmlMeta);
+    }
+
     private long getDataBytes(OmeroReader reader) {
         return (long) reader.planes * reader.sizeX * reader.sizeY *
             FormatTools.getBytesPerPixel(reader.getPixelType());
@@ -0,0 +1,259 @@
+/*
+ *   Copyright 2017 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.blitz.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import loci.formats.FormatTools;
+
+/**
+ * Writes an uncompressed, big-endian OME-TIFF front to back, so that it can
+ * be streamed while it is being written. Unlike
+ * {@link loci.formats.out.OMETiffWriter}, which goes back to the first IFD
+ * to fill in the OME-XML once all planes are written, the whole layout is
+ * computed up front: the header is followed by the OME-XML and then by the
+ * IFD and the single strip of each plane in turn. The length of the file is
+ * therefore known before any plane is written.
+ *
+ * @since 5.3.0
+ */
+public class OmeTiffStreamWriter {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int ASCII = 2, SHORT = 3, LONG = 4, LONG8 = 16;
+
+    /** Number of IFD entries, the first IFD also has the description. */
+    private static final int ENTRIES = 11;
+
+    private final OutputStream out;
+
+    private final int sizeX, sizeY, planeCount, pixelType;
+
+    private final boolean bigTiff;
+
+    /** The OME-XML, NUL terminated. */
+    private final byte[] description;
+
+    private final long planeBytes;
+
+    private final long firstIfd;
+
+    private final long length;
+
+    /** Number of planes written. */
+    private int written;
+
+    /** Position in the file. */
+    private long pos;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param out Where to write the file.
+     * @param sizeX The width of the planes.
+     * @param sizeY The height of the planes.
+     * @param planeCount The number of planes.
+     * @param pixelType The pixel type, as in {@link FormatTools}. Bit
+     *            pixels are not supported.
+     * @param xml The OME-XML, whose <code>TiffData</code> must describe the
+     *            planes in the order they are written.
+     * @param bigTiff Whether to write a BigTIFF file.
+     * @throws IllegalArgumentException If the pixel type is not supported or
+     *             the planes do not fit in a TIFF file.
+     */
+    public OmeTiffStreamWriter(OutputStream out, int sizeX, int sizeY,
+            int planeCount, int pixelType, String xml, boolean bigTiff) {
+        if (pixelType == FormatTools.BIT) {
+            throw new IllegalArgumentException("Bit pixels not supported");
+        }
+        this.out = out;
+        this.sizeX = sizeX;
+        this.sizeY = sizeY;
+        this.planeCount = planeCount;
+        this.pixelType = pixelType;
+        this.bigTiff = bigTiff;
+        byte[] xmlBytes = xml.getBytes(UTF_8);
+        description = new byte[xmlBytes.length + 1];
+        System.arraycopy(xmlBytes, 0, description, 0, xmlBytes.length);
+        planeBytes = (long) sizeX * sizeY
+                * FormatTools.getBytesPerPixel(pixelType);
+        firstIfd = align(headerSize() + description.length);
+        long len = firstIfd;
+        for (int i = 0; i < planeCount; i++) {
+            len = align(len + ifdSize(i) + planeBytes);
+        }
+        length = len;
+        if (!bigTiff && length > 0xFFFFFFFFL) {
+            throw new IllegalArgumentException(
+                    "Too large for a TIFF file, use a BigTIFF file");
+        }
+    }
+
+    /**
+     * @return the length of the file.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Writes the next plane, preceded by the header if it is the first.
+     *
+     * @param plane The big-endian pixels of the plane.
+     * @throws IOException If the output cannot be written to.
+     */
+    public void writePlane(byte[] plane) throws IOException {
+        if (written == planeCount) {
+            throw new IllegalStateException("All planes written");
+        }
+        if (plane.length < planeBytes) {
+            throw new IllegalArgumentException("Expected " + planeBytes
+                    + " bytes, got " + plane.length);
+        }
+        if (written == 0) {
+            writeHeader();
+        }
+        writeIfd(written);
+        out.write(plane, 0, (int) planeBytes);
+        pos += planeBytes;
+        pad();
+        written++;
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(headerSize());
+        b.put((byte) 'M').put((byte) 'M');
+        if (bigTiff) {
+            b.putShort((short) 43).putShort((short) 8).putShort((short) 0);
+            b.putLong(firstIfd);
+        } else {
+            b.putShort((short) 42).putInt((int) firstIfd);
+        }
+        write(b);
+        out.write(description);
+        pos += description.length;
+        pad();
+    }
+
+    private void writeIfd(int i) throws IOException {
+        int entries = i == 0 ? ENTRIES + 1 : ENTRIES;
+        long ifdPos = pos;
+        long dataPos = ifdPos + ifdSize(i);
+        long next = align(dataPos + planeBytes);
+        if (i == planeCount - 1) {
+            next = 0;
+        }
+        ByteBuffer b = ByteBuffer.allocate((int) ifdSize(i));
+        if (bigTiff) {
+            b.putLong(entries);
+        } else {
+            b.putShort((short) entries);
+        }
+        int bits = FormatTools.getBytesPerPixel(pixelType) * 8;
+        entry(b, 256, LONG, sizeX);
+        entry(b, 257, LONG, sizeY);
+        entry(b, 258, SHORT, bits);
+        entry(b, 259, SHORT, 1); // no compression
+        entry(b, 262, SHORT, 1); // black is zero
+        if (i == 0) {
+            descriptionEntry(b);
+        }
+        entry(b, 273, bigTiff ? LONG8 : LONG, dataPos);
+        entry(b, 277, SHORT, 1);
+        entry(b, 278, LONG, sizeY);
+        entry(b, 279, bigTiff ? LONG8 : LONG, planeBytes);
+        entry(b, 284, SHORT, 1); // chunky
+        entry(b, 339, SHORT, sampleFormat());
+        if (bigTiff) {
+            b.putLong(next);
+        } else {
+            b.putInt((int) next);
+        }
+        write(b);
+    }
+
+    /** Writes a single valued entry, the value left-justified. */
+    private void entry(ByteBuffer b, int tag, int type, long value) {
+        b.putShort((short) tag).putShort((short) type);
+        putCount(b, 1);
+        int valuePos = b.position();
+        switch (type) {
+        case SHORT:
+            b.putShort((short) value);
+            break;
+        case LONG:
+            b.putInt((int) value);
+            break;
+        default:
+            b.putLong(value);
+        }
+        b.position(valuePos + valueSize());
+    }
+
+    private void descriptionEntry(ByteBuffer b) {
+        b.putShort((short) 270).putShort((short) ASCII);
+        putCount(b, description.length);
+        int valuePos = b.position();
+        if (description.length <= valueSize()) {
+            b.put(description);
+        } else if (bigTiff) {
+            b.putLong(headerSize());
+        } else {
+            b.putInt(headerSize());
+        }
+        b.position(valuePos + valueSize());
+    }
+
+    private void putCount(ByteBuffer b, long count) {
+        if (bigTiff) {
+            b.putLong(count);
+        } else {
+            b.putInt((int) count);
+        }
+    }
+
+    private int sampleFormat() {
+        if (FormatTools.isFloatingPoint(pixelType)) {
+            return 3;
+        }
+        return FormatTools.isSigned(pixelType) ? 2 : 1;
+    }
+
+    private void write(ByteBuffer b) throws IOException {
+        out.write(b.array(), 0, b.position());
+        pos += b.position();
+    }
+
+    /** Pads to a word boundary, where IFDs must start. */
+    private void pad() throws IOException {
+        if ((pos & 1) != 0) {
+            out.write(0);
+            pos++;
+        }
+    }
+
+    private int headerSize() {
+        return bigTiff ? 16 : 8;
+    }
+
+    private int valueSize() {
+        return bigTiff ? 8 : 4;
+    }
+
+    private long ifdSize(int i) {
+        int entries = i == 0 ? ENTRIES + 1 : ENTRIES;
+        return bigTiff ? 8 + 20 * entries + 8 : 2 + 12 * entries + 4;
+    }
+
+    private static long align(long pos) {
+        return (pos + 1) & ~1L;
+    }
+
+}
@@ -62,6 +62,8 @@ import omero.api.ISharePrx;
 import omero.api.ISharePrxHelper;
 import omero.api.ITimelinePrx;
 import omero.api.ITimelinePrxHelper;
+import omero.api.ITileRenderingPrx;
+import omero.api.ITileRenderingPrxHelper;
 import omero.api.ITypesPrx;
 import omero.api.ITypesPrxHelper;
 import omero.api.IUpdatePrx;
@@ -105,6 +107,7 @@ import omero.constants.SESSIONSERVICE;
 import omero.constants.SHAREDRESOURCES;
 import omero.constants.SHARESERVICE;
 import omero.constants.THUMBNAILSTORE;
+import omero.constants.TILERENDERINGSERVICE;
 import omero.constants.TIMELINESERVICE;
 import omero.constants.TYPESSERVICE;
 import omero.constants.UPDATESERVICE;
@@ -336,6 +339,12 @@ public final class ServiceFactoryI extends omero.cmd.SessionI implements _Servic
                 TIMELINESERVICE.value, current));
     }
 
+    public ITileRenderingPrx getTileRenderingService(Ice.Current current)
+            throws ServerError {
+        return ITileRenderingPrxHelper.uncheckedCast(getByName(
+                TILERENDERINGSERVICE.value, current));
+    }
+
     public ITypesPrx getTypesService(Ice.Current current) throws ServerError {
         return ITypesPrxHelper.uncheckedCast(getByName(TYPESSERVICE.value,
                 current));
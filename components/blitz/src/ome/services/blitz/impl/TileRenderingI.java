@@ -0,0 +1,66 @@
+/*
+ *   Copyright 2017 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.blitz.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import Ice.Current;
+import ome.api.ServiceInterface;
+import ome.services.blitz.util.BlitzExecutor;
+import ome.services.blitz.util.BlitzOnly;
+import omeis.providers.re.data.RegionDef;
+import omero.ApiUsageException;
+import omero.RLong;
+import omero.ServerError;
+import omero.api.AMD_ITileRendering_renderCompressedTiles;
+import omero.api._ITileRenderingOperations;
+import omero.util.IceMapper;
+
+/**
+ * Implementation of the ITileRendering service.
+ *
+ * @since 5.3.0
+ * @see ome.api.ITileRendering
+ */
+public class TileRenderingI
+    extends AbstractAmdServant implements _ITileRenderingOperations, BlitzOnly
+{
+
+    public TileRenderingI(ServiceInterface service, BlitzExecutor be)
+    {
+        super(service, be);
+    }
+
+    public void renderCompressedTiles_async(
+            AMD_ITileRendering_renderCompressedTiles __cb, long pixelsId,
+            RLong renderingDefId, int resolutionLevel, int z, int t,
+            List<omero.romio.RegionDef> regions, float quality,
+            Current __current) throws ServerError
+    {
+        // The regions are not model objects so are converted here and the
+        // compressed tiles are returned as they are.
+        List<RegionDef> converted = null;
+        if (regions != null)
+        {
+            converted = new ArrayList<RegionDef>(regions.size());
+            for (omero.romio.RegionDef r : regions)
+            {
+                if (r == null)
+                {
+                    throw new ApiUsageException(null, null,
+                            "regions cannot contain null.");
+                }
+                converted.add(new RegionDef(r.x, r.y, r.width, r.height));
+            }
+        }
+        Long settingsId =
+            renderingDefId == null? null : renderingDefId.getValue();
+        IceMapper mapper = new IceMapper(IceMapper.UNMAPPED);
+        callInvokerOnMappedArgs(mapper, __cb, __current, pixelsId, settingsId,
+                resolutionLevel, z, t, converted, quality);
+    }
+}
@@ -13,9 +13,13 @@ import java.io.IOException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import ome.conditions.ApiUsageException;
@@ -230,6 +234,15 @@ public class GeomTool {
         return sp;
     }
 
+    /**
+     * Calculates the statistics of each shape over its {@link ShapeSpans}.
+     * Points which a shape produces more than once are only counted once,
+     * and points outside of the image are ignored, so that
+     * <code>pointsCount</code> is the number of distinct pixels covered.
+     *
+     * @param shapeIds the shapes to calculate statistics for
+     * @return the statistics or <code>null</code> if no ids are given
+     */
     public RoiStats getStats(List<Long> shapeIds) {
 
         if (shapeIds == null) {
@@ -239,41 +252,33 @@ public class GeomTool {
         final Session session = factory.getSession();
         final RoiStats rs = new RoiStats();
         rs.perShape = new ShapeStats[shapeIds.size()];
+        if (shapeIds.isEmpty()) {
+            return rs; // EARLY EXIT
+        }
+
+        final Map<Long, ome.model.roi.Shape> shapes = loadStatsShapes(
+                shapeIds, session);
+        final List<StatsTask> tasks = new ArrayList<StatsTask>();
 
         for (int i = 0; i < shapeIds.size(); i++) {
 
             final long shapeId = shapeIds.get(i);
-
-            final ome.model.roi.Shape shape = (ome.model.roi.Shape) session
-                    .createQuery(
-                            "select s from Shape s "
-                                    + "left outer join fetch s.channels selected " // optional
-                                    + "join fetch s.roi r join fetch r.image i "
-                                    + "join fetch i.pixels p join fetch p.channels c "
-                                    + "join fetch c.logicalChannel lc "
-                                    + "where s.id = :id").setParameter("id",
-                            shapeId).uniqueResult();
-            final SmartShape smartShape = (SmartShape) new ShapeMapper()
-                    .map(shape);
+            final ome.model.roi.Shape shape = shapes.get(shapeId);
+            if (shape == null) {
+                throw new ApiUsageException("Unknown shape: " + shapeId);
+            }
 
             final ome.model.roi.Roi roi = shape.getRoi();
             final ome.model.core.Image img = roi.getImage();
             final ome.model.core.Pixels pix = img.getPrimaryPixels();
 
-            final long roiId = roi.getId();
-            final long imgId = img.getId();
-            final long pixId = pix.getId();
-
-            final int maxZ = pix.getSizeZ();
-            final int maxT = pix.getSizeT();
-
             // We only take the values for the first Shape. If this call is
             // being made with different shapes, then the user will know as
             // much.
             if (rs.combined == null) {
-                rs.roiId = roiId;
-                rs.imageId = imgId;
-                rs.pixelsId = pixId;
+                rs.roiId = roi.getId();
+                rs.imageId = img.getId();
+                rs.pixelsId = pix.getId();
 
                 int ch = pix.sizeOfChannels();
                 rs.combined = makeStats(ch);
@@ -284,70 +289,67 @@ public class GeomTool {
                             .getLogicalChannel().getId();
                 }
             }
+
             final ShapeStats stats = makeStats(pix, shape);
             stats.shapeId = shape.getId();
+            rs.perShape[i] = stats;
+            tasks.add(new StatsTask(shape, pix, stats));
+        }
 
-            final int ch = stats.channelIds.length;
-            final double[] sumOfSquares = new double[ch];
-
-            final Integer theZ = shape.getTheZ(); // May be null
-            final Integer theT = shape.getTheT(); // May be null
-
-            final int startZ = (theZ == null) ? 0 : theZ.intValue();
-            final int startT = (theT == null) ? 0 : theT.intValue();
-
-            final int endZ = (theZ == null) ? (maxZ - 1) : theZ.intValue();
-            final int endT = (theT == null) ? (maxT - 1) : theT.intValue();
-
-            final PixelBuffer buf = data.getBuffer(pixId);
-            try {
-                SmartShape.PointCallback cb = new SmartShape.PointCallback() {
-
-                    public void handle(int x, int y) {
-
-                        for (int w = 0; w < ch; w++) {
-
-                            for (int z = startZ; z <= endZ; z++) {
-                                for (int t = startT; t <= endT; t++) {
-
-                                    // WHAT TO DO ABOUT THE CHANNELS IN AGGREGATION?
-                                    stats.pointsCount[w]++;
-                                    double value = data.get(buf, x, y, z, w, t);
-                                    stats.min[w] = Math.min(value, stats.min[w]);
-                                    stats.max[w] = Math.max(value, stats.max[w]);
-                                    stats.sum[w] += value;
-                                    sumOfSquares[w] += value * value;
+        // Buffers must be opened on this thread since the pixels lookup
+        // requires the current session. Each worker gets its own buffers.
+        final int workers = (ex == null) ? 1 : Math.min(tasks.size(),
+                Runtime.getRuntime().availableProcessors());
+        final List<Map<Long, PixelBuffer>> buffers =
+                new ArrayList<Map<Long, PixelBuffer>>();
+        try {
+            for (int w = 0; w < workers; w++) {
+                final Map<Long, PixelBuffer> byPixels =
+                        new HashMap<Long, PixelBuffer>();
+                buffers.add(byPixels);
+                for (int i = w; i < tasks.size(); i += workers) {
+                    final long pixId = tasks.get(i).pixelsId;
+                    if (!byPixels.containsKey(pixId)) {
+                        byPixels.put(pixId, data.getBuffer(pixId));
+                    }
+                }
+            }
 
-                                }
+            if (workers == 1) {
+                for (StatsTask task : tasks) {
+                    task.run(buffers.get(0).get(task.pixelsId));
+                }
+            } else {
+                final List<Future<Object>> futures =
+                        new ArrayList<Future<Object>>();
+                for (int w = 0; w < workers; w++) {
+                    final int worker = w;
+                    final Map<Long, PixelBuffer> byPixels = buffers.get(w);
+                    futures.add(ex.submit(new Callable<Object>() {
+                        public Object call() throws Exception {
+                            for (int i = worker; i < tasks.size();
+                                    i += workers) {
+                                StatsTask task = tasks.get(i);
+                                task.run(byPixels.get(task.pixelsId));
                             }
-
+                            return null;
                         }
-                    }
-                };
-
-                smartShape.areaPoints(cb);
-            } finally {
-                try {
-                    buf.close();
-                } catch (IOException e) {
-                    log.error("Error closing " + buf, e);
+                    }));
+                }
+                for (Future<Object> future : futures) {
+                    ex.get(future);
                 }
             }
-
-            for (int w = 0; w < ch; w++) {
-
-                stats.mean[w] = stats.sum[w] / stats.pointsCount[w];
-                if (stats.pointsCount[w] > 1) {
-                    double sigmaSquare = (sumOfSquares[w] - stats.sum[w]
-                            * stats.sum[w] / stats.pointsCount[w])
-                            / (stats.pointsCount[w] - 1);
-                    if (sigmaSquare > 0) {
-                        stats.stdDev[w] = Math.sqrt(sigmaSquare);
+        } finally {
+            for (Map<Long, PixelBuffer> byPixels : buffers) {
+                for (PixelBuffer buf : byPixels.values()) {
+                    try {
+                        buf.close();
+                    } catch (IOException e) {
+                        log.error("Error closing " + buf, e);
                     }
                 }
             }
-
-            rs.perShape[i] = stats;
         }
 
         return rs;
@@ -430,6 +432,85 @@ public class GeomTool {
         return ss;
     }
 
+    /**
+     * Loads all the shapes needed by {@link #getStats(List)} along with their
+     * pixels and channels in a single query.
+     */
+    @SuppressWarnings("unchecked")
+    private Map<Long, ome.model.roi.Shape> loadStatsShapes(
+            List<Long> shapeIds, Session session) {
+        final List<ome.model.roi.Shape> list = session
+                .createQuery(
+                        "select distinct s from Shape s "
+                                + "join fetch s.roi r join fetch r.image i "
+                                + "join fetch i.pixels p join fetch p.channels c "
+                                + "join fetch c.logicalChannel lc "
+                                + "where s.id in (:ids)")
+                .setParameterList("ids", new HashSet<Long>(shapeIds)).list();
+        final Map<Long, ome.model.roi.Shape> shapes =
+                new HashMap<Long, ome.model.roi.Shape>();
+        for (ome.model.roi.Shape shape : list) {
+            shapes.put(shape.getId(), shape);
+        }
+        return shapes;
+    }
+
+    /**
+     * Work for a single shape of {@link #getStats(List)}. Everything needed
+     * from Hibernate is copied out in the constructor so that {@link #run}
+     * can be called from a background thread.
+     */
+    private class StatsTask {
+
+        final long pixelsId;
+
+        final SmartShape smartShape;
+
+        final ShapeStats stats;
+
+        final int sizeX, sizeY;
+
+        final int startZ, endZ, startT, endT;
+
+        /** Channel index within the pixels for each entry of the stats. */
+        final int[] channels;
+
+        StatsTask(ome.model.roi.Shape shape, Pixels pix, ShapeStats stats) {
+            this.pixelsId = pix.getId();
+            this.smartShape = (SmartShape) new ShapeMapper().map(shape);
+            this.stats = stats;
+            this.sizeX = pix.getSizeX();
+            this.sizeY = pix.getSizeY();
+
+            final Integer theZ = shape.getTheZ(); // May be null
+            final Integer theT = shape.getTheT(); // May be null
+            final Integer theC = shape.getTheC(); // May be null
+
+            startZ = (theZ == null) ? 0 : theZ.intValue();
+            startT = (theT == null) ? 0 : theT.intValue();
+            endZ = (theZ == null) ? (pix.getSizeZ() - 1) : theZ.intValue();
+            endT = (theT == null) ? (pix.getSizeT() - 1) : theT.intValue();
+
+            channels = new int[stats.channelIds.length];
+            for (int w = 0; w < channels.length; w++) {
+                channels[w] = (theC == null) ? w : theC.intValue();
+            }
+        }
+
+        void run(PixelBuffer buf) {
+            final ShapeSpans spans = ShapeSpans.of(smartShape, sizeX, sizeY);
+            final ScanlineStats scan = new ScanlineStats(data, stats);
+            for (int w = 0; w < channels.length; w++) {
+                for (int z = startZ; z <= endZ; z++) {
+                    for (int t = startT; t <= endT; t++) {
+                        scan.accumulate(buf, spans, z, channels[w], t, w);
+                    }
+                }
+            }
+            scan.finish();
+        }
+    }
+
     private static class ShapeMapper extends IceMapper {
 
         boolean called = false;
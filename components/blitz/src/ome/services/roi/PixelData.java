@@ -43,20 +43,31 @@ public class PixelData {
     }
 
     public double get(PixelBuffer buf, int x, int y, int z, int c, int t) {
-        ome.util.PixelData pd = null;
+        ome.util.PixelData pd = getRow(buf, y, z, c, t);
         try {
-            pd = buf.getRow(y, z, c, t);
             return pd.getPixelValue(x);
+        } catch (IndexOutOfBoundsException iobe) {
+            throw new ValidationException("IndexOutOfBounds: " + iobe);
+        } finally {
+            pd.dispose();
+        }
+    }
+
+    /**
+     * Loads a single row so that callers which need more than one point of
+     * the same row, e.g. {@link ScanlineStats}, need only read it once. The
+     * caller is responsible for calling {@link ome.util.PixelData#dispose()}.
+     */
+    public ome.util.PixelData getRow(PixelBuffer buf, int y, int z, int c,
+            int t) {
+        try {
+            return buf.getRow(y, z, c, t);
         } catch (IOException e) {
             throw new ResourceError("IOException: " + e);
         } catch (DimensionsOutOfBoundsException e) {
             throw new ApiUsageException("DimensionsOutOfBounds: " + e);
         } catch (IndexOutOfBoundsException iobe) {
             throw new ValidationException("IndexOutOfBounds: " + iobe);
-        } finally {
-            if (pd != null) {
-                pd.dispose();
-            }
         }
     }
 
@@ -0,0 +1,135 @@
+/*
+ *   Copyright 2017 Glencoe Software, Inc. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.roi;
+
+import java.nio.ByteBuffer;
+
+import ome.io.nio.PixelBuffer;
+import omero.api.ShapeStats;
+
+/**
+ * Accumulates {@link ShapeStats} over the {@link ShapeSpans} of a shape.
+ * Each row touched by the shape is read once per plane and all spans on that
+ * row are summed from the same buffer. Running values are kept in primitive
+ * arrays indexed by the channel position within the {@link ShapeStats}.
+ *
+ * @since 5.3.0
+ */
+public class ScanlineStats {
+
+    private final PixelData data;
+
+    private final ShapeStats stats;
+
+    private final double[] sumOfSquares;
+
+    public ScanlineStats(PixelData data, ShapeStats stats) {
+        this.data = data;
+        this.stats = stats;
+        this.sumOfSquares = new double[stats.channelIds.length];
+    }
+
+    /**
+     * Adds the values of all points in the spans for a single plane.
+     *
+     * @param buf the buffer to read rows from
+     * @param spans the rasterised shape
+     * @param z the z-section
+     * @param c the channel index within the pixels
+     * @param t the timepoint
+     * @param w the index within the {@link ShapeStats} arrays to update
+     */
+    public void accumulate(PixelBuffer buf, ShapeSpans spans, int z, int c,
+            int t, int w) {
+        ome.util.PixelData row = null;
+        int currentY = -1;
+        try {
+            for (int i = 0; i < spans.size(); i++) {
+                final int y = spans.row(i);
+                if (row == null || y != currentY) {
+                    if (row != null) {
+                        row.dispose();
+                    }
+                    row = data.getRow(buf, y, z, c, t);
+                    currentY = y;
+                }
+                span(row, spans.start(i), spans.end(i), w);
+            }
+        } finally {
+            if (row != null) {
+                row.dispose();
+            }
+        }
+    }
+
+    /**
+     * Calculates the mean and standard deviation from the accumulated values.
+     *
+     * @return the {@link ShapeStats} passed to the constructor
+     */
+    public ShapeStats finish() {
+        for (int w = 0; w < sumOfSquares.length; w++) {
+            stats.mean[w] = stats.sum[w] / stats.pointsCount[w];
+            if (stats.pointsCount[w] > 1) {
+                double sigmaSquare = (sumOfSquares[w] - stats.sum[w]
+                        * stats.sum[w] / stats.pointsCount[w])
+                        / (stats.pointsCount[w] - 1);
+                if (sigmaSquare > 0) {
+                    stats.stdDev[w] = Math.sqrt(sigmaSquare);
+                }
+            }
+        }
+        return stats;
+    }
+
+    private void span(ome.util.PixelData row, int from, int to, int w) {
+        double min = stats.min[w];
+        double max = stats.max[w];
+        double sum = stats.sum[w];
+        double sq = sumOfSquares[w];
+        final ByteBuffer b = row.getData();
+        final int type = row.javaType();
+        if (type == ome.util.PixelData.BYTE && !row.isSigned()) {
+            for (int x = from; x < to; x++) {
+                final double v = b.get(x) & 0xFF;
+                min = v < min ? v : min;
+                max = v > max ? v : max;
+                sum += v;
+                sq += v * v;
+            }
+        } else if (type == ome.util.PixelData.SHORT && !row.isSigned()) {
+            for (int x = from; x < to; x++) {
+                final double v = b.getShort(x << 1) & 0xFFFF;
+                min = v < min ? v : min;
+                max = v > max ? v : max;
+                sum += v;
+                sq += v * v;
+            }
+        } else if (type == ome.util.PixelData.SHORT) {
+            for (int x = from; x < to; x++) {
+                final double v = b.getShort(x << 1);
+                min = v < min ? v : min;
+                max = v > max ? v : max;
+                sum += v;
+                sq += v * v;
+            }
+        } else {
+            for (int x = from; x < to; x++) {
+                final double v = row.getPixelValue(x);
+                min = v < min ? v : min;
+                max = v > max ? v : max;
+                sum += v;
+                sq += v * v;
+            }
+        }
+        stats.min[w] = min;
+        stats.max[w] = max;
+        stats.sum[w] = sum;
+        sumOfSquares[w] = sq;
+        stats.pointsCount[w] += to - from;
+    }
+
+}
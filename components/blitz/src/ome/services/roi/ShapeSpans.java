@@ -0,0 +1,155 @@
+/*
+ *   Copyright 2017 Glencoe Software, Inc. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.roi;
+
+import java.awt.Shape;
+import java.util.Arrays;
+
+import omero.model.SmartShape;
+
+/**
+ * Scanline representation of the points contained in a {@link SmartShape}.
+ * The points passed to {@link #handle(int, int)} are collected without
+ * boxing and, once {@link #build(int, int)} is called, are collapsed into
+ * horizontal runs so that consumers can process a whole row of a shape at
+ * once rather than point by point.
+ *
+ * @since 5.3.0
+ */
+public class ShapeSpans implements SmartShape.PointCallback {
+
+    /**
+     * Points packed as <code>(y &lt;&lt; 32) | x</code> with the sign bit of
+     * x flipped so that sorting the longs orders the points by row and then
+     * by column.
+     */
+    private long[] packed = new long[64];
+
+    private int count = 0;
+
+    private int[] rows;
+
+    private int[] starts;
+
+    private int[] ends;
+
+    private int spans = 0;
+
+    private long points = 0;
+
+    /**
+     * Rasterises the given shape. Shapes which do not support
+     * {@link SmartShape#areaPoints(SmartShape.PointCallback)} are
+     * rasterised from their {@link SmartShape#asAwtShape() AWT shape} using
+     * the same test as the other area shapes.
+     *
+     * @param shape the shape to rasterise
+     * @param sizeX the width of the image, spans are clipped to it
+     * @param sizeY the height of the image, spans are clipped to it
+     * @return the built spans
+     */
+    public static ShapeSpans of(SmartShape shape, int sizeX, int sizeY) {
+        ShapeSpans spans = new ShapeSpans();
+        try {
+            shape.areaPoints(spans);
+        } catch (UnsupportedOperationException uoe) {
+            Shape awt = shape.asAwtShape();
+            if (awt != null) {
+                SmartShape.Util.pointsByBoundingBox(awt, awt.getBounds2D(),
+                        spans);
+            }
+        }
+        spans.build(sizeX, sizeY);
+        return spans;
+    }
+
+    public void handle(int x, int y) {
+        if (count == packed.length) {
+            packed = Arrays.copyOf(packed, count * 2);
+        }
+        packed[count++] = ((long) y << 32) | ((x ^ 0x80000000) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Sorts the collected points and merges them into spans. Duplicate
+     * points are counted once and points outside of
+     * <code>[0, sizeX) x [0, sizeY)</code> are dropped.
+     *
+     * @param sizeX the width of the image
+     * @param sizeY the height of the image
+     */
+    public void build(int sizeX, int sizeY) {
+        Arrays.sort(packed, 0, count);
+        rows = new int[Math.max(1, count)];
+        starts = new int[rows.length];
+        ends = new int[rows.length];
+        spans = 0;
+        points = 0;
+        long last = 0;
+        for (int i = 0; i < count; i++) {
+            final long p = packed[i];
+            if (i > 0 && p == last) {
+                continue;
+            }
+            last = p;
+            final int y = (int) (p >> 32);
+            final int x = ((int) p) ^ 0x80000000;
+            if (x < 0 || y < 0 || x >= sizeX || y >= sizeY) {
+                continue;
+            }
+            points++;
+            if (spans > 0 && rows[spans - 1] == y && ends[spans - 1] == x) {
+                ends[spans - 1] = x + 1;
+            } else {
+                rows[spans] = y;
+                starts[spans] = x;
+                ends[spans] = x + 1;
+                spans++;
+            }
+        }
+        packed = null; // No longer needed.
+        count = 0;
+    }
+
+    /**
+     * @return the number of spans, each of which lies on a single row.
+     */
+    public int size() {
+        return spans;
+    }
+
+    /**
+     * @return the number of distinct points covered by all spans.
+     */
+    public long points() {
+        return points;
+    }
+
+    /**
+     * @param i index of the span
+     * @return the row (y) of the span
+     */
+    public int row(int i) {
+        return rows[i];
+    }
+
+    /**
+     * @param i index of the span
+     * @return the first column (x) of the span, inclusive
+     */
+    public int start(int i) {
+        return starts[i];
+    }
+
+    /**
+     * @param i index of the span
+     * @return the last column (x) of the span, exclusive
+     */
+    public int end(int i) {
+        return ends[i];
+    }
+
+}
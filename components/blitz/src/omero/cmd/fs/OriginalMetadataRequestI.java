@@ -132,14 +132,23 @@ public class OriginalMetadataRequestI extends OriginalMetadataRequest implements
 			final Image image = helper.getServiceFactory().getQueryService().get(Image.class, imageId);
 			final Pixels pixels = image.getPrimaryPixels();
 
+			IFormatReader reader = null;
 			try {
-				final IFormatReader reader = pixelsService.getBfReader(pixels);
+				reader = pixelsService.getBfReader(pixels);
 				final Hashtable<String, Object> global = reader.getGlobalMetadata();
 				final Hashtable<String, Object> series = reader.getSeriesMetadata();
 				rsp.globalMetadata = wrap(global);
 				rsp.seriesMetadata = wrap(series);
 			} catch (Throwable t) {
 				helper.cancel(new ERR(), t, "bf-reader-failure", "pixels", ""+pixels.getId());
+			} finally {
+				if (reader != null) {
+					try {
+						pixelsService.releaseBfReader(pixels, reader);
+					} catch (IOException e) {
+						helper.warn("failed to release reader: %s", e);
+					}
+				}
 			}
 		}
 	}
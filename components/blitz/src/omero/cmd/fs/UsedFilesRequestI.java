@@ -74,6 +74,7 @@ public class UsedFilesRequestI extends UsedFilesRequest implements IRequest {
     private Session session;
     private Long filesetId;
     private Long pixelsId;
+    private Pixels pixels;
     private IFormatReader reader;
 
     /**
@@ -120,7 +121,7 @@ public class UsedFilesRequestI extends UsedFilesRequest implements IRequest {
     public void finish() {
         if (reader != null) {
             try {
-                reader.close();
+                pixelsService.releaseBfReader(pixels, reader);
             } catch (IOException e) {
                 throw helper.cancel(new ERR(), e, "used-files-fail");
             } finally {
@@ -131,7 +132,16 @@ public class UsedFilesRequestI extends UsedFilesRequest implements IRequest {
 
     @Override
     protected void finalize() {
-        finish();
+        /* without a session the reader cannot be returned to the pool */
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                /* nothing more to do */
+            } finally {
+                reader = null;
+            }
+        }
     }
 
     @Override
@@ -188,7 +198,7 @@ public class UsedFilesRequestI extends UsedFilesRequest implements IRequest {
             final Exception e = new IllegalArgumentException("no pixels for image " + imageId);
             throw helper.cancel(new ERR(), e, "bad-image");
         }
-        final Pixels pixels = image.getPrimaryPixels();
+        pixels = image.getPrimaryPixels();
         pixelsId = pixels.getId();
         if (filesetId != null) {
             reader = pixelsService.getBfReader(pixels);
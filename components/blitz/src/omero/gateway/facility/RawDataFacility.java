@@ -20,6 +20,7 @@
  */
 package omero.gateway.facility;
 
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
@@ -32,6 +33,8 @@ import omero.gateway.exception.DSOutOfServiceException;
 import omero.gateway.exception.DataSourceException;
 import omero.gateway.rnd.DataSink;
 import omero.gateway.rnd.Plane2D;
+import omero.gateway.rnd.TileDef;
+import omero.gateway.rnd.TileIterator;
 import omero.gateway.model.PixelsData;
 import omero.romio.PlaneDef;
 
@@ -273,6 +276,38 @@ public class RawDataFacility extends Facility {
         return data;
     }
 
+    /**
+     * Reads tiles of the pixels set in the given order, keeping several
+     * requests in flight so that the tiles are read ahead of the caller.
+     * Use {@link TileDef#raster(int, int, int, int, int, int, int)} to
+     * declare the tiles of a plane in raster order. The returned iterator
+     * must be closed if not read to the end.
+     *
+     * @param ctx
+     *            The security context.
+     * @param pixels
+     *            The {@link PixelsData} object to fetch the data from.
+     * @param tiles
+     *            The tiles to read, in order.
+     * @param maxRequests
+     *            The maximum number of requests in flight.
+     * @param maxBytes
+     *            The maximum number of bytes of the tiles read ahead.
+     * @return See above.
+     * @throws DataSourceException
+     *             If an error occurs while requesting the first tiles.
+     */
+    public TileIterator getTiles(SecurityContext ctx, PixelsData pixels,
+            List<TileDef> tiles, int maxRequests, long maxBytes)
+            throws DataSourceException {
+        try {
+            DataSink ds = RawDataFacility.getDataSink(pixels, gateway);
+            return ds.iterateTiles(ctx, tiles, maxRequests, maxBytes);
+        } catch (ExecutionException e) {
+            throw new DataSourceException("Can't initiate DataSink", e);
+        }
+    }
+
     /**
      * Retrieves a data sink corresponding the pixels.
      *
@@ -20,6 +20,8 @@
  */
 package omero.gateway.rnd;
 
+import java.nio.ByteBuffer;
+
 import omero.util.ReadOnlyByteArray;
 
 /** 
@@ -71,4 +73,22 @@ abstract class BytesConverter
      */
     public abstract double pack(ReadOnlyByteArray data, int offset, int length);
 
+    /**
+     * Converts a sequence of bytes of a big-endian buffer, representing a
+     * pixel value, into a <code>double</code>. Subclasses read the values of
+     * the lengths they know of in one go, other lengths are converted byte
+     * by byte by {@link #pack(ReadOnlyByteArray, int, int)}.
+     *
+     * @param data The buffer containing the bytes to convert. Must be backed
+     *             by an accessible array.
+     * @param offset The position of the first byte making up the pixel value.
+     * @param length The number of bytes that make up the pixel value.
+     * @return The numeric value.
+     */
+    public double pack(ByteBuffer data, int offset, int length)
+    {
+        return pack(new ReadOnlyByteArray(data.array(), data.arrayOffset(),
+                data.capacity()), offset, length);
+    }
+
 }
@@ -20,12 +20,13 @@
  */
 package omero.gateway.rnd;
 
+import java.util.List;
+
 import omero.api.RawPixelsStorePrx;
 import omero.gateway.Gateway;
 import omero.gateway.SecurityContext;
 import omero.gateway.cache.CacheService;
 import omero.gateway.exception.DataSourceException;
-import omero.util.ReadOnlyByteArray;
 import omero.gateway.model.PixelsData;
 
 /** 
@@ -94,8 +95,8 @@ public class DataSink
      * @param gw
      *            Reference to the {@link Gateway} Mustn't be <code>null</code>.
      * @param cacheSize
-     *            The size of the cache to use. (Make sure the {@link Gateway} provides
-     *            a {@link CacheService})
+     *            The size in bytes of the cache of planes to use. (Make sure
+     *            the {@link Gateway} provides a {@link CacheService})
      * @return See above.
      */
     public static DataSink makeNew(PixelsData source, Gateway gw, int cacheSize) {
@@ -140,7 +141,7 @@ public class DataSink
      *
      * @param source The pixels set.
      * @param context The container's registry.
-     * @param cacheSize The size of the cache.
+     * @param cacheSize The size in bytes of the cache of planes.
      */
     private DataSink(PixelsData source, Gateway gw, int cacheSize)
     {
@@ -153,10 +154,15 @@ public class DataSink
             if (gw.getCacheService() == null)
                 throw new IllegalArgumentException("No cache provided!");
 
-            int maxEntries =
-                    cacheSize/(source.getSizeX()*source.getSizeY()*bytesPerPixels);
-            cacheID = gw.getCacheService().createCache(
-                    CacheService.IN_MEMORY, maxEntries);
+            //Planes hold their raw data only so the number of planes
+            //fitting in the cache is known up front.
+            long planeSize = (long) source.getSizeX()*source.getSizeY()*
+                    bytesPerPixels;
+            int maxEntries = (int) Math.min(cacheSize/planeSize,
+                    Integer.MAX_VALUE);
+            if (maxEntries > 0)
+                cacheID = gw.getCacheService().createCache(
+                        CacheService.IN_MEMORY, maxEntries);
         }
 
         strategy = BytesConverter.getConverter(type);
@@ -247,8 +253,7 @@ public class DataSink
                 store = null;
             }
         }
-        ReadOnlyByteArray array = new ReadOnlyByteArray(data, 0, data.length);
-        plane = new Plane2D(array, source.getSizeX(), source.getSizeY(), 
+        plane = new Plane2D(data, source.getSizeX(), source.getSizeY(),
                 bytesPerPixels, strategy);
         if (cacheID >= 0)
             gw.getCacheService().addElement(cacheID, planeIndex, plane);
@@ -301,8 +306,47 @@ public class DataSink
                 store = null;
             }
         }
-        ReadOnlyByteArray array = new ReadOnlyByteArray(data, 0, data.length);
-        return new Plane2D(array, w, h, bytesPerPixels, strategy);
+        return new Plane2D(data, w, h, bytesPerPixels, strategy);
+    }
+
+    /**
+     * Reads tiles of the pixels set this object is working for in the
+     * given order, keeping several requests in flight. The returned
+     * iterator has its own pixels store and must be closed if not read to
+     * the end.
+     *
+     * @param ctx The security context.
+     * @param tiles The tiles to read, in order.
+     * @param maxRequests The maximum number of requests in flight.
+     * @param maxBytes The maximum number of bytes of the tiles requested
+     *                 but not handed back yet.
+     * @return See above.
+     * @throws DataSourceException If an error occurs while requesting the
+     *                             first tiles.
+     */
+    public TileIterator iterateTiles(SecurityContext ctx, List<TileDef> tiles,
+            int maxRequests, long maxBytes)
+                    throws DataSourceException
+    {
+        if (tiles == null)
+            throw new IllegalArgumentException("No tiles.");
+        if (maxRequests <= 0)
+            throw new IllegalArgumentException(
+                    "The number of requests must be positive.");
+        if (maxBytes <= 0)
+            throw new IllegalArgumentException(
+                    "The number of bytes must be positive.");
+        RawPixelsStorePrx tileStore = null;
+        try {
+            tileStore = gw.createPixelsStore(ctx);
+            tileStore.setPixelsId(source.getId(), false);
+        } catch (Exception e) {
+            if (tileStore != null)
+                gw.closeService(ctx, tileStore);
+            throw new DataSourceException("Cannot open the pixels store", e);
+        }
+        return new TileIterator(gw, ctx, tileStore, tiles, maxRequests,
+                maxBytes, bytesPerPixels, strategy);
     }
 
     /**
@@ -20,6 +20,8 @@
  */
 package omero.gateway.rnd;
 
+import java.nio.ByteBuffer;
+
 import omero.util.ReadOnlyByteArray;
 
 /** 
@@ -71,4 +73,14 @@ public class DoubleConverter
         return Double.longBitsToDouble(r);
     }
 
+    /**
+     * Overridden to read the value from the buffer in one go.
+     * @see BytesConverter#pack(ByteBuffer, int, int)
+     */
+    public double pack(ByteBuffer data, int offset, int length)
+    {
+        if (length == 8) return data.getDouble(offset);
+        return super.pack(data, offset, length);
+    }
+
 }
@@ -20,6 +20,8 @@
  */
 package omero.gateway.rnd;
 
+import java.nio.ByteBuffer;
+
 import omero.util.ReadOnlyByteArray;
 
 /** 
@@ -74,4 +76,14 @@ public class FloatConverter
         return Float.intBitsToFloat(r);
     }
 
+    /**
+     * Overridden to read the value from the buffer in one go.
+     * @see BytesConverter#pack(ByteBuffer, int, int)
+     */
+    public double pack(ByteBuffer data, int offset, int length)
+    {
+        if (length == 4) return data.getFloat(offset);
+        return super.pack(data, offset, length);
+    }
+
 }
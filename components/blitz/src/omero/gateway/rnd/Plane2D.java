@@ -20,10 +20,15 @@
  */
 package omero.gateway.rnd;
 
+import java.nio.ByteBuffer;
+
 import omero.util.ReadOnlyByteArray;
 
 /** 
  * Holds structure used to mapped the raw pixels data.
+ * The raw bytes are kept as they are and pixel values are only converted
+ * when read, so a plane takes as much memory as its raw data, whatever
+ * the pixel type.
  *
  * @author Jean-Marie Burel &nbsp;&nbsp;&nbsp;&nbsp;
  * <a href="mailto:j.burel@dundee.ac.uk">j.burel@dundee.ac.uk</a>
@@ -41,15 +46,15 @@ public class Plane2D
     /** The number of elements along the x-axis. */
     private int sizeX;
 
-    /** The original array. */
-    private ReadOnlyByteArray data;
+    /** The number of elements along the y-axis. */
+    private int sizeY;
+
+    /** The raw data, big-endian. */
+    private ByteBuffer data;
 
     /** Strategy used to transform original data. */
     private BytesConverter strategy;
 
-    /** The converted raw data. */
-    private double[][] mappedData;
-
     /** 
      * Determines the offset value.
      *
@@ -63,20 +68,17 @@ public class Plane2D
     }
 
     /**
-     * Converts the raw data.
+     * Copies the bytes of the passed array.
      *
-     * @param sizeY The number of pixels along the y-axis.
+     * @param data The array of byte.
+     * @return See above.
      */
-    private void mappedData(int sizeY)
+    private static byte[] copy(ReadOnlyByteArray data)
     {
-        mappedData = new double[sizeX][sizeY];
-        int offset;
-        for (int x = 0; x < sizeX; x++) {
-            for (int y = 0; y < sizeY; y++) {
-                offset = calculateOffset(x, y);
-                mappedData[x][y] = strategy.pack(data, offset, bytesPerPixel);
-            }
-        }
+        byte[] bytes = new byte[data.length];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = data.get(i);
+        return bytes;
     }
 
     /**
@@ -91,11 +93,30 @@ public class Plane2D
     public Plane2D(ReadOnlyByteArray data, int sizeX, int sizeY,
             int bytesPerPixel, BytesConverter strategy)
     {
+        this(copy(data), sizeX, sizeY, bytesPerPixel, strategy);
+    }
+
+    /**
+     * Creates a new instance wrapping the passed array, which must not be
+     * modified afterwards.
+     *
+     * @param data The big-endian raw data.
+     * @param sizeX The number of pixels along the x-axis.
+     * @param sizeY The number of pixels along the y-axis.
+     * @param bytesPerPixel The number of bytes per pixel.
+     * @param strategy Strategy to transform pixel.
+     */
+    public Plane2D(byte[] data, int sizeX, int sizeY, int bytesPerPixel,
+            BytesConverter strategy)
+    {
+        if (data.length < sizeX*sizeY*bytesPerPixel)
+            throw new IllegalArgumentException("Expected "+
+                    sizeX*sizeY*bytesPerPixel+" bytes, got "+data.length+".");
         this.bytesPerPixel = bytesPerPixel;
-        this.data = data;
+        this.data = ByteBuffer.wrap(data);
         this.strategy = strategy;
         this.sizeX = sizeX;
-        mappedData(sizeY);
+        this.sizeY = sizeY;
     }
 
     /**
@@ -108,7 +129,32 @@ public class Plane2D
      */
     public double getPixelValue(int x, int y)
     {
-        return mappedData[x][y];
+        if (x < 0 || sizeX <= x || y < 0 || sizeY <= y)
+            throw new ArrayIndexOutOfBoundsException(
+                    "("+x+", "+y+") not in ["+sizeX+", "+sizeY+").");
+        return strategy.pack(data, calculateOffset(x, y), bytesPerPixel);
+    }
+
+    /**
+     * Copies the values of a row of pixels into the passed array.
+     *
+     * @param y The y-coordinate of the row.
+     * @param values The array to copy the values into, of at least
+     *               {@link #getSizeX()} elements.
+     */
+    public void getRow(int y, double[] values)
+    {
+        if (y < 0 || sizeY <= y)
+            throw new ArrayIndexOutOfBoundsException(
+                    "y not in [0, "+sizeY+"): "+y+".");
+        if (values.length < sizeX)
+            throw new IllegalArgumentException(
+                    "Expected at least "+sizeX+" values.");
+        int offset = calculateOffset(0, y);
+        for (int x = 0; x < sizeX; x++) {
+            values[x] = strategy.pack(data, offset, bytesPerPixel);
+            offset += bytesPerPixel;
+        }
     }
 
     /**
@@ -121,4 +167,45 @@ public class Plane2D
     {
         return data.get(offset);
     }
+
+    /**
+     * Returns a read-only, big-endian view of the raw data, from which
+     * typed views may be obtained e.g. with
+     * {@link ByteBuffer#asShortBuffer()} for 16-bit pixels.
+     *
+     * @return See above.
+     */
+    public ByteBuffer getRawData()
+    {
+        return data.asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the number of pixels along the x-axis.
+     *
+     * @return See above.
+     */
+    public int getSizeX() { return sizeX; }
+
+    /**
+     * Returns the number of pixels along the y-axis.
+     *
+     * @return See above.
+     */
+    public int getSizeY() { return sizeY; }
+
+    /**
+     * Returns the number of bytes per pixel.
+     *
+     * @return See above.
+     */
+    public int getBytesPerPixel() { return bytesPerPixel; }
+
+    /**
+     * Returns the number of bytes of raw data held by this plane.
+     *
+     * @return See above.
+     */
+    public int getByteCount() { return data.capacity(); }
+
 }
@@ -0,0 +1,168 @@
+/*
+ *------------------------------------------------------------------------------
+ *  Copyright (C) 2017 University of Dundee. All rights reserved.
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ *------------------------------------------------------------------------------
+ */
+package omero.gateway.rnd;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Identifies a tile of a plane of a pixels set, to be read through a
+ * {@link TileIterator}.
+ *
+ * @since 5.3
+ */
+public class TileDef
+{
+
+    /** The z-section. */
+    private final int z;
+
+    /** The channel. */
+    private final int c;
+
+    /** The timepoint. */
+    private final int t;
+
+    /** The x-coordinate of the top-left corner of the tile. */
+    private final int x;
+
+    /** The y-coordinate of the top-left corner of the tile. */
+    private final int y;
+
+    /** The width of the tile. */
+    private final int width;
+
+    /** The height of the tile. */
+    private final int height;
+
+    /**
+     * Returns the tiles covering a plane, row by row from the top-left
+     * corner. The tiles of the last column and row are cropped to the
+     * plane.
+     *
+     * @param z The z-section.
+     * @param c The channel.
+     * @param t The timepoint.
+     * @param sizeX The number of pixels of the plane along the x-axis.
+     * @param sizeY The number of pixels of the plane along the y-axis.
+     * @param tileWidth The width of the tiles.
+     * @param tileHeight The height of the tiles.
+     * @return See above.
+     */
+    public static List<TileDef> raster(int z, int c, int t, int sizeX,
+            int sizeY, int tileWidth, int tileHeight)
+    {
+        if (tileWidth <= 0 || tileHeight <= 0)
+            throw new IllegalArgumentException("Tile size must be positive.");
+        List<TileDef> tiles = new ArrayList<TileDef>();
+        for (int y = 0; y < sizeY; y += tileHeight) {
+            for (int x = 0; x < sizeX; x += tileWidth) {
+                tiles.add(new TileDef(z, c, t, x, y,
+                        Math.min(tileWidth, sizeX-x),
+                        Math.min(tileHeight, sizeY-y)));
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param z The z-section.
+     * @param c The channel.
+     * @param t The timepoint.
+     * @param x The x-coordinate of the top-left corner of the tile.
+     * @param y The y-coordinate of the top-left corner of the tile.
+     * @param width The width of the tile.
+     * @param height The height of the tile.
+     */
+    public TileDef(int z, int c, int t, int x, int y, int width, int height)
+    {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Tile size must be positive.");
+        this.z = z;
+        this.c = c;
+        this.t = t;
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Returns the z-section.
+     *
+     * @return See above.
+     */
+    public int getZ() { return z; }
+
+    /**
+     * Returns the channel.
+     *
+     * @return See above.
+     */
+    public int getC() { return c; }
+
+    /**
+     * Returns the timepoint.
+     *
+     * @return See above.
+     */
+    public int getT() { return t; }
+
+    /**
+     * Returns the x-coordinate of the top-left corner of the tile.
+     *
+     * @return See above.
+     */
+    public int getX() { return x; }
+
+    /**
+     * Returns the y-coordinate of the top-left corner of the tile.
+     *
+     * @return See above.
+     */
+    public int getY() { return y; }
+
+    /**
+     * Returns the width of the tile.
+     *
+     * @return See above.
+     */
+    public int getWidth() { return width; }
+
+    /**
+     * Returns the height of the tile.
+     *
+     * @return See above.
+     */
+    public int getHeight() { return height; }
+
+    /**
+     * Overridden to return the coordinates of the tile.
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        return "("+z+", "+c+", "+t+", "+x+", "+y+", "+width+", "+height+")";
+    }
+
+}
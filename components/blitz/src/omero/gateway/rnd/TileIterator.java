@@ -0,0 +1,229 @@
+/*
+ *------------------------------------------------------------------------------
+ *  Copyright (C) 2017 University of Dundee. All rights reserved.
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ *------------------------------------------------------------------------------
+ */
+package omero.gateway.rnd;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import omero.api.RawPixelsStorePrx;
+import omero.gateway.Gateway;
+import omero.gateway.SecurityContext;
+import omero.gateway.exception.DataSourceException;
+
+/**
+ * Reads tiles of a pixels set in a declared order, keeping several
+ * asynchronous requests in flight so that the round trip to the server is
+ * paid once rather than per tile. Tiles are handed back in the declared
+ * order. The number of outstanding requests and the number of bytes they
+ * may hold are bounded; a single tile larger than the byte limit is still
+ * read, on its own.
+ * <p>
+ * The iterator has its own pixels store, which is closed once the last
+ * tile has been handed back, on error, or when the iterator is closed.
+ * Closing the iterator before the end cancels the remaining tiles.
+ * Instances are not thread-safe.
+ * </p>
+ *
+ * @see DataSink#iterateTiles(SecurityContext, List, int, long)
+ * @since 5.3
+ */
+public class TileIterator
+{
+
+    /** A tile requested from the server. */
+    private static class Request
+    {
+
+        /** The tile. */
+        final TileDef tile;
+
+        /** The pending result. */
+        final Ice.AsyncResult result;
+
+        /** The number of bytes of the tile. */
+        final long bytes;
+
+        Request(TileDef tile, Ice.AsyncResult result, long bytes)
+        {
+            this.tile = tile;
+            this.result = result;
+            this.bytes = bytes;
+        }
+    }
+
+    /** Reference to the gateway. */
+    private final Gateway gw;
+
+    /** The security context. */
+    private final SecurityContext ctx;
+
+    /** The pixels store, <code>null</code> once closed. */
+    private RawPixelsStorePrx store;
+
+    /** The tiles to read, in order. */
+    private final List<TileDef> tiles;
+
+    /** The index of the next tile to request. */
+    private int next;
+
+    /** The requests not handed back yet, in order. */
+    private final Deque<Request> pending = new ArrayDeque<Request>();
+
+    /** The number of bytes of the pending requests. */
+    private long pendingBytes;
+
+    /** The maximum number of pending requests. */
+    private final int maxRequests;
+
+    /** The maximum number of bytes of the pending requests. */
+    private final long maxBytes;
+
+    /** The number of bytes per pixel. */
+    private final int bytesPerPixel;
+
+    /** Strategy used to transform the raw data. */
+    private final BytesConverter strategy;
+
+    /**
+     * Creates a new instance and sends the first requests.
+     *
+     * @param gw Reference to the gateway.
+     * @param ctx The security context.
+     * @param store The pixels store, set to the pixels set, which is owned
+     *              by this instance.
+     * @param tiles The tiles to read, in order.
+     * @param maxRequests The maximum number of pending requests.
+     * @param maxBytes The maximum number of bytes of the pending requests.
+     * @param bytesPerPixel The number of bytes per pixel.
+     * @param strategy Strategy used to transform the raw data.
+     * @throws DataSourceException If the requests cannot be sent.
+     */
+    TileIterator(Gateway gw, SecurityContext ctx, RawPixelsStorePrx store,
+            List<TileDef> tiles, int maxRequests, long maxBytes,
+            int bytesPerPixel, BytesConverter strategy)
+                    throws DataSourceException
+    {
+        this.gw = gw;
+        this.ctx = ctx;
+        this.store = store;
+        this.tiles = new ArrayList<TileDef>(tiles);
+        this.maxRequests = maxRequests;
+        this.maxBytes = maxBytes;
+        this.bytesPerPixel = bytesPerPixel;
+        this.strategy = strategy;
+        request();
+    }
+
+    /**
+     * Sends requests for the next tiles, as far as the limits allow.
+     *
+     * @throws DataSourceException If a request cannot be sent.
+     */
+    private void request() throws DataSourceException
+    {
+        while (store != null && next < tiles.size() &&
+                pending.size() < maxRequests) {
+            TileDef tile = tiles.get(next);
+            long bytes = (long) tile.getWidth()*tile.getHeight()*bytesPerPixel;
+            if (!pending.isEmpty() && pendingBytes+bytes > maxBytes)
+                return;
+            Ice.AsyncResult result;
+            try {
+                result = store.begin_getTile(tile.getZ(), tile.getC(),
+                        tile.getT(), tile.getX(), tile.getY(),
+                        tile.getWidth(), tile.getHeight());
+            } catch (Exception e) {
+                close();
+                throw new DataSourceException("Cannot retrieve the tile "+
+                        tile, e);
+            }
+            pending.addLast(new Request(tile, result, bytes));
+            pendingBytes += bytes;
+            next++;
+        }
+        if (pending.isEmpty())
+            close();
+    }
+
+    /**
+     * Returns <code>true</code> if there are tiles left to read,
+     * <code>false</code> otherwise.
+     *
+     * @return See above.
+     */
+    public boolean hasNext()
+    {
+        return !pending.isEmpty();
+    }
+
+    /**
+     * Returns the next tile, waiting for it if need be.
+     *
+     * @return See above.
+     * @throws DataSourceException If an error occurs while retrieving the
+     *                             tile, in which case the iterator is closed.
+     */
+    public Plane2D next() throws DataSourceException
+    {
+        if (pending.isEmpty())
+            throw new NoSuchElementException();
+        Request request = pending.removeFirst();
+        byte[] data;
+        try {
+            data = store.end_getTile(request.result);
+        } catch (Exception e) {
+            close();
+            throw new DataSourceException("Cannot retrieve the tile "+
+                    request.tile, e);
+        }
+        pendingBytes -= request.bytes;
+        request();
+        return new Plane2D(data, request.tile.getWidth(),
+                request.tile.getHeight(), bytesPerPixel, strategy);
+    }
+
+    /**
+     * Cancels the tiles not read yet and closes the pixels store, once the
+     * requests already sent have completed. Does nothing if already
+     * closed.
+     */
+    public void close()
+    {
+        if (store == null)
+            return;
+        for (Request request : pending) {
+            try {
+                store.end_getTile(request.result);
+            } catch (Exception e) {
+                // The tile is not wanted any more.
+            }
+        }
+        pending.clear();
+        pendingBytes = 0;
+        next = tiles.size();
+        gw.closeService(ctx, store);
+        store = null;
+    }
+
+}
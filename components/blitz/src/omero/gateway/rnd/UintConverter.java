@@ -20,6 +20,8 @@
  */
 package omero.gateway.rnd;
 
+import java.nio.ByteBuffer;
+
 import omero.util.ReadOnlyByteArray;
 
 /** 
@@ -78,4 +80,18 @@ public class UintConverter
         return r;
     }
 
+    /**
+     * Overridden to read the value from the buffer in one go.
+     * @see BytesConverter#pack(ByteBuffer, int, int)
+     */
+    public double pack(ByteBuffer data, int offset, int length)
+    {
+        switch (length) {
+            case 1: return data.get(offset)&0xFF;
+            case 2: return data.getShort(offset)&0xFFFF;
+            case 4: return data.getInt(offset)&0xFFFFFFFFL;
+            default: return super.pack(data, offset, length);
+        }
+    }
+
 }
@@ -0,0 +1,179 @@
+/*
+ *   Copyright 2017 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.formats.utests;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ome.formats.importer.ImportConfig;
+import ome.formats.importer.ImportContainer;
+import ome.formats.importer.ImportLibrary;
+import omero.model.Pixels;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that {@link ImportLibrary#importContainers(ImportConfig, List)}
+ * imports every container exactly once with no more than the configured
+ * number of filesets at a time, and stops or continues after an error as
+ * {@link ImportConfig#contOnError} requires.
+ *
+ * @since 5.3.0
+ */
+public class ImportLibraryParallelTest {
+
+    /** Records the imports rather than sending them to a server. */
+    static class Library extends ImportLibrary {
+
+        final List<Integer> imported =
+            Collections.synchronizedList(new ArrayList<Integer>());
+
+        final Set<Integer> failing = new HashSet<Integer>();
+
+        final Set<String> threads =
+            Collections.synchronizedSet(new HashSet<String>());
+
+        final AtomicInteger running = new AtomicInteger();
+
+        final AtomicInteger maxRunning = new AtomicInteger();
+
+        /** Counted down by each import, which then waits for the others. */
+        CountDownLatch started = new CountDownLatch(0);
+
+        /** How long each import takes once started. */
+        long millis;
+
+        @Override
+        public List<Pixels> importImage(ImportContainer container, int index,
+                int numDone, int total) throws Throwable {
+            threads.add(Thread.currentThread().getName());
+            final int now = running.incrementAndGet();
+            try {
+                int max;
+                while ((max = maxRunning.get()) < now
+                        && !maxRunning.compareAndSet(max, now)) {
+                    // retry
+                }
+                started.countDown();
+                started.await(10, TimeUnit.SECONDS);
+                if (failing.contains(index)) {
+                    throw new Exception("Failed import " + index);
+                }
+                Thread.sleep(millis);
+                imported.add(index);
+                return Collections.emptyList();
+            } finally {
+                running.decrementAndGet();
+            }
+        }
+    }
+
+    private ImportConfig config;
+
+    private Library library;
+
+    @BeforeMethod
+    public void setUp() {
+        config = new ImportConfig();
+        config.contOnError.set(false);
+        library = new Library();
+    }
+
+    private List<ImportContainer> containers(int count) {
+        List<ImportContainer> containers = new ArrayList<ImportContainer>();
+        for (int i = 0; i < count; i++) {
+            containers.add(new ImportContainer(new File("f" + i), null, null,
+                    "", new String[] { "f" + i }, false));
+        }
+        return containers;
+    }
+
+    private static List<Integer> range(int count) {
+        List<Integer> range = new ArrayList<Integer>();
+        for (int i = 0; i < count; i++) {
+            range.add(i);
+        }
+        return range;
+    }
+
+    private static List<Integer> sorted(List<Integer> list) {
+        List<Integer> copy = new ArrayList<Integer>(list);
+        Collections.sort(copy);
+        return copy;
+    }
+
+    @Test
+    public void testSequential() {
+        config.parallelFileset.set(1);
+        Assert.assertTrue(library.importContainers(config, containers(5)));
+        Assert.assertEquals(library.imported, range(5));
+        Assert.assertEquals(library.maxRunning.get(), 1);
+        Assert.assertEquals(library.threads,
+                Collections.singleton(Thread.currentThread().getName()));
+    }
+
+    @Test
+    public void testParallel() {
+        config.parallelFileset.set(3);
+        library.started = new CountDownLatch(3);
+        library.millis = 10;
+        Assert.assertTrue(library.importContainers(config, containers(12)));
+        Assert.assertEquals(library.started.getCount(), 0);
+        Assert.assertEquals(sorted(library.imported), range(12));
+        Assert.assertEquals(library.maxRunning.get(), 3);
+        Assert.assertFalse(library.threads.contains(
+                Thread.currentThread().getName()));
+    }
+
+    @Test
+    public void testParallelSingleContainer() {
+        config.parallelFileset.set(4);
+        Assert.assertTrue(library.importContainers(config, containers(1)));
+        Assert.assertEquals(library.imported, range(1));
+    }
+
+    @Test
+    public void testParallelContinueOnError() {
+        config.parallelFileset.set(2);
+        config.contOnError.set(true);
+        library.failing.add(2);
+        library.failing.add(5);
+        Assert.assertTrue(library.importContainers(config, containers(8)));
+        List<Integer> expected = range(8);
+        expected.removeAll(library.failing);
+        Assert.assertEquals(sorted(library.imported), expected);
+    }
+
+    @Test
+    public void testParallelStopOnError() {
+        config.parallelFileset.set(2);
+        library.failing.add(0);
+        library.millis = 50;
+        Assert.assertFalse(library.importContainers(config, containers(20)));
+        Assert.assertFalse(library.imported.contains(0));
+        // Only imports started before the failure was noticed are completed
+        Assert.assertTrue(library.imported.size() < 19,
+                library.imported.toString());
+        Assert.assertEquals(library.running.get(), 0);
+    }
+
+    @Test
+    public void testSequentialStopOnError() {
+        config.parallelFileset.set(1);
+        library.failing.add(2);
+        Assert.assertFalse(library.importContainers(config, containers(5)));
+        Assert.assertEquals(library.imported, range(2));
+    }
+
+}
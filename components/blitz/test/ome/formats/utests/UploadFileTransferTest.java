@@ -0,0 +1,261 @@
+/*
+ *   Copyright 2017 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.formats.utests;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+
+import ome.formats.importer.transfers.TransferState;
+import ome.formats.importer.transfers.UploadFileTransfer;
+import ome.formats.importer.util.ProportionalTimeEstimatorImpl;
+import ome.util.checksum.ChecksumProviderFactoryImpl;
+import ome.util.checksum.ChecksumType;
+import omero.ServerError;
+import omero.api.RawFileStorePrx;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that the pipelined mode of {@link UploadFileTransfer} uploads the
+ * same bytes with the same checksum as the sequential mode, while keeping
+ * no more than the allowed number of writes awaiting the server.
+ *
+ * @since 5.3.0
+ */
+public class UploadFileTransferTest {
+
+    private static final int BUFFER_SIZE = 1024;
+
+    /**
+     * Stands in for the server's raw file store. Asynchronous writes are
+     * completed in order and only copied into the file once ended, so that
+     * a buffer reused too early is detected.
+     */
+    static class Server implements InvocationHandler {
+
+        final List<byte[]> pending = new ArrayList<byte[]>();
+
+        final Deque<Object[]> inFlight = new ArrayDeque<Object[]>();
+
+        byte[] file = new byte[0];
+
+        int maxInFlight;
+
+        int writes;
+
+        /** The write whose end fails, counting from 1; 0 for none. */
+        int failAt;
+
+        boolean closed;
+
+        public Object invoke(Object proxy, Method method, Object[] args)
+                throws Throwable {
+            String name = method.getName();
+            if ("write".equals(name)) {
+                write((byte[]) args[0], (Long) args[1], (Integer) args[2]);
+                return null;
+            } else if ("begin_write".equals(name) && args.length == 3) {
+                inFlight.add(args);
+                maxInFlight = Math.max(maxInFlight, inFlight.size());
+                return null;
+            } else if ("end_write".equals(name)) {
+                Object[] write = inFlight.remove();
+                if (++writes == failAt) {
+                    throw new ServerError();
+                }
+                write((byte[]) write[0], (Long) write[1], (Integer) write[2]);
+                return null;
+            } else if ("close".equals(name)) {
+                closed = true;
+                return null;
+            } else if ("toString".equals(name)) {
+                return "Server";
+            } else if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            } else if ("equals".equals(name)) {
+                return proxy == args[0];
+            }
+            throw new UnsupportedOperationException(name);
+        }
+
+        private void write(byte[] buf, long offset, int length) {
+            int end = (int) offset + length;
+            if (end > file.length) {
+                file = Arrays.copyOf(file, end);
+            }
+            System.arraycopy(buf, 0, file, (int) offset, length);
+        }
+    }
+
+    /** Transfer state which reports to the test rather than observers. */
+    static class State extends TransferState {
+
+        final RawFileStorePrx prx;
+
+        final List<Long> uploaded = new ArrayList<Long>();
+
+        long completed = -1;
+
+        State(File file, RawFileStorePrx prx) throws Exception {
+            super(file, 0, 1, null, null,
+                    new ProportionalTimeEstimatorImpl(file.length()),
+                    new ChecksumProviderFactoryImpl().getProvider(
+                            ChecksumType.SHA1),
+                    new byte[BUFFER_SIZE]);
+            this.prx = prx;
+        }
+
+        @Override
+        public RawFileStorePrx getUploader() {
+            return prx;
+        }
+
+        @Override
+        public RawFileStorePrx getUploader(String mode) {
+            return prx;
+        }
+
+        @Override
+        public void save() {
+            // Nothing to save.
+        }
+
+        @Override
+        public String getChecksum() {
+            return getChecksumProvider().checksumAsString();
+        }
+
+        @Override
+        public void uploadStarted() {
+            uploaded.clear();
+        }
+
+        @Override
+        public void uploadBytes(long offset) {
+            uploaded.add(offset);
+        }
+
+        @Override
+        public void uploadComplete(long offset) {
+            completed = offset;
+        }
+    }
+
+    private File file;
+
+    private byte[] content;
+
+    private Server server;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        file = File.createTempFile("UploadFileTransferTest", ".bin");
+        server = new Server();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        file.delete();
+    }
+
+    private void content(int length) throws IOException {
+        content = new byte[length];
+        new Random(length).nextBytes(content);
+        FileOutputStream stream = new FileOutputStream(file);
+        try {
+            stream.write(content);
+        } finally {
+            stream.close();
+        }
+    }
+
+    private String transfer(int parallelUploads, State state)
+            throws Exception {
+        UploadFileTransfer transfer = new UploadFileTransfer();
+        transfer.setParallelUploads(parallelUploads);
+        return transfer.transfer(state);
+    }
+
+    private State state() throws Exception {
+        RawFileStorePrx prx = (RawFileStorePrx) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class<?>[] { RawFileStorePrx.class }, server);
+        return new State(file, prx);
+    }
+
+    private String sha1() {
+        return new ChecksumProviderFactoryImpl().getProvider(ChecksumType.SHA1)
+                .putBytes(content).checksumAsString();
+    }
+
+    @Test
+    public void testPipelinedMatchesSequential() throws Exception {
+        content(BUFFER_SIZE * 10 + 100);
+        State sequential = state();
+        String expected = transfer(1, sequential);
+        Assert.assertEquals(server.file, content);
+        Assert.assertEquals(expected, sha1());
+
+        server = new Server();
+        State pipelined = state();
+        Assert.assertEquals(transfer(4, pipelined), expected);
+        Assert.assertEquals(server.file, content);
+        Assert.assertEquals(pipelined.completed, (long) content.length);
+        Assert.assertEquals(pipelined.uploaded, sequential.uploaded);
+        Assert.assertTrue(server.closed);
+    }
+
+    @Test
+    public void testPipelinedWritesInFlight() throws Exception {
+        content(BUFFER_SIZE * 20);
+        transfer(3, state());
+        Assert.assertEquals(server.maxInFlight, 3);
+        Assert.assertTrue(server.inFlight.isEmpty());
+        Assert.assertEquals(server.writes, 20);
+    }
+
+    @Test
+    public void testPipelinedEmptyFile() throws Exception {
+        content(0);
+        State state = state();
+        Assert.assertEquals(transfer(4, state), sha1());
+        Assert.assertEquals(server.file.length, 0);
+        Assert.assertEquals(server.writes, 0);
+        Assert.assertEquals(state.completed, 0L);
+    }
+
+    @Test
+    public void testPipelinedWriteFailure() throws Exception {
+        content(BUFFER_SIZE * 20);
+        server.failAt = 5;
+        try {
+            transfer(4, state());
+            Assert.fail("Expected a ServerError");
+        } catch (ServerError e) {
+            // expected
+        }
+        Assert.assertTrue(server.closed);
+        Assert.assertEquals(server.file.length, 4 * BUFFER_SIZE);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testNoParallelUploads() {
+        new UploadFileTransfer().setParallelUploads(0);
+    }
+
+}
@@ -0,0 +1,164 @@
+/*
+ *   Copyright 2017 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.services.blitz.test.utests;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import loci.common.ByteArrayHandle;
+import loci.common.RandomAccessInputStream;
+import loci.formats.FormatTools;
+import loci.formats.tiff.IFD;
+import loci.formats.tiff.IFDList;
+import loci.formats.tiff.TiffParser;
+import ome.services.blitz.impl.ExportBuffer;
+import ome.services.blitz.impl.OmeTiffStreamWriter;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the streaming of OME-TIFF exports through {@link ExportBuffer} and
+ * {@link OmeTiffStreamWriter}.
+ */
+@Test(groups = "unit")
+public class ExportStreamTest {
+
+    private static final String XML = "<OME>streamed</OME>";
+
+    private static byte[] plane(int size, int seed) {
+        byte[] plane = new byte[size];
+        for (int i = 0; i < size; i++) {
+            plane[i] = (byte) (i * 31 + seed);
+        }
+        return plane;
+    }
+
+    private void assertTiff(int pixelType, boolean bigTiff) throws Exception {
+        int sizeX = 5, sizeY = 3, planes = 3;
+        int planeSize = sizeX * sizeY * FormatTools.getBytesPerPixel(pixelType);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OmeTiffStreamWriter writer = new OmeTiffStreamWriter(out, sizeX, sizeY,
+                planes, pixelType, XML, bigTiff);
+        for (int i = 0; i < planes; i++) {
+            writer.writePlane(plane(planeSize, i));
+        }
+        byte[] tiff = out.toByteArray();
+        Assert.assertEquals(tiff.length, writer.getLength());
+
+        TiffParser parser = new TiffParser(
+                new RandomAccessInputStream(new ByteArrayHandle(tiff)));
+        Assert.assertEquals(parser.isBigTiff(), bigTiff);
+        Assert.assertEquals(parser.getComment(), XML);
+        IFDList ifds = parser.getIFDs();
+        Assert.assertEquals(ifds.size(), planes);
+        for (int i = 0; i < planes; i++) {
+            IFD ifd = ifds.get(i);
+            Assert.assertEquals(ifd.getImageWidth(), sizeX);
+            Assert.assertEquals(ifd.getImageLength(), sizeY);
+            Assert.assertEquals(ifd.getPixelType(), pixelType);
+            byte[] buf = new byte[planeSize];
+            parser.getSamples(ifd, buf);
+            Assert.assertEquals(buf, plane(planeSize, i));
+        }
+    }
+
+    public void testTiff() throws Exception {
+        assertTiff(FormatTools.UINT8, false);
+        assertTiff(FormatTools.INT16, false);
+        assertTiff(FormatTools.FLOAT, false);
+    }
+
+    public void testBigTiff() throws Exception {
+        assertTiff(FormatTools.UINT16, true);
+        assertTiff(FormatTools.DOUBLE, true);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testBitPixels() {
+        new OmeTiffStreamWriter(new ByteArrayOutputStream(), 1, 1, 1,
+                FormatTools.BIT, XML, false);
+    }
+
+    /**
+     * Tests that a writer filling the buffer waits for the reader and that
+     * the bytes are read back in order.
+     */
+    public void testBufferedReads() throws Exception {
+        final ExportBuffer buffer = new ExportBuffer(7);
+        final byte[] data = plane(100, 0);
+        Thread writer = new Thread() {
+            public void run() {
+                try {
+                    for (int i = 0; i < data.length; i += 10) {
+                        buffer.write(data, i, 10);
+                    }
+                    buffer.close();
+                } catch (IOException e) {
+                    buffer.fail(e);
+                }
+            }
+        };
+        writer.start();
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        long pos = 0;
+        while (true) {
+            byte[] buf = buffer.read(pos, 4);
+            // Reading again from the same position is allowed.
+            Assert.assertEquals(buffer.read(pos, buf.length), buf);
+            read.write(buf);
+            pos += buf.length;
+            if (buf.length < 4) {
+                break;
+            }
+        }
+        writer.join();
+        Assert.assertEquals(read.toByteArray(), data);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testCannotReadBackwards() throws Exception {
+        ExportBuffer buffer = new ExportBuffer(8);
+        buffer.write(plane(8, 0));
+        buffer.read(4, 2);
+        buffer.read(0, 2);
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testCancelStopsWriter() throws Exception {
+        ExportBuffer buffer = new ExportBuffer(8);
+        buffer.cancel();
+        buffer.write(plane(1, 0));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testReadTimeout() throws Exception {
+        ExportBuffer buffer = new ExportBuffer(8, 50, 0);
+        buffer.write(plane(2, 0));
+        buffer.read(0, 4);
+    }
+
+    /**
+     * Tests that a writer which is not read from cancels the export once
+     * the write timeout is over.
+     */
+    public void testWriteTimeoutCancels() throws Exception {
+        ExportBuffer buffer = new ExportBuffer(8, 0, 50);
+        try {
+            buffer.write(plane(12, 0));
+            Assert.fail("Expected an IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        Assert.assertTrue(buffer.isCancelled());
+        try {
+            buffer.read(0, 4);
+            Assert.fail("Expected an IOException");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+}
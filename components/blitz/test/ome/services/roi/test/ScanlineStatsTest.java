@@ -0,0 +1,185 @@
+/*
+ *   Copyright 2017 Glencoe Software, Inc. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.roi.test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import ome.io.nio.PixelBuffer;
+import ome.services.roi.GeomTool;
+import ome.services.roi.PixelData;
+import ome.services.roi.ScanlineStats;
+import ome.services.roi.ShapeSpans;
+import omero.api.ShapeStats;
+import omero.model.SmartShape;
+
+import org.perf4j.StopWatch;
+import org.perf4j.slf4j.Slf4JStopWatch;
+import org.testng.annotations.Test;
+
+/**
+ * Compares the scanline statistics with the original point-by-point
+ * calculation, and times both of them on a large shape.
+ */
+@Test(groups = { "rois" })
+public class ScanlineStatsTest extends TestCase {
+
+    final static int SIZE = 1024;
+
+    GeomTool geomTool = new GeomTool(null, null, null);
+
+    /**
+     * Generates uint16 rows on demand and counts how often they are read.
+     */
+    static class GeneratedPixelData extends PixelData {
+
+        int rowReads = 0;
+
+        GeneratedPixelData() {
+            super(null, null);
+        }
+
+        @Override
+        public ome.util.PixelData getRow(PixelBuffer buf, int y, int z,
+                int c, int t) {
+            rowReads++;
+            ByteBuffer bb = ByteBuffer.allocate(SIZE * 2);
+            for (int x = 0; x < SIZE; x++) {
+                bb.putShort(x * 2, (short) value(x, y, z, c, t));
+            }
+            return new ome.util.PixelData("uint16", bb);
+        }
+
+        static int value(int x, int y, int z, int c, int t) {
+            return (x * 31 + y * 17 + z * 7 + c * 3 + t) & 0xFFFF;
+        }
+    }
+
+    ShapeStats stats(int ch) {
+        ShapeStats stats = new ShapeStats();
+        stats.channelIds = new long[ch];
+        stats.min = new double[ch];
+        stats.max = new double[ch];
+        stats.sum = new double[ch];
+        stats.mean = new double[ch];
+        stats.stdDev = new double[ch];
+        stats.pointsCount = new long[ch];
+        Arrays.fill(stats.min, 0, ch, Double.MAX_VALUE);
+        return stats;
+    }
+
+    ShapeStats pointByPoint(final GeneratedPixelData data, SmartShape shape) {
+        final ShapeStats stats = stats(1);
+        final double[] sumOfSquares = new double[1];
+        shape.areaPoints(new SmartShape.PointCallback() {
+            public void handle(int x, int y) {
+                ome.util.PixelData row = data.getRow(null, y, 0, 0, 0);
+                double value = row.getPixelValue(x);
+                stats.pointsCount[0]++;
+                stats.min[0] = Math.min(value, stats.min[0]);
+                stats.max[0] = Math.max(value, stats.max[0]);
+                stats.sum[0] += value;
+                sumOfSquares[0] += value * value;
+            }
+        });
+        stats.mean[0] = stats.sum[0] / stats.pointsCount[0];
+        double sigmaSquare = (sumOfSquares[0] - stats.sum[0] * stats.sum[0]
+                / stats.pointsCount[0]) / (stats.pointsCount[0] - 1);
+        stats.stdDev[0] = Math.sqrt(sigmaSquare);
+        return stats;
+    }
+
+    ShapeStats scanline(GeneratedPixelData data, SmartShape shape) {
+        ShapeSpans spans = ShapeSpans.of(shape, SIZE, SIZE);
+        ScanlineStats scan = new ScanlineStats(data, stats(1));
+        scan.accumulate(null, spans, 0, 0, 0, 0);
+        return scan.finish();
+    }
+
+    void assertSame(ShapeStats expected, ShapeStats actual) {
+        assertEquals(expected.pointsCount[0], actual.pointsCount[0]);
+        assertEquals(expected.min[0], actual.min[0]);
+        assertEquals(expected.max[0], actual.max[0]);
+        assertEquals(expected.sum[0], actual.sum[0]);
+        assertEquals(expected.mean[0], actual.mean[0], 1e-9);
+        assertEquals(expected.stdDev[0], actual.stdDev[0], 1e-6);
+    }
+
+    @Test
+    public void testRectangleMatchesPointByPoint() {
+        SmartShape rect = (SmartShape) geomTool.rect(10, 20, 30, 40);
+        GeneratedPixelData data = new GeneratedPixelData();
+        ShapeStats expected = pointByPoint(data, rect);
+        data.rowReads = 0;
+        ShapeStats actual = scanline(data, rect);
+        assertSame(expected, actual);
+        assertEquals(40, data.rowReads);
+    }
+
+    @Test
+    public void testEllipseMatchesPointByPoint() {
+        SmartShape ellipse = (SmartShape) geomTool.ellipse(100, 100, 40, 25);
+        GeneratedPixelData data = new GeneratedPixelData();
+        assertSame(pointByPoint(data, ellipse), scanline(data, ellipse));
+    }
+
+    @Test
+    public void testSpansAreClippedToImage() {
+        SmartShape rect = (SmartShape) geomTool.rect(-5, -5, 10, 10);
+        ShapeSpans spans = ShapeSpans.of(rect, SIZE, SIZE);
+        assertEquals(5, spans.size());
+        assertEquals(25, spans.points());
+        assertEquals(0, spans.row(0));
+        assertEquals(0, spans.start(0));
+        assertEquals(5, spans.end(0));
+    }
+
+    /**
+     * Points produced more than once by a shape, e.g. where the outline of
+     * a polygon crosses itself, are only counted and summed once.
+     */
+    @Test
+    public void testDuplicatePointsCountedOnce() {
+        ShapeSpans spans = new ShapeSpans();
+        for (int x = 10; x < 20; x++) {
+            spans.handle(x, 5);
+        }
+        for (int x = 15; x < 25; x++) {
+            spans.handle(x, 5);
+        }
+        spans.handle(12, 5);
+        spans.build(SIZE, SIZE);
+        assertEquals(1, spans.size());
+        assertEquals(15, spans.points());
+        assertEquals(10, spans.start(0));
+        assertEquals(25, spans.end(0));
+
+        GeneratedPixelData data = new GeneratedPixelData();
+        ScanlineStats scan = new ScanlineStats(data, stats(1));
+        scan.accumulate(null, spans, 0, 0, 0, 0);
+        ShapeStats actual = scan.finish();
+        assertEquals(15, actual.pointsCount[0]);
+        double sum = 0;
+        for (int x = 10; x < 25; x++) {
+            sum += GeneratedPixelData.value(x, 5, 0, 0, 0);
+        }
+        assertEquals(sum, actual.sum[0]);
+    }
+
+    @Test
+    public void testTiming() {
+        SmartShape ellipse = (SmartShape) geomTool.ellipse(512, 512, 300, 200);
+        GeneratedPixelData data = new GeneratedPixelData();
+        StopWatch watch = new Slf4JStopWatch();
+        ShapeStats expected = pointByPoint(data, ellipse);
+        watch.lap("roi.stats.point");
+        ShapeStats actual = scanline(data, ellipse);
+        watch.stop("roi.stats.scanline");
+        assertSame(expected, actual);
+    }
+
+}
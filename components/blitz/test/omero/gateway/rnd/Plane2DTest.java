@@ -0,0 +1,110 @@
+/*
+ *------------------------------------------------------------------------------
+ *  Copyright (C) 2017 University of Dundee & Open Microscopy Environment.
+ *  All rights reserved.
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ *------------------------------------------------------------------------------
+ */
+package omero.gateway.rnd;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import omero.util.ReadOnlyByteArray;
+
+/**
+ * Tests that {@link Plane2D} reads the pixel values as the byte by byte
+ * conversion of the {@link BytesConverter}s does.
+ * @since 5.3
+ */
+@Test(groups = "unit")
+public class Plane2DTest {
+
+    private static final int SIZE_X = 7;
+
+    private static final int SIZE_Y = 5;
+
+    @DataProvider(name = "types")
+    public static Object[][] types() {
+        return new Object[][] {
+                {DataSink.INT_8, 1},
+                {DataSink.UINT_8, 1},
+                {DataSink.INT_16, 2},
+                {DataSink.UINT_16, 2},
+                {DataSink.INT_32, 4},
+                {DataSink.UINT_32, 4},
+                {DataSink.FLOAT, 4},
+                {DataSink.DOUBLE, 8}
+        };
+    }
+
+    /**
+     * Tests the per pixel and row values for every pixel type.
+     */
+    @Test(dataProvider = "types")
+    public void testValues(String type, int bytesPerPixel) {
+        byte[] bytes = new byte[SIZE_X * SIZE_Y * bytesPerPixel];
+        new Random(type.hashCode()).nextBytes(bytes);
+        ReadOnlyByteArray array =
+                new ReadOnlyByteArray(bytes, 0, bytes.length);
+        BytesConverter strategy = BytesConverter.getConverter(type);
+        Plane2D plane = new Plane2D(bytes, SIZE_X, SIZE_Y, bytesPerPixel,
+                strategy);
+        Assert.assertEquals(plane.getByteCount(), bytes.length);
+        double[] row = new double[SIZE_X];
+        for (int y = 0; y < SIZE_Y; y++) {
+            plane.getRow(y, row);
+            for (int x = 0; x < SIZE_X; x++) {
+                double expected = strategy.pack(array,
+                        bytesPerPixel * (SIZE_X * y + x), bytesPerPixel);
+                Assert.assertEquals(plane.getPixelValue(x, y), expected);
+                Assert.assertEquals(row[x], expected);
+            }
+        }
+    }
+
+    /**
+     * Tests the typed view of the raw data.
+     */
+    public void testRawData() {
+        byte[] bytes = new byte[] {(byte) 0xFF, (byte) 0xFE, 0, 1};
+        Plane2D plane = new Plane2D(bytes, 2, 1, 2,
+                BytesConverter.getConverter(DataSink.UINT_16));
+        Assert.assertEquals(plane.getPixelValue(0, 0), 65534.0);
+        Assert.assertEquals(plane.getPixelValue(1, 0), 1.0);
+        ByteBuffer raw = plane.getRawData();
+        Assert.assertTrue(raw.isReadOnly());
+        Assert.assertEquals(raw.asShortBuffer().get(0), (short) 0xFFFE);
+        Assert.assertEquals(plane.getRawValue(1), (byte) 0xFE);
+    }
+
+    /**
+     * Tests that pixels outside of the plane are not read from the next
+     * row.
+     */
+    @Test(expectedExceptions = ArrayIndexOutOfBoundsException.class)
+    public void testOutOfBounds() {
+        Plane2D plane = new Plane2D(new byte[4], 2, 2, 1,
+                BytesConverter.getConverter(DataSink.UINT_8));
+        plane.getPixelValue(2, 0);
+    }
+
+}
@@ -0,0 +1,64 @@
+/*
+ *------------------------------------------------------------------------------
+ *  Copyright (C) 2017 University of Dundee & Open Microscopy Environment.
+ *  All rights reserved.
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ *------------------------------------------------------------------------------
+ */
+package omero.gateway.rnd;
+
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the tiles declared by {@link TileDef#raster}.
+ * @since 5.3
+ */
+@Test(groups = "unit")
+public class TileDefTest {
+
+    /**
+     * Tests that the tiles cover the plane row by row, the last column and
+     * row being cropped.
+     */
+    public void testRaster() {
+        List<TileDef> tiles = TileDef.raster(1, 2, 3, 10, 5, 4, 3);
+        Assert.assertEquals(tiles.size(), 6);
+        int[][] expected = new int[][] {
+                {0, 0, 4, 3}, {4, 0, 4, 3}, {8, 0, 2, 3},
+                {0, 3, 4, 2}, {4, 3, 4, 2}, {8, 3, 2, 2}
+        };
+        for (int i = 0; i < expected.length; i++) {
+            TileDef tile = tiles.get(i);
+            Assert.assertEquals(tile.getZ(), 1);
+            Assert.assertEquals(tile.getC(), 2);
+            Assert.assertEquals(tile.getT(), 3);
+            Assert.assertEquals(tile.getX(), expected[i][0]);
+            Assert.assertEquals(tile.getY(), expected[i][1]);
+            Assert.assertEquals(tile.getWidth(), expected[i][2]);
+            Assert.assertEquals(tile.getHeight(), expected[i][3]);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testEmptyTile() {
+        new TileDef(0, 0, 0, 0, 0, 0, 1);
+    }
+
+}
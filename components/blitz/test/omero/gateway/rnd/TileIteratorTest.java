@@ -0,0 +1,221 @@
+/*
+ *------------------------------------------------------------------------------
+ *  Copyright (C) 2017 University of Dundee & Open Microscopy Environment.
+ *  All rights reserved.
+ *
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along
+ *  with this program; if not, write to the Free Software Foundation, Inc.,
+ *  51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ *------------------------------------------------------------------------------
+ */
+package omero.gateway.rnd;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+import omero.ServerError;
+import omero.api.RawPixelsStorePrx;
+import omero.api.StatefulServiceInterfacePrx;
+import omero.gateway.Gateway;
+import omero.gateway.SecurityContext;
+import omero.gateway.exception.DataSourceException;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that {@link TileIterator} hands the tiles back in order while
+ * keeping no more than the given number of requests and bytes in flight,
+ * and that it closes its pixels store.
+ * @since 5.3
+ */
+@Test(groups = "unit")
+public class TileIteratorTest {
+
+    /**
+     * Stands in for the pixels store. Requests are completed in order; the
+     * first byte of each tile is the index of its request.
+     */
+    static class Store implements InvocationHandler {
+
+        final Deque<Object[]> inFlight = new ArrayDeque<Object[]>();
+
+        int requests;
+
+        int maxInFlight;
+
+        long inFlightBytes;
+
+        long maxInFlightBytes;
+
+        /** The request whose end fails, counting from 1; 0 for none. */
+        int failAt;
+
+        int ended;
+
+        public Object invoke(Object proxy, Method method, Object[] args)
+                throws Throwable {
+            String name = method.getName();
+            if ("begin_getTile".equals(name) && args.length == 7) {
+                inFlight.add(args);
+                requests++;
+                inFlightBytes += bytes(args);
+                maxInFlight = Math.max(maxInFlight, inFlight.size());
+                maxInFlightBytes = Math.max(maxInFlightBytes, inFlightBytes);
+                return null;
+            } else if ("end_getTile".equals(name)) {
+                Object[] request = inFlight.remove();
+                inFlightBytes -= bytes(request);
+                if (++ended == failAt) {
+                    throw new ServerError();
+                }
+                byte[] tile = new byte[bytes(request)];
+                tile[0] = (byte) (ended - 1);
+                return tile;
+            } else if ("toString".equals(name)) {
+                return "Store";
+            } else if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            } else if ("equals".equals(name)) {
+                return proxy == args[0];
+            }
+            throw new UnsupportedOperationException(name);
+        }
+
+        private static int bytes(Object[] request) {
+            return (Integer) request[5] * (Integer) request[6] * BPP;
+        }
+    }
+
+    private static final int BPP = 2;
+
+    /** The number of bytes of a tile. */
+    private static final int TILE = 4 * 4 * BPP;
+
+    private Store store;
+
+    private int closed;
+
+    private TileIterator iterator(List<TileDef> tiles, int maxRequests,
+            long maxBytes) throws DataSourceException {
+        Gateway gw = new Gateway(null) {
+            @Override
+            public void closeService(SecurityContext ctx,
+                    StatefulServiceInterfacePrx svc) {
+                closed++;
+            }
+        };
+        RawPixelsStorePrx prx = (RawPixelsStorePrx) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class<?>[] { RawPixelsStorePrx.class }, store);
+        return new TileIterator(gw, null, prx, tiles, maxRequests, maxBytes,
+                BPP, BytesConverter.getConverter(DataSink.UINT_16));
+    }
+
+    /** 5 rows of 4 tiles of 4 by 4 pixels. */
+    private static List<TileDef> tiles() {
+        return TileDef.raster(0, 0, 0, 16, 20, 4, 4);
+    }
+
+    private static void assertTile(Plane2D plane, int index) {
+        Assert.assertEquals(plane.getRawValue(0), (byte) index);
+    }
+
+    @BeforeMethod
+    public void setUp() {
+        store = new Store();
+        closed = 0;
+    }
+
+    public void testRequestLimit() throws Exception {
+        TileIterator it = iterator(tiles(), 3, Long.MAX_VALUE);
+        Assert.assertEquals(store.inFlight.size(), 3);
+        for (int i = 0; i < 20; i++) {
+            Assert.assertTrue(it.hasNext());
+            assertTile(it.next(), i);
+            Assert.assertTrue(store.inFlight.size() <= 3);
+        }
+        Assert.assertFalse(it.hasNext());
+        Assert.assertEquals(store.maxInFlight, 3);
+        Assert.assertEquals(store.requests, 20);
+        Assert.assertEquals(closed, 1);
+    }
+
+    public void testByteLimit() throws Exception {
+        TileIterator it = iterator(tiles(), 10, 2 * TILE + TILE / 2);
+        Assert.assertEquals(store.inFlight.size(), 2);
+        for (int i = 0; i < 20; i++) {
+            assertTile(it.next(), i);
+            Assert.assertTrue(store.inFlightBytes <= 2 * TILE + TILE / 2);
+        }
+        Assert.assertFalse(it.hasNext());
+        Assert.assertEquals(store.maxInFlight, 2);
+        Assert.assertEquals(store.maxInFlightBytes, 2 * TILE);
+        Assert.assertEquals(closed, 1);
+    }
+
+    public void testTileLargerThanByteLimit() throws Exception {
+        TileIterator it = iterator(tiles(), 10, TILE / 2);
+        for (int i = 0; i < 20; i++) {
+            Assert.assertEquals(store.inFlight.size(), 1);
+            assertTile(it.next(), i);
+        }
+        Assert.assertFalse(it.hasNext());
+        Assert.assertEquals(store.maxInFlight, 1);
+        Assert.assertEquals(closed, 1);
+    }
+
+    public void testCloseEarly() throws Exception {
+        TileIterator it = iterator(tiles(), 4, Long.MAX_VALUE);
+        assertTile(it.next(), 0);
+        assertTile(it.next(), 1);
+        it.close();
+        Assert.assertFalse(it.hasNext());
+        Assert.assertTrue(store.inFlight.isEmpty());
+        Assert.assertEquals(store.requests, 6);
+        Assert.assertEquals(closed, 1);
+        it.close();
+        Assert.assertEquals(closed, 1);
+    }
+
+    public void testErrorCloses() throws Exception {
+        store.failAt = 3;
+        TileIterator it = iterator(tiles(), 4, Long.MAX_VALUE);
+        assertTile(it.next(), 0);
+        assertTile(it.next(), 1);
+        try {
+            it.next();
+            Assert.fail("Expected a DataSourceException");
+        } catch (DataSourceException e) {
+            // expected
+        }
+        Assert.assertFalse(it.hasNext());
+        Assert.assertTrue(store.inFlight.isEmpty());
+        Assert.assertEquals(closed, 1);
+    }
+
+    public void testNoTiles() throws Exception {
+        TileIterator it = iterator(Collections.<TileDef>emptyList(), 4, 1);
+        Assert.assertFalse(it.hasNext());
+        Assert.assertEquals(store.requests, 0);
+        Assert.assertEquals(closed, 1);
+    }
+
+}
@@ -0,0 +1,56 @@
+/*
+ *   Copyright 2017 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.api;
+
+import java.util.List;
+
+import ome.annotations.NotNull;
+import omeis.providers.re.data.RegionDef;
+
+/**
+ * Renders tiles of a Pixels set without the lookup and load round trips of
+ * the stateful {@link omeis.providers.re.RenderingEngine}. The server keeps a
+ * pool of loaded renderers keyed by Pixels set and rendering settings
+ * version, so that repeated requests for the tiles of the same image do not
+ * open the pixel data again, and renders the tiles of a request in parallel.
+ *
+ * @since 5.3.0
+ */
+public interface ITileRendering extends ServiceInterface
+{
+    /**
+     * Renders and compresses tiles of an XY plane of a Pixels set.
+     * @param pixelsId The Pixels set Id.
+     * @param renderingDefId The Id of the rendering settings to render with.
+     * If <code>null</code>, the settings of the current user, or failing that
+     * of the owner of the Pixels set, are used, as with
+     * {@link omeis.providers.re.RenderingEngine#lookupRenderingDef(long)}.
+     * @param resolutionLevel The resolution level to render from, as with
+     * {@link omeis.providers.re.RenderingEngine#setResolutionLevel(int)}.
+     * @param z The optical section of the plane.
+     * @param t The timepoint of the plane.
+     * @param regions The tiles to render. Tiles which extend past the edges
+     * of the plane at the given resolution level are cropped.
+     * @param quality The JPEG compression quality from <code>0.0</code> to
+     * <code>1.0</code>.
+     * @return The JPEG compressed tiles, in the order of
+     * <code>regions</code>.
+     * @throws ValidationException Where:
+     * <ul>
+     *   <li>the Pixels set or rendering settings are unlocatable</li>
+     *   <li>the rendering settings are not those of the Pixels set</li>
+     *   <li><code>resolutionLevel</code>, <code>z</code> or <code>t</code>
+     *   is out of range</li>
+     *   <li><code>regions</code> is <code>null</code></li>
+     *   <li>a region is <code>null</code> or outside of the plane</li>
+     *   <li><code>quality</code> is out of range</li>
+     * </ul>
+     */
+    public byte[][] renderCompressedTiles(long pixelsId, Long renderingDefId,
+                                          int resolutionLevel, int z, int t,
+                                          @NotNull List<RegionDef> regions,
+                                          float quality);
+}
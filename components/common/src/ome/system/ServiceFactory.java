@@ -23,6 +23,7 @@ import ome.api.IRenderingSettings;
 import ome.api.IRepositoryInfo;
 import ome.api.ISession;
 import ome.api.IShare;
+import ome.api.ITileRendering;
 import ome.api.ITypes;
 import ome.api.IUpdate;
 import ome.api.JobHandle;
@@ -183,6 +184,10 @@ public class ServiceFactory {
         return getServiceByClass(IShare.class);
     }
 
+    public ITileRendering getTileRenderingService() {
+        return getServiceByClass(ITileRendering.class);
+    }
+
     public ITypes getTypesService() {
         return getServiceByClass(ITypes.class);
     }
@@ -10,6 +10,10 @@ package ome.util;
 import java.lang.reflect.Method;
 import java.nio.ByteOrder;
 import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 
 import loci.formats.FormatTools;
 
@@ -373,6 +377,82 @@ public class PixelData
         throw new RuntimeException("Unknown pixel type.");
     }
 
+    /**
+     * Returns the pixel intensity values of consecutive pixels. The values are
+     * the same as those of {@link #getPixelValue(int)} but are read through a
+     * typed view of the backing buffer, which is much faster for whole rows or
+     * planes.
+     *
+     * @param offset The relative offset (taking into account the number of
+     * bytes per pixel) of the first pixel within the backing buffer.
+     * @param values The array to copy the intensity values into.
+     * @param valuesOffset The index of <code>values</code> to copy the first
+     * intensity value to.
+     * @param count The number of pixels.
+     */
+    public void getPixelValues(int offset, double[] values, int valuesOffset,
+            int count)
+    {
+        ByteBuffer buf = data.duplicate();
+        buf.order(data.order());
+        buf.clear();
+        int end = offset + count;
+        int j = valuesOffset;
+        switch (javaType)
+        {
+            case BYTE:
+                if (isSigned) {
+                    for (int i = offset; i < end; i++) {
+                        values[j++] = buf.get(i);
+                    }
+                } else {
+                    for (int i = offset; i < end; i++) {
+                        values[j++] = buf.get(i) & 0xFF;
+                    }
+                }
+                break;
+            case SHORT:
+                ShortBuffer shorts = buf.asShortBuffer();
+                if (isSigned) {
+                    for (int i = offset; i < end; i++) {
+                        values[j++] = shorts.get(i);
+                    }
+                } else {
+                    for (int i = offset; i < end; i++) {
+                        values[j++] = shorts.get(i) & 0xFFFF;
+                    }
+                }
+                break;
+            case INT:
+                IntBuffer ints = buf.asIntBuffer();
+                if (isSigned) {
+                    for (int i = offset; i < end; i++) {
+                        values[j++] = ints.get(i);
+                    }
+                } else {
+                    for (int i = offset; i < end; i++) {
+                        values[j++] = ints.get(i) & 0xFFFFFFFFL;
+                    }
+                }
+                break;
+            case FLOAT:
+                FloatBuffer floats = buf.asFloatBuffer();
+                for (int i = offset; i < end; i++) {
+                    values[j++] = floats.get(i);
+                }
+                break;
+            case DOUBLE:
+                DoubleBuffer doubles = buf.asDoubleBuffer();
+                doubles.position(offset);
+                doubles.get(values, valuesOffset, count);
+                break;
+            default:
+                for (int i = offset; i < end; i++) {
+                    values[j++] = getPixelValue(i);
+                }
+        }
+    }
+
     /**
      * Returns the backing buffer for the pixel data.
      *
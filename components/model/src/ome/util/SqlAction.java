@@ -323,7 +323,8 @@ public interface SqlAction {
      * Returns arrays of longs for the following SQL return values:
      * <code>experimenter, eventlog, entityid as pixels, rownumber</code>
      *
-     * The oldest N eventlogs with action = "PIXELDATA" and entitytype = "ome.model.core.Pixels"
+     * The oldest N eventlogs with action = "PIXELDATA" or
+     * "PIXELDATA_INTERACTIVE" and entitytype = "ome.model.core.Pixels"
      * is found <em>per user</em> and returned. Multiple eventlogs are returned
      * per user in order to support multi-threading. Duplicate pixel ids
      * are stripped.
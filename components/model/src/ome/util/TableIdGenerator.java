@@ -61,4 +61,23 @@ public class TableIdGenerator extends TableGenerator {
         return value;
     }
 
+    /**
+     * Makes sure that at least the given number of ids can be generated
+     * without another call to {@link SqlAction#nextValue(String, int)},
+     * loading a single block of that size if necessary. Any ids left in
+     * the current block are skipped.
+     */
+    public synchronized void reserve(int count) {
+        if (count <= 0 || (hiValue >= 0 && hiValue - value >= count)) {
+            return;
+        }
+        final int size = Math.max(count, getIncrementSize());
+        hiValue = sql.nextValue(getSegmentValue(), size);
+        if (log.isDebugEnabled()) {
+            log.debug("Reserved " + size + " ids up to " + hiValue + " for "
+                    + getSegmentValue());
+        }
+        value = hiValue - size;
+    }
+
 }
@@ -0,0 +1,159 @@
+/*
+ *   Copyright 2017 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.util.utests;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+import ome.util.SqlAction;
+import ome.util.TableIdGenerator;
+
+import org.hibernate.Hibernate;
+import org.hibernate.cfg.NamingStrategy;
+import org.hibernate.cfg.ObjectNameNormalizer;
+import org.hibernate.dialect.PostgreSQLDialect;
+import org.hibernate.id.PersistentIdentifierGenerator;
+import org.hibernate.id.enhanced.TableGenerator;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that {@link TableIdGenerator#reserve(int)} loads a single block of
+ * ids when the current block is too small and that {@link
+ * TableIdGenerator#generate(org.hibernate.engine.SessionImplementor, Object)}
+ * then hands out the reserved ids without going back to the database.
+ *
+ * @since 5.3.0
+ */
+@Test(groups = "unit")
+public class TableIdGeneratorTest extends TestCase {
+
+    private final static int INCREMENT = 50;
+
+    /**
+     * Stands in for ome_nextval(?,?): each call returns the last id of a
+     * new block of the given size.
+     */
+    static class Sequence implements InvocationHandler {
+
+        final List<Integer> calls = new ArrayList<Integer>();
+
+        long next = 1;
+
+        public Object invoke(Object proxy, Method method, Object[] args)
+                throws Throwable {
+            if ("nextValue".equals(method.getName())) {
+                final int size = (Integer) args[1];
+                calls.add(size);
+                next += size;
+                return next - 1;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        }
+    }
+
+    private Sequence sequence;
+
+    private TableIdGenerator generator;
+
+    @BeforeMethod
+    public void setUp() {
+        Properties params = new Properties();
+        params.setProperty(TableGenerator.SEGMENT_VALUE_PARAM, "seq_image");
+        params.setProperty(TableGenerator.INCREMENT_PARAM,
+                Integer.toString(INCREMENT));
+        params.put(PersistentIdentifierGenerator.IDENTIFIER_NORMALIZER,
+                new ObjectNameNormalizer() {
+                    protected boolean isUseQuotedIdentifiersGlobally() {
+                        return false;
+                    }
+                    protected NamingStrategy getNamingStrategy() {
+                        return null;
+                    }
+                });
+        sequence = new Sequence();
+        generator = new TableIdGenerator();
+        generator.configure(Hibernate.LONG, params, new PostgreSQLDialect());
+        generator.setSqlAction((SqlAction) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class<?>[] { SqlAction.class }, sequence));
+    }
+
+    private long generate() {
+        return (Long) generator.generate(null, null);
+    }
+
+    /**
+     * Generates the given number of ids and checks that they follow on from
+     * the first.
+     * @return the first id.
+     */
+    private long generate(int count) {
+        final long first = generate();
+        for (int i = 1; i < count; i++) {
+            assertEquals(first + i, generate());
+        }
+        return first;
+    }
+
+    @Test
+    public void testGenerateLoadsIncrement() {
+        generate(INCREMENT);
+        assertEquals(Arrays.asList(INCREMENT), sequence.calls);
+        generate();
+        assertEquals(Arrays.asList(INCREMENT, INCREMENT), sequence.calls);
+    }
+
+    @Test
+    public void testReserveLoadsOneBlock() {
+        generator.reserve(3 * INCREMENT + 1);
+        assertEquals(Arrays.asList(3 * INCREMENT + 1), sequence.calls);
+        generate(3 * INCREMENT + 1);
+        assertEquals(1, sequence.calls.size());
+        generate();
+        assertEquals(Arrays.asList(3 * INCREMENT + 1, INCREMENT),
+                sequence.calls);
+    }
+
+    @Test
+    public void testReserveLessThanIncrement() {
+        generator.reserve(10);
+        assertEquals(Arrays.asList(INCREMENT), sequence.calls);
+        generate(INCREMENT);
+        assertEquals(1, sequence.calls.size());
+    }
+
+    @Test
+    public void testReserveUsesCurrentBlock() {
+        generate();
+        generator.reserve(INCREMENT - 1);
+        assertEquals(1, sequence.calls.size());
+        generate(INCREMENT - 1);
+        assertEquals(1, sequence.calls.size());
+    }
+
+    @Test
+    public void testReserveSkipsRestOfCurrentBlock() {
+        final long first = generate();
+        generator.reserve(INCREMENT);
+        assertEquals(Arrays.asList(INCREMENT, INCREMENT), sequence.calls);
+        assertEquals(first + INCREMENT, generate(INCREMENT));
+        assertEquals(2, sequence.calls.size());
+    }
+
+    @Test
+    public void testReserveNothing() {
+        generator.reserve(0);
+        generator.reserve(-1);
+        assertTrue(sequence.calls.isEmpty());
+    }
+
+}
@@ -12,9 +12,6 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 
 import org.apache.commons.io.FilenameUtils;
 import org.slf4j.Logger;
@@ -43,9 +40,10 @@ import omeis.providers.re.quantum.QuantumStrategy;
  * each wavelength is mapped to a color. All these things are specified by the
  * rendering context.
  * <p>
- * This strategy renders the in "regions", dividing the planar data up based
- * on {@link #maxTasks} and assigning each task to its own thread. This should
- * result in parallel rendering on multi-processor machines.
+ * This strategy renders the in "regions", dividing the planar data up into
+ * bands of rows based on the number of pixels and the number of threads of
+ * the renderer's {@link RenderingExecutor}. This should result in parallel
+ * rendering on multi-processor machines.
  * </p>
  * <p>
  * Thread-safety relies on the fact that the rendering context is not going to
@@ -68,19 +66,29 @@ class HSBStrategy extends RenderingStrategy {
     private static Logger log = LoggerFactory.getLogger(HSBStrategy.class);
     
     /**
-     * Retrieves the maximum number of reasonable tasks to schedule based on
-     * image size and <i>maxTasks</i>.
+     * The minimum number of pixels worth rendering in a task of its own.
+     */
+    static final int MIN_BAND_PIXELS = 1 << 16;
+
+    /**
+     * The last lookup built for each wavelength, reused by the following
+     * renderings until the settings of the channel change.
+     */
+    private final List<QuantizedLookup> cachedLookups =
+        new ArrayList<QuantizedLookup>();
+
+    /**
+     * Retrieves the number of bands of rows to split the plane into. Each
+     * band has at least {@link #MIN_BAND_PIXELS} pixels, unless the plane is
+     * smaller than that, and there are never more bands than threads.
      * 
-     * @param size The width along the X2 axis.
+     * @param threads The number of rendering threads.
      * @return the number of tasks to schedule.
      */
-    private int numTasks(int size) {
-        for (int i = maxTasks; i > 0; i--) {
-            if (size % i == 0) {
-                return i;
-            }
-        }
-        return 1;
+    private int numTasks(int threads) {
+        long pixels = (long) sizeX1 * sizeX2;
+        long bands = Math.max(1, pixels / MIN_BAND_PIXELS);
+        return (int) Math.max(1, Math.min(bands, Math.min(threads, sizeX2)));
     }
 
     /**
@@ -267,6 +275,44 @@ class HSBStrategy extends RenderingStrategy {
         return strats;
     }
 
+    /**
+     * Builds the quantized lookup tables shared by all the rendering tasks.
+     * The tables of the previous rendering are reused as long as the quantum
+     * strategy and the codomain chain of their channel have not changed.
+     * Overlays, which have no codomain chain, never get one.
+     *
+     * @param wData The wavelength data.
+     * @param strategies The quantum strategy for each wavelength.
+     * @param chains The codomain chain for each active channel.
+     * @return One possibly <code>null</code> lookup per wavelength.
+     * @throws QuantizationException If a value cannot be quantized.
+     */
+    private synchronized List<QuantizedLookup> getLookups(List<Plane2D> wData,
+            List<QuantumStrategy> strategies, List<CodomainChain> chains)
+            throws QuantizationException {
+        List<QuantizedLookup> lookups = new ArrayList<QuantizedLookup>();
+        int pixelCount = sizeX1 * sizeX2;
+        boolean enabled =
+            renderer.getOptimizations().isQuantizedLookupEnabled();
+        for (int w = 0; w < wData.size(); w++) {
+            if (enabled && w < chains.size()) {
+                if (w == cachedLookups.size()) {
+                    cachedLookups.add(null);
+                }
+                QuantizedLookup lookup = QuantizedLookup.create(wData.get(w),
+                        strategies.get(w), chains.get(w), pixelCount,
+                        cachedLookups.get(w));
+                if (lookup != null) {
+                    cachedLookups.set(w, lookup);
+                }
+                lookups.add(lookup);
+            } else {
+                lookups.add(null);
+            }
+        }
+        return lookups;
+    }
+
     /**
      * Creates a set of rendering tasks for the image based on the calling
      * buffer type.
@@ -275,9 +321,12 @@ class HSBStrategy extends RenderingStrategy {
      *            The plane to render.
      * @param buf
      *            The buffer to render into.
+     * @param threads
+     *            The number of rendering threads.
      * @return An array containing the tasks.
      */
-    private RenderingTask[] makeRenderingTasks(PlaneDef def, RGBBuffer buf) {
+    private RenderingTask[] makeRenderingTasks(PlaneDef def, RGBBuffer buf,
+            int threads) throws QuantizationException {
         List<RenderHSBRegionTask> tasks = new ArrayList<RenderHSBRegionTask>();
 
         //RenderingStats performanceStats = renderer.getStats();
@@ -285,19 +334,23 @@ class HSBStrategy extends RenderingStrategy {
         List<int[]> colors = getColors();
         List<LutReader> readers = getLutReaders();
         List<QuantumStrategy> strategies = getStrategies();
+        List<CodomainChain> chains = getChains();
+        List<QuantizedLookup> lookups = getLookups(wData, strategies, chains);
         // Create a number of rendering tasks.
-        int taskCount = numTasks(sizeX2);
-        int delta = sizeX2/taskCount;
+        int taskCount = numTasks(threads);
         int x1Start = 0;
         int x1End = sizeX1;
         int x2Start, x2End;
-        log.info("taskCount: "+taskCount+" delta: "+delta);
+        if (log.isDebugEnabled()) {
+            log.debug("taskCount: " + taskCount);
+        }
         for (int i = 0; i < taskCount; i++) {
-            x2Start = i*delta;
-            x2End = (i+1)*delta;
+            // Spread the remainder so that bands differ by at most one row.
+            x2Start = (int) ((long) i * sizeX2 / taskCount);
+            x2End = (int) ((long) (i + 1) * sizeX2 / taskCount);
             tasks.add(new RenderHSBRegionTask(buf, wData, strategies,
-                    getChains(), colors, renderer.getOptimizations(),
-                    x1Start, x1End, x2Start, x2End, readers));
+                    chains, colors, renderer.getOptimizations(),
+                    x1Start, x1End, x2Start, x2End, readers, lookups));
         }
 
         // Turn the list into an array an return it.
@@ -374,38 +427,13 @@ class HSBStrategy extends RenderingStrategy {
     private void render(RGBBuffer buf, PlaneDef planeDef) throws IOException,
             QuantizationException {
         RenderingStats performanceStats = renderer.getStats();
-        // Process each active wavelength. If their number N > 1, then
-        // process N-1 async and one in the current thread. If N = 1,
-        // just use the current thread.
-        RenderingTask[] tasks = makeRenderingTasks(planeDef, buf);
+        // Process the bands on the shared rendering threads, one of them
+        // in the current thread.
+        RenderingExecutor executor = renderer.getRenderingExecutor();
+        RenderingTask[] tasks =
+            makeRenderingTasks(planeDef, buf, executor.getThreads());
         performanceStats.startRendering();
-        int n = tasks.length;
-        Future[] rndTskFutures = new Future[n]; // [0] unused.
-        ExecutorService processor = Executors.newCachedThreadPool();
-
-        while (0 < --n) {
-            rndTskFutures[n] = processor.submit(tasks[n]);
-        }
-
-        // Call the task in the current thread.
-        if (n == 0) {
-            tasks[0].call();
-        }
-
-        // Wait for all forked tasks (if any) to complete.
-        for (n = 1; n < rndTskFutures.length; ++n) {
-            try {
-                rndTskFutures[n].get();
-            } catch (Exception e) {
-                if (e instanceof QuantizationException) {
-                    throw (QuantizationException) e;
-                }
-                throw new RuntimeException(e);
-            }
-        }
-
-        // Shutdown the task processor
-        processor.shutdown();
+        executor.invokeAll(tasks);
 
         // End the performance metrics for this rendering event.
         performanceStats.endRendering();
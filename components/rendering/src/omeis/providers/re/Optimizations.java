@@ -22,6 +22,12 @@ public class Optimizations
 	/** We can do alphaless rendering */
 	public boolean alphalessRendering = false;
 
+	/**
+	 * 8 and 16-bit channels may be quantized through a lookup table
+	 * rather than pixel by pixel.
+	 */
+	public boolean quantizedLookupEnabled = true;
+
 	/**
 	 * Enable or disable the primary color optimization.
 	 * @param enabled whether or not to enable the primary color optimization.
@@ -64,4 +70,24 @@ public class Optimizations
 	{
 		return alphalessRendering;
 	}
+
+	/**
+	 * Enable or disable the quantized lookup table optimization. Rendering
+	 * is identical either way.
+	 * @param enabled whether or not to enable the lookup tables.
+	 */
+	public void setQuantizedLookupEnabled(boolean enabled)
+	{
+		quantizedLookupEnabled = enabled;
+	}
+
+	/**
+	 * Returns <code>true</code> if 8 and 16-bit channels may be quantized
+	 * through lookup tables, and <code>false</code> if not.
+	 * @return See above.
+	 */
+	public boolean isQuantizedLookupEnabled()
+	{
+		return quantizedLookupEnabled;
+	}
 }
@@ -0,0 +1,165 @@
+/*
+ *   Copyright 2017 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package omeis.providers.re;
+
+import java.nio.ByteBuffer;
+
+import ome.util.PixelData;
+import omeis.providers.re.codomain.CodomainChain;
+import omeis.providers.re.data.Plane2D;
+import omeis.providers.re.quantum.QuantizationException;
+import omeis.providers.re.quantum.QuantumStrategy;
+
+/**
+ * Lookup table which maps every raw value of an 8 or 16-bit integer channel
+ * straight to its final quantized (and codomain transformed) value. Rows of
+ * the channel's backing {@link ByteBuffer} are then decoded with a single
+ * type-specific loop rather than going through
+ * {@link PixelData#getPixelValueDirect(int)} and
+ * {@link QuantumStrategy#quantize(double)} for every pixel.
+ *
+ * @since 5.3.0
+ */
+class QuantizedLookup {
+
+    /** Supported pixel encodings. */
+    private static final int UINT8 = 0, INT8 = 1, UINT16 = 2, INT16 = 3;
+
+    /** Final discrete value for each raw value offset by the type minimum. */
+    private final int[] table;
+
+    /** One of the supported encodings. */
+    private final int kind;
+
+    /** The quantum strategy the table was built with. */
+    private final QuantumStrategy qs;
+
+    /** The revision of {@link #qs} when the table was built. */
+    private final int qsRevision;
+
+    /** The codomain chain the table was built with. */
+    private final CodomainChain cc;
+
+    /** The revision of {@link #cc} when the table was built. */
+    private final int ccRevision;
+
+    private QuantizedLookup(int[] table, int kind, QuantumStrategy qs,
+            CodomainChain cc) {
+        this.table = table;
+        this.kind = kind;
+        this.qs = qs;
+        this.qsRevision = qs.getRevision();
+        this.cc = cc;
+        this.ccRevision = cc.getRevision();
+    }
+
+    /**
+     * Returns <code>true</code> if the table was built for the given
+     * encoding, quantum strategy and codomain chain, and neither has changed
+     * since.
+     */
+    private boolean isValidFor(int kind, QuantumStrategy qs,
+            CodomainChain cc) {
+        return this.kind == kind && this.qs == qs
+            && qsRevision == qs.getRevision() && this.cc == cc
+            && ccRevision == cc.getRevision();
+    }
+
+    /**
+     * Returns the lookup last built for the channel if the channel's
+     * settings have not changed since, otherwise builds a new one if it is
+     * worth doing so. Since the cached lookup is reused by the following
+     * renderings, e.g. of the other tiles of the plane, only the first one
+     * has to be large enough to pay for the table.
+     *
+     * @param plane The channel's data.
+     * @param qs The channel's quantum strategy.
+     * @param cc The channel's codomain chain.
+     * @param pixelCount The number of pixels which will be rendered.
+     * @param cached The lookup last built for the channel or
+     *        <code>null</code>.
+     * @return The lookup or <code>null</code> if the plane is not an XY plane
+     *         of 8 or 16-bit integer data, or if no valid lookup is cached
+     *         and the plane has fewer pixels than half the entries of the
+     *         table.
+     * @throws QuantizationException If a value cannot be quantized.
+     */
+    static QuantizedLookup create(Plane2D plane, QuantumStrategy qs,
+            CodomainChain cc, int pixelCount, QuantizedLookup cached)
+            throws QuantizationException {
+        if (!plane.isXYPlanar()) {
+            return null;
+        }
+        PixelData data = plane.getData();
+        if (data.isFloat()) {
+            return null;
+        }
+        int kind, min, size;
+        switch (data.javaType()) {
+            case PixelData.BYTE:
+                kind = data.isSigned() ? INT8 : UINT8;
+                min = data.isSigned() ? Byte.MIN_VALUE : 0;
+                size = 1 << 8;
+                break;
+            case PixelData.SHORT:
+                kind = data.isSigned() ? INT16 : UINT16;
+                min = data.isSigned() ? Short.MIN_VALUE : 0;
+                size = 1 << 16;
+                break;
+            default:
+                return null;
+        }
+        if (cached != null && cached.isValidFor(kind, qs, cc)) {
+            return cached;
+        }
+        if (pixelCount < size / 2) {
+            return null;
+        }
+        boolean hasMap = cc.hasMapContext();
+        int[] table = new int[size];
+        for (int i = 0; i < size; i++) {
+            int v = qs.quantize(min + i);
+            table[i] = hasMap ? cc.transform(v) : v;
+        }
+        return new QuantizedLookup(table, kind, qs, cc);
+    }
+
+    /**
+     * Fills <code>values</code> with the final discrete values of
+     * <code>count</code> consecutive pixels.
+     *
+     * @param data The plane data.
+     * @param offset The index of the first pixel (not the byte offset).
+     * @param count The number of pixels.
+     * @param values The destination, at least <code>count</code> long.
+     */
+    void lookup(PixelData data, int offset, int count, int[] values) {
+        final ByteBuffer b = data.getData();
+        final int[] t = table;
+        switch (kind) {
+            case UINT8:
+                for (int i = 0; i < count; i++) {
+                    values[i] = t[b.get(offset + i) & 0xFF];
+                }
+                break;
+            case INT8:
+                for (int i = 0; i < count; i++) {
+                    values[i] = t[b.get(offset + i) + 128];
+                }
+                break;
+            case UINT16:
+                for (int i = 0, o = offset << 1; i < count; i++, o += 2) {
+                    values[i] = t[b.getShort(o) & 0xFFFF];
+                }
+                break;
+            case INT16:
+                for (int i = 0, o = offset << 1; i < count; i++, o += 2) {
+                    values[i] = t[b.getShort(o) + 32768];
+                }
+                break;
+        }
+    }
+
+}
@@ -72,6 +72,12 @@ class RenderHSBRegionTask implements RenderingTask {
     /** The collection of readers.*/
     private List<LutReader> readers;
 
+    /**
+     * The per channel lookup tables, <code>null</code> entries for channels
+     * which must be quantized pixel by pixel.
+     */
+    private List<QuantizedLookup> lookups;
+
     /**
      * Creates a new instance to render a wavelength.
      * 
@@ -95,12 +101,14 @@ class RenderHSBRegionTask implements RenderingTask {
      * @param x2End
      *            The <i>X2</i>-axis end
      * @param readers The lookup table readers.
+     * @param lookups The quantized lookup for each wavelength, possibly
+     *            <code>null</code> entries.
      */
     RenderHSBRegionTask(RGBBuffer dataBuffer, List<Plane2D> wData,
             List<QuantumStrategy> strategies, List<CodomainChain> chains,
             List<int[]> colors, Optimizations optimizations,
             int x1Start, int x1End, int x2Start, int x2End,
-            List<LutReader> readers) {
+            List<LutReader> readers, List<QuantizedLookup> lookups) {
         this.dataBuffer = dataBuffer;
         this.wData = wData;
         this.strategies = strategies;
@@ -112,6 +120,7 @@ class RenderHSBRegionTask implements RenderingTask {
         this.x2Start = x2Start;
         this.x2End = x2End;
         this.readers = readers;
+        this.lookups = lookups;
     }
 
     /**
@@ -161,14 +170,28 @@ class RenderHSBRegionTask implements RenderingTask {
             int gColor = color[ColorsFactory.GREEN_INDEX];
             int bColor = color[ColorsFactory.BLUE_INDEX];
 
+            QuantizedLookup lookup = lookups.get(i);
+            PixelData data = plane.getData();
+            int regionWidth = x1End - x1Start;
+            int[] values = lookup == null ? null : new int[regionWidth];
+
             float alpha = new Float(
                     color[ColorsFactory.ALPHA_INDEX]).floatValue() / 65025;// 255*255
             for (int x2 = x2Start; x2 < x2End; ++x2) {
+                if (lookup != null) {
+                    lookup.lookup(data, width * x2 + x1Start, regionWidth,
+                            values);
+                }
                 for (int x1 = x1Start; x1 < x1End; ++x1) {
                     pix = width * x2 + x1;
-                    discreteValue = qs.quantize(plane.getPixelValue(x1, x2));
-                    if (hasMap) {
-                        discreteValue = cc.transform(discreteValue);
+                    if (lookup != null) {
+                        discreteValue = values[x1 - x1Start];
+                    } else {
+                        discreteValue =
+                            qs.quantize(plane.getPixelValue(x1, x2));
+                        if (hasMap) {
+                            discreteValue = cc.transform(discreteValue);
+                        }
                     }
 
                     if (reader != null) {
@@ -258,18 +281,29 @@ class RenderHSBRegionTask implements RenderingTask {
 
             float alpha = new Integer(
                     color[ColorsFactory.ALPHA_INDEX]).floatValue() / 255;
+            QuantizedLookup lookup = lookups.get(i);
+            int regionWidth = x1End - x1Start;
+            int[] values = lookup == null ? null : new int[regionWidth];
             for (int x2 = x2Start; x2 < x2End; ++x2) {
+                if (lookup != null) {
+                    lookup.lookup(data, width * x2 + x1Start, regionWidth,
+                            values);
+                }
                 for (int x1 = x1Start; x1 < x1End; ++x1) {
                     pix = width * x2 + x1;
-                    if (isXYPlanar)
-                        discreteValue =
-                        qs.quantize(
+                    if (lookup != null) {
+                        discreteValue = values[x1 - x1Start];
+                    } else {
+                        if (isXYPlanar)
+                            discreteValue =
+                            qs.quantize(
                                 data.getPixelValueDirect(pix * bytesPerPixel));
-                    else
-                        discreteValue =
-                            qs.quantize(plane.getPixelValue(x1, x2));
-                    if (hasMap) {
-                        discreteValue = cc.transform(discreteValue);
+                        else
+                            discreteValue =
+                                qs.quantize(plane.getPixelValue(x1, x2));
+                        if (hasMap) {
+                            discreteValue = cc.transform(discreteValue);
+                        }
                     }
                     if (reader != null) {
                         int r1 = ((buf[pix] & 0x00FF0000) >> 16);
@@ -402,18 +436,29 @@ class RenderHSBRegionTask implements RenderingTask {
                 colorOffset = getColorOffsetAsRGBA(color);
 
             float alpha = new Integer(color[ColorsFactory.ALPHA_INDEX]).floatValue() / 255;
+            QuantizedLookup lookup = lookups.get(i);
+            int regionWidth = x1End - x1Start;
+            int[] values = lookup == null ? null : new int[regionWidth];
             for (int x2 = x2Start; x2 < x2End; ++x2) {
+                if (lookup != null) {
+                    lookup.lookup(data, width * x2 + x1Start, regionWidth,
+                            values);
+                }
                 for (int x1 = x1Start; x1 < x1End; ++x1) {
                     pix = width * x2 + x1;
-                    if (isXYPlanar)
-                        discreteValue =
-                        qs.quantize(
+                    if (lookup != null) {
+                        discreteValue = values[x1 - x1Start];
+                    } else {
+                        if (isXYPlanar)
+                            discreteValue =
+                            qs.quantize(
                                 data.getPixelValueDirect(pix * bytesPerPixel));
-                    else
-                        discreteValue =
-                            qs.quantize(plane.getPixelValue(x1, x2));
-                    if (hasMap) {
-                        discreteValue = cc.transform(discreteValue);
+                        else
+                            discreteValue =
+                                qs.quantize(plane.getPixelValue(x1, x2));
+                        if (hasMap) {
+                            discreteValue = cc.transform(discreteValue);
+                        }
                     }
                     if (reader != null) {
                         int r1 = ((buf[pix] & 0xFF000000) >> 24);
@@ -140,6 +140,9 @@ public class Renderer {
     /** The collections of available lookup tables.*/
     private List<File> luts;
 
+    /** The threads to render on, <code>null</code> for the default ones. */
+    private RenderingExecutor renderingExecutor;
+
     /**
      * Returns a copy of a list of channel bindings with one element removed;
      * the so called "other" channel bindings for the image.
@@ -876,6 +879,28 @@ public class Renderer {
     	return optimizations;
     }
 
+    /**
+     * Sets the threads the rendering strategy should render on.
+     * @param renderingExecutor The executor or <code>null</code> to use
+     * {@link RenderingExecutor#getDefault()}.
+     */
+    public void setRenderingExecutor(RenderingExecutor renderingExecutor)
+    {
+        this.renderingExecutor = renderingExecutor;
+    }
+
+    /**
+     * Returns the threads the rendering strategy should render on.
+     * @return See above.
+     */
+    public RenderingExecutor getRenderingExecutor()
+    {
+        if (renderingExecutor == null) {
+            return RenderingExecutor.getDefault();
+        }
+        return renderingExecutor;
+    }
+
 	/**
      * Closes the buffer, cleaning up file state.
      * 
@@ -0,0 +1,275 @@
+/*
+ *   Copyright 2017 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package omeis.providers.re;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ome.system.metrics.Counter;
+import ome.system.metrics.Metrics;
+import ome.system.metrics.NullMetrics;
+import ome.system.metrics.Timer;
+import omeis.providers.re.quantum.QuantizationException;
+
+/**
+ * Fixed-size pool of threads shared by all {@link Renderer} instances of a
+ * process, replacing the thread pool which used to be created for every
+ * render call.
+ * <p>
+ * The pool's queue is bounded. Once it is full, further tasks are run by the
+ * thread which submitted them, so that a saturated server slows down the
+ * callers rather than queueing an unbounded amount of work.
+ * </p>
+ * <p>
+ * The number of tasks waiting in the queue, the time from submission to
+ * completion of each task and the number of tasks which had to be run by the
+ * caller are exported through {@link Metrics}.
+ * </p>
+ *
+ * @since 5.3.0
+ */
+public class RenderingExecutor {
+
+    /** The logger for this particular class */
+    private static Logger log =
+        LoggerFactory.getLogger(RenderingExecutor.class);
+
+    /** Instance used by renderers which were not given one. */
+    private static RenderingExecutor defaultExecutor;
+
+    /** The number of worker threads. */
+    private final int threads;
+
+    /** The worker threads. */
+    private final ThreadPoolExecutor pool;
+
+    /** The number of tasks waiting for a worker thread. */
+    private final Counter queueDepth;
+
+    /** The number of tasks run on the submitting thread. */
+    private final Counter callerRuns;
+
+    /** The time from submission until completion of each task. */
+    private final Timer taskLatency;
+
+    /**
+     * Returns the executor used by renderers which were not given one,
+     * creating it on first use with one thread per processor and no
+     * metrics.
+     *
+     * @return See above.
+     */
+    public static synchronized RenderingExecutor getDefault() {
+        if (defaultExecutor == null) {
+            defaultExecutor = new RenderingExecutor(0, 0, new NullMetrics());
+        }
+        return defaultExecutor;
+    }
+
+    /**
+     * Sets the executor used by renderers which were not given one, e.g.
+     * the executor configured for the server, so that components which
+     * lose their reference to it can find it again.
+     *
+     * @param executor The executor or <code>null</code> to create one with
+     *            the defaults on next use.
+     */
+    public static synchronized void setDefault(RenderingExecutor executor) {
+        defaultExecutor = executor;
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param threads The number of worker threads. If not positive, the
+     *            number of available processors is used.
+     * @param queueSize The maximum number of tasks waiting for a worker. If
+     *            not positive, four times the number of threads is used.
+     * @param metrics The metrics to export the queue depth and task latency
+     *            through.
+     */
+    public RenderingExecutor(int threads, int queueSize, Metrics metrics) {
+        this("Rendering", threads, queueSize, metrics);
+    }
+
+    /**
+     * Creates a new instance for a specific kind of task, e.g. the
+     * generation of thumbnails, which must not wait for the threads of the
+     * pool it would itself be running on.
+     *
+     * @param name The name of the pool, used for its threads and metrics.
+     * @param threads The number of worker threads. If not positive, the
+     *            number of available processors is used.
+     * @param queueSize The maximum number of tasks waiting for a worker. If
+     *            not positive, four times the number of threads is used.
+     * @param metrics The metrics to export the queue depth and task latency
+     *            through.
+     */
+    public RenderingExecutor(final String name, int threads, int queueSize,
+            Metrics metrics) {
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        if (queueSize <= 0) {
+            queueSize = 4 * threads;
+        }
+        this.threads = threads;
+        this.queueDepth = metrics.counter(this, name + ".queueDepth");
+        this.callerRuns = metrics.counter(this, name + ".callerRuns");
+        this.taskLatency = metrics.timer(this, name + ".taskLatency");
+        final AtomicInteger count = new AtomicInteger();
+        pool = new ThreadPoolExecutor(threads, threads, 0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r,
+                                name + "-" + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy() {
+                    @Override
+                    public void rejectedExecution(Runnable r,
+                            ThreadPoolExecutor e) {
+                        callerRuns.inc();
+                        super.rejectedExecution(r, e);
+                    }
+                });
+        log.info(name + " executor with " + threads + " threads and "
+                + queueSize + " queued tasks");
+    }
+
+    /**
+     * Returns the number of worker threads.
+     *
+     * @return See above.
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Runs all the tasks and waits for them to complete. The first task is
+     * run on the calling thread, the others are handed to the worker
+     * threads, or also run on the calling thread if the queue is full.
+     *
+     * @param tasks The tasks to run.
+     * @throws QuantizationException If a task failed to quantize a value.
+     */
+    public void invokeAll(RenderingTask[] tasks) throws QuantizationException {
+        List<TrackedTask> tracked = new ArrayList<TrackedTask>();
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        boolean done = false;
+        try {
+            for (int i = 1; i < tasks.length; i++) {
+                TrackedTask task = new TrackedTask(tasks[i]);
+                tracked.add(task);
+                futures.add(pool.submit((Callable<?>) task));
+            }
+            if (tasks.length > 0) {
+                new TrackedTask(tasks[0]).call();
+            }
+            done = true;
+        } finally {
+            if (!done) {
+                // The result is discarded, so don't start the tasks which
+                // are still queued. Those already running finish on their
+                // own.
+                for (int i = 0; i < futures.size(); i++) {
+                    tracked.get(i).discard();
+                    futures.get(i).cancel(false);
+                }
+            }
+        }
+        RuntimeException failure = null;
+        QuantizationException quantization = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure = new RuntimeException(e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof QuantizationException) {
+                    quantization = (QuantizationException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    failure = (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                } else {
+                    failure = new RuntimeException(cause);
+                }
+            }
+        }
+        if (quantization != null) {
+            throw quantization;
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Stops the worker threads.
+     */
+    public void close() {
+        pool.shutdown();
+    }
+
+    /**
+     * Wraps a task so that its queueing and run time are recorded.
+     */
+    private class TrackedTask implements RenderingTask {
+
+        private final RenderingTask task;
+
+        private final Timer.Context ctx = taskLatency.time();
+
+        /** Set once the task is run or discarded. */
+        private final AtomicBoolean started = new AtomicBoolean();
+
+        TrackedTask(RenderingTask task) {
+            this.task = task;
+            queueDepth.inc();
+        }
+
+        public Object call() throws QuantizationException {
+            if (!started.compareAndSet(false, true)) {
+                return null; // Discarded
+            }
+            queueDepth.dec();
+            try {
+                return task.call();
+            } finally {
+                ctx.stop();
+            }
+        }
+
+        /**
+         * Prevents the task from running if it has not started yet.
+         */
+        void discard() {
+            if (started.compareAndSet(false, true)) {
+                queueDepth.dec();
+            }
+        }
+    }
+
+}
@@ -55,6 +55,9 @@ public class CodomainChain {
     /** The upper bound of the codomain interval. */
     private int intervalEnd;
 
+    /** Incremented each time the lookup table is re-built. */
+    private int revision;
+
     /** Builds the lookup table. */
     private void buildLUT() {
         LUT = new int[intervalEnd - intervalStart + 1];
@@ -73,6 +76,7 @@ public class CodomainChain {
             }
             LUT[x - intervalStart] = v;
         }
+        revision++;
     }
 
     /**
@@ -337,6 +341,17 @@ public class CodomainChain {
         return !chain.isEmpty();
     }
 
+    /**
+     * Returns a number which changes each time the lookup table is re-built,
+     * so that the results of {@link #transform(int)} can be cached.
+     * 
+     * @return See above.
+     */
+    public int getRevision()
+    {
+        return revision;
+    }
+
     /**
      * Returns a copy of the codomain context if any.
      *
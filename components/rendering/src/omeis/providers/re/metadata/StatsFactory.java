@@ -17,6 +17,7 @@ import ome.model.core.Channel;
 import ome.model.core.Pixels;
 import ome.model.enums.PixelsType;
 import ome.model.stats.StatsInfo;
+import ome.util.PixelData;
 
 import omeis.providers.re.data.Plane2D;
 import omeis.providers.re.data.PlaneDef;
@@ -100,37 +101,27 @@ public class StatsFactory {
         }
 
         // check segment [o,e[
-        double v;
-        BasicSegment segment;
         if (p2D.isXYPlanar()) {
             // modified code
-            int size = sizeX1 * sizeX2;
-            for (int j = 0; j < size; j++) {
-                v = p2D.getPixelValue(j);
-                for (int i = 0; i < segments.length; i++) {
-                    segment = segments[i];
-                    if (v >= segment.x1 && v < segment.x2) {
+            double[] row = new double[sizeX1];
+            PixelData data = p2D.getData();
+            for (int x2 = 0; x2 < sizeX2; ++x2) {
+                data.getPixelValues(x2 * sizeX1, row, 0, sizeX1);
+                for (int x1 = 0; x1 < sizeX1; ++x1) {
+                    int i = findSegment(row[x1], segments, gMin);
+                    if (i >= 0) {
                         totals[i]++;
-                        break;
                     }
-                } // end i
+                }
             }
         } else {
             for (int x2 = 0; x2 < sizeX2; ++x2) {
                 for (int x1 = 0; x1 < sizeX1; ++x1) {
-                    v = p2D.getPixelValue(x1, x2);
-                    for (int i = 0; i < segments.length; i++) {
-                        segment = segments[i];
-                        if (v >= segment.x1 && v < segment.x2) {
-                            totals[i]++;
-                            break;
-                        }
-                        /*
-                         * if (!segments[i].equals(1, pointX1, pointX2) &&
-                         * segments[i].lies(pointX1, pointX2)) { totals[i]++;
-                         * break; }
-                         */
-                    } // end i
+                    int i = findSegment(p2D.getPixelValue(x1, x2), segments,
+                            gMin);
+                    if (i >= 0) {
+                        totals[i]++;
+                    }
                 } // end x1
             }// end x2
         }
@@ -152,6 +143,81 @@ public class StatsFactory {
         noiseReduction = noiseReduction();
     }
 
+    /**
+     * Returns the index of the segment <code>[x1, x2[</code> the value lies
+     * in. The index is computed from the value rather than searched for and
+     * then checked against the bounds of the segments, so that values on a
+     * bound end up in the same segment as with a search.
+     *
+     * @param v The value.
+     * @param segments The contiguous segments of size {@link #sizeBin}.
+     * @param gMin The left bound of the first segment.
+     * @return See above, <code>-1</code> if the value is in no segment.
+     */
+    private int findSegment(double v, BasicSegment[] segments, double gMin) {
+        double d = Math.floor((v - gMin) / sizeBin);
+        if (!(d >= -1 && d <= segments.length)) {
+            return -1;
+        }
+        int i = (int) d;
+        if (i > 0 && v < segments[i - 1].x2) {
+            i--;
+        } else if (i < segments.length - 1 && v >= segments[i + 1].x1) {
+            i++;
+        }
+        if (i < 0 || i >= segments.length) {
+            return -1;
+        }
+        BasicSegment segment = segments[i];
+        return v >= segment.x1 && v < segment.x2 ? i : -1;
+    }
+
+    /**
+     * Counts the pixels of a region of a plane falling in each bin of a
+     * histogram. The bin of a value is computed as
+     * <code>(value - min) / binRange</code> and the values are read a row at
+     * a time from the typed buffer. Values which fall outside the bins are not
+     * counted. If there are more bins than values (<code>binRange &lt; 1</code>)
+     * the bin is incremented for all the values above the minimum, so that the
+     * maximum goes into the last bin.
+     *
+     * @param data The plane.
+     * @param sizeX The width of the plane.
+     * @param x The X-coordinate of the top-left corner of the region.
+     * @param y The Y-coordinate of the top-left corner of the region.
+     * @param w The width of the region.
+     * @param h The height of the region.
+     * @param step Pass <code>1</code> to count every pixel of the region,
+     *            <code>n</code> to only count every <code>n</code>th pixel of
+     *            every <code>n</code>th row, e.g. for a quick estimate.
+     * @param min The left bound of the first bin.
+     * @param binRange The size of a bin.
+     * @param bins The counts to increment, one per bin.
+     */
+    public static void computeHistogram(PixelData data, int sizeX, int x,
+            int y, int w, int h, int step, double min, double binRange,
+            int[] bins) {
+        if (w <= 0 || h <= 0) {
+            return;
+        }
+        if (step < 1) {
+            step = 1;
+        }
+        double[] row = new double[w];
+        for (int j = y; j < y + h; j += step) {
+            data.getPixelValues(j * sizeX + x, row, 0, w);
+            for (int i = 0; i < w; i += step) {
+                int bin = (int) ((row[i] - min) / binRange);
+                if (bin > 0 && binRange < 1) {
+                    bin++;
+                }
+                if (bin >= 0 && bin < bins.length) {
+                    bins[bin]++;
+                }
+            }
+        }
+    }
+
     /** Determines the value of the noiseReduction flag. */
     private boolean noiseReduction() {
         double sumMin = 0, sumMax = 0;
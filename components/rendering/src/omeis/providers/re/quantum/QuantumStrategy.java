@@ -103,6 +103,9 @@ public abstract class QuantumStrategy {
     /** Reference to the value mapper. */
     protected QuantumMap valueMapper;
 
+    /** Incremented each time the mapping of the values changes. */
+    private int revision;
+
     /**
      * Defines the value mapper corresponding to the specified family.
      * 
@@ -272,6 +275,7 @@ public abstract class QuantumStrategy {
         this.windowStart = globalMin;
         this.windowEnd = globalMax;
         initPixelsRange(true);
+        revision++;
     }
 
     /**
@@ -294,6 +298,7 @@ public abstract class QuantumStrategy {
         windowStart = start;
         windowEnd = end;
         onWindowChange();
+        revision++;
     }
 
     /**
@@ -312,6 +317,7 @@ public abstract class QuantumStrategy {
         this.family = family;
         curveCoefficient = k;
         this.noiseReduction = noiseReduction;
+        revision++;
     }
 
     /**
@@ -338,8 +344,18 @@ public abstract class QuantumStrategy {
      */
     public void setMap(QuantumMap qMap) {
         valueMapper = qMap;
+        revision++;
     }
 
+    /**
+     * Returns a number which changes each time the extent, the window or the
+     * mapping is set, so that the results of {@link #quantize(double)} can be
+     * cached.
+     * 
+     * @return See above.
+     */
+    public int getRevision() { return revision; }
+
     /**
      * Returns the mapping family.
      * 
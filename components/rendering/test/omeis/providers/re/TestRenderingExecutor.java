@@ -0,0 +1,150 @@
+/*
+ *   Copyright 2017 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package omeis.providers.re;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ome.system.metrics.NullMetrics;
+import omeis.providers.re.quantum.QuantizationException;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test cases for {@link omeis.providers.re.RenderingExecutor}.
+ */
+@Test
+public class TestRenderingExecutor {
+
+    private RenderingExecutor executor;
+
+    @AfterMethod
+    public void close() {
+        if (executor != null) {
+            executor.close();
+        }
+    }
+
+    private RenderingTask[] tasks(int count, final long sleep,
+            final Set<String> threads) {
+        RenderingTask[] tasks = new RenderingTask[count];
+        for (int i = 0; i < count; i++) {
+            tasks[i] = new RenderingTask() {
+                public Object call() throws QuantizationException {
+                    threads.add(Thread.currentThread().getName());
+                    try {
+                        Thread.sleep(sleep);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return null;
+                }
+            };
+        }
+        return tasks;
+    }
+
+    public void testDefaultsToProcessorCount() {
+        executor = new RenderingExecutor(0, 0, new NullMetrics());
+        Assert.assertEquals(executor.getThreads(),
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    public void testSetDefault() {
+        executor = new RenderingExecutor(1, 0, new NullMetrics());
+        try {
+            RenderingExecutor.setDefault(executor);
+            Assert.assertSame(RenderingExecutor.getDefault(), executor);
+        } finally {
+            RenderingExecutor.setDefault(null);
+        }
+        RenderingExecutor created = RenderingExecutor.getDefault();
+        Assert.assertNotSame(created, executor);
+        Assert.assertSame(RenderingExecutor.getDefault(), created);
+    }
+
+    public void testFirstTaskRunsOnCaller() throws Exception {
+        executor = new RenderingExecutor(2, 0, new NullMetrics());
+        Set<String> threads = Collections.synchronizedSet(
+                new HashSet<String>());
+        executor.invokeAll(tasks(1, 0, threads));
+        Assert.assertEquals(threads,
+                Collections.singleton(Thread.currentThread().getName()));
+    }
+
+    public void testSaturatedQueueRunsOnCaller() throws Exception {
+        executor = new RenderingExecutor(1, 1, new NullMetrics());
+        Set<String> threads = Collections.synchronizedSet(
+                new HashSet<String>());
+        // One task on the caller, one on the worker, one queued and the
+        // rest rejected back to the caller.
+        executor.invokeAll(tasks(5, 50, threads));
+        Assert.assertTrue(threads.contains(Thread.currentThread().getName()));
+        Assert.assertTrue(threads.contains("Rendering-1"));
+    }
+
+    public void testNamedPoolThreads() throws Exception {
+        executor = new RenderingExecutor("Thumbnail", 1, 1,
+                new NullMetrics());
+        Set<String> threads = Collections.synchronizedSet(
+                new HashSet<String>());
+        executor.invokeAll(tasks(3, 50, threads));
+        Assert.assertTrue(threads.contains("Thumbnail-1"));
+    }
+
+    @Test(expectedExceptions = QuantizationException.class)
+    public void testQuantizationExceptionIsRethrown() throws Exception {
+        executor = new RenderingExecutor(2, 0, new NullMetrics());
+        RenderingTask failing = new RenderingTask() {
+            public Object call() throws QuantizationException {
+                throw new QuantizationException("failed");
+            }
+        };
+        RenderingTask[] tasks = tasks(2, 0, new HashSet<String>());
+        tasks[1] = failing;
+        executor.invokeAll(tasks);
+    }
+
+    public void testQueuedTasksDiscardedWhenFirstTaskFails()
+            throws Exception {
+        executor = new RenderingExecutor(1, 10, new NullMetrics());
+        final AtomicInteger ran = new AtomicInteger();
+        RenderingTask[] tasks = new RenderingTask[5];
+        for (int i = 1; i < tasks.length; i++) {
+            tasks[i] = new RenderingTask() {
+                public Object call() throws QuantizationException {
+                    ran.incrementAndGet();
+                    try {
+                        Thread.sleep(200);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return null;
+                }
+            };
+        }
+        tasks[0] = new RenderingTask() {
+            public Object call() throws QuantizationException {
+                throw new QuantizationException("failed");
+            }
+        };
+        try {
+            executor.invokeAll(tasks);
+            Assert.fail("No exception");
+        } catch (QuantizationException e) {
+            // expected
+        }
+        Thread.sleep(500);
+        // At most the task which the single worker had already started
+        // ran; the queued ones were discarded.
+        Assert.assertTrue(ran.get() <= 1, "ran " + ran.get());
+    }
+
+}
@@ -19,8 +19,12 @@
 
 package omeis.providers.re.metadata;
 
+import java.nio.ByteBuffer;
+import java.util.Random;
+
 import ome.model.core.Pixels;
 import ome.model.enums.PixelsType;
+import ome.util.PixelData;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -129,4 +133,71 @@ public class TestStatsFactory {
         Assert.assertEquals(pixelsRange[0], 0.0);
         Assert.assertEquals(pixelsRange[1], 65535.0);
     }
+
+    /**
+     * The former, pixel by pixel, binning of
+     * {@link ome.api.RawPixelsStore#getHistogram}.
+     */
+    private int[] histogram(PixelData px, int imgWidth, int x, int y, int w,
+            int h, double min, double binRange, int binCount) {
+        int[] data = new int[binCount];
+        for (int i = 0; i < px.size(); i++) {
+            int pxx = i % imgWidth;
+            int pxy = i / imgWidth;
+            if (pxx >= x && pxx < (x + w) && pxy >= y && pxy < (y + h)) {
+                int bin = (int) ((px.getPixelValue(i) - min) / binRange);
+                if (bin > 0 && binRange < 1)
+                    bin++;
+                if (bin >= 0 && bin < binCount)
+                    data[bin]++;
+            }
+        }
+        return data;
+    }
+
+    private PixelData randomPlane(String type, int size) {
+        byte[] bytes = new byte[size * PixelData.getBitDepth(type) / 8];
+        new Random(7L).nextBytes(bytes);
+        return new PixelData(type, ByteBuffer.wrap(bytes));
+    }
+
+    public void testComputeHistogramMatchesPixelByPixelBinning() {
+        for (String type : new String[] { "int8", "uint8", "int16", "uint16",
+                "int32", "uint32" }) {
+            PixelData px = randomPlane(type, 50 * 40);
+            double min = px.getMinimum();
+            double binRange = (px.getMaximum() - min + 1) / 256;
+            int[] bins = new int[256];
+            StatsFactory.computeHistogram(px, 50, 0, 0, 50, 40, 1, min,
+                    binRange, bins);
+            Assert.assertEquals(bins,
+                    histogram(px, 50, 0, 0, 50, 40, min, binRange, 256), type);
+            bins = new int[256];
+            StatsFactory.computeHistogram(px, 50, 5, 7, 20, 30, 1, min,
+                    binRange, bins);
+            Assert.assertEquals(bins,
+                    histogram(px, 50, 5, 7, 20, 30, min, binRange, 256), type);
+        }
+    }
+
+    public void testComputeHistogramMoreBinsThanValues() {
+        PixelData px = new PixelData("uint8", ByteBuffer.wrap(
+                new byte[] { 0, 1, 127, 127 }));
+        double binRange = 128.0 / 256;
+        int[] bins = new int[256];
+        StatsFactory.computeHistogram(px, 2, 0, 0, 2, 2, 1, 0, binRange, bins);
+        Assert.assertEquals(bins, histogram(px, 2, 0, 0, 2, 2, 0, binRange, 256));
+        Assert.assertEquals(bins[255], 2);
+    }
+
+    public void testComputeHistogramSampling() {
+        PixelData px = randomPlane("uint16", 64 * 64);
+        int[] bins = new int[16];
+        StatsFactory.computeHistogram(px, 64, 0, 0, 64, 64, 4, 0, 4096, bins);
+        int total = 0;
+        for (int count : bins) {
+            total += count;
+        }
+        Assert.assertEquals(total, 16 * 16);
+    }
 }
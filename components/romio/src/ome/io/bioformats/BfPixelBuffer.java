@@ -25,6 +25,7 @@ import ome.io.nio.DimensionsOutOfBoundsException;
 import ome.io.nio.PixelBuffer;
 import ome.io.nio.RomioPixelBuffer;
 import ome.util.PixelData;
+import ome.util.checksum.ChecksumProvider;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -141,6 +142,11 @@ public class BfPixelBuffer implements PixelBuffer, Serializable {
         return reader().getMessageDigest();
     }
 
+    public byte[] calculateChecksum(ChecksumProvider provider)
+            throws IOException {
+        return reader().getChecksum(provider);
+    }
+
     public void checkBounds(Integer x, Integer y, Integer z, Integer c, Integer t)
             throws DimensionsOutOfBoundsException {
         reader().checkBounds(x, y, z, c, t);
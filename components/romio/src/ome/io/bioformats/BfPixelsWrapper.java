@@ -10,8 +10,6 @@ import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
 import java.nio.LongBuffer;
 import java.nio.ShortBuffer;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.List;
 
 import loci.common.DataTools;
@@ -20,6 +18,9 @@ import loci.formats.FormatTools;
 import loci.formats.IFormatReader;
 import ome.io.nio.RomioPixelBuffer;
 import ome.io.nio.DimensionsOutOfBoundsException;
+import ome.util.checksum.ChecksumProvider;
+import ome.util.checksum.ChecksumProviderFactoryImpl;
+import ome.util.checksum.ChecksumType;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,6 +46,11 @@ public class BfPixelsWrapper {
     public BfPixelsWrapper(String path, IFormatReader reader) throws IOException, FormatException {
         this.path = path;
         this.reader = reader; // don't re-memoize
+        if (reader.getCurrentFile() != null) {
+            // Already initialized, e.g. taken from a BfReaderPool. Calling
+            // setId again would reload the memo file.
+            return;
+        }
         reader.setFlattenedResolutions(false);
         try {
             // An exception here could conceivably leave
@@ -57,25 +63,36 @@ public class BfPixelsWrapper {
     }
 
     public byte[] getMessageDigest() throws IOException {
-        MessageDigest md;
-        try {
-            md = MessageDigest.getInstance("SHA-1");
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(
-                    "Required SHA-1 message digest algorithm unavailable.");
-        }
+        return getChecksum(new ChecksumProviderFactoryImpl()
+                .getProvider(ChecksumType.SHA1));
+    }
+
+    /**
+     * Calculates a checksum of all the planes, in the order of
+     * {@link #getTimepoint(Integer, byte[])}, reusing a single plane buffer.
+     * @param provider a new checksum provider for the algorithm to use.
+     * @return the checksum.
+     * @throws IOException if the planes cannot be read.
+     */
+    public byte[] getChecksum(ChecksumProvider provider) throws IOException {
+        int size = RomioPixelBuffer.safeLongToInteger(getPlaneSize());
+        byte[] plane = new byte[size];
+        int sizeZ = getSizeZ();
+        int sizeC = getSizeC();
         int sizeT = getSizeT();
         for (int t = 0; t < sizeT; t++) {
-            try {
-                int size = RomioPixelBuffer.safeLongToInteger(getTimepointSize());
-                byte[] buffer = new byte[size];
-                getTimepoint(t,buffer);
-                md.update(ByteBuffer.wrap(buffer));
-            } catch (DimensionsOutOfBoundsException e) {
-                throw new RuntimeException(e);
+            for (int c = 0; c < sizeC; c++) {
+                for (int z = 0; z < sizeZ; z++) {
+                    try {
+                        getPlane(z, c, t, plane);
+                    } catch (DimensionsOutOfBoundsException e) {
+                        throw new RuntimeException(e);
+                    }
+                    provider.putBytes(plane);
+                }
             }
         }
-        return md.digest();
+        return provider.checksumAsBytes();
     }
 
     public void checkBounds(Integer x, Integer y, Integer z, Integer c, Integer t)
@@ -15,9 +15,12 @@ import java.nio.ByteOrder;
 import java.nio.channels.FileLock;
 import java.nio.channels.OverlappingFileLockException;
 import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import loci.formats.FormatException;
 import loci.formats.FormatTools;
+import loci.formats.IFormatReader;
 import loci.formats.in.TiffReader;
 import loci.formats.meta.IMetadata;
 import loci.formats.out.TiffWriter;
@@ -33,6 +36,7 @@ import ome.io.nio.PixelBuffer;
 import ome.io.nio.TileSizes;
 import ome.model.core.Pixels;
 import ome.util.PixelData;
+import ome.util.checksum.ChecksumProvider;
 import ome.xml.model.enums.DimensionOrder;
 import ome.xml.model.enums.EnumerationException;
 import ome.xml.model.primitives.PositiveInteger;
@@ -44,6 +48,16 @@ import org.slf4j.LoggerFactory;
 /**
  * {@link PixelBuffer} implementation which uses Bio-Formats to
  * read pixels data directly from original files.
+ * <p>
+ * Once written, an instance may be read from several threads at once.
+ * If a {@link #setReaderPool(BfReaderPool) reader pool} is set, pixel reads
+ * lease a Bio-Formats reader of the pyramid file from it, so that tiles are
+ * decoded in parallel and the readers are shared by all the instances
+ * reading the same pyramid. Otherwise pixel reads take turns on a single
+ * reader. Metadata calls share the first reader. Writing,
+ * (re-)initialization, closing and changing the resolution level are
+ * exclusive.
+ * </p>
  *
  * @since OMERO-Beta4.3
  */
@@ -100,7 +114,7 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
      * non-null, then a move from this location to the {@link #filePath} (the
      * reader path) will be attempted.
      */
-    private File writerFile;
+    private volatile File writerFile;
 
     /**
      * Lock file used both for the {@link TiffReader} and {@link TiffWriter}
@@ -121,6 +135,27 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /** The byte order of the compressed pyramid. */
     private ByteOrder byteOrder = ByteOrder.BIG_ENDIAN;
 
+    /**
+     * Held for reading by all read methods and for writing by the methods
+     * which write tiles, (re-)initialize or close the readers and writer or
+     * change the resolution level.
+     */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Held by pixel reads which use {@link #delegate} when there is no
+     * {@link #readerPool}.
+     */
+    private final ReentrantLock delegateLock = new ReentrantLock();
+
+    /**
+     * Server-wide pool the readers for pixel reads are leased from, if any.
+     */
+    private volatile BfReaderPool readerPool;
+
+    /** The series under which pyramid readers are pooled. */
+    private static final int POOL_SERIES = 0;
+
     public static final String PYR_LOCK_EXT = ".pyr_lock";
 
     /**
@@ -197,17 +232,188 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
      * If the pyramid file exists (which the constructor guarantees) then we
      * assume that even if a lock file is present, that it's no longer valid.
      */
-    protected synchronized void initializeReader() throws IOException, FormatException
+    protected void initializeReader() throws IOException, FormatException
     {
-        File lockFile = lockFile();
-        if (readerFile.exists() && lockFile.exists()) {
-            // note: we double checked readerFile exists just in case.
-            lockFile.delete();
+        lock.writeLock().lock();
+        try
+        {
+            File lockFile = lockFile();
+            if (readerFile.exists() && lockFile.exists()) {
+                // note: we double checked readerFile exists just in case.
+                lockFile.delete();
+            }
+            closeReaders();
+            reader = new OmeroPixelsPyramidReader();
+            delegate = new BfPixelBuffer(readerFile.getAbsolutePath(), reader);
+            byteOrder = delegate.isLittleEndian()? ByteOrder.LITTLE_ENDIAN
+                    : ByteOrder.BIG_ENDIAN;
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Sets the pool from which pixel reads lease readers of the pyramid file,
+     * shared with all other instances reading the same pyramid.
+     * @param readerPool The pool or <code>null</code> for pixel reads to take
+     * turns on a single reader.
+     */
+    public void setReaderPool(BfReaderPool readerPool)
+    {
+        this.readerPool = readerPool;
+    }
+
+    /**
+     * Closes {@link #delegate}. Called with the write lock held, i.e. when
+     * no reader is borrowed.
+     */
+    private void closeReaders()
+    {
+        if (delegate != null)
+        {
+            try
+            {
+                delegate.close();
+            }
+            catch (IOException e)
+            {
+                log.error("Failure to close delegate.", e);
+            }
+            finally
+            {
+                delegate = null;
+            }
+        }
+    }
+
+    /**
+     * Acquires the read lock, first switching from writing to reading or
+     * initializing the reader if required.
+     * @return {@link #delegate}, which may only be used for metadata as
+     * other threads may be reading pixels with it.
+     */
+    private BfPixelBuffer lockDelegate()
+    {
+        lock.readLock().lock();
+        if (!isWrite() && delegate != null)
+        {
+            return delegate;
+        }
+        lock.readLock().unlock();
+        lock.writeLock().lock();
+        try
+        {
+            BfPixelBuffer d = delegate();
+            // Downgrade to the read lock.
+            lock.readLock().lock();
+            return d;
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Acquires the read lock and a reader for the exclusive use of the
+     * calling thread, at the resolution level of {@link #delegate}. The
+     * reader is leased from {@link #readerPool} or, if there is none,
+     * {@link #delegate} itself once no other thread is reading pixels with
+     * it. Must be followed by {@link #returnReader(BfPixelBuffer)}.
+     * @return See above.
+     */
+    private BfPixelBuffer borrowReader()
+    {
+        BfPixelBuffer primary = lockDelegate();
+        try
+        {
+            BfReaderPool pool = readerPool;
+            if (pool == null)
+            {
+                delegateLock.lockInterruptibly();
+                return primary;
+            }
+            int resolutionLevel = primary.getResolutionLevel();
+            String path = readerFile.getAbsolutePath();
+            IFormatReader leased = pool.lease(path, POOL_SERIES);
+            if (leased == null)
+            {
+                leased = new OmeroPixelsPyramidReader();
+            }
+            BfPixelBuffer d =
+                new PooledBfPixelBuffer(path, leased, pool, POOL_SERIES);
+            try
+            {
+                if (d.getResolutionLevel() != resolutionLevel)
+                {
+                    d.setResolutionLevel(resolutionLevel);
+                }
+            }
+            catch (RuntimeException e)
+            {
+                try
+                {
+                    leased.close();
+                }
+                catch (IOException e2)
+                {
+                    log.warn("Failed to close reader.", e2);
+                }
+                throw e;
+            }
+            return d;
+        }
+        catch (InterruptedException e)
+        {
+            lock.readLock().unlock();
+            Thread.currentThread().interrupt();
+            throw new ResourceError("Interrupted waiting for a reader.");
+        }
+        catch (IOException e)
+        {
+            lock.readLock().unlock();
+            throw new RuntimeException(e);
+        }
+        catch (FormatException e)
+        {
+            lock.readLock().unlock();
+            throw new RuntimeException(e);
+        }
+        catch (RuntimeException e)
+        {
+            lock.readLock().unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Hands back a reader obtained from {@link #borrowReader()} and
+     * releases the read lock.
+     * @param d The reader.
+     */
+    private void returnReader(BfPixelBuffer d)
+    {
+        try
+        {
+            if (d instanceof PooledBfPixelBuffer)
+            {
+                d.close();
+            }
+            else
+            {
+                delegateLock.unlock();
+            }
+        }
+        catch (IOException e)
+        {
+            log.warn("Failed to give back reader.", e);
+        }
+        finally
+        {
+            lock.readLock().unlock();
         }
-        reader = new OmeroPixelsPyramidReader();
-        delegate = new BfPixelBuffer(readerFile.getAbsolutePath(), reader);
-        byteOrder = delegate.isLittleEndian()? ByteOrder.LITTLE_ENDIAN
-                : ByteOrder.BIG_ENDIAN;
     }
 
     /**
@@ -222,7 +428,7 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
      * flag, <code>false</code> otherwise.
      * @throws Exception Thrown if an error occurred.
      */
-    protected synchronized void initializeWriter(String output,
+    protected void initializeWriter(String output,
                                                String compression,
                                                boolean bigTiff,
                                                int tileWidth, int tileLength)
@@ -444,6 +650,10 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
                     } finally {
                         writerFile = null;
                     }
+                    BfReaderPool pool = readerPool;
+                    if (pool != null) {
+                        pool.invalidate(readerFile.getAbsolutePath());
+                    }
                 }
             } finally {
                 releaseLock();
@@ -492,16 +702,17 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.bioformats.BfPixelBuffer#setTile(byte[], java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer)
      */
-    public synchronized void setTile(byte[] buffer, Integer z, Integer c,
+    public void setTile(byte[] buffer, Integer z, Integer c,
             Integer t, Integer x, Integer y, Integer w, Integer h)
         throws IOException, BufferOverflowException
     {
-        if (!isWrite())
-        {
-            throw new ApiUsageException("In read-only mode!");
-        }
+        lock.writeLock().lock();
         try
         {
+            if (!isWrite())
+            {
+                throw new ApiUsageException("In read-only mode!");
+            }
             int planeCount = getSizeZ() * getSizeC() * getSizeT();
             int planeNumber = FormatTools.getIndex(
                     "XYZCT", getSizeZ(), getSizeC(), getSizeT(), planeCount,
@@ -520,6 +731,10 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
         {
             throw new RuntimeException(e);
         }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
     }
 
     /**
@@ -531,7 +746,7 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
      * @param h Tile height requested.
      * @return A new or already allocated IFD for use when writing tiles.
      */
-    private synchronized IFD getIFD(int z, int c, int t, int w, int h)
+    private IFD getIFD(int z, int c, int t, int w, int h)
     {
         if (lastT == -1 && lastC == -1 && lastZ == -1)
         {
@@ -596,7 +811,7 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
      * @throws IOException If there is a problem with the parameters or a
      * problem checking them.
      */
-    private synchronized void checkTileParameters(int x, int y, int w, int h)
+    private void checkTileParameters(int x, int y, int w, int h)
         throws IOException
     {
         // No-op.
@@ -623,103 +838,163 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#calculateMessageDigest()
      */
-    public synchronized byte[] calculateMessageDigest() throws IOException
+    public byte[] calculateMessageDigest() throws IOException
+    {
+        BfPixelBuffer d = borrowReader();
+        try
+        {
+            return d.calculateMessageDigest();
+        }
+        finally
+        {
+            returnReader(d);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see ome.io.nio.PixelBuffer#calculateChecksum(ome.util.checksum.ChecksumProvider)
+     */
+    public byte[] calculateChecksum(ChecksumProvider provider)
+            throws IOException
     {
-        return delegate().calculateMessageDigest();
+        BfPixelBuffer d = borrowReader();
+        try
+        {
+            return d.calculateChecksum(provider);
+        }
+        finally
+        {
+            returnReader(d);
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#checkBounds(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer)
      */
-    public synchronized void checkBounds(Integer x, Integer y, Integer z,
+    public void checkBounds(Integer x, Integer y, Integer z,
             Integer c, Integer t) throws DimensionsOutOfBoundsException
     {
         t = getRasterizedT(z, c, t);
         c = 0;
         z = 0;
-        delegate().checkBounds(x, y, z, c, t);
+        BfPixelBuffer d = lockDelegate();
+        try
+        {
+            d.checkBounds(x, y, z, c, t);
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#close()
      */
-    public synchronized void close() throws IOException
+    public void close() throws IOException
     {
+        lock.writeLock().lock();
         try
         {
-            if (delegate != null)
-            {
-                delegate.close();
+            closeReaders();
+
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (Exception e) {
+                    log.warn("Failed to close reader", e);
+                } finally {
+                    reader = null;
+                }
             }
+
+            closeWriter();
         }
-        catch (IOException e)
+        finally
         {
-            log.error("Failure to close delegate.", e);
-        }
-        delegate = null;
-
-        if (reader != null) {
-            try {
-                reader.close();
-            } catch (Exception e) {
-                log.warn("Failed to close reader", e);
-            } finally {
-                reader = null;
-            }
+            lock.writeLock().unlock();
         }
-
-        closeWriter();
-
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getByteWidth()
      */
-    public synchronized int getByteWidth()
+    public int getByteWidth()
     {
-        return delegate().getByteWidth();
+        BfPixelBuffer d = lockDelegate();
+        try
+        {
+            return d.getByteWidth();
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getCol(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer)
      */
-    public synchronized PixelData getCol(Integer x, Integer z, Integer c,
-                                         Integer t)
+    public PixelData getCol(Integer x, Integer z, Integer c, Integer t)
             throws IOException, DimensionsOutOfBoundsException
     {
         t = getRasterizedT(z, c, t);
         c = 0;
         z = 0;
-        PixelData data = delegate().getCol(x, z, c, t);
-        data.setOrder(byteOrder);
-        return data;
+        BfPixelBuffer d = borrowReader();
+        try
+        {
+            PixelData data = d.getCol(x, z, c, t);
+            data.setOrder(byteOrder);
+            return data;
+        }
+        finally
+        {
+            returnReader(d);
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getColDirect(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, byte[])
      */
-    public synchronized byte[] getColDirect(Integer x, Integer z, Integer c,
+    public byte[] getColDirect(Integer x, Integer z, Integer c,
             Integer t, byte[] buffer)
         throws IOException, DimensionsOutOfBoundsException
     {
         t = getRasterizedT(z, c, t);
         c = 0;
         z = 0;
-        return delegate().getColDirect(x, z, c, t, buffer);
+        BfPixelBuffer d = borrowReader();
+        try
+        {
+            return d.getColDirect(x, z, c, t, buffer);
+        }
+        finally
+        {
+            returnReader(d);
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getColSize()
      */
-    public synchronized Integer getColSize()
+    public Integer getColSize()
     {
-        return delegate().getColSize();
+        BfPixelBuffer d = lockDelegate();
+        try
+        {
+            return d.getColSize();
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getHypercube(java.util.List, java.util.List, java.util.List)
      */
-    public synchronized PixelData getHypercube(List<Integer> offset,
+    public PixelData getHypercube(List<Integer> offset,
             List<Integer> size, List<Integer> step)
         throws IOException, DimensionsOutOfBoundsException
     {
@@ -729,7 +1004,7 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getHypercubeDirect(java.util.List, java.util.List, java.util.List, byte[])
      */
-    public synchronized byte[] getHypercubeDirect(List<Integer> offset,
+    public byte[] getHypercubeDirect(List<Integer> offset,
             List<Integer> size, List<Integer> step, byte[] buffer)
         throws IOException, DimensionsOutOfBoundsException
     {
@@ -739,7 +1014,7 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getHypercubeSize(java.util.List, java.util.List, java.util.List)
      */
-    public synchronized Long getHypercubeSize(List<Integer> offset,
+    public Long getHypercubeSize(List<Integer> offset,
             List<Integer> size, List<Integer> step)
         throws DimensionsOutOfBoundsException
     {
@@ -749,62 +1024,102 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getId()
      */
-    public synchronized long getId()
+    public long getId()
     {
-        return delegate().getId();
+        BfPixelBuffer d = lockDelegate();
+        try
+        {
+            return d.getId();
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getPath()
      */
-    public synchronized String getPath()
+    public String getPath()
     {
-        return delegate().getPath();
+        BfPixelBuffer d = lockDelegate();
+        try
+        {
+            return d.getPath();
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getPlane(java.lang.Integer, java.lang.Integer, java.lang.Integer)
      */
-    public synchronized PixelData getPlane(Integer z, Integer c, Integer t)
+    public PixelData getPlane(Integer z, Integer c, Integer t)
             throws IOException, DimensionsOutOfBoundsException
     {
         t = getRasterizedT(z, c, t);
         c = 0;
         z = 0;
-        PixelData data = delegate().getPlane(z, c, t);
-        data.setOrder(byteOrder);
-        return data;
+        BfPixelBuffer d = borrowReader();
+        try
+        {
+            PixelData data = d.getPlane(z, c, t);
+            data.setOrder(byteOrder);
+            return data;
+        }
+        finally
+        {
+            returnReader(d);
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getPlaneDirect(java.lang.Integer, java.lang.Integer, java.lang.Integer, byte[])
      */
-    public synchronized byte[] getPlaneDirect(Integer z, Integer c, Integer t,
-                                              byte[] buffer)
+    public byte[] getPlaneDirect(Integer z, Integer c, Integer t,
+                                 byte[] buffer)
             throws IOException, DimensionsOutOfBoundsException
     {
         t = getRasterizedT(z, c, t);
         c = 0;
         z = 0;
-        return delegate().getPlaneDirect(z, c, t, buffer);
+        BfPixelBuffer d = borrowReader();
+        try
+        {
+            return d.getPlaneDirect(z, c, t, buffer);
+        }
+        finally
+        {
+            returnReader(d);
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getPlaneOffset(java.lang.Integer, java.lang.Integer, java.lang.Integer)
      */
-    public synchronized Long getPlaneOffset(Integer z, Integer c, Integer t)
+    public Long getPlaneOffset(Integer z, Integer c, Integer t)
             throws DimensionsOutOfBoundsException
     {
         t = getRasterizedT(z, c, t);
         c = 0;
         z = 0;
-        return delegate().getPlaneOffset(z, c, t);
+        BfPixelBuffer d = lockDelegate();
+        try
+        {
+            return d.getPlaneOffset(z, c, t);
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getPlaneRegion(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer)
      */
-    public synchronized PixelData getPlaneRegion(Integer x, Integer y,
+    public PixelData getPlaneRegion(Integer x, Integer y,
             Integer width, Integer height, Integer z, Integer c, Integer t,
             Integer stride)
             throws IOException, DimensionsOutOfBoundsException
@@ -812,31 +1127,55 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
         t = getRasterizedT(z, c, t);
         c = 0;
         z = 0;
-        PixelData data =
-            delegate().getPlaneRegion(x, y, width, height, z, c, t, stride);
-        data.setOrder(byteOrder);
-        return data;
+        BfPixelBuffer d = borrowReader();
+        try
+        {
+            PixelData data =
+                d.getPlaneRegion(x, y, width, height, z, c, t, stride);
+            data.setOrder(byteOrder);
+            return data;
+        }
+        finally
+        {
+            returnReader(d);
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getPlaneRegionDirect(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, byte[])
      */
-    public synchronized byte[] getPlaneRegionDirect(Integer z, Integer c,
+    public byte[] getPlaneRegionDirect(Integer z, Integer c,
             Integer t, Integer count, Integer offset, byte[] buffer)
         throws IOException, DimensionsOutOfBoundsException
     {
         t = getRasterizedT(z, c, t);
         c = 0;
         z = 0;
-        return getPlaneRegionDirect(z, c, t, count, offset, buffer);
+        BfPixelBuffer d = borrowReader();
+        try
+        {
+            return d.getPlaneRegionDirect(z, c, t, count, offset, buffer);
+        }
+        finally
+        {
+            returnReader(d);
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getPlaneSize()
      */
-    public synchronized Long getPlaneSize()
+    public Long getPlaneSize()
     {
-        return delegate().getPlaneSize();
+        BfPixelBuffer d = lockDelegate();
+        try
+        {
+            return d.getPlaneSize();
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
     }
 
     /* (non-Javadoc)
@@ -859,50 +1198,80 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getRow(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer)
      */
-    public synchronized PixelData getRow(Integer y, Integer z, Integer c,
-                                         Integer t)
+    public PixelData getRow(Integer y, Integer z, Integer c, Integer t)
             throws IOException, DimensionsOutOfBoundsException
     {
         t = getRasterizedT(z, c, t);
         c = 0;
         z = 0;
-        PixelData data = delegate().getRow(y, z, c, t);
-        data.setOrder(byteOrder);
-        return data;
+        BfPixelBuffer d = borrowReader();
+        try
+        {
+            PixelData data = d.getRow(y, z, c, t);
+            data.setOrder(byteOrder);
+            return data;
+        }
+        finally
+        {
+            returnReader(d);
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getRowDirect(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, byte[])
      */
-    public synchronized byte[] getRowDirect(Integer y, Integer z, Integer c,
+    public byte[] getRowDirect(Integer y, Integer z, Integer c,
             Integer t, byte[] buffer)
         throws IOException, DimensionsOutOfBoundsException
     {
         t = getRasterizedT(z, c, t);
         c = 0;
         z = 0;
-        return delegate().getRowDirect(y, z, c, t, buffer);
+        BfPixelBuffer d = borrowReader();
+        try
+        {
+            return d.getRowDirect(y, z, c, t, buffer);
+        }
+        finally
+        {
+            returnReader(d);
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getRowOffset(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer)
      */
-    public synchronized Long getRowOffset(Integer y, Integer z, Integer c,
-                                          Integer t)
+    public Long getRowOffset(Integer y, Integer z, Integer c, Integer t)
             throws DimensionsOutOfBoundsException
     {
         t = getRasterizedT(z, c, t);
         c = 0;
         z = 0;
-        return delegate().getRowOffset(y, z, c, t);
+        BfPixelBuffer d = lockDelegate();
+        try
+        {
+            return d.getRowOffset(y, z, c, t);
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getRowSize()
      */
-    public synchronized Integer getRowSize()
+    public Integer getRowSize()
     {
-        return delegate().getRowSize();
+        BfPixelBuffer d = lockDelegate();
+        try
+        {
+            return d.getRowSize();
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
     }
 
     /* (non-Javadoc)
@@ -928,31 +1297,47 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getSizeX()
      */
-    public synchronized int getSizeX()
+    public int getSizeX()
     {
-        if (delegate == null || delegate.reader.get() == null)
+        lock.readLock().lock();
+        try
         {
-            // The downstream reader has not been initialized, we don't need to
-            // delegate and can't even if we wanted to because no data has
-            // actually been written yet.
-            return pixels.getSizeX();
+            if (delegate == null || delegate.reader.get() == null)
+            {
+                // The downstream reader has not been initialized, we don't need to
+                // delegate and can't even if we wanted to because no data has
+                // actually been written yet.
+                return pixels.getSizeX();
+            }
+            return delegate.getSizeX();
+        }
+        finally
+        {
+            lock.readLock().unlock();
         }
-        return delegate.getSizeX();
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getSizeY()
      */
-    public synchronized int getSizeY()
+    public int getSizeY()
     {
-        if (delegate == null || delegate.reader.get() == null)
+        lock.readLock().lock();
+        try
+        {
+            if (delegate == null || delegate.reader.get() == null)
+            {
+                // The downstream reader has not been initialized, we don't need to
+                // delegate and can't even if we wanted to because no data has
+                // actually been written yet.
+                return pixels.getSizeY();
+            }
+            return delegate.getSizeY();
+        }
+        finally
         {
-            // The downstream reader has not been initialized, we don't need to
-            // delegate and can't even if we wanted to because no data has
-            // actually been written yet.
-            return pixels.getSizeY();
+            lock.readLock().unlock();
         }
-        return delegate.getSizeY();
     }
 
     /* (non-Javadoc)
@@ -995,30 +1380,46 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getStackSize()
      */
-    public synchronized Long getStackSize()
+    public Long getStackSize()
     {
-        return delegate().getStackSize();
+        BfPixelBuffer d = lockDelegate();
+        try
+        {
+            return d.getStackSize();
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getTile(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer)
      */
-    public synchronized PixelData getTile(Integer z, Integer c, Integer t,
+    public PixelData getTile(Integer z, Integer c, Integer t,
             Integer x, Integer y, Integer w, Integer h) throws IOException
     {
         checkTileParameters(x, y, w, h);
         t = getRasterizedT(z, c, t);
         c = 0;
         z = 0;
-        PixelData data = delegate().getTile(z, c, t, x, y, w, h);
-        data.setOrder(byteOrder);
-        return data;
+        BfPixelBuffer d = borrowReader();
+        try
+        {
+            PixelData data = d.getTile(z, c, t, x, y, w, h);
+            data.setOrder(byteOrder);
+            return data;
+        }
+        finally
+        {
+            returnReader(d);
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getTileDirect(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, byte[])
      */
-    public synchronized byte[] getTileDirect(Integer z, Integer c, Integer t,
+    public byte[] getTileDirect(Integer z, Integer c, Integer t,
             Integer x, Integer y, Integer w, Integer h, byte[] buffer)
         throws IOException
     {
@@ -1026,13 +1427,21 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
         t = getRasterizedT(z, c, t);
         c = 0;
         z = 0;
-        return delegate().getTileDirect(z, c, t, x, y, w, h, buffer);
+        BfPixelBuffer d = borrowReader();
+        try
+        {
+            return d.getTileDirect(z, c, t, x, y, w, h, buffer);
+        }
+        finally
+        {
+            returnReader(d);
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getTimepoint(java.lang.Integer)
      */
-    public synchronized PixelData getTimepoint(Integer t) throws IOException,
+    public PixelData getTimepoint(Integer t) throws IOException,
             DimensionsOutOfBoundsException
     {
         throw new UnsupportedOperationException("Not supported.");
@@ -1041,7 +1450,7 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getTimepointDirect(java.lang.Integer, byte[])
      */
-    public synchronized byte[] getTimepointDirect(Integer t, byte[] buffer)
+    public byte[] getTimepointDirect(Integer t, byte[] buffer)
             throws IOException, DimensionsOutOfBoundsException
     {
         throw new UnsupportedOperationException("Not supported.");
@@ -1059,33 +1468,65 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getTimepointSize()
      */
-    public synchronized Long getTimepointSize()
+    public Long getTimepointSize()
     {
-        return delegate().getTimepointSize();
+        BfPixelBuffer d = lockDelegate();
+        try
+        {
+            return d.getTimepointSize();
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getTotalSize()
      */
-    public synchronized Long getTotalSize()
+    public Long getTotalSize()
     {
-        return delegate().getTotalSize();
+        BfPixelBuffer d = lockDelegate();
+        try
+        {
+            return d.getTotalSize();
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#isFloat()
      */
-    public synchronized boolean isFloat()
+    public boolean isFloat()
     {
-        return delegate().isFloat();
+        BfPixelBuffer d = lockDelegate();
+        try
+        {
+            return d.isFloat();
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#isSigned()
      */
-    public synchronized boolean isSigned()
+    public boolean isSigned()
     {
-        return delegate().isSigned();
+        BfPixelBuffer d = lockDelegate();
+        try
+        {
+            return d.isSigned();
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
     }
 
     /* (non-Javadoc)
@@ -1186,57 +1627,98 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getResolutionLevel()
      */
-    public synchronized int getResolutionLevel()
+    public int getResolutionLevel()
     {
         if (isWrite())
         {
             throw new ApiUsageException("In write mode!");
         }
-        return delegate().getResolutionLevel();
+        BfPixelBuffer d = lockDelegate();
+        try
+        {
+            return d.getResolutionLevel();
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getResolutionLevels()
      */
-    public synchronized int getResolutionLevels()
+    public int getResolutionLevels()
     {
         if (isWrite())
         {
             throw new ApiUsageException("In write mode!");
         }
-        return delegate().getResolutionLevels();
+        BfPixelBuffer d = lockDelegate();
+        try
+        {
+            return d.getResolutionLevels();
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
     }
 
-    public synchronized List<List<Integer>> getResolutionDescriptions()
+    public List<List<Integer>> getResolutionDescriptions()
     {
         if (isWrite())
         {
             throw new ApiUsageException("In write mode!");
         }
-        return delegate().getResolutionDescriptions();
+        BfPixelBuffer d = lockDelegate();
+        try
+        {
+            return d.getResolutionDescriptions();
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getTileSize()
      */
-    public synchronized Dimension getTileSize()
+    public Dimension getTileSize()
     {
         if (isWrite())
         {
             return new Dimension(sizes.getTileWidth(), sizes.getTileHeight());
         }
-        return delegate().getTileSize();
+        BfPixelBuffer d = lockDelegate();
+        try
+        {
+            return d.getTileSize();
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#setResolutionLevel(int)
      */
-    public synchronized void setResolutionLevel(int resolutionLevel)
+    public void setResolutionLevel(int resolutionLevel)
     {
         if (isWrite())
         {
             throw new ApiUsageException("In write mode!");
         }
-        delegate().setResolutionLevel(resolutionLevel);
+        lock.writeLock().lock();
+        try
+        {
+            // Leased readers are brought to this level when borrowed.
+            delegate().setResolutionLevel(resolutionLevel);
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
     }
 }
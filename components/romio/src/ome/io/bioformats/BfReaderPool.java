@@ -0,0 +1,370 @@
+/*
+ *   Copyright 2017 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.bioformats;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import loci.formats.IFormatReader;
+import ome.system.metrics.Counter;
+import ome.system.metrics.Metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Server-wide pool of idle Bio-Formats readers which have already been
+ * initialized on an original file, so that opening the same file again, e.g.
+ * for another rendering engine or thumbnail, does not pay for
+ * {@link IFormatReader#setId(String)}. Readers are keyed by file path and
+ * series and are leased exclusively: a reader is taken out of the pool while
+ * in use and released back once done.
+ * <p>
+ * Idle readers are closed, least recently released first, when there are
+ * more than a given number of them, when the files they may hold open would
+ * exceed a given budget, once they have been idle for a given time, and when
+ * the file they were opened on has changed since.
+ * </p>
+ *
+ * @since 5.3.0
+ */
+public class BfReaderPool {
+
+    private final static Logger log = LoggerFactory.getLogger(BfReaderPool.class);
+
+    /** Identifies the readers of a series of a file. */
+    private static class Key {
+
+        final String path;
+
+        final int series;
+
+        Key(String path, int series) {
+            this.path = path;
+            this.series = series;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return series == other.series && path.equals(other.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * path.hashCode() + series;
+        }
+    }
+
+    /** An idle reader. */
+    private static class Idle {
+
+        final IFormatReader reader;
+
+        /** The number of files the reader may hold open. */
+        final int files;
+
+        /** When the reader was released. */
+        final long released;
+
+        /** The modification time and length of the file when released. */
+        final long lastModified, length;
+
+        Idle(IFormatReader reader, int files, File file) {
+            this.reader = reader;
+            this.files = files;
+            this.released = System.currentTimeMillis();
+            this.lastModified = file.lastModified();
+            this.length = file.length();
+        }
+
+        boolean isStale(File file) {
+            return file.lastModified() != lastModified
+                    || file.length() != length;
+        }
+    }
+
+    /** The idle readers, least recently released key first. */
+    private final LinkedHashMap<Key, Deque<Idle>> idle =
+        new LinkedHashMap<Key, Deque<Idle>>(64, 0.75f, true);
+
+    /** Maximum number of idle readers. */
+    private final int maxIdle;
+
+    /** Maximum number of files the idle readers may hold open. */
+    private final int maxFiles;
+
+    /** Time in ms. after which an idle reader is closed. */
+    private final long idleTimeout;
+
+    /** Number of idle readers. */
+    private int idleCount;
+
+    /** Number of files the idle readers may hold open. */
+    private int idleFiles;
+
+    private final ScheduledExecutorService timer;
+
+    private final Counter hits;
+
+    private final Counter misses;
+
+    private final Counter evictions;
+
+    private final Counter invalidations;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param maxIdle Maximum number of idle readers. If not positive,
+     *            readers are closed as soon as they are released.
+     * @param maxFiles Maximum number of files the idle readers may hold
+     *            open, each reader being counted as holding open the files
+     *            of its series.
+     * @param idleTimeout Time in ms. after which an idle reader is closed.
+     *            If not positive, idle readers are only closed to make room
+     *            for others.
+     * @param metrics The metrics to export the hit, miss, eviction and
+     *            invalidation counts through.
+     */
+    public BfReaderPool(int maxIdle, int maxFiles, long idleTimeout,
+            Metrics metrics) {
+        this.maxIdle = maxIdle;
+        this.maxFiles = maxFiles;
+        this.idleTimeout = idleTimeout;
+        this.hits = metrics.counter(this, "hits");
+        this.misses = metrics.counter(this, "misses");
+        this.evictions = metrics.counter(this, "evictions");
+        this.invalidations = metrics.counter(this, "invalidations");
+        if (maxIdle > 0 && idleTimeout > 0) {
+            long period = Math.max(1000, idleTimeout / 2);
+            timer = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "BfReaderPool-evictor");
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            timer.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        evictIdle();
+                    } catch (RuntimeException e) {
+                        log.warn("Failed to evict idle readers", e);
+                    }
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+        } else {
+            timer = null;
+        }
+        log.info(String.format(
+                "Bio-Formats reader pool of %d idle readers, %d files, " +
+                "%d ms. idle timeout", maxIdle, maxFiles, idleTimeout));
+    }
+
+    /**
+     * Takes an idle reader out of the pool. The reader must be given back
+     * with {@link #release(String, int, IFormatReader)} or closed.
+     *
+     * @param path The path of the file.
+     * @param series The series.
+     * @return The reader, initialized on <code>path</code>, or
+     *         <code>null</code> if there is none idle, in which case the
+     *         caller should create a new one.
+     */
+    public IFormatReader lease(String path, int series) {
+        List<IFormatReader> stale = new ArrayList<IFormatReader>();
+        IFormatReader reader = null;
+        File file = new File(path);
+        synchronized (this) {
+            Key key = new Key(path, series);
+            Deque<Idle> readers = idle.get(key);
+            while (reader == null && readers != null && !readers.isEmpty()) {
+                Idle i = readers.pollFirst();
+                remove(i);
+                if (i.isStale(file)) {
+                    stale.add(i.reader);
+                    invalidations.inc();
+                } else {
+                    reader = i.reader;
+                }
+            }
+            if (readers != null && readers.isEmpty()) {
+                idle.remove(key);
+            }
+            if (reader != null) {
+                hits.inc();
+            } else {
+                misses.inc();
+            }
+        }
+        close(stale);
+        return reader;
+    }
+
+    /**
+     * Gives a reader back to the pool, closing the least recently released
+     * idle readers if the pool is full. Readers which have not been
+     * initialized are closed.
+     *
+     * @param path The path of the file the reader was initialized on.
+     * @param series The series the reader was leased for.
+     * @param reader The reader, which must not be used afterwards.
+     */
+    public void release(String path, int series, IFormatReader reader) {
+        List<IFormatReader> evicted = new ArrayList<IFormatReader>();
+        int files = 1;
+        try {
+            files = Math.max(1, reader.getSeriesUsedFiles().length);
+        } catch (RuntimeException e) {
+            // Not initialized, or in a bad state.
+            files = Integer.MAX_VALUE;
+        }
+        if (maxIdle <= 0 || files > maxFiles
+                || reader.getCurrentFile() == null) {
+            evicted.add(reader);
+        } else {
+            Idle released = new Idle(reader, files, new File(path));
+            synchronized (this) {
+                Key key = new Key(path, series);
+                Deque<Idle> readers = idle.get(key);
+                if (readers == null) {
+                    readers = new ArrayDeque<Idle>();
+                    idle.put(key, readers);
+                }
+                readers.addFirst(released);
+                idleCount++;
+                idleFiles += files;
+                Iterator<Deque<Idle>> it = idle.values().iterator();
+                while ((idleCount > maxIdle || idleFiles > maxFiles)
+                        && it.hasNext()) {
+                    Deque<Idle> eldest = it.next();
+                    while ((idleCount > maxIdle || idleFiles > maxFiles)
+                            && !eldest.isEmpty()) {
+                        Idle i = eldest.pollLast();
+                        remove(i);
+                        evicted.add(i.reader);
+                        evictions.inc();
+                    }
+                    if (eldest.isEmpty()) {
+                        it.remove();
+                    }
+                }
+            }
+        }
+        close(evicted);
+    }
+
+    /**
+     * Closes the idle readers of a file, e.g. once it has been deleted.
+     *
+     * @param path The path of the file.
+     */
+    public void invalidate(String path) {
+        List<IFormatReader> stale = new ArrayList<IFormatReader>();
+        synchronized (this) {
+            Iterator<Map.Entry<Key, Deque<Idle>>> it =
+                idle.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Key, Deque<Idle>> entry = it.next();
+                if (entry.getKey().path.equals(path)) {
+                    for (Idle i : entry.getValue()) {
+                        remove(i);
+                        stale.add(i.reader);
+                        invalidations.inc();
+                    }
+                    it.remove();
+                }
+            }
+        }
+        close(stale);
+    }
+
+    /**
+     * Closes the readers which have been idle for longer than the idle
+     * timeout. Called periodically.
+     */
+    public void evictIdle() {
+        if (idleTimeout <= 0) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - idleTimeout;
+        List<IFormatReader> expired = new ArrayList<IFormatReader>();
+        synchronized (this) {
+            Iterator<Deque<Idle>> it = idle.values().iterator();
+            while (it.hasNext()) {
+                Deque<Idle> readers = it.next();
+                // Most recently released first.
+                while (!readers.isEmpty()
+                        && readers.peekLast().released < cutoff) {
+                    Idle i = readers.pollLast();
+                    remove(i);
+                    expired.add(i.reader);
+                    evictions.inc();
+                }
+                if (readers.isEmpty()) {
+                    it.remove();
+                }
+            }
+        }
+        close(expired);
+    }
+
+    /**
+     * Stops the timer and closes all the idle readers.
+     */
+    public void close() {
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+        List<IFormatReader> all = new ArrayList<IFormatReader>();
+        synchronized (this) {
+            for (Deque<Idle> readers : idle.values()) {
+                for (Idle i : readers) {
+                    all.add(i.reader);
+                }
+            }
+            idle.clear();
+            idleCount = 0;
+            idleFiles = 0;
+        }
+        close(all);
+    }
+
+    private void remove(Idle i) {
+        idleCount--;
+        idleFiles -= i.files;
+    }
+
+    /**
+     * Closes the readers, outside of the lock as closing them may be slow.
+     */
+    private static void close(List<IFormatReader> readers) {
+        for (IFormatReader reader : readers) {
+            try {
+                reader.close();
+            } catch (IOException | RuntimeException e) {
+                log.warn("Reader did not close successfully.", e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,54 @@
+/*
+ *   Copyright 2017 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.bioformats;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import loci.formats.FormatException;
+import loci.formats.IFormatReader;
+
+/**
+ * {@link BfPixelBuffer} whose reader is leased from a {@link BfReaderPool}
+ * and given back to it, rather than closed, when the buffer is closed. The
+ * buffer must not be used once closed.
+ *
+ * @since 5.3.0
+ */
+public class PooledBfPixelBuffer extends BfPixelBuffer {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient BfReaderPool pool;
+
+    /** The series the reader is pooled under. */
+    private final int poolSeries;
+
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    /**
+     * @param filePath The path of the original file.
+     * @param bfReader A reader leased from <code>pool</code> or a new one.
+     * @param pool The pool to give the reader back to.
+     * @param series The series the reader is leased for.
+     */
+    public PooledBfPixelBuffer(String filePath, IFormatReader bfReader,
+            BfReaderPool pool, int series)
+            throws IOException, FormatException {
+        super(filePath, bfReader);
+        this.pool = pool;
+        this.poolSeries = series;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.set(null);
+        if (released.compareAndSet(false, true)) {
+            pool.release(filePath, poolSeries, bfReader);
+        }
+    }
+
+}
@@ -12,14 +12,15 @@ import java.io.IOException;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
 import ome.model.core.Pixels;
 import ome.util.PixelData;
+import ome.util.checksum.ChecksumProvider;
+import ome.util.checksum.ChecksumProviderFactoryImpl;
+import ome.util.checksum.ChecksumType;
 
 /**
  * Class implementation of the PixelBuffer interface for in memory planar pixel
@@ -54,28 +55,33 @@ public class InMemoryPlanarPixelBuffer implements PixelBuffer
     
     public byte[] calculateMessageDigest() throws IOException
     {
-        MessageDigest md;
-
-        try {
-            md = MessageDigest.getInstance("SHA-1");
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(
-                    "Required SHA-1 message digest algorithm unavailable.");
-        }
+        return calculateChecksum(new ChecksumProviderFactoryImpl()
+                .getProvider(ChecksumType.SHA1));
+    }
 
+    public byte[] calculateChecksum(ChecksumProvider provider)
+            throws IOException
+    {
+        byte[] buf = null;
         for (int z = 0; z < getSizeZ(); z++) {
             for (int c = 0; c < getSizeC(); c++) {
                 for (int t = 0; t < getSizeT(); t++) {
                     try {
-                        ByteBuffer buffer = getPlane(z, c, t).getData();
-                        md.update(buffer);
+                        ByteBuffer buffer =
+                            getPlane(z, c, t).getData().duplicate();
+                        int length = buffer.remaining();
+                        if (buf == null || buf.length < length) {
+                            buf = new byte[length];
+                        }
+                        buffer.get(buf, 0, length);
+                        provider.putBytes(buf, 0, length);
                     } catch (DimensionsOutOfBoundsException e) {
                         throw new RuntimeException(e);
                     }
                 }
             }
         }
-        return md.digest();
+        return provider.checksumAsBytes();
     }
 
     public void checkBounds(Integer x, Integer y, Integer z, Integer c, 
@@ -0,0 +1,1042 @@
+/*
+ *   Copyright 2017 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ome.conditions.ResourceError;
+import ome.model.display.Thumbnail;
+
+/**
+ * Thumbnail store which appends thumbnails to large segment files rather than
+ * writing one file per thumbnail. The location of each thumbnail is kept in a
+ * memory-mapped index file holding one fixed-size record per thumbnail id:
+ * <pre>
+ * offset (long) | segment (int) | length (int)
+ * </pre>
+ * A record with a length of zero marks an absent thumbnail. The index is
+ * sparse, the file system only allocates the pages which hold records.
+ * <p>
+ * Thumbnails which are not in the index are looked up in the per-file layout
+ * of {@link ThumbnailService}, so that existing thumbnails remain readable
+ * after switching to this store. They are moved into the segments as they
+ * are regenerated.
+ * </p>
+ * <p>
+ * Removed and overwritten thumbnails leave unused space in their segment,
+ * the total of which is kept in a small memory-mapped state file. Once the
+ * unused space exceeds the size of a segment, {@link #compact()} is run in
+ * the background. It copies the remaining thumbnails out of every segment
+ * which is less than half full and deletes it.
+ * </p>
+ * <p>
+ * The index is flushed to disk on {@link #close()} and after compaction.
+ * Thumbnails are a cache which is regenerated when missing, so records
+ * lost in a crash only cost their regeneration. Records which point past
+ * the end of their segment, as left by a crash before the segment was
+ * flushed, are treated as missing.
+ * </p>
+ * <p>
+ * The index file is locked while the store is open, so that a second
+ * server process using the same data repository fails to start rather
+ * than corrupting the store.
+ * </p>
+ *
+ * @since 5.3.0
+ */
+public class PackedThumbnailService extends ThumbnailService
+{
+
+    /** The logger for this class. */
+    private transient static Logger log =
+        LoggerFactory.getLogger(PackedThumbnailService.class);
+
+    /** Directory below the thumbnails directory holding the store. */
+    public static final String PACKED_PATH = "packed";
+
+    /** Default size in bytes at which a new segment is started. */
+    public static final long DEFAULT_SEGMENT_SIZE = 256L * 1024 * 1024;
+
+    /** Size in bytes of an index record. */
+    private static final int RECORD_SIZE = 16;
+
+    /** Number of index records mapped at once. */
+    private static final int CHUNK_RECORDS = 1 << 20;
+
+    /** Size in bytes of a mapped part of the index. */
+    private static final long CHUNK_SIZE = (long) CHUNK_RECORDS * RECORD_SIZE;
+
+    /**
+     * Number of index records read by {@link #compact()} each time it takes
+     * the read lock.
+     */
+    private static final int SCAN_RECORDS = 1 << 16;
+
+    /**
+     * Largest gap in bytes between two thumbnails of a segment which are
+     * still read with a single read by {@link #getThumbnails(Collection)}.
+     */
+    private static final int MAX_READ_GAP = 64 * 1024;
+
+    /** Orders index records by segment then by offset. */
+    private static final Comparator<Entry> BY_POSITION =
+        new Comparator<Entry>()
+        {
+            public int compare(Entry a, Entry b)
+            {
+                if (a.segment != b.segment)
+                {
+                    return a.segment < b.segment ? -1 : 1;
+                }
+                return a.offset < b.offset ? -1
+                        : (a.offset == b.offset ? 0 : 1);
+            }
+        };
+
+    /** Directory holding the index and the segments. */
+    private final File directory;
+
+    /** Size in bytes at which a new segment is started. */
+    private final long segmentSize;
+
+    /** Guards the index and the segments. Writes hold the write lock. */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** Serializes compactions. Held before {@link #lock}. */
+    private final ReentrantLock compactLock = new ReentrantLock();
+
+    /** Runs the compactions triggered by removals. */
+    private final ExecutorService compactor;
+
+    /** Whether a compaction has been submitted to {@link #compactor}. */
+    private final AtomicBoolean compactPending = new AtomicBoolean();
+
+    /** The index file. */
+    private final RandomAccessFile index;
+
+    /** Lock on {@link #index} held while the store is open. */
+    private final FileLock indexLock;
+
+    /** The state file, holding {@link #unusedBytes}. */
+    private final RandomAccessFile state;
+
+    /** Mapped {@link #state}. */
+    private final MappedByteBuffer stateBuffer;
+
+    /** Mapped parts of the index, by chunk number. */
+    private final Map<Integer, MappedByteBuffer> chunks =
+        new HashMap<Integer, MappedByteBuffer>();
+
+    /** Open segments, by segment number. */
+    private final Map<Integer, FileChannel> segments =
+        new HashMap<Integer, FileChannel>();
+
+    /** The segment thumbnails are appended to. */
+    private int currentSegment;
+
+    /**
+     * Bytes of removed or overwritten thumbnails since the last compaction.
+     * Kept in {@link #stateBuffer}.
+     */
+    private long unusedBytes;
+
+    /** Location of a thumbnail in the segments. */
+    private static class Entry
+    {
+        final long id;
+        final int segment;
+        final long offset;
+        final int length;
+
+        Entry(long id, int segment, long offset, int length)
+        {
+            this.id = id;
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Constructor
+     * @param path The root of the data repository.
+     */
+    public PackedThumbnailService(String path)
+    {
+        this(path, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Constructor
+     * @param path The root of the data repository.
+     * @param segmentSize Size in bytes at which a new segment is started.
+     */
+    public PackedThumbnailService(String path, long segmentSize)
+    {
+        super(path);
+        if (segmentSize <= 0)
+        {
+            throw new IllegalArgumentException(
+                    "Segment size must be positive: " + segmentSize);
+        }
+        this.segmentSize = segmentSize;
+        directory = new File(new File(path, THUMBNAILS_PATH), PACKED_PATH);
+        directory.mkdirs();
+        try
+        {
+            index = new RandomAccessFile(new File(directory, "index"), "rw");
+        }
+        catch (FileNotFoundException e)
+        {
+            throw new IllegalArgumentException(
+                    "Cannot open thumbnail index in " + directory, e);
+        }
+        FileLock acquired = null;
+        try
+        {
+            acquired = index.getChannel().tryLock();
+        }
+        catch (OverlappingFileLockException e)
+        {
+            // Held by another instance in this process.
+        }
+        catch (IOException e)
+        {
+            log.warn("Cannot lock thumbnail index in " + directory, e);
+        }
+        if (acquired == null)
+        {
+            closeQuietly(index);
+            throw new ResourceError("Thumbnail store in " + directory
+                    + " is in use by another process.");
+        }
+        indexLock = acquired;
+        RandomAccessFile stateFile = null;
+        try
+        {
+            stateFile = new RandomAccessFile(new File(directory, "state"),
+                    "rw");
+            stateBuffer = stateFile.getChannel().map(
+                    FileChannel.MapMode.READ_WRITE, 0, 8);
+        }
+        catch (IOException e)
+        {
+            if (stateFile != null)
+            {
+                closeQuietly(stateFile);
+            }
+            closeQuietly(index);
+            throw new IllegalArgumentException(
+                    "Cannot open thumbnail store state in " + directory, e);
+        }
+        state = stateFile;
+        unusedBytes = stateBuffer.getLong(0);
+        currentSegment = Math.max(1, lastSegment());
+        compactor = Executors.newSingleThreadExecutor(new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "PackedThumbnailService-compactor");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        log.info("Packed thumbnail store in " + directory + " with "
+                + segmentSize + " byte segments");
+    }
+
+    @Override
+    public void createThumbnail(Thumbnail thumbnail, byte[] buf)
+            throws IOException
+    {
+        lock.writeLock().lock();
+        try
+        {
+            append(thumbnail.getId(), buf, 0, buf.length);
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+        // A thumbnail written by the per-file store would otherwise be left
+        // behind, hidden by the index record.
+        File legacy = new File(getThumbnailPath(thumbnail.getId()));
+        if (legacy.exists() && !legacy.delete())
+        {
+            log.warn("Could not delete " + legacy);
+        }
+    }
+
+    @Override
+    public long getThumbnailLength(Thumbnail thumbnail)
+    {
+        lock.readLock().lock();
+        try
+        {
+            Entry entry = lookup(thumbnail.getId());
+            if (entry != null)
+            {
+                return entry.length;
+            }
+        }
+        catch (IOException e)
+        {
+            throw new ResourceError(e.getMessage());
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+        return super.getThumbnailLength(thumbnail);
+    }
+
+    @Override
+    public byte[] getThumbnail(Thumbnail thumbnail) throws IOException
+    {
+        lock.readLock().lock();
+        try
+        {
+            Entry entry = lookup(thumbnail.getId());
+            if (entry != null)
+            {
+                byte[] buf = new byte[entry.length];
+                read(entry.segment, entry.offset, ByteBuffer.wrap(buf));
+                return buf;
+            }
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+        return super.getThumbnail(thumbnail);
+    }
+
+    @Override
+    public byte[] getThumbnail(Thumbnail thumbnail, byte[] buf)
+            throws IOException
+    {
+        lock.readLock().lock();
+        try
+        {
+            Entry entry = lookup(thumbnail.getId());
+            if (entry != null)
+            {
+                ByteBuffer target = ByteBuffer.wrap(buf, 0,
+                        Math.min(buf.length, entry.length));
+                read(entry.segment, entry.offset, target);
+                return buf;
+            }
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+        return super.getThumbnail(thumbnail, buf);
+    }
+
+    /**
+     * Reads the thumbnails sorted by their position in the segments, so
+     * that thumbnails which were written one after the other, as those of a
+     * page of images usually are, are read with a single read.
+     */
+    @Override
+    public Map<Long, byte[]> getThumbnails(Collection<Thumbnail> thumbnails)
+            throws IOException
+    {
+        Map<Long, byte[]> toReturn = new HashMap<Long, byte[]>();
+        List<Thumbnail> legacy = new ArrayList<Thumbnail>();
+        lock.readLock().lock();
+        try
+        {
+            List<Entry> entries = new ArrayList<Entry>();
+            for (Thumbnail thumbnail : thumbnails)
+            {
+                Entry entry = lookup(thumbnail.getId());
+                if (entry == null)
+                {
+                    legacy.add(thumbnail);
+                }
+                else
+                {
+                    entries.add(entry);
+                }
+            }
+            Collections.sort(entries, BY_POSITION);
+            int start = 0;
+            while (start < entries.size())
+            {
+                Entry first = entries.get(start);
+                long end = first.offset + first.length;
+                int last = start;
+                while (last + 1 < entries.size())
+                {
+                    Entry next = entries.get(last + 1);
+                    if (next.segment != first.segment
+                            || next.offset - end > MAX_READ_GAP
+                            || next.offset + next.length - first.offset
+                                > Integer.MAX_VALUE)
+                    {
+                        break;
+                    }
+                    end = Math.max(end, next.offset + next.length);
+                    last++;
+                }
+                byte[] run = new byte[(int) (end - first.offset)];
+                read(first.segment, first.offset, ByteBuffer.wrap(run));
+                for (int i = start; i <= last; i++)
+                {
+                    Entry entry = entries.get(i);
+                    byte[] buf = new byte[entry.length];
+                    System.arraycopy(run, (int) (entry.offset - first.offset),
+                            buf, 0, entry.length);
+                    toReturn.put(entry.id, buf);
+                }
+                start = last + 1;
+            }
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+        toReturn.putAll(super.getThumbnails(legacy));
+        return toReturn;
+    }
+
+    /**
+     * Returns a stream to the per-file location of the thumbnail, after
+     * removing the thumbnail from the index so that the file is the one
+     * read. {@link #createThumbnail(Thumbnail, byte[])} should be preferred.
+     */
+    @Override
+    public FileOutputStream getThumbnailOutputStream(Thumbnail thumbnail)
+            throws IOException
+    {
+        lock.writeLock().lock();
+        try
+        {
+            remove(thumbnail.getId());
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+        return super.getThumbnailOutputStream(thumbnail);
+    }
+
+    @Override
+    public boolean getThumbnailExists(Thumbnail thumbnail)
+            throws IOException
+    {
+        lock.readLock().lock();
+        try
+        {
+            if (lookup(thumbnail.getId()) != null)
+            {
+                return true;
+            }
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+        return super.getThumbnailExists(thumbnail);
+    }
+
+    /**
+     * Removes the thumbnails from the index and from the per-file layout,
+     * then starts compacting the segments if enough space has been freed.
+     */
+    @Override
+    public void removeThumbnails(List<Long> thumbnailIds)
+    {
+        removePackedThumbnails(thumbnailIds);
+        super.removeThumbnails(thumbnailIds);
+    }
+
+    /**
+     * Removes the thumbnails from the index only, then starts compacting the
+     * segments in the background if enough space has been freed. Used by
+     * callers which delete the per-file thumbnails themselves.
+     *
+     * @param thumbnailIds The thumbnail ids.
+     * @throws ResourceError If the index cannot be updated.
+     */
+    public void removePackedThumbnails(Collection<Long> thumbnailIds)
+    {
+        boolean compact;
+        lock.writeLock().lock();
+        try
+        {
+            for (Long id : thumbnailIds)
+            {
+                remove(id);
+            }
+            compact = unusedBytes > segmentSize;
+        }
+        catch (IOException e)
+        {
+            throw new ResourceError("Thumbnail deletion failed: "
+                    + e.getMessage());
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+        if (compact && compactPending.compareAndSet(false, true))
+        {
+            try
+            {
+                compactor.execute(new Runnable()
+                {
+                    public void run()
+                    {
+                        compactPending.set(false);
+                        try
+                        {
+                            compact();
+                        }
+                        catch (IOException e)
+                        {
+                            log.warn("Failed to compact thumbnail segments",
+                                    e);
+                        }
+                    }
+                });
+            }
+            catch (RejectedExecutionException e)
+            {
+                // Closed.
+                compactPending.set(false);
+            }
+        }
+    }
+
+    /**
+     * Returns the bytes of removed or overwritten thumbnails since the last
+     * compaction, which is persisted across restarts.
+     * @return See above.
+     */
+    public long getUnusedBytes()
+    {
+        lock.readLock().lock();
+        try
+        {
+            return unusedBytes;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Copies the thumbnails out of every segment other than the current one
+     * which is less than half full, then deletes those segments. The index
+     * is scanned in batches of records, each under the read lock, and each
+     * thumbnail is moved under the write lock, so that reads and writes may
+     * continue meanwhile. Since new thumbnails are only appended to the
+     * current segment, the older segments can only lose thumbnails while
+     * they are scanned, and {@link #move(Entry)} skips those.
+     * @throws IOException If a segment cannot be read or written.
+     */
+    public void compact() throws IOException
+    {
+        compactLock.lock();
+        try
+        {
+            long unusedBefore;
+            int lastSegment;
+            lock.readLock().lock();
+            try
+            {
+                unusedBefore = unusedBytes;
+                lastSegment = currentSegment;
+            }
+            finally
+            {
+                lock.readLock().unlock();
+            }
+            // First pass: how much of each segment is still used.
+            Map<Integer, Long> used = new TreeMap<Integer, Long>();
+            List<Entry> batch;
+            for (long from = 0; (batch = scan(from)) != null;
+                    from += SCAN_RECORDS)
+            {
+                for (Entry entry : batch)
+                {
+                    Long sum = used.get(entry.segment);
+                    used.put(entry.segment,
+                            (sum == null ? 0 : sum) + entry.length);
+                }
+            }
+            Set<Integer> sparse = new HashSet<Integer>();
+            for (int segment = 1; segment < lastSegment; segment++)
+            {
+                File file = segmentFile(segment);
+                Long sum = used.get(segment);
+                if (file.exists()
+                        && (sum == null ? 0 : sum) * 2 < file.length())
+                {
+                    sparse.add(segment);
+                }
+            }
+            // Second pass: the thumbnails of the sparse segments.
+            List<Entry> moving = new ArrayList<Entry>();
+            if (!sparse.isEmpty())
+            {
+                for (long from = 0; (batch = scan(from)) != null;
+                        from += SCAN_RECORDS)
+                {
+                    for (Entry entry : batch)
+                    {
+                        if (sparse.contains(entry.segment))
+                        {
+                            moving.add(entry);
+                        }
+                    }
+                }
+            }
+            for (Entry entry : moving)
+            {
+                lock.writeLock().lock();
+                try
+                {
+                    move(entry);
+                }
+                finally
+                {
+                    lock.writeLock().unlock();
+                }
+            }
+            lock.writeLock().lock();
+            try
+            {
+                if (!sparse.isEmpty())
+                {
+                    force();
+                }
+                for (Integer segment : sparse)
+                {
+                    FileChannel channel;
+                    synchronized (segments)
+                    {
+                        channel = segments.remove(segment);
+                    }
+                    if (channel != null)
+                    {
+                        channel.close();
+                    }
+                    File file = segmentFile(segment);
+                    if (!file.delete())
+                    {
+                        log.warn("Could not delete " + file);
+                    }
+                }
+                // Keep what was removed while compacting.
+                setUnusedBytes(Math.max(0, unusedBytes - unusedBefore));
+                stateBuffer.force();
+            }
+            finally
+            {
+                lock.writeLock().unlock();
+            }
+            log.info("Compacted " + sparse.size() + " thumbnail segments");
+        }
+        finally
+        {
+            compactLock.unlock();
+        }
+    }
+
+    /**
+     * Reads up to {@link #SCAN_RECORDS} index records under the read lock.
+     * @param from The id of the first record.
+     * @return The records which are not empty, or <code>null</code> if
+     * <code>from</code> is past the end of the index.
+     */
+    private List<Entry> scan(long from) throws IOException
+    {
+        lock.readLock().lock();
+        try
+        {
+            long records = records();
+            if (from >= records)
+            {
+                return null;
+            }
+            long to = Math.min(records, from + SCAN_RECORDS);
+            List<Entry> entries = new ArrayList<Entry>();
+            for (long id = from; id < to; id++)
+            {
+                Entry entry = read(id);
+                if (entry != null)
+                {
+                    entries.add(entry);
+                }
+            }
+            return entries;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Appends a thumbnail of a sparse segment to the current segment, unless
+     * it has been overwritten or removed since the index was scanned.
+     * Thumbnails which are not entirely in their segment are removed.
+     * Requires the write lock.
+     */
+    private void move(Entry entry) throws IOException
+    {
+        Entry current = read(entry.id);
+        if (current == null || current.segment != entry.segment
+                || current.offset != entry.offset
+                || current.length != entry.length)
+        {
+            return;
+        }
+        if (!isValid(current))
+        {
+            remove(entry.id);
+            return;
+        }
+        byte[] buf = new byte[entry.length];
+        read(entry.segment, entry.offset, ByteBuffer.wrap(buf));
+        append(entry.id, buf, 0, buf.length);
+        // The old copy is reclaimed with its segment.
+        setUnusedBytes(unusedBytes - entry.length);
+    }
+
+    /**
+     * Flushes the index to disk and closes the index and the segments.
+     */
+    public void close()
+    {
+        compactor.shutdown();
+        // Waits for a running compaction.
+        compactLock.lock();
+        lock.writeLock().lock();
+        try
+        {
+            force();
+            for (FileChannel channel : segments.values())
+            {
+                channel.close();
+            }
+            segments.clear();
+            chunks.clear();
+            state.close();
+            indexLock.release();
+            index.close();
+        }
+        catch (IOException e)
+        {
+            log.warn("Failed to close thumbnail store", e);
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+            compactLock.unlock();
+        }
+    }
+
+    /**
+     * Appends the thumbnail to the current segment and points its index
+     * record to it. Requires the write lock.
+     */
+    private void append(long id, byte[] buf, int offset, int length)
+            throws IOException
+    {
+        if (length == 0)
+        {
+            remove(id);
+            return;
+        }
+        FileChannel channel = segment(currentSegment);
+        long position = channel.size();
+        if (position > 0 && position + length > segmentSize)
+        {
+            currentSegment++;
+            channel = segment(currentSegment);
+            position = 0;
+        }
+        ByteBuffer source = ByteBuffer.wrap(buf, offset, length);
+        long at = position;
+        while (source.hasRemaining())
+        {
+            at += channel.write(source, at);
+        }
+        Entry previous = read(id);
+        if (previous != null)
+        {
+            setUnusedBytes(unusedBytes + previous.length);
+        }
+        write(id, currentSegment, position, length);
+    }
+
+    /**
+     * Clears the index record of the thumbnail. Requires the write lock.
+     */
+    private void remove(long id) throws IOException
+    {
+        Entry previous = read(id);
+        if (previous != null)
+        {
+            setUnusedBytes(unusedBytes + previous.length);
+            write(id, 0, 0, 0);
+        }
+    }
+
+    /**
+     * Sets {@link #unusedBytes} and its persisted value. Requires the write
+     * lock.
+     */
+    private void setUnusedBytes(long unusedBytes)
+    {
+        this.unusedBytes = unusedBytes;
+        stateBuffer.putLong(0, unusedBytes);
+    }
+
+    /**
+     * Returns the location of the thumbnail, or <code>null</code> if it is
+     * not in the index or not entirely in its segment, in which case the
+     * thumbnail is regenerated. Requires the read lock.
+     */
+    private Entry lookup(Long id) throws IOException
+    {
+        if (id == null)
+        {
+            throw new NullPointerException("Expecting a not-null id.");
+        }
+        Entry entry = read(id.longValue());
+        if (entry != null && !isValid(entry))
+        {
+            log.warn("Ignoring thumbnail " + id + " past the end of segment "
+                    + entry.segment);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Returns whether the thumbnail is entirely in its segment, which may
+     * not be the case if the index was flushed to disk before the segment
+     * by a crash.
+     */
+    private boolean isValid(Entry entry) throws IOException
+    {
+        boolean open;
+        synchronized (segments)
+        {
+            open = segments.containsKey(entry.segment);
+        }
+        if (!open && !segmentFile(entry.segment).exists())
+        {
+            return false;
+        }
+        return entry.offset + entry.length <= segment(entry.segment).size();
+    }
+
+    /**
+     * Returns the index record of the thumbnail, or <code>null</code> if it
+     * is absent.
+     */
+    private Entry read(long id) throws IOException
+    {
+        if (id < 0 || id >= records())
+        {
+            return null;
+        }
+        MappedByteBuffer chunk = chunk((int) (id / CHUNK_RECORDS));
+        int position = (int) (id % CHUNK_RECORDS) * RECORD_SIZE;
+        int length = chunk.getInt(position + 12);
+        if (length == 0)
+        {
+            return null;
+        }
+        return new Entry(id, chunk.getInt(position + 8),
+                chunk.getLong(position), length);
+    }
+
+    /**
+     * Writes the index record of the thumbnail. Requires the write lock.
+     */
+    private void write(long id, int segment, long offset, int length)
+            throws IOException
+    {
+        if (id < 0)
+        {
+            throw new IllegalArgumentException("Invalid thumbnail id: " + id);
+        }
+        MappedByteBuffer chunk = chunk((int) (id / CHUNK_RECORDS));
+        int position = (int) (id % CHUNK_RECORDS) * RECORD_SIZE;
+        chunk.putLong(position, offset);
+        chunk.putInt(position + 8, segment);
+        chunk.putInt(position + 12, length);
+    }
+
+    /**
+     * Returns the number of records the index can hold without growing.
+     */
+    private long records() throws IOException
+    {
+        return index.length() / RECORD_SIZE;
+    }
+
+    /**
+     * Maps a part of the index, growing the index file if necessary.
+     */
+    private MappedByteBuffer chunk(int number) throws IOException
+    {
+        synchronized (chunks)
+        {
+            MappedByteBuffer chunk = chunks.get(number);
+            if (chunk == null)
+            {
+                chunk = index.getChannel().map(FileChannel.MapMode.READ_WRITE,
+                        number * CHUNK_SIZE, CHUNK_SIZE);
+                chunks.put(number, chunk);
+            }
+            return chunk;
+        }
+    }
+
+    /**
+     * Reads from a segment until the buffer is full.
+     */
+    private void read(int segment, long offset, ByteBuffer target)
+            throws IOException
+    {
+        FileChannel channel = segment(segment);
+        long position = offset;
+        while (target.hasRemaining())
+        {
+            int read = channel.read(target, position);
+            if (read < 0)
+            {
+                throw new IOException("Unexpected end of thumbnail segment "
+                        + segment + " at " + position);
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Returns the channel of a segment, opening it if necessary.
+     */
+    private FileChannel segment(int number) throws IOException
+    {
+        synchronized (segments)
+        {
+            FileChannel channel = segments.get(number);
+            if (channel == null)
+            {
+                channel = new RandomAccessFile(segmentFile(number), "rw")
+                        .getChannel();
+                segments.put(number, channel);
+            }
+            return channel;
+        }
+    }
+
+    private File segmentFile(int number)
+    {
+        return new File(directory, String.format("segment-%06d", number));
+    }
+
+    /**
+     * Returns the highest segment number on disk, or 0 if there is none.
+     */
+    private int lastSegment()
+    {
+        int last = 0;
+        String[] names = directory.list();
+        if (names != null)
+        {
+            for (String name : names)
+            {
+                if (name.startsWith("segment-"))
+                {
+                    try
+                    {
+                        last = Math.max(last,
+                                Integer.parseInt(name.substring(8)));
+                    }
+                    catch (NumberFormatException e)
+                    {
+                        log.warn("Ignoring " + name + " in " + directory);
+                    }
+                }
+            }
+        }
+        return last;
+    }
+
+    /**
+     * Writes the mapped parts of the index and the segments to disk.
+     */
+    private void force() throws IOException
+    {
+        synchronized (chunks)
+        {
+            for (MappedByteBuffer chunk : chunks.values())
+            {
+                chunk.force();
+            }
+        }
+        synchronized (segments)
+        {
+            for (FileChannel channel : segments.values())
+            {
+                channel.force(false);
+            }
+        }
+        stateBuffer.force();
+    }
+
+    private static void closeQuietly(RandomAccessFile file)
+    {
+        try
+        {
+            file.close();
+        }
+        catch (IOException e)
+        {
+            log.warn("Failed to close " + file, e);
+        }
+    }
+
+}
@@ -15,6 +15,7 @@ import java.nio.ByteBuffer;
 import java.util.List;
 
 import ome.util.PixelData;
+import ome.util.checksum.ChecksumProvider;
 
 /**
  * 
@@ -611,6 +612,17 @@ public interface PixelBuffer extends Closeable
      * @throws IOException if there is a problem reading from the pixel buffer.
      */
     public byte[] calculateMessageDigest() throws IOException;
+
+    /**
+     * Calculates a checksum for the entire pixel buffer, reading the pixels
+     * in the same order as {@link #calculateMessageDigest()}. This allows
+     * faster, non-cryptographic algorithms to be used.
+     * @param provider a new checksum provider for the algorithm to use.
+     * @return byte array containing the checksum.
+     * @throws IOException if there is a problem reading from the pixel buffer.
+     */
+    public byte[] calculateChecksum(ChecksumProvider provider)
+            throws IOException;
     
     /**
      * Returns the byte width for the pixel buffer.
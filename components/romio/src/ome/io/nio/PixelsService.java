@@ -12,6 +12,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
@@ -29,6 +30,8 @@ import ome.conditions.MissingPyramidException;
 import ome.conditions.ResourceError;
 import ome.io.bioformats.BfPixelBuffer;
 import ome.io.bioformats.BfPyramidPixelBuffer;
+import ome.io.bioformats.BfReaderPool;
+import ome.io.bioformats.PooledBfPixelBuffer;
 import ome.io.messages.MissingPyramidMessage;
 import ome.io.messages.MissingStatsInfoMessage;
 import ome.parameters.Parameters;
@@ -92,7 +95,13 @@ public class PixelsService extends AbstractFileSystemService
 
 	private Timer tileTimes;
 
+	/** Number of threads reading tiles for a single pyramid. */
+	private int pyramidThreads = 1;
+
 	private Timer minmaxTimes;
+
+	/** Pool of initialized Bio-Formats readers, if any. */
+	private BfReaderPool readerPool;
 	
 	private IQuery iQuery;
 
@@ -188,6 +197,29 @@ public class PixelsService extends AbstractFileSystemService
         this.minmaxTimes = metrics.timer(this, "minmaxTimes");
     }
 
+    /**
+     * Sets the number of source readers which will be used in parallel to
+     * feed tiles to the pyramid writer in {@link #makePyramid(Pixels)}.
+     * Tiles are always written to the pyramid in order by a single thread.
+     * @param pyramidThreads Number of readers; values less than 1 are
+     * treated as 1.
+     */
+    public void setPyramidThreads(int pyramidThreads) {
+        this.pyramidThreads = Math.max(1, pyramidThreads);
+    }
+
+    /**
+     * Sets the pool from which the Bio-Formats readers of original files are
+     * leased, so that they are not initialized again for every pixel
+     * buffer. Pyramid pixel buffers also lease the readers of their pyramid
+     * file from it, sharing them with each other.
+     * @param readerPool The pool or <code>null</code> to create a new reader
+     * every time.
+     */
+    public void setReaderPool(BfReaderPool readerPool) {
+        this.readerPool = readerPool;
+    }
+
     public long getMemoizerWait() {
         return memoizerWait;
     }
@@ -392,68 +424,87 @@ public class PixelsService extends AbstractFileSystemService
         }
         log.info("Destination pyramid tile size: " + tileSize);
 
+        // Each additional reader gets its own source buffer. Sources which
+        // calculate min/max while reading must see whole channels.
+        final List<PixelBuffer> sources = new ArrayList<PixelBuffer>();
+        sources.add(source);
         try
         {
-            final double totalTiles =
-                source.getSizeZ() * source.getSizeC() * source.getSizeT() *
-                (Math.ceil(source.getSizeX() / tileSize.getWidth())) *
-                (Math.ceil(source.getSizeY() / tileSize.getHeight()));
-            final int tenPercent = Math.max((int) totalTiles / 10, 1);
-            Utils.forEachTile(new TileLoopIteration() {
-                public void run(int z, int c, int t, int x, int y, int w,
-                            int h, int tileCount)
+            final int readers = Math.max(1, Math.min(pyramidThreads,
+                    minMaxStore == null ? Integer.MAX_VALUE : pixels.getSizeC()));
+            while (sources.size() < readers)
             {
-                if (log.isInfoEnabled()
-                    && tileCount % tenPercent == 0)
+                if (minMaxStore == null)
                 {
-                    log.info(String.format(
-                            "Pyramid creation for Pixels:%d %d/%d (%d%%).",
-                            pixels.getId(), tileCount + 1, (int) totalTiles,
-                            (int) (tileCount / totalTiles * 100)));
+                    sources.add(createRomioPixelBuffer(
+                            pixelsFilePath, pixels, false));
                 }
-                try
+                else
                 {
-                    Timer.Context ctx = tileTimes == null ? null : tileTimes.time();
-                    try {
-                        PixelData tile = source.getTile(z, c, t, x, y, w, h);
-                        pixelsPyramid.setTile(
-                            tile.getData().array(), z, c, t, x, y, w, h);
-                        tile.dispose();
-                    } finally {
-                        if (ctx != null) {
-                            ctx.stop();
-                        }
-                    }
+                    sources.add(createMinMaxBfPixelBuffer(
+                            originalFilePath, getSeries(pixels), minMaxStore));
                 }
-                catch (IOException e1)
+            }
+
+            final double totalTiles =
+                source.getSizeZ() * source.getSizeC() * source.getSizeT() *
+                (Math.ceil(source.getSizeX() / tileSize.getWidth())) *
+                (Math.ceil(source.getSizeY() / tileSize.getHeight()));
+            final int tenPercent = Math.max((int) totalTiles / 10, 1);
+            final long start = System.currentTimeMillis();
+            log.info(String.format(
+                    "Pyramid creation for Pixels:%d using %d reader(s).",
+                    pixels.getId(), sources.size()));
+            TilePipeline pipeline = new TilePipeline(sources,
+                    minMaxStore != null, (int) tileSize.getWidth(),
+                    (int) tileSize.getHeight(), tileTimes);
+            pipeline.run(new TilePipeline.TileSink() {
+                public void write(PixelData tile, int z, int c, int t, int x,
+                        int y, int w, int h, int tileCount) throws IOException
                 {
-                    log.error("FAIL -- Error during tile population", e1);
-                    try
-                    {
-                        pixelsPyramidFile.delete();
-                        FileUtils.touch(pixelsPyramidFile); // ticket:5189
-                    }
-                    catch (Exception e2)
+                    if (log.isInfoEnabled()
+                        && tileCount % tenPercent == 0)
                     {
-                        log.warn("Error clearing empty or incomplete pixel " +
-                                 "buffer.", e2);
+                        long elapsed = System.currentTimeMillis() - start;
+                        long eta = tileCount == 0 ? -1 : (long)
+                            (elapsed * (totalTiles - tileCount) / tileCount);
+                        log.info(String.format(
+                                "Pyramid creation for Pixels:%d %d/%d (%d%%)" +
+                                " ETA: %d s.", pixels.getId(), tileCount + 1,
+                                (int) totalTiles,
+                                (int) (tileCount / totalTiles * 100),
+                                eta / 1000));
                     }
-                    return;
+                    pixelsPyramid.setTile(
+                        tile.getData().array(), z, c, t, x, y, w, h);
                 }
-            }
-            }, source, (int) tileSize.getWidth(), (int) tileSize.getHeight());
+            });
 
             log.info("SUCCESS -- Pyramid created for pixels id:" + pixels.getId());
 
         }
+        catch (IOException e1)
+        {
+            log.error("FAIL -- Error during tile population", e1);
+            try
+            {
+                pixelsPyramidFile.delete();
+                FileUtils.touch(pixelsPyramidFile); // ticket:5189
+            }
+            catch (Exception e2)
+            {
+                log.warn("Error clearing empty or incomplete pixel " +
+                         "buffer.", e2);
+            }
+        }
 
         finally
         {
-            if (source != null)
+            for (PixelBuffer buffer : sources)
             {
                 try
                 {
-                    source.close();
+                    buffer.close();
                 }
                 catch (IOException e)
                 {
@@ -765,7 +816,9 @@ public class PixelsService extends AbstractFileSystemService
     /**
      * Short-cut in the FS case where we know that we are dealing with a FS-lite
      * file, and want to retrieve the actual file as opposed to a pyramid or anything
-     * else. This may be used to access the original metadata.
+     * else. This may be used to access the original metadata. The reader
+     * may be taken from the reader pool and should be given back with
+     * {@link #releaseBfReader(Pixels, IFormatReader)} rather than closed.
      * @throws FormatException
      * @throws IOException
      */
@@ -773,12 +826,35 @@ public class PixelsService extends AbstractFileSystemService
         // from getPixelBuffer
         final String originalFilePath = getOriginalFilePath(pixels);
         final int series = getSeries(pixels);
-        final IFormatReader reader = createBfReader();
-        reader.setId(originalFilePath); // Called by BfPixelsBuffer elsewhere.
+        IFormatReader reader = null;
+        if (readerPool != null) {
+            reader = readerPool.lease(originalFilePath, series);
+        }
+        if (reader == null) {
+            reader = createBfReader();
+            reader.setId(originalFilePath); // Called by BfPixelsBuffer elsewhere.
+        }
         reader.setSeries(series);
         return reader;
     }
 
+    /**
+     * Gives back a reader obtained from {@link #getBfReader(Pixels)} to the
+     * reader pool, or closes it if there is no pool.
+     * @param pixels The pixels set the reader was obtained for.
+     * @param reader The reader, which must not be used afterwards.
+     * @throws IOException If the reader cannot be closed.
+     */
+    public void releaseBfReader(Pixels pixels, IFormatReader reader)
+            throws IOException {
+        if (readerPool == null) {
+            reader.close();
+            return;
+        }
+        readerPool.release(getOriginalFilePath(pixels), getSeries(pixels),
+                reader);
+    }
+
     /**
      * Create an {@link IFormatReader} with the appropriate {@link loci.formats.ReaderWrapper}
      * instances and {@link IFormatReader#setFlattenedResolutions(boolean)} set to false.
@@ -803,8 +879,17 @@ public class PixelsService extends AbstractFileSystemService
                                               final int series) {
         try
         {
-            IFormatReader reader = createBfReader();
-            BfPixelBuffer pixelBuffer = new BfPixelBuffer(filePath, reader);
+            BfPixelBuffer pixelBuffer;
+            if (readerPool == null) {
+                pixelBuffer = new BfPixelBuffer(filePath, createBfReader());
+            } else {
+                IFormatReader reader = readerPool.lease(filePath, series);
+                if (reader == null) {
+                    reader = createBfReader();
+                }
+                pixelBuffer = new PooledBfPixelBuffer(filePath, reader,
+                        readerPool, series);
+            }
             pixelBuffer.setSeries(series);
             log.info(String.format("Creating BfPixelBuffer: %s Series: %d",
                     filePath, series));
@@ -833,7 +918,10 @@ public class PixelsService extends AbstractFileSystemService
                 // #5159. Creating the path if we need to write.
                 createSubpath(filePath);
             }
-            return new BfPyramidPixelBuffer(pixels, filePath, write);
+            BfPyramidPixelBuffer pyramid =
+                new BfPyramidPixelBuffer(pixels, filePath, write);
+            pyramid.setReaderPool(readerPool);
+            return pyramid;
         }
         catch (Exception e)
         {
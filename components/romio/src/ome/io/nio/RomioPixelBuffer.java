@@ -17,8 +17,6 @@ import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -26,6 +24,9 @@ import java.util.List;
 import ome.conditions.ApiUsageException;
 import ome.model.core.Pixels;
 import ome.util.PixelData;
+import ome.util.checksum.ChecksumProvider;
+import ome.util.checksum.ChecksumProviderFactoryImpl;
+import ome.util.checksum.ChecksumType;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -48,6 +49,9 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
     /** Default maximum buffer size for planar data transfer. (1MB) */
     public static final int MAXIMUM_BUFFER_SIZE = 1048576;
 
+    /** Size of the sequential reads used to checksum the pixels. (8MB) */
+    public static final int CHECKSUM_BUFFER_SIZE = 8 * 1048576;
+
     /** Reference to the pixels. */
     private Pixels pixels;
 
@@ -514,44 +518,77 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
     	if (stride == null || stride < 0) stride = 0;
     	checkBounds(x, y, z, c, t);
     	checkBounds(x+width-1, y+height-1, null, null, null);
-    	
-    	PixelData plane = getPlane(z, c, t);
-    	Integer size;
-    	ByteBuffer buf;
-    	PixelData region = null;
-    	int offset;
-    	
-    	if (stride == 0) {
-    		size =  width*height*getByteWidth();
-            buf = ByteBuffer.wrap(new byte[size]);
-            region = new PixelData(pixels.getPixelsType().getValue(), buf);
-            for (int i = 0; i < height; i++) {
-            	for (int j = 0; j < width; j++) {
-            		offset = (i+y)*getSizeX()+x+j;
-            		region.setPixelValue(i*width+j, plane.getPixelValue(offset));
-            	}
-            }
-            plane.dispose();
-            return region;
-    	}
+
     	stride++;
-    	int w = width/stride;
-    	size = width*height*getByteWidth()/(stride*stride);
-        buf = ByteBuffer.wrap(new byte[size]);
-        region = new PixelData(pixels.getPixelsType().getValue(), buf);
-    	int k = 0;
-    	int l = 0;
-    	for (int i = 0; i < height; i = i+stride) {
-    		l = 0;
-        	for (int j = 0; j < width; j = j+stride) {
-        		offset = (i+y)*getSizeX()+x+j;
-        		region.setPixelValue(k*w+l, plane.getPixelValue(offset));
-        		l++;
-        	}
-        	k++;
+    	final int bpp = getByteWidth();
+    	final int w = width/stride;
+    	final int h = height/stride;
+    	final byte[] region = new byte[w*h*bpp];
+    	final PixelData data = new PixelData(
+    			pixels.getPixelsType().getValue(), ByteBuffer.wrap(region));
+    	if (region.length == 0) {
+    		return data;
+    	}
+    	final long planeOffset = getPlaneOffset(z, c, t);
+    	final long rowSize = (long) getSizeX()*bpp;
+    	final FileChannel fileChannel = getFileChannel();
+
+    	if (stride == 1) {
+    		// One positioned read per row, straight into the region.
+    		final ByteBuffer dst = ByteBuffer.wrap(region);
+    		for (int i = 0; i < h; i++) {
+    			dst.limit((i+1)*w*bpp);
+    			dst.position(i*w*bpp);
+    			readFully(fileChannel, dst,
+    					planeOffset + (y+i)*rowSize + (long) x*bpp);
+    		}
+    	} else {
+    		// Only the rows which are sampled are read, each into a reused
+    		// row buffer from which every stride-th pixel is copied.
+    		final int span = ((w-1)*stride+1)*bpp;
+    		final byte[] row = new byte[span];
+    		final ByteBuffer src = ByteBuffer.wrap(row);
+    		final int step = stride*bpp;
+    		int k = 0;
+    		for (int i = 0; i < h; i++) {
+    			src.clear();
+    			readFully(fileChannel, src,
+    					planeOffset + (long) (y+i*stride)*rowSize
+    					+ (long) x*bpp);
+    			if (bpp == 1) {
+    				for (int j = 0; j < span; j += step) {
+    					region[k++] = row[j];
+    				}
+    			} else {
+    				for (int j = 0; j < span; j += step) {
+    					System.arraycopy(row, j, region, k, bpp);
+    					k += bpp;
+    				}
+    			}
+    		}
+    	}
+    	return data;
+    }
+
+    /**
+     * Fills the remaining space of the buffer from the given file position.
+     * Anything beyond the end of the file, i.e. never written, is left as
+     * zeros.
+     *
+     * @param fileChannel the channel to read from.
+     * @param dst the buffer to fill.
+     * @param position the file position to start at.
+     * @throws IOException if an I/O error occurs.
+     */
+    private static void readFully(FileChannel fileChannel, ByteBuffer dst,
+            long position) throws IOException {
+        while (dst.hasRemaining()) {
+            int read = fileChannel.read(dst, position);
+            if (read < 0) {
+                break;
+            }
+            position += read;
         }
-        plane.dispose();
-        return region;
     }
     
     /**
@@ -759,31 +796,37 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
      * @see PixelBuffer#calculateMessageDigest()
 	 */
     public byte[] calculateMessageDigest() throws IOException {
-        MessageDigest md;
-
-        try {
-            md = MessageDigest.getInstance("SHA-1");
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(
-                    "Required SHA-1 message digest algorithm unavailable.");
-        }
+        return calculateChecksum(new ChecksumProviderFactoryImpl()
+                .getProvider(ChecksumType.SHA1));
+    }
 
-        for (int t = 0; t < getSizeT(); t++) {
-            for (int c = 0; c < getSizeC(); c++) {
-                for (int z = 0; z < getSizeZ(); z++) {
-                    try {
-                        final PixelData pd = getPlane(z, c, t);
-                        md.update(pd.getData());
-                        pd.dispose();
-                    } catch (DimensionsOutOfBoundsException e) {
-                        // This better not happen. :)
-                        throw new RuntimeException(e);
-                    }
-                }
+    /**
+     * Implemented as specified by {@link PixelBuffer} I/F.
+     * Planes are stored one after the other in T, C, Z order, so the pixels
+     * file is read from start to end with large sequential reads into a
+     * single buffer rather than mapping every plane. Anything beyond the end
+     * of the file, i.e. never written, is read as zeros.
+     * @see PixelBuffer#calculateChecksum(ChecksumProvider)
+     */
+    public byte[] calculateChecksum(ChecksumProvider provider)
+            throws IOException {
+        final FileChannel fileChannel = getFileChannel();
+        final long size = getTotalSize();
+        final byte[] buf =
+            new byte[(int) Math.min(CHECKSUM_BUFFER_SIZE, size)];
+        final ByteBuffer dst = ByteBuffer.wrap(buf);
+        for (long position = 0; position < size;) {
+            int length = (int) Math.min(buf.length, size - position);
+            dst.clear();
+            dst.limit(length);
+            readFully(fileChannel, dst, position);
+            if (dst.hasRemaining()) {
+                Arrays.fill(buf, dst.position(), length, (byte) 0);
             }
+            provider.putBytes(buf, 0, length);
+            position += length;
         }
-
-        return md.digest();
+        return provider.checksumAsBytes();
     }
 
     /**
@@ -10,7 +10,10 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -96,6 +99,22 @@ public class ThumbnailService extends AbstractFileSystemService {
         return buf;
     }
 
+    /**
+     * Returns the bytes of several thumbnails.
+     *
+     * @param thumbnails The thumbnail metadata.
+     * @return Map of thumbnail id vs. thumbnail bytes.
+     * @throws IOException
+     */
+    public Map<Long, byte[]> getThumbnails(Collection<Thumbnail> thumbnails)
+            throws IOException {
+        Map<Long, byte[]> toReturn = new HashMap<Long, byte[]>();
+        for (Thumbnail thumbnail : thumbnails) {
+            toReturn.put(thumbnail.getId(), getThumbnail(thumbnail));
+        }
+        return toReturn;
+    }
+
     /**
      * Return FileOutputStream of Thumbnail
      * 
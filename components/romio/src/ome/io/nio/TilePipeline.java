@@ -0,0 +1,434 @@
+/*
+ * ome.io.nio.TilePipeline
+ *
+ *   Copyright 2017 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.nio;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import ome.system.metrics.Timer;
+import ome.util.PixelData;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Copies every tile of a set of source {@link PixelBuffer} instances into a
+ * {@link TileSink} in the order given by
+ * {@link Utils#forEachTile(TileLoopIteration, int, int, int, int, int, int, int)}.
+ * Each source is read on its own thread and hands its tiles to the single
+ * writing thread (the caller of {@link #run(TileSink)}) through a small bounded
+ * queue, so that reading and decoding of later tiles overlaps with the
+ * compression and writing of earlier ones.
+ * <p>
+ * Tiles are sharded between the sources either tile by tile or, when
+ * {@link #shardByChannel} is set, by channel. The latter is required for
+ * sources which calculate statistics over a whole channel while reading,
+ * e.g. Bio-Formats' <code>MinMaxCalculator</code>.
+ * </p>
+ *
+ * @since 5.3.0
+ */
+public class TilePipeline
+{
+    /** The logger for this class. */
+    private final static Logger log =
+        LoggerFactory.getLogger(TilePipeline.class);
+
+    /** Number of tiles each reader may have waiting for the writer. */
+    public static final int QUEUE_DEPTH = 4;
+
+    /**
+     * Receives the tiles in order. The {@link PixelData} is disposed of by
+     * the pipeline once this method returns.
+     */
+    public interface TileSink
+    {
+        void write(PixelData tile, int z, int c, int t, int x, int y, int w,
+                int h, int tileCount) throws IOException;
+    }
+
+    /** A tile read by one of the sources, or the error encountered. */
+    private static class Tile
+    {
+        final PixelData data;
+
+        final Timer.Context ctx;
+
+        final Throwable error;
+
+        Tile(PixelData data, Timer.Context ctx, Throwable error)
+        {
+            this.data = data;
+            this.ctx = ctx;
+            this.error = error;
+        }
+    }
+
+    private final List<PixelBuffer> sources;
+
+    private final boolean shardByChannel;
+
+    private final int tileWidth;
+
+    private final int tileHeight;
+
+    private final Timer tileTimes;
+
+    private final List<BlockingQueue<Tile>> queues;
+
+    private volatile boolean cancelled = false;
+
+    /**
+     * Set by a reader thread which ended abnormally, e.g. with an
+     * {@link Error}, so that the writer stops waiting for its tiles.
+     */
+    private volatile Throwable readerFailure = null;
+
+    /** Milliseconds the writer waits for a tile before checking
+     * {@link #readerFailure} again. */
+    private static final long POLL_INTERVAL = 100;
+
+    /** Default for {@link #setShutdownTimeout(long)}. */
+    public static final long DEFAULT_SHUTDOWN_TIMEOUT = 60000;
+
+    /** Milliseconds to wait for the readers to stop once the run ends. */
+    private long shutdownTimeout = DEFAULT_SHUTDOWN_TIMEOUT;
+
+    /**
+     * @param sources One or more buffers of identical dimensions, each of
+     * which will only be accessed from a single thread. The caller remains
+     * responsible for closing them.
+     * @param shardByChannel whether each source must read whole channels.
+     * @param tileWidth maximum tile width.
+     * @param tileHeight maximum tile height.
+     * @param tileTimes possibly null timer which is given the time from the
+     * start of the read of a tile until the end of its write.
+     */
+    public TilePipeline(List<PixelBuffer> sources, boolean shardByChannel,
+            int tileWidth, int tileHeight, Timer tileTimes)
+    {
+        if (sources == null || sources.isEmpty())
+        {
+            throw new IllegalArgumentException("No sources");
+        }
+        this.sources = sources;
+        this.shardByChannel = shardByChannel;
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+        this.tileTimes = tileTimes;
+        this.queues = new ArrayList<BlockingQueue<Tile>>(sources.size());
+        for (int i = 0; i < sources.size(); i++)
+        {
+            queues.add(new ArrayBlockingQueue<Tile>(QUEUE_DEPTH));
+        }
+    }
+
+    /**
+     * Sets how long {@link #run(TileSink)} waits for the reader threads to
+     * stop before returning, since a source may not respond to interruption
+     * while it is reading a tile.
+     * @param millis timeout in milliseconds.
+     */
+    public void setShutdownTimeout(long millis)
+    {
+        this.shutdownTimeout = millis;
+    }
+
+    private int shard(int c, int tileCount)
+    {
+        return (shardByChannel ? c : tileCount) % sources.size();
+    }
+
+    /**
+     * Copies all tiles into the sink, blocking until the last has been
+     * written.
+     * @param sink Destination for the tiles.
+     * @return The total number of tiles written.
+     * @throws IOException if a tile could not be read or written, or if the
+     * readers did not stop within the shutdown timeout, in which case they
+     * may still be accessing the sources.
+     */
+    public int run(final TileSink sink) throws IOException
+    {
+        final PixelBuffer first = sources.get(0);
+        if (sources.size() == 1)
+        {
+            return runInline(first, sink);
+        }
+
+        final ExecutorService readers =
+            Executors.newFixedThreadPool(sources.size());
+        final int count;
+        boolean stopped = false;
+        try
+        {
+            for (int i = 0; i < sources.size(); i++)
+            {
+                final int shard = i;
+                readers.execute(new Runnable() {
+                    public void run()
+                    {
+                        read(shard);
+                    }
+                });
+            }
+            final IOException[] failure = new IOException[1];
+            count = Utils.forEachTile(new TileLoopIteration() {
+                public void run(int z, int c, int t, int x, int y, int w,
+                        int h, int tileCount)
+                {
+                    if (failure[0] != null)
+                    {
+                        return;
+                    }
+                    try
+                    {
+                        Tile tile = take(shard(c, tileCount));
+                        if (tile.error != null)
+                        {
+                            throw failure(tile.error);
+                        }
+                        write(sink, tile.data, tile.ctx,
+                              z, c, t, x, y, w, h, tileCount);
+                    }
+                    catch (IOException e)
+                    {
+                        failure[0] = e;
+                    }
+                    catch (Exception e)
+                    {
+                        failure[0] = new IOException(e);
+                    }
+                    catch (Error e)
+                    {
+                        failure[0] = new IOException(e);
+                    }
+                    if (failure[0] != null)
+                    {
+                        cancelled = true;
+                    }
+                }
+            }, first, tileWidth, tileHeight);
+            if (failure[0] != null)
+            {
+                throw failure[0];
+            }
+        }
+        finally
+        {
+            cancelled = true;
+            stopped = stop(readers);
+        }
+        if (!stopped)
+        {
+            throw new IOException("Tile readers did not stop within "
+                    + shutdownTimeout + " ms");
+        }
+        return count;
+    }
+
+    /**
+     * Interrupts the readers and waits for them to stop, so that the caller
+     * may close the sources, then disposes of any tiles left in the queues.
+     * @return <code>false</code> if the readers are still running.
+     */
+    private boolean stop(ExecutorService readers)
+    {
+        readers.shutdownNow();
+        boolean stopped = false;
+        try
+        {
+            stopped = readers.awaitTermination(
+                    shutdownTimeout, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+        }
+        if (!stopped)
+        {
+            log.error(String.format(
+                    "Tile readers still running after %d ms", shutdownTimeout));
+        }
+        for (BlockingQueue<Tile> queue : queues)
+        {
+            Tile tile;
+            while ((tile = queue.poll()) != null)
+            {
+                if (tile.data != null)
+                {
+                    tile.data.dispose();
+                }
+            }
+        }
+        return stopped;
+    }
+
+    /**
+     * Sequential path used when there is only a single source.
+     */
+    private int runInline(final PixelBuffer source, final TileSink sink)
+        throws IOException
+    {
+        final IOException[] failure = new IOException[1];
+        int count = Utils.forEachTile(new TileLoopIteration() {
+            public void run(int z, int c, int t, int x, int y, int w, int h,
+                    int tileCount)
+            {
+                if (failure[0] != null)
+                {
+                    return;
+                }
+                Timer.Context ctx = tileTimes == null ? null : tileTimes.time();
+                try
+                {
+                    write(sink, source.getTile(z, c, t, x, y, w, h), ctx,
+                          z, c, t, x, y, w, h, tileCount);
+                }
+                catch (IOException e)
+                {
+                    failure[0] = e;
+                }
+            }
+        }, source, tileWidth, tileHeight);
+        if (failure[0] != null)
+        {
+            throw failure[0];
+        }
+        return count;
+    }
+
+    private void write(TileSink sink, PixelData data, Timer.Context ctx,
+            int z, int c, int t, int x, int y, int w, int h, int tileCount)
+        throws IOException
+    {
+        try
+        {
+            sink.write(data, z, c, t, x, y, w, h, tileCount);
+        }
+        finally
+        {
+            data.dispose();
+            if (ctx != null)
+            {
+                ctx.stop();
+            }
+        }
+    }
+
+    /**
+     * Reads all the tiles which belong to the given shard, in order. A read
+     * failure is handed to the writer in place of the tile and ends this
+     * shard; the other shards continue until the writer reaches the failure.
+     */
+    private void read(final int shard)
+    {
+        final PixelBuffer source = sources.get(shard);
+        final BlockingQueue<Tile> queue = queues.get(shard);
+        final boolean[] failed = new boolean[1];
+        try
+        {
+            Utils.forEachTile(new TileLoopIteration() {
+                public void run(int z, int c, int t, int x, int y, int w,
+                        int h, int tileCount)
+                {
+                    if (cancelled || failed[0]
+                        || shard(c, tileCount) != shard)
+                    {
+                        return;
+                    }
+                    Timer.Context ctx =
+                        tileTimes == null ? null : tileTimes.time();
+                    Tile tile;
+                    try
+                    {
+                        tile = new Tile(source.getTile(z, c, t, x, y, w, h),
+                                        ctx, null);
+                    }
+                    catch (Throwable e)
+                    {
+                        tile = new Tile(null, ctx, e);
+                        failed[0] = true;
+                    }
+                    put(queue, tile);
+                }
+            }, source, tileWidth, tileHeight);
+        }
+        catch (Throwable t)
+        {
+            log.error("Tile reader failed", t);
+            readerFailure = t;
+            put(queue, new Tile(null, null, t));
+        }
+    }
+
+    private void put(BlockingQueue<Tile> queue, Tile tile)
+    {
+        try
+        {
+            // The writer always drains a shard in order so this cannot
+            // deadlock, but stop waiting once the writer has given up.
+            while (!queue.offer(tile, 100, TimeUnit.MILLISECONDS))
+            {
+                if (cancelled)
+                {
+                    break;
+                }
+            }
+        }
+        catch (InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+        }
+        if (cancelled && tile.data != null)
+        {
+            // Possibly already queued, in which case the writer's clean up
+            // may also dispose of it; dispose() is safe to repeat.
+            tile.data.dispose();
+        }
+    }
+
+    /**
+     * Waits for the next tile of the given shard. Rather than blocking
+     * indefinitely, polls so that the death of any reader thread is noticed
+     * even if its failure could not be queued.
+     */
+    private Tile take(int shard) throws IOException, InterruptedException
+    {
+        final BlockingQueue<Tile> queue = queues.get(shard);
+        while (true)
+        {
+            Tile tile = queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+            if (tile != null)
+            {
+                return tile;
+            }
+            Throwable t = readerFailure;
+            if (t != null)
+            {
+                throw failure(t);
+            }
+        }
+    }
+
+    private static IOException failure(Throwable t)
+    {
+        if (t instanceof IOException)
+        {
+            return (IOException) t;
+        }
+        return new IOException(t);
+    }
+
+}
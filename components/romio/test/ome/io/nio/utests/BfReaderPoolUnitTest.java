@@ -0,0 +1,123 @@
+/*
+ *   Copyright 2017 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import java.io.File;
+import java.io.IOException;
+
+import loci.formats.IFormatReader;
+import loci.formats.in.FakeReader;
+import ome.io.bioformats.BfReaderPool;
+import ome.system.metrics.NullMetrics;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the leasing, eviction and invalidation of pooled readers.
+ * @since 5.3.0
+ */
+public class BfReaderPoolUnitTest {
+
+    private File dir;
+
+    private BfReaderPool pool;
+
+    @BeforeMethod
+    public void setUp() {
+        dir = new File(PathUtil.getInstance().getTemporaryDataFilePath());
+        dir.mkdirs();
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        if (pool != null) {
+            pool.close();
+        }
+        FileUtils.deleteDirectory(dir);
+    }
+
+    private String fake(String name) throws IOException {
+        File file = new File(dir, name + "&sizeX=8&sizeY=8.fake");
+        FileUtils.touch(file);
+        return file.getAbsolutePath();
+    }
+
+    private IFormatReader open(String path) throws Exception {
+        IFormatReader reader = new FakeReader();
+        reader.setId(path);
+        return reader;
+    }
+
+    @Test
+    public void testLeaseReleased() throws Exception {
+        pool = new BfReaderPool(4, 16, 0, new NullMetrics());
+        String path = fake("a");
+        Assert.assertNull(pool.lease(path, 0));
+        IFormatReader reader = open(path);
+        pool.release(path, 0, reader);
+        Assert.assertNull(pool.lease(path, 1));
+        Assert.assertSame(pool.lease(path, 0), reader);
+        // Leased exclusively.
+        Assert.assertNull(pool.lease(path, 0));
+    }
+
+    @Test
+    public void testUninitializedNotPooled() throws Exception {
+        pool = new BfReaderPool(4, 16, 0, new NullMetrics());
+        String path = fake("a");
+        pool.release(path, 0, new FakeReader());
+        Assert.assertNull(pool.lease(path, 0));
+    }
+
+    @Test
+    public void testLeastRecentlyReleasedEvicted() throws Exception {
+        pool = new BfReaderPool(2, 16, 0, new NullMetrics());
+        String a = fake("a"), b = fake("b"), c = fake("c");
+        IFormatReader readerA = open(a);
+        pool.release(a, 0, readerA);
+        pool.release(b, 0, open(b));
+        pool.release(c, 0, open(c));
+        Assert.assertNull(pool.lease(a, 0));
+        Assert.assertNull(readerA.getCurrentFile());
+        Assert.assertNotNull(pool.lease(b, 0));
+        Assert.assertNotNull(pool.lease(c, 0));
+    }
+
+    @Test
+    public void testChangedFileInvalidated() throws Exception {
+        pool = new BfReaderPool(4, 16, 0, new NullMetrics());
+        String path = fake("a");
+        pool.release(path, 0, open(path));
+        File file = new File(path);
+        Assert.assertTrue(file.setLastModified(file.lastModified() - 60000));
+        Assert.assertNull(pool.lease(path, 0));
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        pool = new BfReaderPool(4, 16, 0, new NullMetrics());
+        String path = fake("a");
+        pool.release(path, 0, open(path));
+        pool.release(path, 1, open(path));
+        pool.invalidate(path);
+        Assert.assertNull(pool.lease(path, 0));
+        Assert.assertNull(pool.lease(path, 1));
+    }
+
+    @Test
+    public void testIdleEvicted() throws Exception {
+        pool = new BfReaderPool(4, 16, 1, new NullMetrics());
+        String path = fake("a");
+        pool.release(path, 0, open(path));
+        Thread.sleep(10);
+        pool.evictIdle();
+        Assert.assertNull(pool.lease(path, 0));
+    }
+
+}
@@ -0,0 +1,122 @@
+/*
+ *   Copyright 2017 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import ome.io.nio.PixelBuffer;
+import ome.io.nio.PixelsService;
+import ome.model.core.Pixels;
+import ome.model.enums.PixelsType;
+import ome.util.PixelData;
+import ome.util.checksum.ChecksumProviderFactoryImpl;
+import ome.util.checksum.ChecksumType;
+
+/**
+ * Compares the checksums streamed out of the ROMIO pixel buffer with a
+ * digest of the planes read one by one, which is how the SHA-1 of a set of
+ * pixels used to be calculated.
+ */
+public class ChecksumUnitTest {
+
+    private static final String ROOT =
+        PathUtil.getInstance().getTemporaryDataFilePath();
+
+    private static final int SIZE = 512;
+
+    private static final int SIZE_Z = 3;
+
+    private static final int SIZE_C = 2;
+
+    private static final int SIZE_T = 2;
+
+    private PixelBuffer pixelBuffer;
+
+    @BeforeClass
+    public void setUp() throws Exception {
+        Pixels pixels = new Pixels();
+        pixels.setId(1L);
+        pixels.setSizeX(SIZE);
+        pixels.setSizeY(SIZE);
+        pixels.setSizeZ(SIZE_Z);
+        pixels.setSizeC(SIZE_C);
+        pixels.setSizeT(SIZE_T);
+        PixelsType type = new PixelsType();
+        type.setValue("uint16");
+        pixels.setPixelsType(type);
+
+        PixelsService service = new PixelsService(ROOT);
+        pixelBuffer = service.getPixelBuffer(pixels, true);
+        ByteBuffer plane = ByteBuffer.allocate(SIZE * SIZE * 2);
+        for (int t = 0; t < SIZE_T; t++) {
+            for (int c = 0; c < SIZE_C; c++) {
+                for (int z = 0; z < SIZE_Z; z++) {
+                    for (int i = 0; i < SIZE * SIZE; i++) {
+                        plane.putShort(i * 2, (short) (i * 7 + z + c + t));
+                    }
+                    pixelBuffer.setPlane(plane.array(), z, c, t);
+                }
+            }
+        }
+    }
+
+    @AfterClass
+    public void tearDown() throws IOException {
+        pixelBuffer.close();
+        FileUtils.deleteDirectory(new File(ROOT));
+    }
+
+    /**
+     * The former implementation of
+     * {@link PixelBuffer#calculateMessageDigest()}.
+     */
+    private byte[] reference(String algorithm) throws Exception {
+        MessageDigest md = MessageDigest.getInstance(algorithm);
+        for (int t = 0; t < SIZE_T; t++) {
+            for (int c = 0; c < SIZE_C; c++) {
+                for (int z = 0; z < SIZE_Z; z++) {
+                    PixelData plane = pixelBuffer.getPlane(z, c, t);
+                    md.update(plane.getData());
+                    plane.dispose();
+                }
+            }
+        }
+        return md.digest();
+    }
+
+    @Test
+    public void testMessageDigestMatchesReference() throws Exception {
+        Assert.assertEquals(pixelBuffer.calculateMessageDigest(),
+                reference("SHA-1"));
+    }
+
+    @Test
+    public void testChecksumMatchesReference() throws Exception {
+        Assert.assertEquals(pixelBuffer.calculateChecksum(
+                new ChecksumProviderFactoryImpl().getProvider(
+                        ChecksumType.MD5)), reference("MD5"));
+    }
+
+    @Test
+    public void testFastChecksumIsStable() throws Exception {
+        ChecksumProviderFactoryImpl factory = new ChecksumProviderFactoryImpl();
+        byte[] first = pixelBuffer.calculateChecksum(
+                factory.getProvider(ChecksumType.MURMUR128));
+        byte[] second = pixelBuffer.calculateChecksum(
+                factory.getProvider(ChecksumType.MURMUR128));
+        Assert.assertEquals(first, second);
+        Assert.assertEquals(first.length, 16);
+    }
+
+}
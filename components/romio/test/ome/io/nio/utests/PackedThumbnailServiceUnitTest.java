@@ -0,0 +1,279 @@
+/*
+ *   Copyright 2017 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import ome.conditions.ResourceError;
+import ome.io.nio.PackedThumbnailService;
+import ome.io.nio.ThumbnailService;
+import ome.model.display.Thumbnail;
+
+/**
+ * Tests the segment files and index of {@link PackedThumbnailService}.
+ */
+public class PackedThumbnailServiceUnitTest {
+
+    private static final long SEGMENT_SIZE = 1024;
+
+    private String root;
+
+    private PackedThumbnailService service;
+
+    @BeforeMethod
+    public void setUp() {
+        root = PathUtil.getInstance().getTemporaryDataFilePath();
+        service = new PackedThumbnailService(root, SEGMENT_SIZE);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        service.close();
+        FileUtils.deleteDirectory(new File(root));
+    }
+
+    private static Thumbnail thumbnail(long id) {
+        Thumbnail thumbnail = new Thumbnail();
+        thumbnail.setId(id);
+        return thumbnail;
+    }
+
+    private static byte[] bytes(long id, int length) {
+        byte[] buf = new byte[length];
+        for (int i = 0; i < length; i++) {
+            buf[i] = (byte) (id * 31 + i);
+        }
+        return buf;
+    }
+
+    private File packed() {
+        return new File(new File(root, "Thumbnails"),
+                PackedThumbnailService.PACKED_PATH);
+    }
+
+    private int segmentCount() {
+        int count = 0;
+        for (String name : packed().list()) {
+            if (name.startsWith("segment-")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testCreateAndRead() throws IOException {
+        for (long id = 1; id <= 20; id++) {
+            service.createThumbnail(thumbnail(id), bytes(id, 100 + (int) id));
+        }
+        for (long id = 1; id <= 20; id++) {
+            Thumbnail thumbnail = thumbnail(id);
+            Assert.assertTrue(service.getThumbnailExists(thumbnail));
+            Assert.assertEquals(service.getThumbnailLength(thumbnail),
+                    100 + id);
+            Assert.assertEquals(service.getThumbnail(thumbnail),
+                    bytes(id, 100 + (int) id));
+        }
+        Assert.assertFalse(service.getThumbnailExists(thumbnail(21)));
+        Assert.assertFalse(new File(service.getThumbnailPath(1L)).exists());
+        Assert.assertTrue(segmentCount() > 1);
+    }
+
+    @Test
+    public void testReadAfterReopen() throws IOException {
+        service.createThumbnail(thumbnail(5), bytes(5, 200));
+        service.createThumbnail(thumbnail(3000000), bytes(3000000, 300));
+        service.close();
+        service = new PackedThumbnailService(root, SEGMENT_SIZE);
+        Assert.assertEquals(service.getThumbnail(thumbnail(5)),
+                bytes(5, 200));
+        Assert.assertEquals(service.getThumbnail(thumbnail(3000000)),
+                bytes(3000000, 300));
+    }
+
+    @Test
+    public void testOverwrite() throws IOException {
+        service.createThumbnail(thumbnail(7), bytes(7, 100));
+        service.createThumbnail(thumbnail(7), bytes(8, 50));
+        Assert.assertEquals(service.getThumbnail(thumbnail(7)),
+                bytes(8, 50));
+    }
+
+    @Test
+    public void testGetThumbnails() throws IOException {
+        List<Thumbnail> thumbnails = new ArrayList<Thumbnail>();
+        for (long id = 1; id <= 30; id++) {
+            service.createThumbnail(thumbnail(id), bytes(id, 90));
+            thumbnails.add(thumbnail(id));
+        }
+        // One thumbnail only available in the per-file layout.
+        ThumbnailService files = new ThumbnailService(root);
+        files.createThumbnail(thumbnail(100), bytes(100, 40));
+        thumbnails.add(thumbnail(100));
+        Collections.shuffle(thumbnails);
+
+        Map<Long, byte[]> values = service.getThumbnails(thumbnails);
+        Assert.assertEquals(values.size(), 31);
+        for (long id = 1; id <= 30; id++) {
+            Assert.assertEquals(values.get(id), bytes(id, 90));
+        }
+        Assert.assertEquals(values.get(100L), bytes(100, 40));
+    }
+
+    @Test
+    public void testFallsBackToFiles() throws IOException {
+        String path = service.getThumbnailPath(42L);
+        new File(path).getParentFile().mkdirs();
+        FileOutputStream stream = new FileOutputStream(path);
+        stream.write(bytes(42, 64));
+        stream.close();
+        Assert.assertTrue(service.getThumbnailExists(thumbnail(42)));
+        Assert.assertEquals(service.getThumbnail(thumbnail(42)),
+                bytes(42, 64));
+
+        // Once packed, the file is no longer needed.
+        service.createThumbnail(thumbnail(42), bytes(43, 64));
+        Assert.assertFalse(new File(path).exists());
+        Assert.assertEquals(service.getThumbnail(thumbnail(42)),
+                bytes(43, 64));
+    }
+
+    @Test
+    public void testRemoveAndCompact() throws IOException {
+        for (long id = 1; id <= 40; id++) {
+            service.createThumbnail(thumbnail(id), bytes(id, 100));
+        }
+        int before = segmentCount();
+        List<Long> removed = new ArrayList<Long>();
+        for (long id = 1; id <= 40; id++) {
+            if (id % 4 != 0) {
+                removed.add(id);
+            }
+        }
+        service.removeThumbnails(removed);
+        for (Long id : removed) {
+            Assert.assertFalse(service.getThumbnailExists(thumbnail(id)));
+        }
+        service.compact();
+        Assert.assertTrue(segmentCount() < before);
+        for (long id = 4; id <= 40; id += 4) {
+            Assert.assertEquals(service.getThumbnail(thumbnail(id)),
+                    bytes(id, 100));
+        }
+        service.removeThumbnails(Arrays.asList(4L));
+        Assert.assertFalse(service.getThumbnailExists(thumbnail(4)));
+    }
+
+    @Test(timeOut = 10000)
+    public void testRemoveCompactsInBackground() throws Exception {
+        for (long id = 1; id <= 40; id++) {
+            service.createThumbnail(thumbnail(id), bytes(id, 100));
+        }
+        int before = segmentCount();
+        List<Long> removed = new ArrayList<Long>();
+        for (long id = 1; id <= 40; id++) {
+            if (id % 4 != 0) {
+                removed.add(id);
+            }
+        }
+        service.removePackedThumbnails(removed);
+        while (segmentCount() >= before) {
+            Thread.sleep(10);
+        }
+        for (long id = 4; id <= 40; id += 4) {
+            Assert.assertEquals(service.getThumbnail(thumbnail(id)),
+                    bytes(id, 100));
+        }
+    }
+
+    /**
+     * Compacts an index which spans several scan batches while another
+     * thread overwrites the remaining thumbnails, which compaction must not
+     * move back over the new copies.
+     */
+    @Test(timeOut = 30000)
+    public void testCompactWithConcurrentWrites() throws Exception {
+        final long step = 20000;
+        for (long i = 1; i <= 40; i++) {
+            service.createThumbnail(thumbnail(i * step), bytes(i, 100));
+        }
+        List<Long> removed = new ArrayList<Long>();
+        for (long i = 1; i <= 40; i++) {
+            if (i % 4 != 0) {
+                removed.add(i * step);
+            }
+        }
+        service.removeThumbnails(removed);
+        final Exception[] failure = new Exception[1];
+        Thread writer = new Thread() {
+            public void run() {
+                try {
+                    for (long i = 4; i <= 40; i += 4) {
+                        service.createThumbnail(thumbnail(i * step),
+                                bytes(i + 1, 90));
+                    }
+                } catch (Exception e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        writer.start();
+        service.compact();
+        writer.join();
+        Assert.assertNull(failure[0]);
+        for (long i = 4; i <= 40; i += 4) {
+            Assert.assertEquals(service.getThumbnail(thumbnail(i * step)),
+                    bytes(i + 1, 90));
+        }
+        for (Long id : removed) {
+            Assert.assertFalse(service.getThumbnailExists(thumbnail(id)));
+        }
+    }
+
+    @Test
+    public void testUnusedBytesPersisted() throws IOException {
+        for (long id = 1; id <= 5; id++) {
+            service.createThumbnail(thumbnail(id), bytes(id, 100));
+        }
+        service.removeThumbnails(Arrays.asList(1L, 2L));
+        service.createThumbnail(thumbnail(3), bytes(3, 50));
+        Assert.assertEquals(service.getUnusedBytes(), 300);
+        service.close();
+        service = new PackedThumbnailService(root, SEGMENT_SIZE);
+        Assert.assertEquals(service.getUnusedBytes(), 300);
+    }
+
+    @Test
+    public void testUnflushedSegmentRegenerated() throws IOException {
+        service.createThumbnail(thumbnail(9), bytes(9, 100));
+        service.close();
+        // As if the index had reached the disk but not the segment.
+        new FileOutputStream(new File(packed(), "segment-000001")).close();
+        service = new PackedThumbnailService(root, SEGMENT_SIZE);
+        Assert.assertFalse(service.getThumbnailExists(thumbnail(9)));
+        service.createThumbnail(thumbnail(9), bytes(9, 80));
+        Assert.assertEquals(service.getThumbnail(thumbnail(9)),
+                bytes(9, 80));
+    }
+
+    @Test(expectedExceptions = ResourceError.class)
+    public void testSecondStoreRefused() {
+        new PackedThumbnailService(root, SEGMENT_SIZE);
+    }
+
+}
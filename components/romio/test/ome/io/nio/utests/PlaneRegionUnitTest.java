@@ -0,0 +1,133 @@
+/*
+ *   Copyright 2017 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import ome.io.nio.PixelBuffer;
+import ome.io.nio.PixelsService;
+import ome.model.core.Pixels;
+import ome.model.enums.PixelsType;
+import ome.util.PixelData;
+
+/**
+ * Compares the row by row region reads of the ROMIO pixel buffer with a
+ * pixel by pixel copy out of the whole plane, which is how regions used to
+ * be read, and logs the time taken by both.
+ */
+public class PlaneRegionUnitTest {
+
+    private static final Logger log =
+        LoggerFactory.getLogger(PlaneRegionUnitTest.class);
+
+    private static final String ROOT =
+        PathUtil.getInstance().getTemporaryDataFilePath();
+
+    private static final int SIZE = 2048;
+
+    private PixelBuffer pixelBuffer;
+
+    @BeforeClass
+    public void setUp() throws Exception {
+        Pixels pixels = new Pixels();
+        pixels.setId(1L);
+        pixels.setSizeX(SIZE);
+        pixels.setSizeY(SIZE);
+        pixels.setSizeZ(1);
+        pixels.setSizeC(2);
+        pixels.setSizeT(1);
+        PixelsType type = new PixelsType();
+        type.setValue("uint16");
+        pixels.setPixelsType(type);
+
+        PixelsService service = new PixelsService(ROOT);
+        pixelBuffer = service.getPixelBuffer(pixels, true);
+        ByteBuffer plane = ByteBuffer.allocate(SIZE * SIZE * 2);
+        for (int c = 0; c < 2; c++) {
+            for (int i = 0; i < SIZE * SIZE; i++) {
+                plane.putShort(i * 2, (short) (i * 7 + c));
+            }
+            pixelBuffer.setPlane(plane.array(), 0, c, 0);
+        }
+    }
+
+    @AfterClass
+    public void tearDown() throws IOException {
+        pixelBuffer.close();
+        FileUtils.deleteDirectory(new File(ROOT));
+    }
+
+    /**
+     * The former implementation of
+     * {@link PixelBuffer#getPlaneRegion(Integer, Integer, Integer, Integer,
+     * Integer, Integer, Integer, Integer)}.
+     */
+    private byte[] reference(int x, int y, int width, int height, int c,
+            int stride) throws Exception {
+        stride++;
+        int w = width / stride;
+        int h = height / stride;
+        PixelData plane = pixelBuffer.getPlane(0, c, 0);
+        PixelData region = new PixelData("uint16",
+                ByteBuffer.wrap(new byte[w * h * 2]));
+        for (int i = 0; i < h; i++) {
+            for (int j = 0; j < w; j++) {
+                int offset = (y + i * stride) * SIZE + x + j * stride;
+                region.setPixelValue(i * w + j, plane.getPixelValue(offset));
+            }
+        }
+        plane.dispose();
+        return region.getData().array();
+    }
+
+    private byte[] actual(int x, int y, int width, int height, int c,
+            int stride) throws Exception {
+        return pixelBuffer.getPlaneRegion(x, y, width, height, 0, c, 0,
+                stride).getData().array();
+    }
+
+    @DataProvider(name = "regions")
+    public Object[][] regions() {
+        return new Object[][] {
+            { 0, 0, SIZE, SIZE, 0 },
+            { 17, 33, 256, 256, 0 },
+            { 1000, 5, 257, 13, 0 },
+            { 0, 0, SIZE, SIZE, 1 },
+            { 3, 9, 512, 512, 1 },
+            { 3, 9, 511, 301, 2 },
+            { 100, 200, 1024, 1024, 3 },
+            { SIZE - 1, SIZE - 1, 1, 1, 0 },
+            { 0, 0, 2, 2, 3 },
+        };
+    }
+
+    @Test(dataProvider = "regions")
+    public void testRegionMatchesReference(int x, int y, int width,
+            int height, int stride) throws Exception {
+        for (int c = 0; c < 2; c++) {
+            long start = System.currentTimeMillis();
+            byte[] expected = reference(x, y, width, height, c, stride);
+            long middle = System.currentTimeMillis();
+            byte[] actual = actual(x, y, width, height, c, stride);
+            long end = System.currentTimeMillis();
+            Assert.assertEquals(actual, expected);
+            log.info(String.format(
+                    "%dx%d stride %d: reference %d ms, region %d ms",
+                    width, height, stride, middle - start, end - middle));
+        }
+    }
+
+}
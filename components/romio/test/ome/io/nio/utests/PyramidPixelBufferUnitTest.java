@@ -6,13 +6,24 @@ package ome.io.nio.utests;
 
 
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import loci.formats.IFormatReader;
 import ome.io.bioformats.BfPyramidPixelBuffer;
+import ome.io.bioformats.BfReaderPool;
+import ome.io.nio.PixelBuffer;
+import ome.io.nio.PixelsService;
 import ome.io.nio.TileLoopIteration;
 import ome.io.nio.Utils;
+import ome.system.metrics.NullMetrics;
 import ome.util.PixelData;
 import ome.util.checksum.ChecksumProviderFactory;
 import ome.util.checksum.ChecksumProviderFactoryImpl;
@@ -31,10 +42,14 @@ public class PyramidPixelBufferUnitTest extends AbstractPyramidPixelBufferUnitTe
 
     private List<String> hashDigests = new ArrayList<String>();
 
+    private BfReaderPool pool;
+
     @BeforeClass
 
     public void setup() {
         createService();
+        pool = new BfReaderPool(8, 64, 0, new NullMetrics());
+        service.setReaderPool(pool);
     }
 
     @AfterClass
@@ -42,6 +57,7 @@ public class PyramidPixelBufferUnitTest extends AbstractPyramidPixelBufferUnitTe
         if (pixelBuffer != null) {
             pixelBuffer.close();
         }
+        pool.close();
         deleteRoot();
     }
 
@@ -135,4 +151,70 @@ public class PyramidPixelBufferUnitTest extends AbstractPyramidPixelBufferUnitTe
         Assert.assertEquals(tileCount, 192);
     }
 
+    @Test(dependsOnMethods={"testPyramidWriteTiles"}, enabled=true)
+    public void testConcurrentTileReadsMatchSequential() throws Exception {
+        pixelBuffer.setResolutionLevel(pixelBuffer.getResolutionLevels() - 1);
+        final List<int[]> tiles = new ArrayList<int[]>();
+        Utils.forEachTile(new TileLoopIteration() {
+            public void run(int z, int c, int t, int x, int y, int tileWidth,
+                            int tileHeight, int tileCount) {
+                tiles.add(new int[] { z, c, t, x, y, tileWidth, tileHeight });
+            }
+        }, pixelBuffer, tileWidth, tileHeight);
+        final List<byte[]> expected = new ArrayList<byte[]>();
+        for (int[] tile : tiles) {
+            expected.add(read(tile));
+        }
+        ExecutorService threads = Executors.newFixedThreadPool(
+                8);
+        try {
+            List<Future<byte[]>> actual = new ArrayList<Future<byte[]>>();
+            for (final int[] tile : tiles) {
+                actual.add(threads.submit(new Callable<byte[]>() {
+                    public byte[] call() throws Exception {
+                        return read(tile);
+                    }
+                }));
+            }
+            for (int i = 0; i < tiles.size(); i++) {
+                Assert.assertTrue(
+                        Arrays.equals(actual.get(i).get(), expected.get(i)),
+                        "Tile " + Arrays.toString(tiles.get(i)));
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    @Test(dependsOnMethods={"testPyramidWriteTiles"}, enabled=true)
+    public void testReadersSharedBetweenPixelBuffers() throws Exception {
+        pixelBuffer.setResolutionLevel(pixelBuffer.getResolutionLevels() - 1);
+        byte[] expected = read(new int[] { 0, 0, 0, 0, 0, 64, 64 });
+        String path = new File(service.getPixelsPath(pixels.getId())
+                + PixelsService.PYRAMID_SUFFIX).getAbsolutePath();
+        // The reader used by the read above is back in the pool.
+        IFormatReader reader = pool.lease(path, 0);
+        Assert.assertNotNull(reader);
+        pool.release(path, 0, reader);
+
+        PixelBuffer other = service._getPixelBuffer(pixels, false);
+        try {
+            // A different resolution level on the other buffer must not
+            // affect the readers borrowed by this one.
+            other.setResolutionLevel(0);
+            byte[] buffer = new byte[64 * 64 * bytesPerPixel];
+            other.getTileDirect(0, 0, 0, 0, 0, 64, 64, buffer);
+            Assert.assertTrue(Arrays.equals(
+                    read(new int[] { 0, 0, 0, 0, 0, 64, 64 }), expected));
+        } finally {
+            other.close();
+        }
+    }
+
+    private byte[] read(int[] tile) throws IOException {
+        byte[] buffer = new byte[tile[5] * tile[6] * bytesPerPixel];
+        return pixelBuffer.getTileDirect(tile[0], tile[1], tile[2], tile[3],
+                tile[4], tile[5], tile[6], buffer);
+    }
+
 }
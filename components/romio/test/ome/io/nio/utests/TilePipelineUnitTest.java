@@ -0,0 +1,296 @@
+/*
+ *   Copyright 2017 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import ome.io.nio.PixelBuffer;
+import ome.io.nio.PixelsService;
+import ome.io.nio.TilePipeline;
+import ome.model.core.Pixels;
+import ome.model.enums.PixelsType;
+import ome.util.PixelData;
+
+public class TilePipelineUnitTest {
+
+    private static final String ROOT =
+        PathUtil.getInstance().getTemporaryDataFilePath();
+
+    private static final int TILE = 32;
+
+    private PixelsService service;
+
+    private Pixels pixels;
+
+    private List<PixelBuffer> sources = new ArrayList<PixelBuffer>();
+
+    @AfterClass
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(new File(ROOT));
+    }
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        pixels = new Pixels();
+        pixels.setId(1L);
+        pixels.setSizeX(100);
+        pixels.setSizeY(70);
+        pixels.setSizeZ(2);
+        pixels.setSizeC(3);
+        pixels.setSizeT(1);
+        PixelsType type = new PixelsType();
+        type.setValue("uint8");
+        pixels.setPixelsType(type);
+
+        service = new PixelsService(ROOT);
+        PixelBuffer writer = service.getPixelBuffer(pixels, true);
+        try {
+            byte[] plane = new byte[100 * 70];
+            for (int z = 0; z < 2; z++) {
+                for (int c = 0; c < 3; c++) {
+                    for (int i = 0; i < plane.length; i++) {
+                        plane[i] = (byte) (i + z * 7 + c * 13);
+                    }
+                    writer.setPlane(plane, z, c, 0);
+                }
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    @AfterMethod
+    public void closeSources() throws IOException {
+        for (PixelBuffer source : sources) {
+            source.close();
+        }
+        sources.clear();
+    }
+
+    private List<byte[]> copy(int readers, boolean shardByChannel)
+            throws IOException {
+        for (int i = 0; i < readers; i++) {
+            sources.add(service.getPixelBuffer(pixels, false));
+        }
+        final List<byte[]> tiles = new ArrayList<byte[]>();
+        final PixelBuffer reference = sources.get(0);
+        TilePipeline pipeline = new TilePipeline(sources, shardByChannel,
+                TILE, TILE, null);
+        int count = pipeline.run(new TilePipeline.TileSink() {
+            public void write(PixelData tile, int z, int c, int t, int x,
+                    int y, int w, int h, int tileCount) throws IOException {
+                Assert.assertEquals(tileCount, tiles.size());
+                byte[] bytes = new byte[w * h];
+                tile.getData().get(bytes);
+                tiles.add(bytes);
+            }
+        });
+        Assert.assertEquals(count, tiles.size());
+        Assert.assertEquals(count, 2 * 3 * 4 * 3);
+        return tiles;
+    }
+
+    @Test
+    public void testParallelMatchesSequential() throws Exception {
+        List<byte[]> expected = copy(1, false);
+        closeSources();
+        List<byte[]> actual = copy(3, false);
+        Assert.assertEquals(actual.size(), expected.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertEquals(actual.get(i), expected.get(i));
+        }
+    }
+
+    @Test
+    public void testShardByChannelMatchesSequential() throws Exception {
+        List<byte[]> expected = copy(1, false);
+        closeSources();
+        List<byte[]> actual = copy(2, true);
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertEquals(actual.get(i), expected.get(i));
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testWriteFailureStopsPipeline() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            sources.add(service.getPixelBuffer(pixels, false));
+        }
+        new TilePipeline(sources, false, TILE, TILE, null).run(
+            new TilePipeline.TileSink() {
+                public void write(PixelData tile, int z, int c, int t, int x,
+                        int y, int w, int h, int tileCount)
+                        throws IOException {
+                    if (tileCount == 5) {
+                        throw new IOException("fail");
+                    }
+                }
+            });
+    }
+
+    /**
+     * Wraps the given buffer so that the given {@link Error} is thrown from
+     * the given call of the named method.
+     */
+    private PixelBuffer failing(final PixelBuffer buffer, final String name,
+            final int call, final Error error) {
+        final int[] calls = new int[1];
+        return (PixelBuffer) Proxy.newProxyInstance(
+            PixelBuffer.class.getClassLoader(),
+            new Class<?>[] { PixelBuffer.class }, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method,
+                        Object[] args) throws Throwable {
+                    if (method.getName().equals(name) && ++calls[0] == call) {
+                        throw error;
+                    }
+                    try {
+                        return method.invoke(buffer, args);
+                    } catch (InvocationTargetException ite) {
+                        throw ite.getCause();
+                    }
+                }
+            });
+    }
+
+    private void runWithFailingSource(String name, int call) throws Exception {
+        sources.add(service.getPixelBuffer(pixels, false));
+        sources.add(failing(service.getPixelBuffer(pixels, false), name,
+                call, new OutOfMemoryError("test")));
+        new TilePipeline(sources, false, TILE, TILE, null).run(
+            new TilePipeline.TileSink() {
+                public void write(PixelData tile, int z, int c, int t, int x,
+                        int y, int w, int h, int tileCount) {
+                }
+            });
+    }
+
+    @Test(expectedExceptions = IOException.class, timeOut = 5000)
+    public void testReaderErrorStopsPipeline() throws Exception {
+        runWithFailingSource("getTile", 3);
+    }
+
+    @Test(expectedExceptions = IOException.class, timeOut = 5000)
+    public void testReaderErrorOutsideReadStopsPipeline() throws Exception {
+        // Thrown while the reader is iterating rather than reading a tile
+        runWithFailingSource("getSizeC", 1);
+    }
+
+    /**
+     * Wraps the given buffer so that each call to <code>getTile</code>
+     * takes the given time, ignoring interrupts as a Bio-Formats reader
+     * may. <code>inside[0]</code> counts the calls in progress.
+     */
+    private PixelBuffer slow(final PixelBuffer buffer, final long millis,
+            final int[] inside) {
+        return (PixelBuffer) Proxy.newProxyInstance(
+            PixelBuffer.class.getClassLoader(),
+            new Class<?>[] { PixelBuffer.class }, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method,
+                        Object[] args) throws Throwable {
+                    boolean getTile = method.getName().equals("getTile");
+                    if (getTile) {
+                        synchronized (inside) {
+                            inside[0]++;
+                        }
+                        boolean interrupted = false;
+                        long end = System.currentTimeMillis() + millis;
+                        long left;
+                        while ((left = end - System.currentTimeMillis()) > 0) {
+                            try {
+                                Thread.sleep(left);
+                            } catch (InterruptedException ie) {
+                                interrupted = true;
+                            }
+                        }
+                        if (interrupted) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    try {
+                        return method.invoke(buffer, args);
+                    } catch (InvocationTargetException ite) {
+                        throw ite.getCause();
+                    } finally {
+                        if (getTile) {
+                            synchronized (inside) {
+                                inside[0]--;
+                            }
+                        }
+                    }
+                }
+            });
+    }
+
+    private TilePipeline slowPipeline(long millis, int[] inside)
+            throws IOException {
+        sources.add(service.getPixelBuffer(pixels, false));
+        sources.add(slow(service.getPixelBuffer(pixels, false), millis,
+                inside));
+        return new TilePipeline(sources, false, TILE, TILE, null);
+    }
+
+    private static final TilePipeline.TileSink FAILING_SINK =
+        new TilePipeline.TileSink() {
+            public void write(PixelData tile, int z, int c, int t, int x,
+                    int y, int w, int h, int tileCount) throws IOException {
+                throw new IOException("fail");
+            }
+        };
+
+    @Test(timeOut = 5000)
+    public void testFailureWaitsForReaders() throws Exception {
+        final int[] inside = new int[1];
+        TilePipeline pipeline = slowPipeline(300, inside);
+        try {
+            pipeline.run(FAILING_SINK);
+            Assert.fail("Must throw");
+        } catch (IOException e) {
+            // good
+        }
+        // The sources may now be closed
+        synchronized (inside) {
+            Assert.assertEquals(inside[0], 0);
+        }
+    }
+
+    @Test(timeOut = 5000)
+    public void testShutdownTimeout() throws Exception {
+        final int[] inside = new int[1];
+        TilePipeline pipeline = slowPipeline(1000, inside);
+        pipeline.setShutdownTimeout(50);
+        long start = System.currentTimeMillis();
+        try {
+            pipeline.run(FAILING_SINK);
+            Assert.fail("Must throw");
+        } catch (IOException e) {
+            // good
+        }
+        Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+        // Wait for the reader before the sources are closed
+        while (true) {
+            synchronized (inside) {
+                if (inside[0] == 0) {
+                    break;
+                }
+            }
+            Thread.sleep(10);
+        }
+    }
+
+}
@@ -34,6 +34,29 @@ public interface LocalCompress {
 	void compressToStream(BufferedImage image, OutputStream outputStream)
 		throws IOException;
 
+    /**
+     * Compresses a rendered image, given as packed integer RGB values, to an
+     * output stream without first copying it into a buffered image.
+     * 
+     * @param buf
+     *            the packed integer RGB values, row by row.
+     * @param sizeX
+     *            the width of the image.
+     * @param sizeY
+     *            the height of the image.
+     * @param format
+     *            the format, <code>jpeg</code> or <code>png</code>.
+     * @param quality
+     *            the JPEG quality from 0.0 to 1.0, ignored for PNG.
+     * @param outputStream
+     *            the stream to write to.
+     * @throws IOException
+     *             if there is a problem when writing to <i>stream</i>.
+     * @since 5.3.0
+     */
+	void compressToStream(int[] buf, int sizeX, int sizeY, String format,
+	        float quality, OutputStream outputStream) throws IOException;
+
 	/**
 	 * Sets the current compression level for the service. (The default is 85%)
 	 * 
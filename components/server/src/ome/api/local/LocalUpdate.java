@@ -7,6 +7,10 @@
 
 package ome.api.local;
 
+import java.util.Map;
+
+import ome.model.IObject;
+
 /**
  * Provides local (internal) extensions for updating
  * 
@@ -19,4 +23,20 @@ public interface LocalUpdate extends ome.api.IUpdate {
 
     void flush();
 
+    /**
+     * Saves a large graph of new objects such as an import graph with the
+     * same semantics as {@link #saveAndReturnArray(IObject[])}, but with the
+     * ids for each table allocated in one block beforehand and with the
+     * inserts for each table sent to the database in JDBC batches.
+     *
+     * @param graph the objects to save
+     * @param counts the number of new objects per class within the graph,
+     *     e.g. as counted by the caller while building it. Counts which
+     *     are too low only mean that more id blocks are loaded.
+     * @return the saved objects, as from
+     *     {@link #saveAndReturnArray(IObject[])}
+     */
+    IObject[] saveAndReturnArrayInBulk(IObject[] graph,
+            Map<Class<? extends IObject>, Integer> counts);
+
 }
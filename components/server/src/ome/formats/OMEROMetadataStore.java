@@ -18,6 +18,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import ome.api.local.LocalUpdate;
 import ome.model.IEnum;
 import ome.model.IObject;
 import ome.model.acquisition.Detector;
@@ -2276,7 +2277,17 @@ public class OMEROMetadataStore
     	StopWatch s1 = new Slf4JStopWatch("omero.saveImportGraph");
     	Image[] imageArray = 
     		imageList.values().toArray(new Image[imageList.size()]);
-    	IObject[] saved = sf.getUpdateService().saveAndReturnArray(imageArray);
+    	IObject[] saved;
+    	if (sf.getUpdateService() instanceof LocalUpdate)
+    	{
+    		// Server-side: batch the inserts of the whole graph.
+    		saved = ((LocalUpdate) sf.getUpdateService())
+    				.saveAndReturnArrayInBulk(imageArray, countObjects());
+    	}
+    	else
+    	{
+    		saved = sf.getUpdateService().saveAndReturnArray(imageArray);
+    	}
     	s1.stop();
     	
     	List<Pixels> toReturn = new ArrayList<Pixels>();
@@ -2293,6 +2304,28 @@ public class OMEROMetadataStore
    		return toReturn;
     }
 
+    /**
+     * Counts the objects of each class which have been created by this
+     * metadata store so that ids can be allocated for them in bulk.
+     * @return Map of model class to the number of its instances.
+     */
+    private Map<Class<? extends IObject>, Integer> countObjects()
+    {
+    	Map<Class<? extends IObject>, Integer> counts =
+    		new HashMap<Class<? extends IObject>, Integer>();
+    	for (IObject object : lsidMap.values())
+    	{
+    		if (object == null || object.getId() != null)
+    		{
+    			continue;
+    		}
+    		Class<? extends IObject> klass = object.getClass();
+    		Integer count = counts.get(klass);
+    		counts.put(klass, count == null ? 1 : count + 1);
+    	}
+    	return counts;
+    }
+
     /**
      * Checks if the format is a graphics format or not.
      *
@@ -11,18 +11,24 @@ import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.OutputStream;
 
-import javax.imageio.IIOImage;
-import javax.imageio.ImageIO;
-import javax.imageio.ImageWriteParam;
-import javax.imageio.ImageWriter;
-import javax.imageio.stream.ImageOutputStream;
-
 import ome.api.local.LocalCompress;
 
 public class CompressImpl implements LocalCompress {
 
 	/** The default compression quality in fractional percent. */
     private float quality = 0.85F;
+
+    /** The shared encoder holding the image writers. */
+    private ImageEncoder imageEncoder = ImageEncoder.getDefault();
+
+    /**
+     * Image encoder injector. For use during configuration.
+     * @param imageEncoder the encoder shared by all compression services.
+     */
+    public void setImageEncoder(ImageEncoder imageEncoder)
+    {
+        this.imageEncoder = imageEncoder;
+    }
 	
     /* (non-Javadoc)
      * @see ome.api.ICompress#compressToStream(java.awt.image.BufferedImage, java.io.OutputStream)
@@ -30,25 +36,17 @@ public class CompressImpl implements LocalCompress {
     public void compressToStream(BufferedImage image, OutputStream outputStream)
     	throws IOException
     {
-        // Get a JPEG image writer
-        ImageWriter jpegWriter =
-        	ImageIO.getImageWritersByFormatName("jpeg").next();
-
-        // Setup the compression value from (0.05, 0.75 and 0.95)
-        ImageWriteParam iwp = jpegWriter.getDefaultWriteParam();
-        iwp.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-        iwp.setCompressionQuality(quality);
+        imageEncoder.encode(image, ImageEncoder.JPEG, quality, outputStream);
+    }
 
-        // Write the JPEG to our ByteArray stream
-    	ImageOutputStream imageOutputStream = null;
-        try {
-        	imageOutputStream = ImageIO.createImageOutputStream(outputStream);
-        	jpegWriter.setOutput(imageOutputStream);
-        	jpegWriter.write(null, new IIOImage(image, null, null), iwp);
-        } finally {
-        	if (imageOutputStream != null)
-        		imageOutputStream.close();
-        }
+    /* (non-Javadoc)
+     * @see ome.api.local.LocalCompress#compressToStream(int[], int, int, java.lang.String, float, java.io.OutputStream)
+     */
+    public void compressToStream(int[] buf, int sizeX, int sizeY,
+            String format, float quality, OutputStream outputStream)
+        throws IOException
+    {
+        imageEncoder.encode(buf, sizeX, sizeY, format, quality, outputStream);
     }
 
 	/* (non-Javadoc)
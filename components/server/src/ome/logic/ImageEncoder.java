@@ -0,0 +1,199 @@
+/*
+ *   Copyright 2017 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.logic;
+
+import java.awt.image.RenderedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import ome.system.metrics.Histogram;
+import ome.system.metrics.Metrics;
+import ome.system.metrics.NullMetrics;
+import ome.system.metrics.Timer;
+import ome.util.ImageUtil;
+
+/**
+ * Encodes rendered images and thumbnails, shared by all the compression
+ * services of the server. Looking up an {@link ImageWriter} through the
+ * {@link ImageIO} service registry is costly, so each thread keeps the
+ * writer of each format it has used and resets it between images. Images are
+ * written through an in-memory cache rather than through
+ * {@link ImageIO#createImageOutputStream(Object)}, which may buffer in a
+ * temporary file.
+ *
+ * @since 5.3.0
+ */
+public class ImageEncoder {
+
+    /** The JPEG format, lossy with a given quality. */
+    public static final String JPEG = "jpeg";
+
+    /** The PNG format, lossless, which ignores the quality. */
+    public static final String PNG = "png";
+
+    /** Instance used by compression services which were not given one. */
+    private static ImageEncoder defaultEncoder;
+
+    /** The writers of the current thread keyed by format. */
+    private final ThreadLocal<Map<String, ImageWriter>> writers =
+        new ThreadLocal<Map<String, ImageWriter>>() {
+            @Override
+            protected Map<String, ImageWriter> initialValue() {
+                return new HashMap<String, ImageWriter>();
+            }
+        };
+
+    /** The time taken to encode each image. */
+    private final Timer encodeTime;
+
+    /** The size in bytes of each encoded image. */
+    private final Histogram encodedSize;
+
+    /**
+     * Returns the encoder used by compression services which were not given
+     * one, creating it on first use with no metrics.
+     *
+     * @return See above.
+     */
+    public static synchronized ImageEncoder getDefault() {
+        if (defaultEncoder == null) {
+            defaultEncoder = new ImageEncoder(new NullMetrics());
+        }
+        return defaultEncoder;
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param metrics The metrics to export the encode time and encoded size
+     *            through.
+     */
+    public ImageEncoder(Metrics metrics) {
+        this.encodeTime = metrics.timer(this, "encodeTime");
+        this.encodedSize = metrics.histogram(this, "encodedSize");
+    }
+
+    /**
+     * Encodes an image.
+     *
+     * @param image The image.
+     * @param format {@link #JPEG} or {@link #PNG}.
+     * @param quality The JPEG quality from 0.0 to 1.0, ignored for PNG.
+     * @param outputStream The stream to write to.
+     * @throws IOException If the image cannot be written to the stream.
+     * @throws IllegalArgumentException If the format is not supported.
+     */
+    public void encode(RenderedImage image, String format, float quality,
+            OutputStream outputStream) throws IOException {
+        Timer.Context ctx = encodeTime.time();
+        Map<String, ImageWriter> threadWriters = writers.get();
+        ImageWriter writer = threadWriters.remove(format);
+        if (writer == null) {
+            writer = createWriter(format);
+        }
+        CountingOutputStream counter = new CountingOutputStream(outputStream);
+        ImageOutputStream imageOutputStream =
+            new MemoryCacheImageOutputStream(counter);
+        boolean reusable = false;
+        try {
+            ImageWriteParam iwp = writer.getDefaultWriteParam();
+            if (JPEG.equals(format)) {
+                iwp.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                iwp.setCompressionQuality(quality);
+            }
+            writer.setOutput(imageOutputStream);
+            writer.write(null, new IIOImage(image, null, null), iwp);
+            imageOutputStream.flush();
+            reusable = true;
+        } finally {
+            imageOutputStream.close();
+            if (reusable) {
+                writer.reset();
+                threadWriters.put(format, writer);
+            } else {
+                // Do not reuse a writer left in an unknown state.
+                writer.dispose();
+            }
+            ctx.stop();
+        }
+        encodedSize.update((int) Math.min(counter.count, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Encodes a rendered image given as packed integer RGB values. The
+     * values are wrapped, not copied, so must not be modified until the
+     * method returns.
+     *
+     * @param buf The packed integer RGB values, row by row.
+     * @param sizeX The width of the image.
+     * @param sizeY The height of the image.
+     * @param format {@link #JPEG} or {@link #PNG}.
+     * @param quality The JPEG quality from 0.0 to 1.0, ignored for PNG.
+     * @param outputStream The stream to write to.
+     * @throws IOException If the image cannot be written to the stream.
+     * @throws IllegalArgumentException If the format is not supported.
+     */
+    public void encode(int[] buf, int sizeX, int sizeY, String format,
+            float quality, OutputStream outputStream) throws IOException {
+        encode(ImageUtil.createBufferedImage(buf, sizeX, sizeY), format,
+                quality, outputStream);
+    }
+
+    /**
+     * Looks up a writer for the format.
+     */
+    private static ImageWriter createWriter(String format) {
+        Iterator<ImageWriter> it = ImageIO.getImageWritersByFormatName(format);
+        if (!it.hasNext()) {
+            throw new IllegalArgumentException(
+                    "Unsupported image format: " + format);
+        }
+        return it.next();
+    }
+
+    /**
+     * Counts the bytes written through to the destination stream, which is
+     * not closed.
+     */
+    private static class CountingOutputStream extends OutputStream {
+
+        private final OutputStream out;
+
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+
+}
@@ -64,21 +64,25 @@ public class PixelsImpl extends AbstractLevel2Service implements IPixels {
 		"left outer join fetch proj.axis " +
 		"left outer join fetch proj.type where ";
 
+	/** Standard pixels description HQL query prefix */
+	public static final String PIXELS_DESCRIPTION_QUERY_PREFIX =
+		"select p from Pixels as p " +
+		"left outer join fetch p.pixelsType as pt " +
+		"left outer join fetch p.channels as c " +
+		"left outer join fetch c.logicalChannel as lc " +
+		"left outer join fetch c.statsInfo " +
+		"left outer join fetch lc.photometricInterpretation " +
+		"left outer join fetch lc.illumination " +
+		"left outer join fetch lc.mode " +
+		"left outer join fetch lc.contrastMethod where ";
+
 	// ~ Service methods
 	// =========================================================================
 
 	@RolesAllowed("user")
 	public Pixels retrievePixDescription(long pixId) {
-		Pixels p = iQuery.findByQuery("select p from Pixels as p "
-				+ "left outer join fetch p.pixelsType as pt "
-				+ "left outer join fetch p.channels as c "
-				+ "left outer join fetch c.logicalChannel as lc "
-				+ "left outer join fetch c.statsInfo "
-				+ "left outer join fetch lc.photometricInterpretation "
-				+ "left outer join fetch lc.illumination "
-				+ "left outer join fetch lc.mode "
-				+ "left outer join fetch lc.contrastMethod "
-				+ "where p.id = :id",
+		Pixels p = iQuery.findByQuery(
+				PIXELS_DESCRIPTION_QUERY_PREFIX + "p.id = :id",
 				new Parameters().addId(pixId));
 		return p;
 	}
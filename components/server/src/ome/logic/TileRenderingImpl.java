@@ -0,0 +1,480 @@
+/*
+ *   Copyright 2017 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.logic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.annotation.Transactional;
+
+import ome.annotations.RolesAllowed;
+import ome.api.IPixels;
+import ome.api.ITileRendering;
+import ome.api.ServiceInterface;
+import ome.conditions.InternalException;
+import ome.conditions.ResourceError;
+import ome.conditions.ValidationException;
+import ome.io.nio.PixelBuffer;
+import ome.io.nio.PixelsService;
+import ome.model.core.OriginalFile;
+import ome.model.core.Pixels;
+import ome.model.display.RenderingDef;
+import ome.model.enums.Family;
+import ome.model.enums.RenderingModel;
+import ome.parameters.Parameters;
+import ome.services.RendererPool;
+import ome.services.scripts.ScriptRepoHelper;
+import omeis.providers.re.Renderer;
+import omeis.providers.re.RenderingExecutor;
+import omeis.providers.re.RenderingTask;
+import omeis.providers.re.data.PlaneDef;
+import omeis.providers.re.data.RegionDef;
+import omeis.providers.re.quantum.QuantizationException;
+import omeis.providers.re.quantum.QuantumFactory;
+
+/**
+ * Implements tile rendering as declared in {@link ITileRendering}. Each call
+ * only looks up the version of the rendering settings, then takes loaded
+ * renderers from the {@link RendererPool}, one per tile rendering task, and
+ * gives them back once the tiles are compressed.
+ *
+ * @since 5.3.0
+ */
+@Transactional(readOnly = true)
+public class TileRenderingImpl extends AbstractLevel2Service
+    implements ITileRendering
+{
+    /** The logger for this class. */
+    private static Logger log = LoggerFactory.getLogger(TileRenderingImpl.class);
+
+    /** Reference to the service used to retrieve the pixels metadata. */
+    protected transient IPixels iPixels;
+
+    /** Reference to the service used to retrieve the pixels data. */
+    protected transient PixelsService pixelsService;
+
+    /** The idle renderers shared by all tile rendering services. */
+    protected transient RendererPool rendererPool;
+
+    /** Executor rendering the channels of a tile in parallel. */
+    protected transient RenderingExecutor renderingExecutor;
+
+    /** Executor rendering the tiles of a request in parallel. */
+    protected transient RenderingExecutor tileExecutor;
+
+    /** The shared encoder holding the image writers. */
+    private transient ImageEncoder imageEncoder = ImageEncoder.getDefault();
+
+    /**
+     * Returns the interface this implementation is for.
+     * @see AbstractLevel2Service#getServiceInterface()
+     */
+    public Class<? extends ServiceInterface> getServiceInterface()
+    {
+        return ITileRendering.class;
+    }
+
+    /**
+     * IPixels bean injector. For use during configuration. Can only be called
+     * once.
+     */
+    public void setIPixels(IPixels iPixels)
+    {
+        getBeanHelper().throwIfAlreadySet(this.iPixels, iPixels);
+        this.iPixels = iPixels;
+    }
+
+    /**
+     * PixelsService bean injector. For use during configuration. Can only be
+     * called once.
+     */
+    public void setPixelsService(PixelsService pixelsService)
+    {
+        getBeanHelper().throwIfAlreadySet(this.pixelsService, pixelsService);
+        this.pixelsService = pixelsService;
+    }
+
+    /**
+     * Renderer pool injector. For use during configuration. Can only be
+     * called once.
+     */
+    public void setRendererPool(RendererPool rendererPool)
+    {
+        getBeanHelper().throwIfAlreadySet(this.rendererPool, rendererPool);
+        this.rendererPool = rendererPool;
+    }
+
+    /**
+     * Rendering executor injector. For use during configuration. Can only be
+     * called once.
+     */
+    public void setRenderingExecutor(RenderingExecutor renderingExecutor)
+    {
+        getBeanHelper().throwIfAlreadySet(
+                this.renderingExecutor, renderingExecutor);
+        this.renderingExecutor = renderingExecutor;
+    }
+
+    /**
+     * Tile executor injector. For use during configuration. Can only be
+     * called once. If not set, the tiles of a request are rendered one after
+     * another on the calling thread.
+     */
+    public void setTileExecutor(RenderingExecutor tileExecutor)
+    {
+        getBeanHelper().throwIfAlreadySet(this.tileExecutor, tileExecutor);
+        this.tileExecutor = tileExecutor;
+    }
+
+    /**
+     * Image encoder injector. For use during configuration.
+     */
+    public void setImageEncoder(ImageEncoder imageEncoder)
+    {
+        this.imageEncoder = imageEncoder;
+    }
+
+    /* (non-Javadoc)
+     * @see ome.api.ITileRendering#renderCompressedTiles(long, java.lang.Long, int, int, int, java.util.List, float)
+     */
+    @RolesAllowed("user")
+    public byte[][] renderCompressedTiles(long pixelsId, Long renderingDefId,
+                                          int resolutionLevel, int z, int t,
+                                          List<RegionDef> regions,
+                                          float quality)
+    {
+        if (quality < 0 || quality > 1)
+        {
+            throw new ValidationException(
+                    "quality must be between 0 and 1: " + quality);
+        }
+        if (regions == null)
+        {
+            throw new ValidationException("regions cannot be null.");
+        }
+        for (RegionDef region : regions)
+        {
+            if (region == null)
+            {
+                throw new ValidationException("regions cannot contain null.");
+            }
+        }
+        if (regions.isEmpty())
+        {
+            return new byte[0][];
+        }
+
+        // Looking up the settings also checks that they may be read.
+        RenderingDef settings = null;
+        long settingsId;
+        Integer version;
+        if (renderingDefId == null)
+        {
+            settings = iPixels.retrieveRndSettings(pixelsId);
+            if (settings == null)
+            {
+                throw new ValidationException(
+                        "No rendering definition exists for pixels set "
+                        + pixelsId);
+            }
+            settingsId = settings.getId();
+            version = settings.getVersion();
+        }
+        else
+        {
+            List<Object[]> rows = iQuery.projection(
+                    "select r.pixels.id, r.version from RenderingDef r " +
+                    "where r.id = :id", new Parameters().addId(renderingDefId));
+            if (rows == null || rows.isEmpty())
+            {
+                throw new ValidationException(
+                        "No rendering definition exists with ID: "
+                        + renderingDefId);
+            }
+            if (!Long.valueOf(pixelsId).equals(rows.get(0)[0]))
+            {
+                throw new ValidationException("The rendering definition "
+                        + renderingDefId + " is not linked to pixels set "
+                        + pixelsId);
+            }
+            settingsId = renderingDefId;
+            version = (Integer) rows.get(0)[1];
+        }
+        int settingsVersion = version == null? -1 : version;
+
+        int taskCount = 1;
+        if (tileExecutor != null)
+        {
+            taskCount = Math.max(1, Math.min(
+                    tileExecutor.getThreads(), regions.size()));
+        }
+        Renderer[] renderers = new Renderer[taskCount];
+        boolean reusable = false;
+        long startTime = System.currentTimeMillis();
+        try
+        {
+            for (int i = 0; i < taskCount; i++)
+            {
+                renderers[i] = rendererPool.take(
+                        pixelsId, settingsId, settingsVersion);
+                if (renderers[i] == null)
+                {
+                    renderers[i] = load(pixelsId, settingsId, settings);
+                    // Each further renderer loads its own copy.
+                    settings = null;
+                }
+            }
+            List<RegionDef> tiles = checkTiles(renderers[0], resolutionLevel,
+                    z, t, regions);
+            for (int i = 1; i < taskCount; i++)
+            {
+                renderers[i].setResolutionLevel(resolutionLevel);
+            }
+            byte[][] compressed = new byte[tiles.size()][];
+            AtomicInteger next = new AtomicInteger();
+            TileTask[] tasks = new TileTask[taskCount];
+            for (int i = 0; i < taskCount; i++)
+            {
+                tasks[i] = new TileTask(renderers[i], imageEncoder, tiles,
+                        next, z, t, quality, compressed);
+            }
+            if (tileExecutor != null)
+            {
+                tileExecutor.invokeAll(tasks);
+            }
+            else
+            {
+                tasks[0].call();
+            }
+            reusable = true;
+            if (log.isDebugEnabled())
+            {
+                log.debug(String.format(
+                        "Rendered %d tiles of Pixels Id %d with %d task(s) " +
+                        "in %dms", tiles.size(), pixelsId, taskCount,
+                        System.currentTimeMillis() - startTime));
+            }
+            return compressed;
+        }
+        catch (QuantizationException e)
+        {
+            log.error("Quantization exception while rendering.", e);
+            throw new InternalException(e.getMessage());
+        }
+        finally
+        {
+            for (Renderer renderer : renderers)
+            {
+                if (renderer == null)
+                {
+                    continue;
+                }
+                if (reusable)
+                {
+                    rendererPool.release(
+                            pixelsId, settingsId, settingsVersion, renderer);
+                }
+                else
+                {
+                    // Do not pool a renderer left in an unknown state.
+                    renderer.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the resolution level of a renderer and validates the plane and
+     * tiles against it.
+     * @return Copies of the tiles, cropped to the plane.
+     */
+    private List<RegionDef> checkTiles(Renderer renderer, int resolutionLevel,
+                                       int z, int t, List<RegionDef> regions)
+    {
+        int levels = renderer.getResolutionLevels();
+        if (resolutionLevel < 0 || resolutionLevel >= levels)
+        {
+            throw new ValidationException("resolutionLevel must be between " +
+                    "0 and " + (levels - 1) + ": " + resolutionLevel);
+        }
+        Pixels pixels = renderer.getMetadata();
+        if (z < 0 || z >= pixels.getSizeZ())
+        {
+            throw new ValidationException("z must be <" + pixels.getSizeZ());
+        }
+        if (t < 0 || t >= pixels.getSizeT())
+        {
+            throw new ValidationException("t must be <" + pixels.getSizeT());
+        }
+        renderer.setResolutionLevel(resolutionLevel);
+        int sizeX = renderer.getPixels().getSizeX();
+        int sizeY = renderer.getPixels().getSizeY();
+        List<RegionDef> tiles = new ArrayList<RegionDef>(regions.size());
+        for (RegionDef region : regions)
+        {
+            int x = region.getX();
+            int y = region.getY();
+            if (x < 0 || y < 0 || x >= sizeX || y >= sizeY
+                    || region.getWidth() <= 0 || region.getHeight() <= 0)
+            {
+                throw new ValidationException(String.format(
+                        "Region x=%d y=%d width=%d height=%d outside of " +
+                        "%dx%d plane", x, y, region.getWidth(),
+                        region.getHeight(), sizeX, sizeY));
+            }
+            tiles.add(new RegionDef(x, y,
+                    Math.min(region.getWidth(), sizeX - x),
+                    Math.min(region.getHeight(), sizeY - y)));
+        }
+        return tiles;
+    }
+
+    /**
+     * Loads a new renderer for the given settings.
+     * @param pixelsId The Pixels set Id.
+     * @param settingsId The rendering settings Id.
+     * @param settings The rendering settings if already loaded and not used
+     * by another renderer, otherwise <code>null</code>.
+     */
+    private Renderer load(long pixelsId, long settingsId, RenderingDef settings)
+    {
+        Pixels pixels = iPixels.retrievePixDescription(pixelsId);
+        if (settings == null)
+        {
+            settings = iPixels.loadRndSettings(settingsId);
+        }
+        // As with the rendering engine, do not hold on to the Pixels set
+        // through the settings (ticket #848).
+        settings.setPixels(new Pixels(pixelsId, false));
+        List<Family> families = iPixels.getAllEnumerations(Family.class);
+        List<RenderingModel> renderingModels =
+            iPixels.getAllEnumerations(RenderingModel.class);
+        QuantumFactory quantumFactory = new QuantumFactory(families);
+        // Loading last to try to ensure that the buffer will get closed.
+        PixelBuffer buffer = pixelsService.getPixelBuffer(pixels, false);
+        Renderer renderer = new Renderer(quantumFactory, renderingModels,
+                pixels, settings, buffer, getLuts());
+        if (renderingExecutor != null)
+        {
+            renderer.setRenderingExecutor(renderingExecutor);
+        }
+        return renderer;
+    }
+
+    /**
+     * Returns the lookup tables which may be used by the renderers.
+     * @return See above.
+     */
+    private List<File> getLuts()
+    {
+        Parameters p = new Parameters();
+        p.addString("type", "text/x-lut");
+        List<OriginalFile> files = iQuery.findAllByQuery(
+                "from OriginalFile as f where f.mimetype = :type", p);
+        Iterator<OriginalFile> i = files.iterator();
+        File dir = new File(ScriptRepoHelper.getDefaultScriptDir());
+        List<File> luts = new ArrayList<File>(files.size());
+        while (i.hasNext())
+        {
+            OriginalFile f = i.next();
+            String path = (new File(f.getPath(), f.getName())).getPath();
+            File ff = new File(dir, path);
+            if (ff.exists())
+            {
+                luts.add(ff);
+            }
+        }
+        return luts;
+    }
+
+    /**
+     * Renders and compresses tiles with its own renderer, taking the next
+     * tile from a shared list until there are none left.
+     *
+     * Class is static to prevent any instances from holding onto
+     * {@link TileRenderingImpl} instances.
+     */
+    private static class TileTask implements RenderingTask
+    {
+        private final Renderer renderer;
+
+        private final ImageEncoder imageEncoder;
+
+        /** The tiles, cropped to the plane. */
+        private final List<RegionDef> tiles;
+
+        /** Index of the next tile to render, shared by all the tasks. */
+        private final AtomicInteger next;
+
+        private final int z;
+
+        private final int t;
+
+        private final float quality;
+
+        /** The compressed tiles, shared by all the tasks. */
+        private final byte[][] compressed;
+
+        TileTask(Renderer renderer, ImageEncoder imageEncoder,
+                 List<RegionDef> tiles, AtomicInteger next, int z, int t,
+                 float quality, byte[][] compressed)
+        {
+            this.renderer = renderer;
+            this.imageEncoder = imageEncoder;
+            this.tiles = tiles;
+            this.next = next;
+            this.z = z;
+            this.t = t;
+            this.quality = quality;
+            this.compressed = compressed;
+        }
+
+        public Object call() throws QuantizationException
+        {
+            int i;
+            while ((i = next.getAndIncrement()) < tiles.size())
+            {
+                RegionDef tile = tiles.get(i);
+                PlaneDef pd = new PlaneDef(PlaneDef.XY, t);
+                pd.setZ(z);
+                pd.setRegion(new RegionDef(tile.getX(), tile.getY(),
+                        tile.getWidth(), tile.getHeight()));
+                try
+                {
+                    int[] buf = renderer.renderAsPackedInt(pd, null);
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    imageEncoder.encode(buf, tile.getWidth(), tile.getHeight(),
+                            ImageEncoder.JPEG, quality, out);
+                    compressed[i] = out.toByteArray();
+                }
+                catch (IOException e)
+                {
+                    next.set(tiles.size());
+                    log.error("IO error while rendering.", e);
+                    throw new ResourceError(e.getMessage());
+                }
+                catch (QuantizationException e)
+                {
+                    next.set(tiles.size());
+                    throw e;
+                }
+                catch (RuntimeException e)
+                {
+                    next.set(tiles.size());
+                    throw e;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -15,7 +15,9 @@ package ome.logic;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
@@ -35,13 +37,18 @@ import ome.services.fulltext.FullTextIndexer;
 import ome.services.fulltext.FullTextThread;
 import ome.services.sessions.SessionManager;
 import ome.services.util.Executor;
+import ome.tools.hibernate.BulkBatcher;
 import ome.tools.hibernate.ReloadFilter;
 import ome.tools.hibernate.UpdateFilter;
+import ome.util.TableIdGenerator;
 import ome.util.Utils;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.hibernate.Session;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.hibernate.engine.SessionImplementor;
+import org.hibernate.id.IdentifierGenerator;
 import org.springframework.dao.InvalidDataAccessApiUsageException;
 import org.springframework.orm.hibernate3.SessionFactoryUtils;
 import org.springframework.transaction.annotation.Transactional;
@@ -58,6 +65,13 @@ public class UpdateImpl extends AbstractLevel1Service implements LocalUpdate {
 
     private final Logger log = LoggerFactory.getLogger(UpdateImpl.class);
 
+    /**
+     * Number of statements per JDBC batch in
+     * {@link #saveAndReturnArrayInBulk(IObject[], Map)}. Matches the
+     * increment size of the {@link TableIdGenerator} of each table.
+     */
+    private final static int BULK_BATCH_SIZE = 50;
+
     protected transient LocalQuery localQuery;
 
     protected transient Executor executor;
@@ -171,6 +185,28 @@ public class UpdateImpl extends AbstractLevel1Service implements LocalUpdate {
         return ids;
     }
 
+    @RolesAllowed("user")
+    public IObject[] saveAndReturnArrayInBulk(IObject[] graph,
+            Map<Class<? extends IObject>, Integer> counts) {
+        final Session session = session();
+        reserveIds((SessionImplementor) session, counts);
+
+        BulkBatcher batcher = null;
+        if (((SessionImplementor) session).getBatcher() instanceof BulkBatcher) {
+            batcher = (BulkBatcher) ((SessionImplementor) session).getBatcher();
+            batcher.begin(BULK_BATCH_SIZE);
+        } else {
+            log.debug("Hibernate is not using a BulkBatcher; saving unbatched");
+        }
+        try {
+            return saveAndReturnArray(graph);
+        } finally {
+            if (batcher != null) {
+                batcher.end();
+            }
+        }
+    }
+
     @RolesAllowed("user")
     public void saveArray(IObject[] graph) {
         doAction(graph, new UpdateAction<IObject[]>() {
@@ -228,6 +264,39 @@ public class UpdateImpl extends AbstractLevel1Service implements LocalUpdate {
 
     // ~ Internals
     // =========================================================
+
+    /**
+     * Loads one block of ids per table for all the objects of that table
+     * given in the counts. Subclasses share the generator of their table.
+     */
+    private void reserveIds(SessionImplementor session,
+            Map<Class<? extends IObject>, Integer> counts) {
+        if (counts == null) {
+            return;
+        }
+        final SessionFactoryImplementor factory = session.getFactory();
+        final Map<TableIdGenerator, Integer> totals =
+                new HashMap<TableIdGenerator, Integer>();
+        for (Map.Entry<Class<? extends IObject>, Integer> entry :
+                counts.entrySet()) {
+            final IdentifierGenerator ig;
+            try {
+                ig = factory.getIdentifierGenerator(entry.getKey().getName());
+            } catch (RuntimeException re) {
+                continue; // Not mapped
+            }
+            if (ig instanceof TableIdGenerator && entry.getValue() != null) {
+                final TableIdGenerator tig = (TableIdGenerator) ig;
+                final Integer total = totals.get(tig);
+                totals.put(tig, entry.getValue() + (total == null ? 0 : total));
+            }
+        }
+        for (Map.Entry<TableIdGenerator, Integer> entry : totals.entrySet()) {
+            if (entry.getValue() > entry.getKey().getIncrementSize()) {
+                entry.getKey().reserve(entry.getValue());
+            }
+        }
+    }
     private void beforeUpdate(Object argument, UpdateFilter filter) {
 
         if (argument == null) {
@@ -11,7 +11,12 @@ import static ome.model.internal.Permissions.Role.GROUP;
 import static ome.model.internal.Permissions.Role.USER;
 import static ome.model.internal.Permissions.Role.WORLD;
 
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import ome.conditions.GroupSecurityViolation;
 import ome.conditions.InternalException;
@@ -28,12 +33,16 @@ import ome.security.SecurityFilter;
 import ome.security.SecuritySystem;
 import ome.security.SystemTypes;
 import ome.security.policy.PolicyService;
+import ome.services.messages.EventLogMessage;
+import ome.services.sessions.events.UserGroupUpdateEvent;
 import ome.system.EventContext;
 import ome.system.Roles;
+import ome.util.messages.InternalMessage;
 
 import org.hibernate.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationListener;
 import org.springframework.util.Assert;
 
 /**
@@ -46,7 +55,8 @@ import org.springframework.util.Assert;
  * @see Permissions
  * @since 3.0-M3
  */
-public class BasicACLVoter implements ACLVoter {
+public class BasicACLVoter implements ACLVoter,
+        ApplicationListener<InternalMessage> {
 
     /**
      * Simple enum to represent the interpretation of "WRITE" permissions.
@@ -63,6 +73,124 @@ public class BasicACLVoter implements ACLVoter {
         }
     }
 
+    /**
+     * The inputs of {@link BasicACLVoter#allowUpdateOrDelete} which vary
+     * between the objects post-processed for a single
+     * {@link RestrictionMemo}. {@link Permissions} are compared by identity
+     * since they are taken from the loaded group and the event context,
+     * which are not modified in place.
+     */
+    private static final class AllowKey {
+
+        final Class<?> type;
+
+        final Long owner;
+
+        final Long group;
+
+        final boolean unsaved;
+
+        final Permissions groupPermissions;
+
+        final Permissions contextPermissions;
+
+        final int hash;
+
+        AllowKey(IObject object, Details d, BasicEventContext c) {
+            final Experimenter o = d.getOwner();
+            final ExperimenterGroup g = d.getGroup();
+            this.type = object.getClass();
+            this.owner = o == null ? null : o.getId();
+            this.group = g == null ? null : g.getId();
+            this.unsaved = object.getId() == null;
+            this.groupPermissions = g == null || !g.isLoaded() ? null
+                    : g.getDetails().getPermissions();
+            this.contextPermissions = c.getPermissionsForGroup(group);
+            int h = type.hashCode();
+            h = 31 * h + (owner == null ? 0 : owner.hashCode());
+            h = 31 * h + (group == null ? 0 : group.hashCode());
+            h = 31 * h + (unsaved ? 1 : 0);
+            this.hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof AllowKey)) {
+                return false;
+            }
+            final AllowKey k = (AllowKey) obj;
+            return type == k.type && unsaved == k.unsaved
+                    && groupPermissions == k.groupPermissions
+                    && contextPermissions == k.contextPermissions
+                    && (owner == null ? k.owner == null : owner.equals(k.owner))
+                    && (group == null ? k.group == null : group.equals(k.group));
+        }
+    }
+
+    /**
+     * Results of {@link BasicACLVoter#allowUpdateOrDelete} computed by
+     * {@link BasicACLVoter#postProcess(IObject)} for a single
+     * {@link BasicEventContext}, i.e. for the current user and group of a
+     * single call. Held per thread and discarded as soon as the context
+     * changes or {@link BasicACLVoter#onApplicationEvent(InternalMessage)}
+     * signals a change of groups or of their permissions.
+     */
+    private static final class RestrictionMemo {
+
+        final WeakReference<BasicEventContext> context;
+
+        final long generation;
+
+        final Long userId;
+
+        final Long groupId;
+
+        final boolean admin;
+
+        final Permissions permissions;
+
+        final List<Long> memberOf;
+
+        final List<Long> leaderOf;
+
+        final Map<AllowKey, Integer> allow = new HashMap<AllowKey, Integer>();
+
+        RestrictionMemo(BasicEventContext c, long generation) {
+            this.context = new WeakReference<BasicEventContext>(c);
+            this.generation = generation;
+            this.userId = c.getCurrentUserId();
+            this.groupId = c.getCurrentGroupId();
+            this.admin = c.isCurrentUserAdmin();
+            this.permissions = c.getCurrentGroupPermissions();
+            this.memberOf = c.getMemberOfGroupsList();
+            this.leaderOf = c.getLeaderOfGroupsList();
+        }
+
+        boolean matches(BasicEventContext c, long generation) {
+            return context.get() == c && this.generation == generation
+                    && admin == c.isCurrentUserAdmin()
+                    && permissions == c.getCurrentGroupPermissions()
+                    && memberOf == c.getMemberOfGroupsList()
+                    && leaderOf == c.getLeaderOfGroupsList()
+                    && equal(userId, c.getCurrentUserId())
+                    && equal(groupId, c.getCurrentGroupId());
+        }
+
+        private static boolean equal(Long a, Long b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+
+    /**
+     * Number of entries after which a {@link RestrictionMemo} is cleared.
+     */
+    private final static int MEMO_LIMIT = 4096;
+
     private final static Logger log = LoggerFactory.getLogger(BasicACLVoter.class);
 
     protected final CurrentDetails currentUser;
@@ -77,6 +205,15 @@ public class BasicACLVoter implements ACLVoter {
 
     protected final Roles roles;
 
+    /**
+     * Incremented whenever groups, memberships or group permissions may have
+     * changed, invalidating every {@link RestrictionMemo}.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    private final ThreadLocal<RestrictionMemo> memos =
+            new ThreadLocal<RestrictionMemo>();
+
     public BasicACLVoter(CurrentDetails cd, SystemTypes sysTypes,
         TokenHolder tokenHolder, SecurityFilter securityFilter,
         PolicyService policyService) {
@@ -396,16 +533,31 @@ public class BasicACLVoter implements ACLVoter {
     public void postProcess(IObject object) {
         if (object.isLoaded()) {
             Details details = object.getDetails();
-            // Sets context values.s
-            this.currentUser.applyContext(details,
-                    !(object instanceof ExperimenterGroup));
+            final boolean group = object instanceof ExperimenterGroup;
+            // Sets context values. The permissions which are set for
+            // non-groups are taken directly rather than copied (#8277)
+            // since they are copied below in any case.
+            this.currentUser.applyContext(details, false);
+            Permissions p = group ? null
+                    : currentUser.getContextPermissions(details);
+            if (p == null) {
+                p = details.getPermissions();
+            }
 
             final BasicEventContext c = currentUser.current();
-            final Permissions p = details.getPermissions();
-            final int allow = allowUpdateOrDelete(c, object, details,
-                // This order must match the ordered of restrictions[]
-                // expected by p.copyRestrictions
-                Scope.LINK, Scope.EDIT, Scope.DELETE, Scope.ANNOTATE);
+            final RestrictionMemo memo = memo(c);
+            final int allow;
+            if (tokenHolder.hasPrivilegedToken(object)) {
+                allow = postProcessAllow(c, object, details);
+            } else {
+                final AllowKey allowKey = new AllowKey(object, details, c);
+                Integer cached = memo.allow.get(allowKey);
+                if (cached == null) {
+                    cached = postProcessAllow(c, object, details);
+                    memo.allow.put(allowKey, cached);
+                }
+                allow = cached;
+            }
 
             // #9635 - This is not the most efficient solution
             // But since it's unclear why Permission objects
@@ -417,6 +569,46 @@ public class BasicACLVoter implements ACLVoter {
         }
     }
 
+    /**
+     * Invalidates the memoised results of {@link #postProcess(IObject)} when
+     * users, groups, memberships or group permissions change.
+     */
+    public void onApplicationEvent(InternalMessage event) {
+        if (event instanceof UserGroupUpdateEvent) {
+            generation.incrementAndGet();
+        } else if (event instanceof EventLogMessage) {
+            final EventLogMessage elm = (EventLogMessage) event;
+            if (elm.entityType != null && ExperimenterGroup.class
+                    .isAssignableFrom(elm.entityType)) {
+                generation.incrementAndGet(); // e.g. CHMOD
+            }
+        }
+    }
+
+    private int postProcessAllow(BasicEventContext c, IObject object,
+            Details details) {
+        return allowUpdateOrDelete(c, object, details,
+                // This order must match the ordered of restrictions[]
+                // expected by p.copyRestrictions
+                Scope.LINK, Scope.EDIT, Scope.DELETE, Scope.ANNOTATE);
+    }
+
+    /**
+     * Returns the {@link RestrictionMemo} of the current thread for the given
+     * context, replacing it if it was created for another context, if the
+     * context has changed or if it has grown too large.
+     */
+    private RestrictionMemo memo(BasicEventContext c) {
+        final long gen = generation.get();
+        RestrictionMemo memo = memos.get();
+        if (memo == null || !memo.matches(c, gen)
+                || memo.allow.size() > MEMO_LIMIT) {
+            memo = new RestrictionMemo(c, gen);
+            memos.set(memo);
+        }
+        return memo;
+    }
+
     /**
      * Check if the given object is owned by the given user.
      * @param iObject a model object
@@ -389,33 +389,50 @@ public class CurrentDetails implements PrincipalHolder {
         details.setContexts(new Object[]{c, c.getCallContext()});
         if (changePerms) {
             // Make the permissions match (#8277)
-            final Permissions groupPerms = c.getCurrentGroupPermissions();
-            if (groupPerms != Permissions.DUMMY) {
-                details.setPermissions(new Permissions(groupPerms));
-            } else {
-                // In the case of the dummy, we will be required to have
-                // the group id already set in the context.
-                ExperimenterGroup group = details.getGroup();
-                if (group != null) {
-                    // Systypes still will have DUMMY values.
-                    Long gid = details.getGroup().getId();
-                    Permissions p = c.getPermissionsForGroup(gid);
-                    if (p != null) {
-                        // Ticket:9505. This must be a new copy of the permissions
-                        // in order to prevent the restrictions being modified by
-                        // later objects!
-                        details.setPermissions(new Permissions(p));
-                    } else if (gid.equals(Long.valueOf(roles.getUserGroupId()))) {
-                        details.setPermissions(new Permissions(Permissions.EMPTY));
-                    } else {
-                        throw new InternalException("No permissions: " + details);
-                    }
-                }
+            final Permissions p = getContextPermissions(details);
+            if (p != null) {
+                // Ticket:9505. This must be a new copy of the permissions
+                // in order to prevent the restrictions being modified by
+                // later objects!
+                details.setPermissions(new Permissions(p));
             }
         }
 
     }
 
+    /**
+     * Returns the permissions which {@link #applyContext(Details, boolean)}
+     * copies onto the given details (#8277), without copying them. The
+     * returned instance belongs to the event context and must not be
+     * modified.
+     *
+     * @param details the details of an object in the current context
+     * @return the group permissions, or {@code null} if the permissions of
+     *     the details are to be kept (system types)
+     */
+    public Permissions getContextPermissions(Details details) {
+        final BasicEventContext c = current();
+        final Permissions groupPerms = c.getCurrentGroupPermissions();
+        if (groupPerms != Permissions.DUMMY) {
+            return groupPerms;
+        }
+        // In the case of the dummy, we will be required to have
+        // the group id already set in the context.
+        ExperimenterGroup group = details.getGroup();
+        if (group == null) {
+            // Systypes still will have DUMMY values.
+            return null;
+        }
+        Long gid = group.getId();
+        Permissions p = c.getPermissionsForGroup(gid);
+        if (p != null) {
+            return p;
+        } else if (gid.equals(Long.valueOf(roles.getUserGroupId()))) {
+            return Permissions.EMPTY;
+        }
+        throw new InternalException("No permissions: " + details);
+    }
+
     /**
      * Checks the "groupPermissions" map in {@link BasicEventContext} which has
      * been filled up by calls to {@link BasicEventContext#setPermissionsForGroup(Long, Permissions)}
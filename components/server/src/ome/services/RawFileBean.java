@@ -42,6 +42,7 @@ import ome.io.nio.OriginalFilesService;
 import ome.model.core.OriginalFile;
 import ome.security.policy.BinaryAccessPolicy;
 import ome.util.ShallowCopy;
+import ome.util.checksum.ChecksumProvider;
 import ome.util.checksum.ChecksumProviderFactory;
 import ome.util.checksum.ChecksumType;
 
@@ -115,6 +116,19 @@ public class RawFileBean extends AbstractStatefulBean implements RawFileStore {
     /** is file service checking for disk overflow */
     private transient boolean diskSpaceChecking;
 
+    /** The checksum type of the file's hasher when the file was loaded. */
+    private transient ChecksumType checksumType;
+
+    /**
+     * The checksum of the bytes written so far from the start of the file,
+     * or <code>null</code> if the writes have not all followed on from one
+     * another, in which case {@link #save()} re-reads the file.
+     */
+    private transient ChecksumProvider runningChecksum;
+
+    /** The position up to which {@link #runningChecksum} has been fed. */
+    private transient long checksumPosition;
+
     /**
      * default constructor
      */
@@ -230,14 +244,24 @@ public class RawFileBean extends AbstractStatefulBean implements RawFileStore {
             }
 
             try {
+                File f = new File(path);
+                long size = f.length();
+
                 if (file.getHasher() != null) {
                     final ChecksumType checksumType = checksumAlgorithms.get(file.getHasher().getValue());
-                    file.setHash(this.checksumProviderFactory
-                            .getProvider(checksumType).putFile(path).checksumAsString());
+                    if (runningChecksum != null && checksumPosition == size
+                            && checksumType == this.checksumType) {
+                        // Every byte of the file has been written by this
+                        // service in order, so it need not be read again.
+                        file.setHash(runningChecksum.checksumAsString());
+                    } else {
+                        file.setHash(this.checksumProviderFactory
+                                .getProvider(checksumType).putFile(path).checksumAsString());
+                    }
                 }
+                // The running checksum cannot be updated once read.
+                runningChecksum = null;
 
-                File f = new File(path);
-                long size = f.length();
                 file.setSize(size);
                 file.setMtime(new java.sql.Timestamp(f.lastModified()));
 
@@ -343,6 +367,7 @@ public class RawFileBean extends AbstractStatefulBean implements RawFileStore {
 
             modified = false;
             file = iQuery.get(OriginalFile.class, fileId);
+            resetChecksum();
 
             String mode = "r";
             try {
@@ -380,6 +405,47 @@ public class RawFileBean extends AbstractStatefulBean implements RawFileStore {
     }
 
 
+    /**
+     * Starts a new running checksum of the file's content, to be fed by
+     * writes from the start of the file onwards.
+     */
+    private void resetChecksum() {
+        checksumType = null;
+        runningChecksum = null;
+        checksumPosition = 0;
+        if (file != null && file.getHasher() != null) {
+            checksumType = checksumAlgorithms.get(file.getHasher().getValue());
+            if (checksumType != null && checksumProviderFactory != null) {
+                runningChecksum = checksumProviderFactory.getProvider(
+                        checksumType);
+            }
+        }
+    }
+
+    /**
+     * Feeds written bytes to the running checksum if they follow on from
+     * the bytes already fed, otherwise drops the running checksum so that
+     * {@link #save()} falls back to re-reading the file.
+     */
+    private synchronized void updateChecksum(byte[] buf, long position,
+            int length) {
+        if (runningChecksum == null) {
+            return;
+        }
+        if (position != checksumPosition) {
+            dropChecksum();
+            return;
+        }
+        if (length > 0) {
+            runningChecksum.putBytes(buf, 0, length);
+            checksumPosition += length;
+        }
+    }
+
+    private synchronized void dropChecksum() {
+        runningChecksum = null;
+    }
+
     private synchronized void errorIfNotLoaded() {
         // If we're not loaded because of passivation, then load.
         if (reset != null) {
@@ -432,6 +498,9 @@ public class RawFileBean extends AbstractStatefulBean implements RawFileStore {
 
         try {
             if (length < buffer.size()) {
+                if (length < checksumPosition) {
+                    dropChecksum();
+                }
                 buffer.truncate(length);
                 modified();
                 return true;
@@ -472,15 +541,19 @@ public class RawFileBean extends AbstractStatefulBean implements RawFileStore {
             iRepositoryInfo.sanityCheckRepository();
         }
 
+        final long start = position;
         try {
             do {
                 position += buffer.write(nioBuffer, position);
             } while (nioBuffer.hasRemaining());
             // Write was successful, update state.
+            updateChecksum(buf, start, length);
             modified();
         } catch (NonWritableChannelException nwce) {
             throw new SecurityViolation("File not writeable!");
         } catch (IOException e) {
+            // Part of the bytes may have been written.
+            dropChecksum();
             if (log.isDebugEnabled()) {
                 log.debug("Buffer write did not occur.", e);
             }
@@ -704,6 +704,10 @@ public class RawPixelsBean extends AbstractStatefulBean implements
                 .getRegion().getHeight() > 0) ? plane.getRegion().getHeight()
                 : buffer.getSizeY();
 
+        // A stride samples every (stride + 1)th pixel of every (stride + 1)th
+        // row of the region.
+        int step = (plane != null ? plane.getStride() : 0) + 1;
+
         Map<Integer, int[]> result = new HashMap<Integer, int[]>();
 
         try {
@@ -721,21 +725,10 @@ public class RawPixelsBean extends AbstractStatefulBean implements
 
                 double range = max - min + 1;
                 double binRange = range / binCount;
-                for (int i = 0; i < px.size(); i++) {
-                    int pxx = i % imgWidth;
-                    int pxy = i / imgWidth;
-                    if (pxx >= x && pxx < (x + w) && pxy >= y && pxy < (y + h)) {
-                        int bin = (int) ((px.getPixelValue(i) - min) / binRange);
-                        // if there are more bins than values (binRange < 1) the bin will be offset by -1.
-                        // e.g. min=0.0, max=127.0, binCount=256: a pixel with max value 127.0 would go
-                        // into bin 254 (expected: 255). Therefore increment by one for these cases.
-                        if (bin > 0 && binRange < 1)
-                            bin++;
-
-                        if (bin >= 0 && bin < binCount)
-                            data[bin]++;
-                    }
-                }
+                StatsFactory.computeHistogram(px, imgWidth, x, y,
+                        Math.min(w, imgWidth - x),
+                        Math.min(h, buffer.getSizeY() - y), step, min,
+                        binRange, data);
                 result.put(ch, data);
             }
         } catch (Exception e) {
@@ -781,9 +774,14 @@ public class RawPixelsBean extends AbstractStatefulBean implements
         min = pixelMinMax[1];
         max = pixelMinMax[0];
 
-        for (int i = 0; i < px.size(); i++) {
-            min = Math.min(min, px.getPixelValue(i));
-            max = Math.max(max, px.getPixelValue(i));
+        double[] values = new double[Math.min(px.size(), 65536)];
+        for (int i = 0; i < px.size(); i += values.length) {
+            int count = Math.min(values.length, px.size() - i);
+            px.getPixelValues(i, values, 0, count);
+            for (int j = 0; j < count; j++) {
+                min = Math.min(min, values[j]);
+                max = Math.max(max, values[j]);
+            }
         }
 
         return new double[] { min, max };
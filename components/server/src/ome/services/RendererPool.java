@@ -0,0 +1,276 @@
+/*
+ *   Copyright 2017 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ome.model.display.RenderingDef;
+import ome.model.meta.EventLog;
+import ome.services.messages.EventLogsMessage;
+import ome.system.metrics.Counter;
+import ome.system.metrics.Metrics;
+import omeis.providers.re.Renderer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationListener;
+
+/**
+ * Process-wide pool of idle, loaded {@link Renderer} instances which saves
+ * {@link ome.logic.TileRenderingImpl} from opening the pixel data and
+ * setting up the quantum strategies for every request. Renderers are keyed
+ * by Pixels ID, rendering settings ID and version, so that saved settings do
+ * not hit the renderers of earlier versions.
+ * <p>
+ * A renderer is not thread-safe, so it is taken out of the pool while in use
+ * and released back once done. The pool is bounded by the number of idle
+ * renderers it holds, the least recently used of which are closed first.
+ * Renderers are also closed when the rendering settings they were loaded
+ * from are updated or deleted, which this class learns of through
+ * {@link EventLogsMessage}.
+ * </p>
+ * <p>
+ * The pool is only consulted once the caller's access to the rendering
+ * settings has been checked, so it does not bypass any permission checks.
+ * </p>
+ *
+ * @since 5.3.0
+ */
+public class RendererPool implements ApplicationListener<EventLogsMessage> {
+
+    private final static Logger log =
+        LoggerFactory.getLogger(RendererPool.class);
+
+    private static final String RENDERING_DEF = RenderingDef.class.getName();
+
+    /** Identifies the renderers of a given version of rendering settings. */
+    private static class Key {
+
+        final long pixelsId;
+
+        final long renderingDefId;
+
+        final int renderingDefVersion;
+
+        Key(long pixelsId, long renderingDefId, int renderingDefVersion) {
+            this.pixelsId = pixelsId;
+            this.renderingDefId = renderingDefId;
+            this.renderingDefVersion = renderingDefVersion;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return pixelsId == other.pixelsId
+                    && renderingDefId == other.renderingDefId
+                    && renderingDefVersion == other.renderingDefVersion;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = (int) (pixelsId ^ (pixelsId >>> 32));
+            hash = 31 * hash + (int) (renderingDefId ^ (renderingDefId >>> 32));
+            return 31 * hash + renderingDefVersion;
+        }
+    }
+
+    /** The idle renderers, least recently used key first. */
+    private final LinkedHashMap<Key, Deque<Renderer>> idle =
+        new LinkedHashMap<Key, Deque<Renderer>>(64, 0.75f, true);
+
+    /** Maximum number of idle renderers. */
+    private final int maxIdle;
+
+    /** Number of idle renderers. */
+    private int idleCount;
+
+    private final Counter hits;
+
+    private final Counter misses;
+
+    private final Counter evictions;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param maxIdle Maximum number of idle renderers. If not positive,
+     *            renderers are closed as soon as they are released.
+     * @param metrics The metrics to export the hit, miss and eviction counts
+     *            through.
+     */
+    public RendererPool(int maxIdle, Metrics metrics) {
+        this.maxIdle = maxIdle;
+        this.hits = metrics.counter(this, "hits");
+        this.misses = metrics.counter(this, "misses");
+        this.evictions = metrics.counter(this, "evictions");
+        log.info("Renderer pool of " + maxIdle + " idle renderers");
+    }
+
+    /**
+     * Takes an idle renderer out of the pool. The renderer must be given
+     * back with {@link #release(long, long, int, Renderer)} or closed.
+     *
+     * @param pixelsId The Pixels ID.
+     * @param renderingDefId The rendering settings ID.
+     * @param renderingDefVersion The rendering settings version.
+     * @return The renderer or <code>null</code> if there is none idle, in
+     *         which case the caller should load a new one.
+     */
+    public Renderer take(long pixelsId, long renderingDefId,
+            int renderingDefVersion) {
+        List<Renderer> stale = new ArrayList<Renderer>();
+        Renderer renderer = null;
+        synchronized (this) {
+            Key key = new Key(pixelsId, renderingDefId, renderingDefVersion);
+            Deque<Renderer> renderers = idle.get(key);
+            if (renderers != null && !renderers.isEmpty()) {
+                renderer = renderers.pollFirst();
+                idleCount--;
+                if (renderers.isEmpty()) {
+                    idle.remove(key);
+                }
+            }
+            if (renderer != null) {
+                hits.inc();
+            } else {
+                misses.inc();
+                // Renderers of other versions of the settings are of no
+                // further use.
+                Iterator<Map.Entry<Key, Deque<Renderer>>> it =
+                    idle.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<Key, Deque<Renderer>> entry = it.next();
+                    if (entry.getKey().renderingDefId == renderingDefId) {
+                        idleCount -= entry.getValue().size();
+                        stale.addAll(entry.getValue());
+                        it.remove();
+                    }
+                }
+            }
+        }
+        close(stale);
+        return renderer;
+    }
+
+    /**
+     * Gives a renderer back to the pool, closing the least recently used
+     * idle renderers if the pool is full.
+     *
+     * @param pixelsId The Pixels ID.
+     * @param renderingDefId The rendering settings ID.
+     * @param renderingDefVersion The rendering settings version.
+     * @param renderer The renderer, which must not be used afterwards.
+     */
+    public void release(long pixelsId, long renderingDefId,
+            int renderingDefVersion, Renderer renderer) {
+        List<Renderer> evicted = new ArrayList<Renderer>();
+        synchronized (this) {
+            Key key = new Key(pixelsId, renderingDefId, renderingDefVersion);
+            Deque<Renderer> renderers = idle.get(key);
+            if (renderers == null) {
+                renderers = new ArrayDeque<Renderer>();
+                idle.put(key, renderers);
+            }
+            renderers.addFirst(renderer);
+            idleCount++;
+            Iterator<Deque<Renderer>> it = idle.values().iterator();
+            while (idleCount > maxIdle && it.hasNext()) {
+                Deque<Renderer> eldest = it.next();
+                while (idleCount > maxIdle && !eldest.isEmpty()) {
+                    evicted.add(eldest.pollLast());
+                    idleCount--;
+                    evictions.inc();
+                }
+                if (eldest.isEmpty()) {
+                    it.remove();
+                }
+            }
+        }
+        close(evicted);
+    }
+
+    /**
+     * Closes the idle renderers loaded from the given rendering settings.
+     *
+     * @param renderingDefIds The rendering settings IDs.
+     */
+    public void invalidate(Set<Long> renderingDefIds) {
+        List<Renderer> stale = new ArrayList<Renderer>();
+        synchronized (this) {
+            Iterator<Map.Entry<Key, Deque<Renderer>>> it =
+                idle.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Key, Deque<Renderer>> entry = it.next();
+                if (renderingDefIds.contains(entry.getKey().renderingDefId)) {
+                    idleCount -= entry.getValue().size();
+                    stale.addAll(entry.getValue());
+                    it.remove();
+                }
+            }
+        }
+        close(stale);
+    }
+
+    /**
+     * Closes all the idle renderers.
+     */
+    public void close() {
+        List<Renderer> all = new ArrayList<Renderer>();
+        synchronized (this) {
+            for (Deque<Renderer> renderers : idle.values()) {
+                all.addAll(renderers);
+            }
+            idle.clear();
+            idleCount = 0;
+        }
+        close(all);
+    }
+
+    /**
+     * Closes the renderers of updated or deleted rendering settings.
+     */
+    public void onApplicationEvent(EventLogsMessage elm) {
+        Set<Long> renderingDefIds = new HashSet<Long>();
+        collect(elm.matches(RENDERING_DEF, "UPDATE"), renderingDefIds);
+        collect(elm.matches(RENDERING_DEF, "DELETE"), renderingDefIds);
+        if (!renderingDefIds.isEmpty()) {
+            invalidate(renderingDefIds);
+        }
+    }
+
+    private static void collect(Collection<EventLog> logs, Set<Long> ids) {
+        for (EventLog el : logs) {
+            ids.add(el.getEntityId());
+        }
+    }
+
+    /**
+     * Closes the renderers, outside of the lock as closing the pixel data
+     * may be slow.
+     */
+    private static void close(List<Renderer> renderers) {
+        for (Renderer renderer : renderers) {
+            try {
+                renderer.close();
+            } catch (RuntimeException e) {
+                log.warn("Renderer did not close successfully.", e);
+            }
+        }
+    }
+
+}
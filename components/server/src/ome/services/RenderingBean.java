@@ -5,7 +5,6 @@
 package ome.services;
 
 import java.awt.Dimension;
-import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
@@ -31,6 +30,7 @@ import ome.conditions.ValidationException;
 import ome.io.nio.InMemoryPlanarPixelBuffer;
 import ome.io.nio.PixelBuffer;
 import ome.io.nio.PixelsService;
+import ome.logic.ImageEncoder;
 import ome.model.IObject;
 import ome.model.core.Channel;
 import ome.model.core.OriginalFile;
@@ -49,11 +49,11 @@ import ome.services.util.Executor;
 import ome.system.EventContext;
 import ome.system.ServiceFactory;
 import ome.system.SimpleEventContext;
-import ome.util.ImageUtil;
 import ome.util.ShallowCopy;
 import omeis.providers.re.RGBBuffer;
 import omeis.providers.re.Renderer;
 import omeis.providers.re.RenderingEngine;
+import omeis.providers.re.RenderingExecutor;
 import omeis.providers.re.codomain.CodomainChain;
 import omeis.providers.re.codomain.CodomainMap;
 import omeis.providers.re.codomain.CodomainMapContext;
@@ -156,6 +156,13 @@ public class RenderingBean implements RenderingEngine, Serializable {
     /** Reference to the helper used to retrieve luts.*/
     private final ScriptRepoHelper helper;
 
+    /**
+     * The threads shared by all renderers. Use
+     * {@link #getRenderingExecutor()} since this is not restored after
+     * passivation.
+     */
+    private transient RenderingExecutor renderingExecutor;
+
     /** Notification that the bean has just returned from passivation. */
     private transient boolean wasPassivated = false;
 
@@ -193,6 +200,30 @@ public class RenderingBean implements RenderingEngine, Serializable {
         this.helper = helper;
     }
 
+    /**
+     * Rendering executor Bean injector.
+     *
+     * @param renderingExecutor
+     *          The threads shared by all renderers.
+     */
+    public void setRenderingExecutor(RenderingExecutor renderingExecutor) {
+        this.renderingExecutor = renderingExecutor;
+    }
+
+    /**
+     * Returns the threads shared by all renderers, falling back on
+     * {@link RenderingExecutor#getDefault()}, which the server sets to the
+     * injected executor, once the bean has returned from passivation.
+     *
+     * @return See above.
+     */
+    private RenderingExecutor getRenderingExecutor() {
+        if (renderingExecutor == null) {
+            renderingExecutor = RenderingExecutor.getDefault();
+        }
+        return renderingExecutor;
+    }
+
     @RolesAllowed("user")
     public long getRenderingDefId() {
         if (rendDefObj == null || rendDefObj.getId() == null) {
@@ -418,6 +449,7 @@ public class RenderingBean implements RenderingEngine, Serializable {
             PixelBuffer buffer = getPixelBuffer();
             renderer = new Renderer(quantumFactory, renderingModels, pixelsObj,
                     rendDefObj, buffer, loadLuts());
+            renderer.setRenderingExecutor(getRenderingExecutor());
         } finally {
             rwl.writeLock().unlock();
         }
@@ -525,7 +557,7 @@ public class RenderingBean implements RenderingEngine, Serializable {
     /**
      * Implemented as specified by the {@link RenderingEngine} interface.
      * 
-     * @see LocalCompress#compressToStream(BufferedImage, java.io.OutputStream)
+     * @see LocalCompress#compressToStream(int[], int, int, String, float, java.io.OutputStream)
      */
     @RolesAllowed("user")
     public byte[] renderCompressed(PlaneDef pd) {
@@ -550,10 +582,10 @@ public class RenderingBean implements RenderingEngine, Serializable {
             }
             sizeX = sizeX/stride;
             sizeY = sizeY/stride;
-            BufferedImage image = ImageUtil.createBufferedImage(buf, sizeX,
-                    sizeY);
             byteStream = new ByteArrayOutputStream();
-            compressionSrv.compressToStream(image, byteStream);
+            compressionSrv.compressToStream(buf, sizeX, sizeY,
+                    ImageEncoder.JPEG, compressionSrv.getCompressionLevel(),
+                    byteStream);
             return byteStream.toByteArray();
         } catch (IOException e) {
             log.error("Could not compress rendered image.", e);
@@ -624,7 +656,7 @@ public class RenderingBean implements RenderingEngine, Serializable {
     /**
      * Implemented as specified by the {@link RenderingEngine} interface.
      * 
-     * @see LocalCompress#compressToStream(BufferedImage, java.io.OutputStream)
+     * @see LocalCompress#compressToStream(int[], int, int, String, float, java.io.OutputStream)
      */
     @RolesAllowed("user")
     public byte[] renderProjectedCompressed(int algorithm, int timepoint,
@@ -641,10 +673,10 @@ public class RenderingBean implements RenderingEngine, Serializable {
                     stepping, start, end);
             int sizeX = pixelsObj.getSizeX();
             int sizeY = pixelsObj.getSizeY();
-            BufferedImage image = ImageUtil.createBufferedImage(buf, sizeX,
-                    sizeY);
             byteStream = new ByteArrayOutputStream();
-            compressionSrv.compressToStream(image, byteStream);
+            compressionSrv.compressToStream(buf, sizeX, sizeY,
+                    ImageEncoder.JPEG, compressionSrv.getCompressionLevel(),
+                    byteStream);
             return byteStream.toByteArray();
         } catch (IOException e) {
             log.error("Could not compress rendered image.", e);
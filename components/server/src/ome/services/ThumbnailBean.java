@@ -9,7 +9,6 @@ import java.awt.Dimension;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Serializable;
@@ -41,6 +40,7 @@ import ome.io.nio.PixelBuffer;
 import ome.io.nio.PixelsService;
 import ome.io.nio.ThumbnailService;
 import ome.logic.AbstractLevel2Service;
+import ome.logic.PixelsImpl;
 import ome.model.core.OriginalFile;
 import ome.model.core.Pixels;
 import ome.model.display.RenderingDef;
@@ -54,6 +54,8 @@ import ome.system.EventContext;
 import ome.system.SimpleEventContext;
 import ome.util.ImageUtil;
 import omeis.providers.re.Renderer;
+import omeis.providers.re.RenderingExecutor;
+import omeis.providers.re.RenderingTask;
 import omeis.providers.re.data.PlaneDef;
 import omeis.providers.re.quantum.QuantizationException;
 import omeis.providers.re.quantum.QuantumFactory;
@@ -119,6 +121,15 @@ public class ThumbnailBean extends AbstractLevel2Service
     /** The rendering settings service. */
     private transient IRenderingSettings settingsService;
 
+    /** The threads shared by all renderers. */
+    private transient RenderingExecutor renderingExecutor;
+
+    /** The compressed thumbnails shared by all thumbnail services. */
+    private transient ThumbnailCache thumbnailCache;
+
+    /** The threads shared by all thumbnail services for batch generation. */
+    private transient RenderingExecutor thumbnailExecutor;
+
     /** The list of all families supported by the {@link Renderer}. */
     private transient List<Family> families;
 
@@ -378,6 +389,7 @@ public class ThumbnailBean extends AbstractLevel2Service
         PixelBuffer buffer = pixelDataService.getPixelBuffer(pixels, false);
         renderer = new Renderer(quantumFactory, renderingModels, pixels,
                 settings, buffer, getLuts());
+        renderer.setRenderingExecutor(renderingExecutor);
         dirty = false;
     }
 
@@ -485,6 +497,43 @@ public class ThumbnailBean extends AbstractLevel2Service
         this.settingsService = settingsService;
     }
 
+    /**
+     * Rendering executor Bean injector.
+     *
+     * @param renderingExecutor
+     *            the threads shared by all renderers.
+     */
+    public void setRenderingExecutor(RenderingExecutor renderingExecutor) {
+        getBeanHelper().throwIfAlreadySet(this.renderingExecutor,
+                renderingExecutor);
+        this.renderingExecutor = renderingExecutor;
+    }
+
+    /**
+     * Thumbnail cache Bean injector.
+     *
+     * @param thumbnailCache
+     *            the compressed thumbnails shared by all thumbnail services.
+     */
+    public void setThumbnailCache(ThumbnailCache thumbnailCache) {
+        getBeanHelper().throwIfAlreadySet(this.thumbnailCache,
+                thumbnailCache);
+        this.thumbnailCache = thumbnailCache;
+    }
+
+    /**
+     * Thumbnail executor Bean injector.
+     *
+     * @param thumbnailExecutor
+     *            the threads shared by all thumbnail services for generating
+     *            sets of thumbnails.
+     */
+    public void setThumbnailExecutor(RenderingExecutor thumbnailExecutor) {
+        getBeanHelper().throwIfAlreadySet(this.thumbnailExecutor,
+                thumbnailExecutor);
+        this.thumbnailExecutor = thumbnailExecutor;
+    }
+
     /**
      * Compresses a buffered image thumbnail to disk.
      *
@@ -502,15 +551,19 @@ public class ThumbnailBean extends AbstractLevel2Service
             iRepositoryInfo.sanityCheckRepository();
         }
 
-        FileOutputStream stream = ioService.getThumbnailOutputStream(thumb);
-        try {
-            if (inProgress) {
-                compressInProgressImageToStream(thumb, stream);
-            } else {
-                compressionService.compressToStream(image, stream);
-            }
-        } finally {
-            stream.close();
+        // Compressed in memory so that the thumbnail service can pack it
+        // with others rather than writing it to a file of its own.
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        if (inProgress) {
+            compressInProgressImageToStream(thumb, stream);
+        } else {
+            StopWatch s1 = new Slf4JStopWatch("omero.thumbnail.encode");
+            compressionService.compressToStream(image, stream);
+            s1.stop();
+        }
+        ioService.createThumbnail(thumb, stream.toByteArray());
+        if (thumbnailCache != null && pixels != null) {
+            thumbnailCache.invalidatePixels(pixels.getId());
         }
     }
 
@@ -611,6 +664,23 @@ public class ThumbnailBean extends AbstractLevel2Service
             theT = settings.getDefaultT();
         PlaneDef pd = new PlaneDef(PlaneDef.XY, theT);
         pd.setZ(theZ);
+        return renderScaledImage(renderer, pixels, thumbnailMetadata, pd);
+    }
+
+    /**
+     * Renders a plane at the resolution level closest to the size of the
+     * thumbnail and scales it to that size. Does not use the state of the
+     * service so that it can be called for several thumbnails at once.
+     *
+     * @param renderer the renderer of the pixels set.
+     * @param pixels the pixels set.
+     * @param thumbnailMetadata the thumbnail metadata.
+     * @param pd the plane to render.
+     * @return a scaled buffered image.
+     */
+    private BufferedImage renderScaledImage(Renderer renderer, Pixels pixels,
+            Thumbnail thumbnailMetadata, PlaneDef pd)
+    {
         // Use a resolution level that matches our requested size if we can
         PixelBuffer pixelBuffer = renderer.getPixels();
         int originalSizeX = pixels.getSizeX();
@@ -645,9 +715,11 @@ public class ThumbnailBean extends AbstractLevel2Service
                     pixelBufferSizeX, pixelBufferSizeY));
             rendererPixels.setSizeX(pixelBufferSizeX);
             rendererPixels.setSizeY(pixelBufferSizeY);
+            StopWatch s1 = new Slf4JStopWatch("omero.thumbnail.render");
             int[] buf = renderer.renderAsPackedInt(pd, null);
             BufferedImage image = ImageUtil.createBufferedImage(
                     buf, pixelBufferSizeX, pixelBufferSizeY);
+            s1.stop();
 
             // Finally, scale our image using scaling factors (percentage).
             float xScale = (float)
@@ -656,7 +728,11 @@ public class ThumbnailBean extends AbstractLevel2Service
                     thumbnailMetadata.getSizeY() / pixelBufferSizeY;
             log.debug(String.format("Using scaling factors x:%f y:%f",
                     xScale, yScale));
-            return iScale.scaleBufferedImage(image, xScale, yScale);
+            StopWatch s2 = new Slf4JStopWatch("omero.thumbnail.scale");
+            BufferedImage scaled =
+                iScale.scaleBufferedImage(image, xScale, yScale);
+            s2.stop();
+            return scaled;
         }
         catch (IOException e)
         {
@@ -836,6 +912,23 @@ public class ThumbnailBean extends AbstractLevel2Service
     /** Actually does the work specified by {@link createThumbnail()}.*/
     private Thumbnail _createThumbnail() {
         StopWatch s1 = new Slf4JStopWatch("omero._createThumbnail");
+        _prepareThumbnailMetadata();
+        BufferedImage image = createScaledImage(null, null);
+        try {
+            compressThumbnailToDisk(thumbnailMetadata, image);
+            s1.stop();
+            return thumbnailMetadata;
+        } catch (IOException e) {
+            log.error("Thumbnail could not be compressed.", e);
+            throw new ResourceError(e.getMessage());
+        }
+    }
+
+    /**
+     * Updates or replaces the thumbnail metadata before the thumbnail is
+     * (re)generated.
+     */
+    private void _prepareThumbnailMetadata() {
         if (thumbnailMetadata == null) {
             throw new ValidationException("Missing thumbnail metadata.");
         } else if (ctx.dirtyMetadata(pixels.getId())) {
@@ -866,16 +959,6 @@ public class ThumbnailBean extends AbstractLevel2Service
         // dirtyMetadata is left false here because we may be creating a
         // thumbnail for the first time and the Thumbnail object has just been
         // created upstream of us.
-
-        BufferedImage image = createScaledImage(null, null);
-        try {
-            compressThumbnailToDisk(thumbnailMetadata, image);
-            s1.stop();
-            return thumbnailMetadata;
-        } catch (IOException e) {
-            log.error("Thumbnail could not be compressed.", e);
-            throw new ResourceError(e.getMessage());
-        }
     }
 
     private static void _setMetadataVersion(Thumbnail tb, boolean inProgress) {
@@ -980,6 +1063,14 @@ public class ThumbnailBean extends AbstractLevel2Service
         Map<Long, byte[]> toReturn = new HashMap<Long, byte[]>();
 
         List<Thumbnail> toSave = new ArrayList<Thumbnail>();
+        // Cached thumbnails are read together once all are known, which
+        // lets the thumbnail service order and coalesce the reads.
+        Map<Long, Thumbnail> toRead = new HashMap<Long, Thumbnail>();
+        Map<Long, RenderingDef> toReadSettings =
+            new HashMap<Long, RenderingDef>();
+        // Missing or out of date thumbnails are generated together once all
+        // are known, on the threads of the thumbnail executor.
+        List<ThumbnailJob> toCreate = new ArrayList<ThumbnailJob>();
         for (Long pixelsId : pixelsIds)
         {
             // Ensure that the renderer has been made dirty otherwise the
@@ -1018,8 +1109,30 @@ public class ThumbnailBean extends AbstractLevel2Service
                     // that we want to use, but retrieveThumbnail likes to
                     // re-generate. For the moment, we're saving and restoring
                     // that value to prevent creating a new one.
-                    byte[] thumbnail = retrieveThumbnail(false);
-                    toReturn.put(pixelsId, thumbnail);
+                    if (!inProgress && ctx.isThumbnailCached(pixelsId))
+                    {
+                        byte[] thumbnail = getCachedThumbnail();
+                        if (thumbnail != null)
+                        {
+                            toReturn.put(pixelsId, thumbnail);
+                        }
+                        else
+                        {
+                            toRead.put(pixelsId, thumbnailMetadata);
+                            toReadSettings.put(pixelsId, settings);
+                        }
+                    }
+                    else if (!inProgress && thumbnailExecutor != null)
+                    {
+                        _prepareThumbnailMetadata();
+                        toCreate.add(new ThumbnailJob(pixelsId, pixels,
+                                settings, thumbnailMetadata));
+                    }
+                    else
+                    {
+                        byte[] thumbnail = retrieveThumbnail(false);
+                        toReturn.put(pixelsId, thumbnail);
+                    }
                     if (dirtyMetadata)
                     {
                         toSave.add(thumbnailMetadata);
@@ -1037,6 +1150,8 @@ public class ThumbnailBean extends AbstractLevel2Service
                 toReturn.put(pixelsId, null);
             }
         }
+        readThumbnailSet(toRead, toReadSettings, toReturn);
+        createThumbnailSet(toCreate, toReturn);
         // We're doing the update or creation and save as a two step
         // process due to the possible unloaded Pixels. If we do not,
         // Pixels will be unloaded and we will hit
@@ -1049,6 +1164,299 @@ public class ThumbnailBean extends AbstractLevel2Service
         return toReturn;
     }
 
+    /**
+     * Renders, scales and compresses a thumbnail off the service's state,
+     * so that several thumbnails can be generated at once. The caller loads
+     * the pixels set and rendering settings with everything the renderer
+     * reads, opens the pixel buffer, which may need the database, and writes
+     * back the metadata, so that the job never uses the Hibernate session.
+     */
+    private class ThumbnailJob implements RenderingTask
+    {
+        final long pixelsId;
+
+        /** Replaced by the full description by {@link #loadJobs(List)}. */
+        Pixels pixels;
+
+        /** Replaced by the full settings by {@link #loadJobs(List)}. */
+        RenderingDef settings;
+
+        final Thumbnail metadata;
+
+        List<Family> families;
+
+        List<RenderingModel> renderingModels;
+
+        List<File> luts;
+
+        PixelBuffer buffer;
+
+        /** The compressed thumbnail once generated. */
+        byte[] thumbnail;
+
+        /** Why the thumbnail could not be generated. */
+        Throwable failure;
+
+        ThumbnailJob(long pixelsId, Pixels pixels, RenderingDef settings,
+                Thumbnail metadata)
+        {
+            this.pixelsId = pixelsId;
+            this.pixels = pixels;
+            this.settings = settings;
+            this.metadata = metadata;
+        }
+
+        public Object call()
+        {
+            if (failure != null)
+            {
+                return null;
+            }
+            try
+            {
+                Renderer renderer;
+                try
+                {
+                    renderer = new Renderer(new QuantumFactory(families),
+                            renderingModels, pixels, settings, buffer, luts);
+                }
+                catch (RuntimeException e)
+                {
+                    buffer.close();
+                    throw e;
+                }
+                BufferedImage image;
+                try
+                {
+                    renderer.setRenderingExecutor(renderingExecutor);
+                    PlaneDef pd = new PlaneDef(PlaneDef.XY,
+                            settings.getDefaultT());
+                    pd.setZ(settings.getDefaultZ());
+                    image = renderScaledImage(renderer, pixels, metadata, pd);
+                }
+                finally
+                {
+                    renderer.close();
+                }
+                ByteArrayOutputStream stream = new ByteArrayOutputStream();
+                StopWatch s1 = new Slf4JStopWatch("omero.thumbnail.encode");
+                compressionService.compressToStream(image, stream);
+                s1.stop();
+                byte[] bytes = stream.toByteArray();
+                ioService.createThumbnail(metadata, bytes);
+                thumbnail = bytes;
+            }
+            catch (Throwable t)
+            {
+                failure = t;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Generates a set of thumbnails on the threads of the thumbnail
+     * executor. Thumbnails which fail to be generated that way, e.g. because
+     * their pyramid is still being written, are generated one at a time on
+     * the calling thread.
+     * @param toCreate The thumbnails to generate, with their metadata
+     * already prepared.
+     * @param toReturn Map of Pixels ID vs. thumbnail bytes to add the
+     * thumbnails to. Thumbnails which cannot be generated are added as
+     * <code>null</code>.
+     */
+    private void createThumbnailSet(List<ThumbnailJob> toCreate,
+            Map<Long, byte[]> toReturn)
+    {
+        if (toCreate.isEmpty())
+        {
+            return;
+        }
+        StopWatch s1 = new Slf4JStopWatch("omero.createThumbnailSet");
+        if (diskSpaceChecking)
+        {
+            iRepositoryInfo.sanityCheckRepository();
+        }
+        List<Family> families = getFamilies();
+        List<RenderingModel> renderingModels = getRenderingModels();
+        List<File> luts = getLuts();
+        loadJobs(toCreate);
+        // A few jobs per thread at a time to bound the open pixel buffers.
+        int chunk = 2 * thumbnailExecutor.getThreads();
+        for (int i = 0; i < toCreate.size(); i += chunk)
+        {
+            List<ThumbnailJob> jobs = toCreate.subList(
+                    i, Math.min(i + chunk, toCreate.size()));
+            for (ThumbnailJob job : jobs)
+            {
+                if (job.failure != null)
+                {
+                    continue;
+                }
+                job.families = families;
+                job.renderingModels = renderingModels;
+                job.luts = luts;
+                try
+                {
+                    job.buffer = pixelDataService.getPixelBuffer(
+                            job.pixels, false);
+                }
+                catch (Throwable t)
+                {
+                    job.failure = t;
+                }
+            }
+            try
+            {
+                thumbnailExecutor.invokeAll(
+                        jobs.toArray(new RenderingTask[jobs.size()]));
+            }
+            catch (QuantizationException e)
+            {
+                // Not thrown, jobs keep their own failure.
+                throw new InternalException(e.getMessage());
+            }
+        }
+        for (ThumbnailJob job : toCreate)
+        {
+            if (thumbnailCache != null)
+            {
+                thumbnailCache.invalidatePixels(job.pixelsId);
+            }
+            if (job.failure == null)
+            {
+                toReturn.put(job.pixelsId, job.thumbnail);
+                continue;
+            }
+            log.debug("Generating thumbnail in set for Pixels ID "
+                    + job.pixelsId + " failed, retrying", job.failure);
+            resetMetadata();
+            try
+            {
+                pixels = job.pixels;
+                pixelsId = job.pixelsId;
+                settings = job.settings;
+                thumbnailMetadata = job.metadata;
+                compressThumbnailToDisk(thumbnailMetadata,
+                        createScaledImage(null, null));
+                toReturn.put(job.pixelsId,
+                        ioService.getThumbnail(thumbnailMetadata));
+            }
+            catch (Throwable t)
+            {
+                log.warn("Retrieving thumbnail in set for " +
+                        "Pixels ID " + job.pixelsId + " failed.", t);
+                toReturn.put(job.pixelsId, null);
+            }
+        }
+        s1.stop();
+    }
+
+    /**
+     * Loads the pixels descriptions and the rendering settings of a set of
+     * thumbnail jobs with a single query each, fetching everything the
+     * {@link Renderer} reads. Jobs whose pixels set or settings cannot be
+     * loaded are marked as failed so that they are retried on the calling
+     * thread.
+     * @param jobs The jobs to load.
+     */
+    private void loadJobs(List<ThumbnailJob> jobs)
+    {
+        Set<Long> pixelsIds = new HashSet<Long>();
+        Set<Long> settingsIds = new HashSet<Long>();
+        for (ThumbnailJob job : jobs)
+        {
+            pixelsIds.add(job.pixelsId);
+            settingsIds.add(job.settings.getId());
+        }
+        StopWatch s1 = new Slf4JStopWatch("omero.loadThumbnailJobs");
+        Map<Long, Pixels> pixelsById = new HashMap<Long, Pixels>();
+        List<Pixels> pixelsList = iQuery.findAllByQuery(
+                PixelsImpl.PIXELS_DESCRIPTION_QUERY_PREFIX + "p.id in (:ids)",
+                new Parameters().addIds(pixelsIds));
+        for (Pixels p : pixelsList)
+        {
+            pixelsById.put(p.getId(), p);
+        }
+        Map<Long, RenderingDef> settingsById =
+            new HashMap<Long, RenderingDef>();
+        List<RenderingDef> settingsList = iQuery.findAllByQuery(
+                PixelsImpl.RENDERING_DEF_QUERY_PREFIX + "rdef.id in (:ids)",
+                new Parameters().addIds(settingsIds));
+        for (RenderingDef r : settingsList)
+        {
+            settingsById.put(r.getId(), r);
+        }
+        s1.stop();
+        for (ThumbnailJob job : jobs)
+        {
+            Pixels p = pixelsById.get(job.pixelsId);
+            RenderingDef r = settingsById.get(job.settings.getId());
+            if (p == null || r == null)
+            {
+                job.failure = new ResourceError(String.format(
+                        "Cannot load Pixels:%d or RenderingDef:%d",
+                        job.pixelsId, job.settings.getId()));
+                continue;
+            }
+            job.pixels = p;
+            job.settings = r;
+        }
+    }
+
+    /**
+     * Reads a set of cached thumbnails with a single call to the thumbnail
+     * service.
+     * @param toRead Map of Pixels ID vs. thumbnail metadata.
+     * @param settings Map of Pixels ID vs. the rendering settings the
+     * thumbnails were created from, used to cache the thumbnails read.
+     * @param toReturn Map of Pixels ID vs. thumbnail bytes to add the
+     * thumbnails to. Thumbnails which cannot be read are added as
+     * <code>null</code>.
+     */
+    private void readThumbnailSet(Map<Long, Thumbnail> toRead,
+            Map<Long, RenderingDef> settings, Map<Long, byte[]> toReturn)
+    {
+        if (toRead.isEmpty())
+        {
+            return;
+        }
+        Map<Long, byte[]> thumbnails = Collections.emptyMap();
+        try
+        {
+            thumbnails = ioService.getThumbnails(toRead.values());
+        }
+        catch (Throwable t)
+        {
+            log.warn("Retrieving cached thumbnails in set failed.", t);
+        }
+        for (Map.Entry<Long, Thumbnail> entry : toRead.entrySet())
+        {
+            Long pixelsId = entry.getKey();
+            Thumbnail metadata = entry.getValue();
+            byte[] thumbnail = thumbnails.get(metadata.getId());
+            toReturn.put(pixelsId, thumbnail);
+            if (thumbnailCache != null && thumbnail != null)
+            {
+                thumbnailCache.put(pixelsId, settings.get(pixelsId), metadata,
+                        thumbnail);
+            }
+        }
+    }
+
+    /**
+     * Returns the current thumbnail from the thumbnail cache.
+     * @return Thumbnail bytes or <code>null</code> if not cached.
+     */
+    private byte[] getCachedThumbnail()
+    {
+        if (thumbnailCache == null)
+        {
+            return null;
+        }
+        return thumbnailCache.get(pixels.getId(), settings, thumbnailMetadata);
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -1126,6 +1534,11 @@ public class ThumbnailBean extends AbstractLevel2Service
                 {
                     log.debug("Cache hit.");
                 }
+                byte[] thumbnail = getCachedThumbnail();
+                if (thumbnail != null)
+                {
+                    return thumbnail;
+                }
             }
             else
             {
@@ -1136,6 +1549,11 @@ public class ThumbnailBean extends AbstractLevel2Service
                 _createThumbnail();
             }
             byte[] thumbnail = ioService.getThumbnail(thumbnailMetadata);
+            if (cached && thumbnailCache != null)
+            {
+                thumbnailCache.put(pixels.getId(), settings,
+                        thumbnailMetadata, thumbnail);
+            }
             return thumbnail;
         }
         catch (IOException e)
@@ -0,0 +1,275 @@
+/*
+ *   Copyright 2017 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import ome.model.display.RenderingDef;
+import ome.model.display.Thumbnail;
+import ome.model.meta.EventLog;
+import ome.services.messages.EventLogsMessage;
+import ome.system.metrics.Counter;
+import ome.system.metrics.Metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationListener;
+
+/**
+ * Process-wide, least recently used cache of compressed thumbnails which
+ * saves {@link ThumbnailBean} from reading the same thumbnails from disk over
+ * and over. Thumbnails are keyed by Pixels ID, rendering settings ID and
+ * version and thumbnail size, so that each user's settings have their own
+ * entries and saved settings do not hit the thumbnails of earlier versions.
+ * <p>
+ * The cache is bounded by the total size in bytes of the thumbnails it holds.
+ * Entries are dropped when the thumbnail is regenerated and when the rendering
+ * settings or thumbnail metadata they were created from are updated or
+ * deleted, which this class learns of through {@link EventLogsMessage}.
+ * </p>
+ * <p>
+ * The cache is only consulted once {@link ThumbnailCtx} has loaded the
+ * caller's settings and found the thumbnail on disk to be up to date, so it
+ * does not bypass any permission checks.
+ * </p>
+ *
+ * @since 5.3.0
+ */
+public class ThumbnailCache implements ApplicationListener<EventLogsMessage> {
+
+    private final static Logger log =
+        LoggerFactory.getLogger(ThumbnailCache.class);
+
+    private static final String RENDERING_DEF = RenderingDef.class.getName();
+
+    private static final String THUMBNAIL = Thumbnail.class.getName();
+
+    /** Identifies a thumbnail for a given set of rendering settings. */
+    private static class Key {
+
+        final long pixelsId;
+
+        final long renderingDefId;
+
+        final int renderingDefVersion;
+
+        final int sizeX;
+
+        final int sizeY;
+
+        Key(long pixelsId, RenderingDef settings, Thumbnail thumbnail) {
+            this.pixelsId = pixelsId;
+            this.renderingDefId = settings.getId();
+            Integer version = settings.getVersion();
+            this.renderingDefVersion = version == null ? -1 : version;
+            this.sizeX = thumbnail.getSizeX();
+            this.sizeY = thumbnail.getSizeY();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return pixelsId == other.pixelsId
+                    && renderingDefId == other.renderingDefId
+                    && renderingDefVersion == other.renderingDefVersion
+                    && sizeX == other.sizeX
+                    && sizeY == other.sizeY;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = (int) (pixelsId ^ (pixelsId >>> 32));
+            hash = 31 * hash + (int) (renderingDefId ^ (renderingDefId >>> 32));
+            hash = 31 * hash + renderingDefVersion;
+            hash = 31 * hash + sizeX;
+            return 31 * hash + sizeY;
+        }
+    }
+
+    /** A cached thumbnail. */
+    private static class Value {
+
+        final long thumbnailId;
+
+        final byte[] bytes;
+
+        Value(long thumbnailId, byte[] bytes) {
+            this.thumbnailId = thumbnailId;
+            this.bytes = bytes;
+        }
+    }
+
+    /** The thumbnails, least recently used first. */
+    private final LinkedHashMap<Key, Value> entries =
+        new LinkedHashMap<Key, Value>(256, 0.75f, true);
+
+    /** Maximum total size in bytes of the cached thumbnails. */
+    private final long maxBytes;
+
+    /** Total size in bytes of the cached thumbnails. */
+    private long bytes;
+
+    private final Counter hits;
+
+    private final Counter misses;
+
+    private final Counter evictions;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param maxBytes Maximum total size in bytes of the cached thumbnails.
+     *            If not positive, nothing is cached.
+     * @param metrics The metrics to export the hit, miss and eviction counts
+     *            through.
+     */
+    public ThumbnailCache(long maxBytes, Metrics metrics) {
+        this.maxBytes = maxBytes;
+        this.hits = metrics.counter(this, "hits");
+        this.misses = metrics.counter(this, "misses");
+        this.evictions = metrics.counter(this, "evictions");
+        log.info("Thumbnail cache of " + maxBytes + " bytes");
+    }
+
+    /**
+     * Returns whether thumbnails are cached at all.
+     *
+     * @return See above.
+     */
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * Returns the cached thumbnail. The array must not be modified.
+     *
+     * @param pixelsId The Pixels ID.
+     * @param settings The rendering settings the thumbnail was created from.
+     * @param thumbnail The thumbnail metadata.
+     * @return The thumbnail or <code>null</code> if it is not cached.
+     */
+    public synchronized byte[] get(long pixelsId, RenderingDef settings,
+            Thumbnail thumbnail) {
+        if (!isEnabled() || !isCacheable(settings, thumbnail)) {
+            return null;
+        }
+        Value value = entries.get(new Key(pixelsId, settings, thumbnail));
+        if (value == null || value.thumbnailId != thumbnail.getId()) {
+            misses.inc();
+            return null;
+        }
+        hits.inc();
+        return value.bytes;
+    }
+
+    /**
+     * Caches a thumbnail, evicting the least recently used thumbnails if the
+     * cache is full. The array must not be modified afterwards.
+     *
+     * @param pixelsId The Pixels ID.
+     * @param settings The rendering settings the thumbnail was created from.
+     * @param thumbnail The thumbnail metadata.
+     * @param thumb The compressed thumbnail.
+     */
+    public synchronized void put(long pixelsId, RenderingDef settings,
+            Thumbnail thumbnail, byte[] thumb) {
+        if (!isEnabled() || thumb == null || thumb.length > maxBytes
+                || !isCacheable(settings, thumbnail)) {
+            return;
+        }
+        Value previous = entries.put(new Key(pixelsId, settings, thumbnail),
+                new Value(thumbnail.getId(), thumb));
+        if (previous != null) {
+            bytes -= previous.bytes.length;
+        }
+        bytes += thumb.length;
+        Iterator<Value> it = entries.values().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            bytes -= it.next().bytes.length;
+            it.remove();
+            evictions.inc();
+        }
+    }
+
+    /**
+     * Drops all the cached thumbnails of a Pixels set, e.g. because one of
+     * them has been regenerated.
+     *
+     * @param pixelsId The Pixels ID.
+     */
+    public synchronized void invalidatePixels(long pixelsId) {
+        Iterator<Map.Entry<Key, Value>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, Value> entry = it.next();
+            if (entry.getKey().pixelsId == pixelsId) {
+                bytes -= entry.getValue().bytes.length;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops the cached thumbnails created from the given rendering settings
+     * or described by the given thumbnail metadata.
+     *
+     * @param renderingDefIds The rendering settings IDs.
+     * @param thumbnailIds The thumbnail IDs.
+     */
+    public synchronized void invalidate(Set<Long> renderingDefIds,
+            Set<Long> thumbnailIds) {
+        Iterator<Map.Entry<Key, Value>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, Value> entry = it.next();
+            if (renderingDefIds.contains(entry.getKey().renderingDefId)
+                    || thumbnailIds.contains(entry.getValue().thumbnailId)) {
+                bytes -= entry.getValue().bytes.length;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops the thumbnails of updated or deleted rendering settings and
+     * thumbnail metadata.
+     */
+    public void onApplicationEvent(EventLogsMessage elm) {
+        if (!isEnabled()) {
+            return;
+        }
+        Set<Long> renderingDefIds = new HashSet<Long>();
+        collect(elm.matches(RENDERING_DEF, "UPDATE"), renderingDefIds);
+        collect(elm.matches(RENDERING_DEF, "DELETE"), renderingDefIds);
+        Set<Long> thumbnailIds = new HashSet<Long>();
+        collect(elm.matches(THUMBNAIL, "UPDATE"), thumbnailIds);
+        collect(elm.matches(THUMBNAIL, "DELETE"), thumbnailIds);
+        if (!renderingDefIds.isEmpty() || !thumbnailIds.isEmpty()) {
+            invalidate(renderingDefIds, thumbnailIds);
+        }
+    }
+
+    private static void collect(Collection<EventLog> logs, Set<Long> ids) {
+        for (EventLog el : logs) {
+            ids.add(el.getEntityId());
+        }
+    }
+
+    private static boolean isCacheable(RenderingDef settings,
+            Thumbnail thumbnail) {
+        return settings != null && settings.getId() != null
+                && thumbnail != null && thumbnail.getId() != null
+                && thumbnail.getSizeX() != null
+                && thumbnail.getSizeY() != null;
+    }
+
+}
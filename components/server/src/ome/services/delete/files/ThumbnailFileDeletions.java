@@ -21,6 +21,8 @@ import java.io.File;
 import java.util.Set;
 
 import ome.io.nio.AbstractFileSystemService;
+import ome.io.nio.PackedThumbnailService;
+import ome.system.OmeroContext;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -36,11 +38,33 @@ public class ThumbnailFileDeletions extends AbstractFileDeletions {
 
     private static final Logger log = LoggerFactory.getLogger(ThumbnailFileDeletions.class);
 
-    public ThumbnailFileDeletions(AbstractFileSystemService afs, Set<Long> deletedIds) {
+    private final OmeroContext ctx;
+
+    public ThumbnailFileDeletions(AbstractFileSystemService afs, Set<Long> deletedIds,
+            OmeroContext ctx) {
         super(afs, deletedIds);
+        this.ctx = ctx;
         for (Long id : deletedIds) {
             String filePath = afs.getThumbnailPath(id);
             addLocalFile(new File(filePath), id);
         }
     }
+
+    /**
+     * Also drops thumbnails kept in segment files from the index; their
+     * space is reclaimed by compaction in the background.
+     */
+    @Override
+    public int deleteLocal() {
+        Object thumbs = ctx.containsBean("/OMERO/Thumbs")
+                ? ctx.getBean("/OMERO/Thumbs") : null;
+        if (thumbs instanceof PackedThumbnailService) {
+            try {
+                ((PackedThumbnailService) thumbs).removePackedThumbnails(deletedIds);
+            } catch (Exception e) {
+                log.warn("Failed to remove packed thumbnails " + deletedIds, e);
+            }
+        }
+        return super.deleteLocal();
+    }
 }
@@ -20,6 +20,7 @@ package ome.services.eventlogs;
 
 import java.io.Serializable;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -128,6 +129,14 @@ public class EventLogQueue extends PersistentEventLogLoader {
 
         State state = State.OPEN;
 
+        /**
+         * Whether this entry was loaded for one of the
+         * {@link EventLogQueue#priorityActions}. Handling such an entry does
+         * not move the current id, since it may be ahead of entries which
+         * are still queued.
+         */
+        boolean priority;
+
         Entry(long log, String type, long id, String action, int skipped) {
             this.eventLog = log;
             this.objType = type;
@@ -239,6 +248,19 @@ public class EventLogQueue extends PersistentEventLogLoader {
                 priorityQ.add(entry);
                 priorityCount.inc();
             }
+
+            /**
+             * Moves the given entry, if it is still waiting in the regular
+             * queue, to the end of the priority queue.
+             */
+            public void promote(Entry entry) {
+                entry.priority = true;
+                if (regularQ.remove(entry)) {
+                    regularCount.dec();
+                    priorityQ.add(entry);
+                    priorityCount.inc();
+                }
+            }
         }
 
         /**
@@ -343,6 +365,11 @@ public class EventLogQueue extends PersistentEventLogLoader {
      */
     final static public int DEFAULT_MAX = 1000 * 1000;
 
+    /**
+     * Default for {@link #priorityInterval}: one second.
+     */
+    final static public long DEFAULT_PRIORITY_INTERVAL = 1000L;
+
     /**
      * Array of entity types which will be used in
      * {@link SqlAction#getEventLogPartitions(String[], String[], long, long)}
@@ -357,6 +384,30 @@ public class EventLogQueue extends PersistentEventLogLoader {
      */
     final private List<String> actions;
 
+    /**
+     * Actions whose logs are loaded by a query of their own, ahead of the
+     * logs for {@link #actions} which are loaded in id order. Empty unless
+     * set via {@link #setPriorityActions(String[])}.
+     */
+    private List<String> priorityActions = Collections.emptyList();
+
+    /**
+     * Id of the newest log loaded for the {@link #priorityActions}. Since
+     * these do not move the current id, the next priority lookup starts
+     * from here instead.
+     */
+    private long priorityId = -1;
+
+    /**
+     * Minimum number of milliseconds between two priority lookups.
+     */
+    private long priorityInterval = DEFAULT_PRIORITY_INTERVAL;
+
+    /**
+     * When the {@link #priorityActions} were last looked up.
+     */
+    private long lastPriorityLookup = 0;
+
     final private Data data;
 
     /**
@@ -426,6 +477,22 @@ public class EventLogQueue extends PersistentEventLogLoader {
                 this.types);
     }
 
+    /**
+     * Spring injector. Sets the actions whose logs should be handled ahead
+     * of all others, e.g. those which a client is waiting on.
+     */
+    public void setPriorityActions(String[] priorityActions) {
+        this.priorityActions = Arrays.asList(priorityActions);
+    }
+
+    /**
+     * Spring injector. Sets the minimum number of milliseconds between two
+     * lookups of the priority actions.
+     */
+    public void setPriorityInterval(long priorityInterval) {
+        this.priorityInterval = Math.max(0, priorityInterval);
+    }
+
     //
     // HELPERS
     //
@@ -445,6 +512,74 @@ public class EventLogQueue extends PersistentEventLogLoader {
         }
     }
 
+    /**
+     * Loads the logs for the {@link #priorityActions} which are newer than
+     * both the current id and the last such log loaded.
+     */
+    protected List<Object[]> lookupPriority() {
+        final Timer.Context ctx = lookupTime.time();
+        try {
+            final long current = Math.max(getCurrentId(), priorityId);
+            List<Object[]> rv = sql.getEventLogPartitions(types,
+                    priorityActions, current, max);
+            log.debug(String.format("priority objects found searching " +
+                    "from %s (max: %s): %s",
+                    current, max, rv.size()));
+            return rv;
+        } finally {
+            ctx.stop();
+        }
+    }
+
+    /**
+     * Looks up the {@link #priorityActions}, if any, unless that was done
+     * less than {@link #priorityInterval} milliseconds ago, and puts the
+     * entries found at the end of the priority queue. Entries which are
+     * already waiting in the regular queue are moved.
+     */
+    protected int loadPriority() {
+        if (priorityActions.isEmpty()) {
+            return 0;
+        }
+        final long now = System.currentTimeMillis();
+        if (now - lastPriorityLookup < priorityInterval) {
+            return 0;
+        }
+        lastPriorityLookup = now;
+
+        int loaded = 0;
+        for (Object[] row : lookupPriority()) {
+            if (row == null || row.length != 5 || !(row[0] instanceof Long)
+                    || !(row[1] instanceof String) || !(row[2] instanceof Long)
+                    || !(row[3] instanceof String)
+                    || !(row[4] instanceof Integer)) {
+                log.error("Invalid row data: " + Arrays.toString(row));
+                continue;
+            }
+            final long eventLogId = (Long) row[0];
+            priorityId = Math.max(priorityId, eventLogId);
+            final Data.Entries entries = data.entries((String) row[1]);
+            if (entries == null) {
+                continue;
+            }
+            Entry entry = entries.get((Long) row[2]);
+            if (entry == null) {
+                entry = new Entry(eventLogId, (String) row[1], (Long) row[2],
+                        (String) row[3], (Integer) row[4]);
+                entry.priority = true;
+                entries.addPriority(entry);
+                loaded++;
+            } else if (!entry.priority) {
+                entry.action = (String) row[3];
+                entries.promote(entry);
+                loaded++;
+            } else {
+                entry.skipped += (Integer) row[4];
+            }
+        }
+        return loaded;
+    }
+
     protected int load(List<Object[]> rows) {
         int loaded = 0;
         for (Object[] row : rows) {
@@ -510,7 +645,7 @@ public class EventLogQueue extends PersistentEventLogLoader {
             this.lastReturned.timer.stop(); // In case of success
             Entry last = this.lastReturned.entry;
             last.pass();
-            if (last.eventLog >= 0) {
+            if (last.eventLog >= 0 && !last.priority) {
                 setCurrentId(last.eventLog);
             }
             log.debug(String.format("Successfully handled %s. Skipped: %s",
@@ -547,6 +682,7 @@ public class EventLogQueue extends PersistentEventLogLoader {
             return false;
         }
 
+        loadPriority();
         if (data.hasNext()) {
             return true;
         }
@@ -555,10 +691,12 @@ public class EventLogQueue extends PersistentEventLogLoader {
 
     /**
      * Return a wrapped version of {@link ome.services.eventlogs.EventLogQueue.Data#next()} which could possibly be
-     * null.
+     * null. Entries for the {@link #priorityActions} are looked up first so
+     * that they need not wait for the regular queue to empty.
      */
     public EventLog next() {
         nextCount.inc();
+        loadPriority();
         return offer(data.next());
     }
 
@@ -32,6 +32,19 @@ public abstract class PersistentEventLogLoader extends EventLogLoader {
 
     protected SqlAction sql;
 
+    /**
+     * Whether {@link #setCurrentId(long)} only moves {@link #position} in
+     * memory, leaving it to {@link #saveCurrentId(long)} to save the id once
+     * the {@link EventLog} instances up to it have been handled.
+     */
+    private volatile boolean deferSave = false;
+
+    /**
+     * The current id while saving is deferred, or null if it has not been
+     * read from the database yet.
+     */
+    private Long position = null;
+
     public void setKey(String key) {
         this.key = key;
     }
@@ -48,6 +61,16 @@ public abstract class PersistentEventLogLoader extends EventLogLoader {
         this.sql = sql;
     }
 
+    /**
+     * Sets whether the current id is saved as soon as it moves on or only by
+     * {@link #saveCurrentId(long)}, so that {@link EventLog} instances which
+     * were loaded but not handled are loaded again after a restart.
+     */
+    public void setDeferSave(boolean deferSave) {
+        this.deferSave = deferSave;
+        this.position = null;
+    }
+
     @Override
     protected EventLog query() {
 
@@ -73,6 +96,9 @@ public abstract class PersistentEventLogLoader extends EventLogLoader {
      * reinitialize, or the table is missing and something is wrong.
      */
     public long getCurrentId() {
+        if (deferSave && position != null) {
+            return position;
+        }
         long current_id;
         try {
             current_id = sql.selectCurrentEventLog(key);
@@ -88,14 +114,30 @@ public abstract class PersistentEventLogLoader extends EventLogLoader {
                             + "from your database. Please check your server installation instructions \n"
                             + "for possible reasons.");
         }
+        if (deferSave) {
+            position = current_id;
+        }
         return current_id;
     }
 
     public void setCurrentId(long id) {
+        if (deferSave) {
+            position = id;
+        } else {
+            sql.setCurrentEventLog(id, key);
+        }
+    }
+
+    /**
+     * Saves the given id as the current id in the database, whether or not
+     * saving is deferred. The id in memory is left unchanged.
+     */
+    public void saveCurrentId(long id) {
         sql.setCurrentEventLog(id, key);
     }
 
     public void deleteCurrentId() {
+        position = null;
         sql.delCurrentEventLog(key);
     }
 
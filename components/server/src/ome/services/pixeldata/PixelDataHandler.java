@@ -6,8 +6,12 @@
 package ome.services.pixeldata;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
 
 import ome.api.IQuery;
 import ome.conditions.LockTimeout;
@@ -72,7 +76,8 @@ public class PixelDataHandler extends SimpleWork {
     }
 
     /**
-     * Loads {@link #reps} {@link EventLog} instances and returns them.
+     * Loads {@link #reps} {@link EventLog} instances and returns them as
+     * {@link PixelDataTask} instances along with the size of their pixels.
      * This is the first phase used by the {@link PixelDataThread}. A later
      * phase will invoke {@link #handleEventLog(EventLog, Session, ServiceFactory)}
      * with the returned instance.
@@ -82,7 +87,10 @@ public class PixelDataHandler extends SimpleWork {
         List<EventLog> logs = new ArrayList<EventLog>();
         while (logs.size() < this.reps) {
             try {
-                logs.add(loader.next());
+                EventLog el = loader.next();
+                if (el != null) {
+                    logs.add(el);
+                }
             } catch (NoSuchElementException nsee) {
                 if (!loader.hasNext()) {
                     break;
@@ -90,14 +98,55 @@ public class PixelDataHandler extends SimpleWork {
             }
         }
 
-        // Preload
+        // Preload. Backlog entries have no persistent EventLog.
         for (EventLog el : logs) {
-            EventLog live = (EventLog) session.get(EventLog.class, el.getId());
-            Event evt = live.getEvent();
-            el.setEvent(evt);
+            if (el.getId() != null && el.getId() >= 0) {
+                EventLog live = (EventLog) session.get(EventLog.class, el.getId());
+                if (live != null) {
+                    Event evt = live.getEvent();
+                    el.setEvent(evt);
+                }
+            }
         }
 
-        return logs;
+        final Map<Long, Long> sizes = getSizes(logs, sf);
+        final List<PixelDataTask> tasks = new ArrayList<PixelDataTask>(logs.size());
+        for (EventLog el : logs) {
+            final Long bytes = sizes.get(el.getEntityId());
+            tasks.add(new PixelDataTask(el, bytes == null ? 0 : bytes));
+        }
+        return tasks;
+    }
+
+    /**
+     * Returns the approximate size in bytes of the pixels referenced by
+     * each of the given {@link EventLog} instances, keyed by pixels id.
+     */
+    protected Map<Long, Long> getSizes(List<EventLog> logs, ServiceFactory sf) {
+        final Map<Long, Long> sizes = new HashMap<Long, Long>();
+        final Set<Long> ids = new HashSet<Long>();
+        for (EventLog el : logs) {
+            if (el.getEntityId() != null) {
+                ids.add(el.getEntityId());
+            }
+        }
+        if (ids.isEmpty()) {
+            return sizes;
+        }
+        final List<Object[]> rows = sf.getQueryService().projection(
+                "select p.id, p.sizeX, p.sizeY, p.sizeZ, p.sizeC, p.sizeT, " +
+                "p.pixelsType.bitSize from Pixels p where p.id in (:ids)",
+                new Parameters().addIds(ids));
+        for (Object[] row : rows) {
+            long bytes = 1;
+            for (int i = 1; i < 6; i++) {
+                bytes *= ((Number) row[i]).longValue();
+            }
+            final Number bits = (Number) row[6];
+            bytes *= bits == null ? 1 : Math.max(1, bits.intValue() / 8);
+            sizes.put((Long) row[0], bytes);
+        }
+        return sizes;
     }
 
     /**
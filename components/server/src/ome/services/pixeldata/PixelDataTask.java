@@ -0,0 +1,134 @@
+/*
+ *   Copyright 2017 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.pixeldata;
+
+import ome.model.meta.EventLog;
+
+/**
+ * A single PIXELDATA {@link EventLog} waiting to be handled by the
+ * {@link PixelDataThread}, along with what is needed to schedule it.
+ *
+ * Tasks are ordered first by whether they are {@link #isInteractive()
+ * interactive} and then by a deadline
+ * which grows with the logarithm of the image size. Small images are
+ * therefore handled first, but a large image which has waited long enough
+ * will overtake any newly queued small ones, so that no task starves.
+ *
+ * @since 5.3
+ */
+public class PixelDataTask implements Comparable<PixelDataTask> {
+
+    /**
+     * Images of at most this many bytes get no extra deadline.
+     */
+    private final static long SMALL_BYTES = 1024 * 1024;
+
+    private final EventLog log;
+
+    /**
+     * Whether a user is waiting on this pyramid, i.e. whether the log was
+     * created by {@link PixelDataThread#onApplicationEvent} or the task was
+     * {@link #promote() promoted} while it was not queued.
+     */
+    private boolean interactive;
+
+    /**
+     * Approximate size of the pixels in bytes, or 0 if unknown.
+     */
+    private final long bytes;
+
+    /**
+     * When this task was queued, in milliseconds.
+     */
+    private long queued;
+
+    /**
+     * Time in milliseconds before which this task should ideally be started.
+     */
+    private long deadline;
+
+    /**
+     * @param log the {@link EventLog} to handle.
+     * @param bytes approximate size of the pixels in bytes.
+     */
+    public PixelDataTask(EventLog log, long bytes) {
+        this.log = log;
+        this.bytes = bytes;
+        this.interactive =
+                PixelDataThread.INTERACTIVE_ACTION.equals(log.getAction());
+    }
+
+    /**
+     * Called once by the {@link PixelDataThread} before the task is queued.
+     *
+     * @param now when the task is queued, in milliseconds.
+     * @param aging milliseconds added to the deadline for each doubling of
+     *     the image size above one megabyte.
+     */
+    void schedule(long now, long aging) {
+        this.queued = now;
+        this.deadline = now + doublings(bytes) * aging;
+    }
+
+    /**
+     * Marks this task as one which a user is waiting on. Must not be called
+     * while the task is in a queue, since it changes the order.
+     */
+    void promote() {
+        this.interactive = true;
+    }
+
+    public EventLog getEventLog() {
+        return log;
+    }
+
+    public boolean isInteractive() {
+        return interactive;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getQueued() {
+        return queued;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Returns how many times the given size must be halved to fall under
+     * {@link #SMALL_BYTES}.
+     */
+    static int doublings(long bytes) {
+        int count = 0;
+        while (bytes > SMALL_BYTES) {
+            bytes >>>= 1;
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public int compareTo(PixelDataTask other) {
+        if (interactive != other.interactive) {
+            return interactive ? -1 : 1;
+        }
+        if (deadline != other.deadline) {
+            return deadline < other.deadline ? -1 : 1;
+        }
+        return queued < other.queued ? -1 : (queued == other.queued ? 0 : 1);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PixelDataTask[%s](entityId=%s, bytes=%s%s)",
+                log.getId(), log.getEntityId(), bytes,
+                interactive ? ", interactive" : "");
+    }
+}
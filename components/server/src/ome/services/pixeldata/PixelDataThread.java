@@ -10,9 +10,13 @@ package ome.services.pixeldata;
 import java.sql.Timestamp;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
@@ -34,6 +38,8 @@ import ome.services.util.Executor;
 import ome.system.EventContext;
 import ome.system.Principal;
 import ome.system.ServiceFactory;
+import ome.system.metrics.Counter;
+import ome.system.metrics.Histogram;
 import ome.system.metrics.Metrics;
 import ome.system.metrics.NullMetrics;
 import ome.system.metrics.Timer;
@@ -58,6 +64,30 @@ public class PixelDataThread extends ExecutionThread implements ApplicationListe
 
     private final static int DEFAULT_THREADS = 1;
 
+    /**
+     * Action of the {@link EventLog}s created by
+     * {@link #onApplicationEvent(MissingPyramidMessage)} for a pyramid which
+     * a client is waiting on. Loaders handle these ahead of the "PIXELDATA"
+     * backlog.
+     */
+    public final static String INTERACTIVE_ACTION = "PIXELDATA_INTERACTIVE";
+
+    /**
+     * Default for {@link #queueSize}.
+     */
+    public final static int DEFAULT_QUEUE_SIZE = 256;
+
+    /**
+     * Default for {@link #aging}: one minute.
+     */
+    public final static long DEFAULT_AGING = 60 * 1000L;
+
+    /**
+     * Minimum time in milliseconds between loads from the database while
+     * the previous load found no new work.
+     */
+    private final static long FILL_INTERVAL = 4000L;
+
     /** Server session UUID */
     private final String uuid;
 
@@ -73,8 +103,39 @@ public class PixelDataThread extends ExecutionThread implements ApplicationListe
      */
     private final boolean performProcessing;
 
+    /**
+     * Maximum number of loaded tasks which are waiting to be run.
+     */
+    private int queueSize = DEFAULT_QUEUE_SIZE;
+
+    /**
+     * Milliseconds added to the deadline of a task for every doubling of
+     * the image size. See {@link PixelDataTask}.
+     */
+    private long aging = DEFAULT_AGING;
+
+    private volatile boolean stopped = false;
+
+    /**
+     * The loader whose current id is only saved once the {@link EventLog}
+     * instances up to it have been handled, or null if the loader does not
+     * save its current id.
+     */
+    private final ome.services.eventlogs.PersistentEventLogLoader checkpointLoader;
+
+    /**
+     * The current id last saved by {@link #checkpoint(SortedSet)}.
+     */
+    private long checkpoint = Long.MIN_VALUE;
+
     private final Timer batchTimer;
 
+    private final Timer interactiveTimer, backlogTimer;
+
+    private final Counter queueCount, runningCount;
+
+    private final Histogram waitTime;
+
     /**
      * Uses default {@link Principal} for processing
      */
@@ -158,6 +219,36 @@ public class PixelDataThread extends ExecutionThread implements ApplicationListe
         this.uuid = uuid;
         this.numThreads = numThreads;
         this.batchTimer = metrics.timer(this, "batch");
+        this.interactiveTimer = metrics.timer(this, "interactiveTask");
+        this.backlogTimer = metrics.timer(this, "backlogTask");
+        this.queueCount = metrics.counter(this, "queued");
+        this.runningCount = metrics.counter(this, "running");
+        this.waitTime = metrics.histogram(this, "waitTime");
+        if (performProcessing && handler.loader instanceof
+                ome.services.eventlogs.PersistentEventLogLoader) {
+            // Tasks are loaded well before they are run.
+            checkpointLoader = (ome.services.eventlogs.PersistentEventLogLoader)
+                    handler.loader;
+            checkpointLoader.setDeferSave(true);
+        } else {
+            checkpointLoader = null;
+        }
+    }
+
+    /**
+     * Spring injector. Sets how many loaded tasks may wait to be run. Larger
+     * values let interactive and small tasks overtake more of the backlog.
+     */
+    public void setQueueSize(int queueSize) {
+        this.queueSize = Math.max(1, queueSize);
+    }
+
+    /**
+     * Spring injector. Sets how many milliseconds a task is delayed for every
+     * doubling of its image size.
+     */
+    public void setAging(long aging) {
+        this.aging = Math.max(0, aging);
     }
 
     /**
@@ -167,7 +258,8 @@ public class PixelDataThread extends ExecutionThread implements ApplicationListe
         StringBuilder sb = new StringBuilder();
         sb.append("Initializing PixelDataThread");
         if (performProcessing) {
-            sb.append(String.format(" (threads=%s)", numThreads));
+            sb.append(String.format(" (threads=%s, queue=%s)",
+                    numThreads, queueSize));
         } else {
             sb.append(" (create events only)");
         }
@@ -175,42 +267,83 @@ public class PixelDataThread extends ExecutionThread implements ApplicationListe
     }
 
     /**
-     * Loads event logs from the {@link PixelDataHandler} processing them
-     * all then in a background thread via a {@link ExecutorCompletionService}.
+     * Loads event logs from the {@link PixelDataHandler} and processes them
+     * in background threads via an {@link ExecutorCompletionService}.
      *
-     * {@link #numThreads} variable is also used there, so the value returned
-     * <em>should</em> match. In case it isn't, we additionally use an
-     * {@link ArrayBlockingQueue} to hold the results.
+     * Rather than waiting for a whole batch to complete, a new task is
+     * started as soon as any running one finishes, so that
+     * {@link #numThreads} tasks are kept running for as long as there is
+     * work. Up to {@link #queueSize} loaded tasks wait in a
+     * {@link PriorityQueue} ordered as described by {@link PixelDataTask}.
+     * The method returns once no tasks are queued or running.
+     *
+     * The current id of the loader is only saved as tasks complete, up to
+     * the first {@link EventLog} still queued or running, so that no task
+     * is lost if the server stops before running it.
      */
     @Override
     public void doRun() {
         if (performProcessing) {
 
-            final ExecutorCompletionService<Object> ecs =
-                new ExecutorCompletionService<Object>(executor.getService(),
-                        new ArrayBlockingQueue<Future<Object>>(numThreads));
+            final ExecutorCompletionService<PixelDataTask> ecs =
+                new ExecutorCompletionService<PixelDataTask>(
+                        executor.getService());
+
+            final PriorityQueue<PixelDataTask> queue =
+                    new PriorityQueue<PixelDataTask>();
+            final Map<Long, PixelDataTask> queued =
+                    new HashMap<Long, PixelDataTask>();
+            final Set<Long> running = new HashSet<Long>();
+            final SortedSet<Long> outstanding = new TreeSet<Long>();
+            final Map<Future<PixelDataTask>, PixelDataTask> submitted =
+                    new HashMap<Future<PixelDataTask>, PixelDataTask>();
+
+            boolean more = true;
+            long lastFill = 0;
+            while (!stopped) {
+
+                // Only go back to the database if the previous attempt
+                // found something or some time has passed.
+                final long now = System.currentTimeMillis();
+                if (queue.size() < queueSize
+                        && (more || now - lastFill > FILL_INTERVAL)) {
+                    more = fill(queue, queued, running, outstanding);
+                    lastFill = now;
+                }
 
-            @SuppressWarnings("unchecked")
-            List<EventLog> eventLogs = (List<EventLog>)
-                    executor.execute(getPrincipal(), work);
+                while (running.size() < numThreads && !queue.isEmpty()) {
+                    final PixelDataTask task = queue.poll();
+                    queued.remove(task.getEventLog().getEntityId());
+                    queueCount.dec();
+                    running.add(task.getEventLog().getEntityId());
+                    runningCount.inc();
+                    waitTime.update((int) Math.min(Integer.MAX_VALUE,
+                            System.currentTimeMillis() - task.getQueued()));
+                    submitted.put(ecs.submit(new Callable<PixelDataTask>(){
+                        @Override
+                        public PixelDataTask call()
+                            throws Exception
+                        {
+                            return go(task);
+                        }
+                    }), task);
+                }
 
-            for (final EventLog log : eventLogs) {
-                ecs.submit(new Callable<Object>(){
-                    @Override
-                    public Object call()
-                        throws Exception
-                    {
-                        return go(log);
-                    }
-                });
-            }
+                if (running.isEmpty()) {
+                    checkpoint(outstanding);
+                    break;
+                }
 
-            int count = eventLogs.size();
-            while (count > 0) {
                 try {
-                    Future<Object> future = ecs.poll(500, TimeUnit.MILLISECONDS);
-                    if (future != null && future.get() != null) {
-                        count--;
+                    Future<PixelDataTask> future = ecs.poll(500, TimeUnit.MILLISECONDS);
+                    if (future != null) {
+                        final PixelDataTask task = submitted.remove(future);
+                        running.remove(task.getEventLog().getEntityId());
+                        runningCount.dec();
+                        outstanding.remove(task.getEventLog().getId());
+                        more = true;
+                        checkpoint(outstanding);
+                        future.get();
                     }
                 } catch (ExecutionException ee) {
                     onExecutionException(ee);
@@ -221,6 +354,81 @@ public class PixelDataThread extends ExecutionThread implements ApplicationListe
         }
     }
 
+    /**
+     * Loads tasks from the {@link PixelDataHandler} until either
+     * {@link #queueSize} tasks are queued or no more are available, returning
+     * false in the latter case. Tasks for pixels which are already running
+     * are dropped. A repeated task for queued pixels means that someone
+     * asked for them again while waiting, so it is dropped and the queued
+     * task is {@link PixelDataTask#promote() promoted}. The ids of the
+     * {@link EventLog}s of the queued tasks are added to
+     * <code>outstanding</code>.
+     */
+    private boolean fill(PriorityQueue<PixelDataTask> queue,
+            Map<Long, PixelDataTask> queued, Set<Long> running,
+            SortedSet<Long> outstanding) {
+        while (queue.size() < queueSize) {
+            @SuppressWarnings("unchecked")
+            List<PixelDataTask> tasks = (List<PixelDataTask>)
+                    executor.execute(getPrincipal(), work);
+            if (tasks == null || tasks.isEmpty()) {
+                return false;
+            }
+            final long now = System.currentTimeMillis();
+            for (PixelDataTask task : tasks) {
+                final Long id = task.getEventLog().getEntityId();
+                if (running.contains(id)) {
+                    continue;
+                }
+                final PixelDataTask old = queued.get(id);
+                if (old != null) {
+                    if (!old.isInteractive()) {
+                        queue.remove(old);
+                        old.promote();
+                        queue.add(old);
+                    }
+                    continue;
+                }
+                task.schedule(now, aging);
+                queue.add(task);
+                queued.put(id, task);
+                queueCount.inc();
+                final Long logId = task.getEventLog().getId();
+                if (logId != null && logId >= 0) {
+                    outstanding.add(logId);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Saves the current id of the {@link #checkpointLoader}, if any, as far
+     * as the first of the <code>outstanding</code> {@link EventLog}s, so
+     * that those are loaded again after a restart.
+     */
+    private void checkpoint(final SortedSet<Long> outstanding) {
+        if (checkpointLoader == null) {
+            return;
+        }
+        final Long first = outstanding.isEmpty() ? null : outstanding.first();
+        executor.execute(getPrincipal(),
+                new Executor.SimpleWork(this, "checkpoint", first) {
+            @Transactional(readOnly = false)
+            public Object doWork(Session session, ServiceFactory sf) {
+                long id = checkpointLoader.getCurrentId();
+                if (first != null) {
+                    id = Math.min(id, first - 1);
+                }
+                if (id != checkpoint) {
+                    checkpointLoader.saveCurrentId(id);
+                    checkpoint = id;
+                }
+                return null;
+            }
+        });
+    }
+
     /**
      * {@link Executor.Work} implementation for the second phase of PixelData
      * processing. Once the {@link EventLog} instances are available, each
@@ -249,14 +457,18 @@ public class PixelDataThread extends ExecutionThread implements ApplicationListe
 
     }
 
-    private Object go(EventLog log) {
+    private PixelDataTask go(PixelDataTask task) {
         final Timer.Context timer = batchTimer.time();
+        final Timer.Context taskTimer = (task.isInteractive()
+                ? interactiveTimer : backlogTimer).time();
         try {
              executor.execute(getPrincipal(),
-                     new HandleEventLog(log, (PixelDataHandler) work,
+                     new HandleEventLog(task.getEventLog(),
+                             (PixelDataHandler) work,
                              this, "handleEventLog"));
-             return log;
+             return task;
         } finally {
+            taskTimer.stop();
             timer.stop();
         }
     }
@@ -274,12 +486,14 @@ public class PixelDataThread extends ExecutionThread implements ApplicationListe
      */
     public void stop() {
         log.info("Shutting down PixelDataThread");
+        stopped = true;
         ((PixelDataHandler) this.work).loader.setStop(true);
     }
 
     /**
-     * Called in the main server (Blitz-0) in order to create a PIXELDATA
-     * {@link EventLog} which will get processed by PixelData-0.
+     * Called in the main server (Blitz-0) in order to create an
+     * {@link #INTERACTIVE_ACTION} {@link EventLog} which will get processed
+     * by PixelData-0 ahead of the backlog.
      */
     public void onApplicationEvent(final MissingPyramidMessage mpm) {
 
@@ -330,7 +544,7 @@ public class PixelDataThread extends ExecutionThread implements ApplicationListe
                 new Executor.SimpleWork(this, "createEvent") {
         @Transactional(readOnly = false)
         public Object doWork(Session session, ServiceFactory sf) {
-            log.info("Creating PIXELDATA event for pixels id:"
+            log.info("Creating " + INTERACTIVE_ACTION + " event for pixels id:"
                     + mpm.pixelsID);
 
                 // Load objects
@@ -345,7 +559,7 @@ public class PixelDataThread extends ExecutionThread implements ApplicationListe
                         ec.getCurrentSessionId(), false));
                 e.setTime(new Timestamp(new Date().getTime()));
                 e.setType(type);
-                el.setAction("PIXELDATA");
+                el.setAction(INTERACTIVE_ACTION);
                 el.setEntityId(mpm.pixelsID);
                 el.setEntityType(Pixels.class.getName());
                 el.setEvent(e);
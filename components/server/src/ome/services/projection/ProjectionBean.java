@@ -9,7 +9,10 @@ package ome.services.projection;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,6 +22,7 @@ import ome.annotations.RolesAllowed;
 import ome.api.IPixels;
 import ome.api.IProjection;
 import ome.api.ServiceInterface;
+import ome.conditions.InternalException;
 import ome.conditions.ResourceError;
 import ome.conditions.ValidationException;
 import ome.io.nio.DimensionsOutOfBoundsException;
@@ -31,6 +35,9 @@ import ome.model.core.Image;
 import ome.model.core.Pixels;
 import ome.model.enums.PixelsType;
 import ome.model.stats.StatsInfo;
+import omeis.providers.re.RenderingExecutor;
+import omeis.providers.re.RenderingTask;
+import omeis.providers.re.quantum.QuantizationException;
 
 /**
  * Implements projection functionality for Pixels sets as declared in {@link
@@ -51,6 +58,9 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
     
     /** Reference to the service used to retrieve the pixels data. */
     protected transient PixelsService pixelsService;
+
+    /** Executor projecting the stacks of a Pixels set in parallel. */
+    protected transient RenderingExecutor projectionExecutor;
     
     /**
      * Returns the interface this implementation is for.
@@ -81,6 +91,18 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
         this.pixelsService = pixelsService;
     }
     
+    /**
+     * Projection executor injector. For use during configuration. Can only be
+     * called once. If not set, the stacks of a Pixels set are projected one
+     * after another on the calling thread.
+     */
+    public void setProjectionExecutor(RenderingExecutor projectionExecutor)
+    {
+        getBeanHelper().throwIfAlreadySet(
+                this.projectionExecutor, projectionExecutor);
+        this.projectionExecutor = projectionExecutor;
+    }
+
     /* (non-Javadoc)
      * @see ome.api.IProjection#projectStack(long, ome.model.enums.PixelsType, int, int, int, int, int, int)
      */
@@ -89,18 +111,16 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
                                int algorithm, int timepoint, int channelIndex, 
                                int stepping, int start, int end)
     {
-        ProjectionContext ctx = new ProjectionContext();
-        ctx.pixels = iQuery.get(Pixels.class, pixelsId);
-        PixelBuffer pixelBuffer = pixelsService.getPixelBuffer(
-                ctx.pixels, false);
-        zIntervalBoundsCheck(start, end, ctx.pixels.getSizeZ());
+        Pixels pixels = iQuery.get(Pixels.class, pixelsId);
+        PixelBuffer pixelBuffer = pixelsService.getPixelBuffer(pixels, false);
+        zIntervalBoundsCheck(start, end, pixels.getSizeZ());
         outOfBoundsStepping(stepping);
         outOfBoundsCheck(channelIndex, "channel");
         outOfBoundsCheck(timepoint, "timepoint");
-        Integer v = ctx.pixels.getSizeT();
+        Integer v = pixels.getSizeT();
         if (timepoint >= v)
             throw new ValidationException("timepoint must be <"+v);
-        v = ctx.pixels.getSizeC();
+        v = pixels.getSizeC();
         if (channelIndex >= v)
             throw new ValidationException("channel index must be <"+v);
         try
@@ -108,44 +128,18 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
 
             if (pixelsType == null)
             {
-                pixelsType = ctx.pixels.getPixelsType();
+                pixelsType = pixels.getPixelsType();
             }
             else
             {
                 pixelsType = iQuery.get(PixelsType.class, pixelsType.getId());
             }
 
-            ctx.planeSizeInPixels = 
-                ctx.pixels.getSizeX() * ctx.pixels.getSizeY();
-            int planeSize = 
-                ctx.planeSizeInPixels * (iPixels.getBitDepth(pixelsType) / 8);
-            byte[] buf = new byte[planeSize];
-            ctx.from = pixelBuffer.getStack(channelIndex, timepoint);
-            ctx.to = new PixelData(pixelsType.getValue(), ByteBuffer.wrap(buf));
-
-            switch (algorithm)
-            {
-                case IProjection.MAXIMUM_INTENSITY:
-                {
-                    projectStackMax(ctx, stepping, start, end, false);
-                    break;
-                }
-                case IProjection.MEAN_INTENSITY:
-                {
-                    projectStackMean(ctx, stepping, start, end, false);
-                    break;
-                }
-                case IProjection.SUM_INTENSITY:
-                {
-                    projectStackSum(ctx, stepping, start, end, false);
-                    break;
-                }
-                default:
-                {
-                    throw new IllegalArgumentException(
-                            "Unknown algorithm: " + algorithm);
-                }
-            }
+            StackProjector projector =
+                new StackProjector(algorithm, stepping, start, end);
+            byte[] buf = new byte[getPlaneSize(pixels, pixelsType)];
+            projector.project(pixelBuffer, channelIndex, timepoint,
+                    new PixelData(pixelsType.getValue(), ByteBuffer.wrap(buf)));
             return buf;
         }
         catch (IOException e)
@@ -160,7 +154,7 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
         {
             String error = String.format(
                     "C=%d or T=%d out of range for Pixels Id %d: %s",
-                    channelIndex, timepoint, ctx.pixels.getId(), e.getMessage());
+                    channelIndex, timepoint, pixels.getId(), e.getMessage());
             log.error(error, e);
             throw new ValidationException(error);
         }
@@ -176,9 +170,6 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
                 throw new ResourceError(
                         e.getMessage() + " Please check server log.");
             }
-            if (ctx.from != null) {
-                ctx.from.dispose();
-            }
         }
     }
 
@@ -193,14 +184,15 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
                               int zStart, int zEnd, String name)
     {
         // First, copy and resize our image with sizeZ = 1.
-        ProjectionContext ctx = new ProjectionContext();
-        ctx.pixels = iQuery.get(Pixels.class, pixelsId);
-        Image image = ctx.pixels.getImage();
+        Pixels pixels = iQuery.get(Pixels.class, pixelsId);
+        Image image = pixels.getImage();
         name = name == null? image.getName() + " Projection" : name;
         //size of the new buffer.
         //Add control for z
-        zIntervalBoundsCheck(zStart, zEnd, ctx.pixels.getSizeZ());
+        zIntervalBoundsCheck(zStart, zEnd, pixels.getSizeZ());
         outOfBoundsStepping(stepping);
+        StackProjector projector =
+            new StackProjector(algorithm, stepping, zStart, zEnd);
 
         Integer sizeT = tEnd-tStart+1;
         if (tStart > tEnd)
@@ -215,7 +207,7 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
         Pixels newPixels = newImage.getPixels(0);
         if (pixelsType == null)
         {
-            pixelsType = ctx.pixels.getPixelsType();
+            pixelsType = pixels.getPixelsType();
         }
         else
         {
@@ -225,113 +217,131 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
         
         // Project each stack for each channel and each timepoint in the
         // entire image, copying into the pixel buffer the projected pixels.
-        PixelBuffer sourceBuffer = pixelsService.getPixelBuffer(
-                ctx.pixels, false);
-        try {
+        // The stacks are shared out between the tasks, each of which reads
+        // from its own source buffer, opened here as it may need the
+        // database.
+        List<int[]> stacks = new ArrayList<int[]>();
+        for (int newC = 0; newC < channels.size(); newC++)
+        {
+            for (int t = tStart; t <= tEnd; t++)
+            {
+                stacks.add(new int[] { channels.get(newC), newC, t });
+            }
+        }
+        int taskCount = 1;
+        if (projectionExecutor != null)
+        {
+            taskCount = Math.max(1, Math.min(
+                    projectionExecutor.getThreads(), stacks.size()));
+        }
+        int planeSize = getPlaneSize(pixels, pixelsType);
+        AtomicInteger next = new AtomicInteger();
+        ProjectionTask[] tasks = new ProjectionTask[taskCount];
+        List<PixelBuffer> buffers = new ArrayList<PixelBuffer>();
+        long startTime = System.currentTimeMillis();
+        try
+        {
             PixelBuffer destinationBuffer = pixelsService.getPixelBuffer(
                     newPixels, true);
-            try
+            buffers.add(destinationBuffer);
+            for (int i = 0; i < taskCount; i++)
             {
-                ctx.planeSizeInPixels = ctx.pixels.getSizeX() * ctx.pixels.getSizeY();
-                int planeSize =
-                    ctx.planeSizeInPixels * (iPixels.getBitDepth(pixelsType) / 8);
-                byte[] buf = new byte[planeSize];
-                ctx.to = new PixelData(pixelsType.getValue(), ByteBuffer.wrap(buf));
-                int newC = 0;
-                for (Integer c : channels)
-                {
-                    ctx.minimum = Double.MAX_VALUE;
-                    ctx.maximum = Double.MIN_VALUE;
-                    for (int t = tStart; t <= tEnd; t++)
-                    {
-                        try
-                        {
-                            ctx.from = sourceBuffer.getStack(c, t);
-                            switch (algorithm)
-                            {
-                                case IProjection.MAXIMUM_INTENSITY:
-                                {
-                                    projectStackMax(ctx, stepping, zStart, zEnd, true);
-                                    break;
-                                }
-                                case IProjection.MEAN_INTENSITY:
-                                {
-                                    projectStackMean(ctx, stepping, zStart, zEnd, true);
-                                    break;
-                                }
-                                case IProjection.SUM_INTENSITY:
-                                {
-                                    projectStackSum(ctx, stepping, zStart, zEnd, true);
-                                    break;
-                                }
-                                default:
-                                {
-                                    throw new IllegalArgumentException(
-                                            "Unknown algorithm: " + algorithm);
-                                }
-                            }
-                            destinationBuffer.setPlane(buf, 0, newC, t);
-                        }
-                        catch (IOException e)
-                        {
-                            String error = String.format(
-                                    "I/O error retrieving stack C=%d T=%d: %s",
-                                    c, t, e.getMessage());
-                            log.error(error, e);
-                            throw new ResourceError(error);
-                        }
-                        catch (DimensionsOutOfBoundsException e)
-                        {
-                            String error = String.format(
-                                    "C=%d or T=%d out of range for Pixels Id %d: %s",
-                                    c, t, ctx.pixels.getId(), e.getMessage());
-                            log.error(error, e);
-                            throw new ValidationException(error);
-                        } finally {
-                            if (ctx.from != null) {
-                                ctx.from.dispose();
-                            }
-                        }
-                    }
-                    // Handle the change of minimum and maximum for this channel.
-                    Channel channel = newPixels.getChannel(newC);
-                    StatsInfo si = new StatsInfo();
-                    si.setGlobalMin(ctx.minimum);
-                    si.setGlobalMax(ctx.maximum);
-                    channel.setStatsInfo(si);
-                    // Set our methodology
-                    newPixels.setMethodology(
-                            IProjection.METHODOLOGY_STRINGS[algorithm]);
-                    newC++;
-                }
+                PixelBuffer sourceBuffer = pixelsService.getPixelBuffer(
+                        pixels, false);
+                buffers.add(sourceBuffer);
+                tasks[i] = new ProjectionTask(projector, stacks, next,
+                        sourceBuffer, destinationBuffer, pixels.getId(),
+                        pixelsType.getValue(), planeSize, channels.size());
             }
-            finally
+            if (projectionExecutor != null)
             {
-                try
-                {
-                    destinationBuffer.close();
-                }
-                catch (IOException e)
-                {
-                    log.error("Buffer did not close successfully: " + destinationBuffer , e);
-                    throw new ResourceError(
-                            e.getMessage() + " Please check server log.");
-                }
+                projectionExecutor.invokeAll(tasks);
             }
-        } finally {
+            else
+            {
+                tasks[0].call();
+            }
+        }
+        catch (QuantizationException e)
+        {
+            // Not thrown, projections do not quantize.
+            throw new InternalException(e.getMessage());
+        }
+        finally
+        {
+            closeBuffers(buffers);
+        }
+        log.info(String.format(
+                "Projected %d stacks of Pixels Id %d with %d task(s) in %dms",
+                stacks.size(), pixels.getId(), taskCount,
+                System.currentTimeMillis() - startTime));
+
+        // Handle the change of minimum and maximum for each channel.
+        for (int newC = 0; newC < channels.size(); newC++)
+        {
+            double minimum = Double.MAX_VALUE;
+            double maximum = Double.MIN_VALUE;
+            for (ProjectionTask task : tasks)
+            {
+                minimum = task.minima[newC] < minimum?
+                        task.minima[newC] : minimum;
+                maximum = task.maxima[newC] > maximum?
+                        task.maxima[newC] : maximum;
+            }
+            Channel channel = newPixels.getChannel(newC);
+            StatsInfo si = new StatsInfo();
+            si.setGlobalMin(minimum);
+            si.setGlobalMax(maximum);
+            channel.setStatsInfo(si);
+        }
+        // Set our methodology
+        if (!channels.isEmpty())
+        {
+            newPixels.setMethodology(
+                    IProjection.METHODOLOGY_STRINGS[algorithm]);
+        }
+        newImage = iUpdate.saveAndReturnObject(newImage);
+        return newImage.getId();
+    }
+
+    /**
+     * Returns the size in bytes of a plane of a Pixels set in a given pixels
+     * type.
+     * @param pixels The Pixels set.
+     * @param pixelsType The pixels type of the plane.
+     * @return See above.
+     */
+    private int getPlaneSize(Pixels pixels, PixelsType pixelsType)
+    {
+        return pixels.getSizeX() * pixels.getSizeY()
+                * (iPixels.getBitDepth(pixelsType) / 8);
+    }
+
+    /**
+     * Closes all the buffers, even if some of them fail to close.
+     * @param buffers The buffers to close.
+     * @throws ResourceError If a buffer did not close successfully.
+     */
+    private void closeBuffers(List<PixelBuffer> buffers)
+    {
+        ResourceError failure = null;
+        for (PixelBuffer buffer : buffers)
+        {
             try
             {
-                sourceBuffer.close();
+                buffer.close();
             }
             catch (IOException e)
             {
-                log.error("Buffer did not close successfully: " + sourceBuffer, e);
-                throw new ResourceError(
+                log.error("Buffer did not close successfully: " + buffer, e);
+                failure = new ResourceError(
                         e.getMessage() + " Please check server log.");
             }
         }
-        newImage = iUpdate.saveAndReturnObject(newImage);
-        return newImage.getId();
+        if (failure != null)
+        {
+            throw failure;
+        }
     }
     
     /**
@@ -379,176 +389,107 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
     }
     
     /**
-     * Projects a stack based on the maximum intensity at each XY coordinate.
-     * @param ctx The context of our projection.
-     * @param stepping Stepping value to use while calculating the projection.
-     * For example, <code>stepping=1</code> will use every optical section from
-     * <code>start</code> to <code>end</code> where <code>stepping=2</code> will
-     * use every other section from <code>start</code> to <code>end</code> to
-     * perform the projection.
-     * @param start Optical section to start projecting from.
-     * @param end Optical section to finish projecting.
-     * @param doMinMax Whether or not to calculate the minimum and maximum of
-     * the projected pixel data.
-     */
-    private void projectStackMax(ProjectionContext ctx, int stepping,
-                                 int start, int end, boolean doMinMax)
-    {
-        int currentPlaneStart;
-        double projectedValue, stackValue;
-        double minimum = ctx.minimum;
-        double maximum = ctx.maximum;
-        for (int i = 0; i < ctx.planeSizeInPixels; i++)
-        {
-            projectedValue = 0;
-            for (int z = start; z <= end; z += stepping)
-            {
-                currentPlaneStart = ctx.planeSizeInPixels * z;
-                stackValue = ctx.from.getPixelValue(currentPlaneStart + i);
-                if (stackValue > projectedValue)
-                {
-                    projectedValue = stackValue;
-                }
-            }
-            ctx.to.setPixelValue(i, projectedValue);
-            if (doMinMax)
-            {
-                minimum = projectedValue < minimum? projectedValue : minimum;
-                maximum = projectedValue > maximum? projectedValue : maximum;
-            }
-        }
-        ctx.minimum = minimum;
-        ctx.maximum = maximum;
-    }
-    
-    /**
-     * Projects a stack based on the mean intensity at each XY coordinate.
-     * @param from The raw pixel data from the stack to project from.
-     * @param ctx The context of our projection.
-     * source Pixels set pixels type will be used.
-     * @param stepping Stepping value to use while calculating the projection.
-     * For example, <code>stepping=1</code> will use every optical section from
-     * <code>start</code> to <code>end</code> where <code>stepping=2</code> will
-     * use every other section from <code>start</code> to <code>end</code> to
-     * perform the projection.
-     * @param start Optical section to start projecting from.
-     * @param end Optical section to finish projecting.
-     * @param doMinMax Whether or not to calculate the minimum and maximum of
-     * the projected pixel data.
-     */
-    private void projectStackMean(ProjectionContext ctx, int stepping, 
-                                  int start, int end, boolean doMinMax)
-    {
-        projectStackMeanOrSum(ctx, stepping, start, end, true, doMinMax);
-    }
-    
-    /**
-     * Projects a stack based on the sum intensity at each XY coordinate.
-     * @param ctx The context of our projection.
-     * @param pixelsType The destination Pixels type. If <code>null</code>, the
-     * source Pixels set pixels type will be used.
-     * @param stepping Stepping value to use while calculating the projection.
-     * For example, <code>stepping=1</code> will use every optical section from
-     * <code>start</code> to <code>end</code> where <code>stepping=2</code> will
-     * use every other section from <code>start</code> to <code>end</code> to
-     * perform the projection.
-     * @param start Optical section to start projecting from.
-     * @param end Optical section to finish projecting.
-     * @param doMinMax Whether or not to calculate the minimum and maximum of
-     * the projected pixel data.
-     */
-    private void projectStackSum(ProjectionContext ctx, int stepping, 
-                                 int start, int end, boolean doMinMax)
-    {
-        projectStackMeanOrSum(ctx, stepping, start, end, false, doMinMax);
-    }
-    
-    /**
-     * Projects a stack based on the sum intensity at each XY coordinate with
-     * the option to also average the sum intensity.
-     * @param ctx The context of our projection.
-     * @param pixelsType The destination Pixels type. If <code>null</code>, the
-     * source Pixels set pixels type will be used.
-     * @param stepping Stepping value to use while calculating the projection.
-     * For example, <code>stepping=1</code> will use every optical section from
-     * <code>start</code> to <code>end</code> where <code>stepping=2</code> will
-     * use every other section from <code>start</code> to <code>end</code> to
-     * perform the projection.
-     * @param start Optical section to start projecting from.
-     * @param end Optical section to finish projecting.
-     * @param mean Whether or not we're performing an average post sum
-     * intensity projection.
-     * @param doMinMax Whether or not to calculate the minimum and maximum of
-     * the projected pixel data.
-     */
-    private void projectStackMeanOrSum(ProjectionContext ctx, int stepping,
-                                       int start, int end, 
-                                       boolean mean, boolean doMinMax)
-    {
-        double planeMaximum = ctx.to.getMaximum();
-
-        int currentPlaneStart;
-        double projectedValue, stackValue;
-        double minimum = ctx.minimum;
-        double maximum = ctx.maximum;
-        for (int i = 0; i < ctx.planeSizeInPixels; i++)
-        {
-            projectedValue = 0;
-            int projectedPlaneCount = 0;
-            for (int z = start; z < end; z += stepping)
-            {
-                currentPlaneStart = ctx.planeSizeInPixels * z;
-                stackValue = ctx.from.getPixelValue(currentPlaneStart + i);
-                projectedValue += stackValue;
-                projectedPlaneCount++;
-            }
-            if (mean)
-            {
-                projectedValue = projectedValue / projectedPlaneCount;
-            }
-            if (projectedValue > planeMaximum)
-            {
-                projectedValue = planeMaximum;
-            }
-            ctx.to.setPixelValue(i, projectedValue);
-            if (doMinMax)
-            {
-                minimum = projectedValue < minimum? projectedValue : minimum;
-                maximum = projectedValue > maximum? projectedValue : maximum;
-            }
-        }
-        ctx.minimum = minimum;
-        ctx.maximum = maximum;
-    }
-    
-    /**
-     * Stores the context of a projection operation.
+     * Projects stacks of a Pixels set, taking the next stack to project from
+     * a shared list until there are none left, and writes the projected
+     * planes to the destination buffer. Keeps the minimum and maximum of the
+     * planes it projected for each channel.
      * 
      * Class is static to prevent any instances from holding onto
      * {@link ProjectionBean} instances.
-     *
-     * @author Chris Allan &nbsp;&nbsp;&nbsp;&nbsp; <a
-     *         href="mailto:callan@blackcat.ca">callan@blackcat.ca</a>
-     * @since OMERO-Beta3.1
      */
-    private static class ProjectionContext
+    private static class ProjectionTask implements RenderingTask
     {
-        /** The Pixels set we're currently working on. */
-        public Pixels pixels;
+        private final StackProjector projector;
         
-        /** Count of the number of pixels per plane for <code>pixels</code>. */
-        public int planeSizeInPixels;
+        /** The stacks as source channel, destination channel, timepoint. */
+        private final List<int[]> stacks;
         
-        /** Current minimum for the projected pixel data. */
-        public double minimum = Double.MAX_VALUE;
+        /** Index of the next stack to project, shared by all the tasks. */
+        private final AtomicInteger next;
         
-        /** Current maximum for the projected pixel data. */
-        public double maximum = Double.MIN_VALUE;
+        private final PixelBuffer sourceBuffer;
         
-        /** The raw pixel data from the stack to project from. */
-        public PixelData from;
+        /** The destination buffer, shared by all the tasks. */
+        private final PixelBuffer destinationBuffer;
+
+        private final long pixelsId;
         
         /** The raw pixel data buffer to project into. */
-        public PixelData to;
+        private final byte[] buf;
+
+        private final PixelData to;
+
+        /** Minimum of the projected pixel data per destination channel. */
+        final double[] minima;
+
+        /** Maximum of the projected pixel data per destination channel. */
+        final double[] maxima;
+
+        ProjectionTask(StackProjector projector, List<int[]> stacks,
+                       AtomicInteger next, PixelBuffer sourceBuffer,
+                       PixelBuffer destinationBuffer, long pixelsId,
+                       String pixelsType, int planeSize, int sizeC)
+        {
+            this.projector = projector;
+            this.stacks = stacks;
+            this.next = next;
+            this.sourceBuffer = sourceBuffer;
+            this.destinationBuffer = destinationBuffer;
+            this.pixelsId = pixelsId;
+            this.buf = new byte[planeSize];
+            this.to = new PixelData(pixelsType, ByteBuffer.wrap(buf));
+            this.minima = new double[sizeC];
+            this.maxima = new double[sizeC];
+            Arrays.fill(minima, Double.MAX_VALUE);
+            Arrays.fill(maxima, Double.MIN_VALUE);
+        }
+
+        public Object call()
+        {
+            int i;
+            while ((i = next.getAndIncrement()) < stacks.size())
+            {
+                int[] stack = stacks.get(i);
+                int c = stack[0];
+                int newC = stack[1];
+                int t = stack[2];
+                try
+                {
+                    double[] minMax = projector.project(sourceBuffer, c, t, to);
+                    synchronized (destinationBuffer)
+                    {
+                        destinationBuffer.setPlane(buf, 0, newC, t);
+                    }
+                    minima[newC] = minMax[0] < minima[newC]?
+                            minMax[0] : minima[newC];
+                    maxima[newC] = minMax[1] > maxima[newC]?
+                            minMax[1] : maxima[newC];
+                }
+                catch (IOException e)
+                {
+                    next.set(stacks.size());
+                    String error = String.format(
+                            "I/O error retrieving stack C=%d T=%d: %s",
+                            c, t, e.getMessage());
+                    log.error(error, e);
+                    throw new ResourceError(error);
+                }
+                catch (DimensionsOutOfBoundsException e)
+                {
+                    next.set(stacks.size());
+                    String error = String.format(
+                            "C=%d or T=%d out of range for Pixels Id %d: %s",
+                            c, t, pixelsId, e.getMessage());
+                    log.error(error, e);
+                    throw new ValidationException(error);
+                }
+                catch (RuntimeException e)
+                {
+                    next.set(stacks.size());
+                    throw e;
+                }
+            }
+            return null;
+        }
     }
 }
@@ -0,0 +1,314 @@
+/*
+ *   Copyright 2017 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.projection;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import ome.api.IProjection;
+import ome.io.nio.DimensionsOutOfBoundsException;
+import ome.io.nio.PixelBuffer;
+import ome.util.PixelData;
+
+/**
+ * Projects the optical sections of one channel and timepoint of a Pixels set
+ * into a single plane. Rather than loading the whole stack and converting
+ * every sample through {@link PixelData#getPixelValue(int)}, the sections are
+ * read one at a time, converted in bulk by
+ * {@link PixelData#getPixelValues(int, double[], int, int)} and folded into a
+ * per-pixel accumulator in plane order, so that memory use does not grow
+ * with the number of sections and the inner loops run over contiguous
+ * arrays.
+ * <p>
+ * The accumulator holds <code>double</code> values, which represent every
+ * sample and every sum of up to 2<sup>21</sup> 32-bit samples exactly, so
+ * the projected values are the same as those of the former implementation.
+ * </p>
+ * <p>
+ * Median projections need all the sections of a pixel at once and are
+ * therefore computed in bands of rows, bounded by {@link #MEDIAN_SAMPLES}.
+ * </p>
+ * Instances hold no state between calls and may be shared between threads,
+ * as long as each thread reads from its own {@link PixelBuffer}.
+ *
+ * @since 5.3.0
+ */
+public class StackProjector
+{
+    /** Maximum number of samples held in memory by a median projection. */
+    static final int MEDIAN_SAMPLES = 8 * 1024 * 1024;
+
+    /** One of the algorithms declared by {@link IProjection}. */
+    private final int algorithm;
+
+    /** Stepping value to use while calculating the projection. */
+    private final int stepping;
+
+    /** Optical section to start projecting from. */
+    private final int start;
+
+    /** Optical section to finish projecting. */
+    private final int end;
+
+    /**
+     * Creates a new instance.
+     * @param algorithm One of the algorithms declared by {@link IProjection}.
+     * @param stepping Stepping value to use while calculating the projection.
+     * For example, <code>stepping=1</code> will use every optical section from
+     * <code>start</code> to <code>end</code> where <code>stepping=2</code> will
+     * use every other section from <code>start</code> to <code>end</code> to
+     * perform the projection.
+     * @param start Optical section to start projecting from.
+     * @param end Optical section to finish projecting.
+     * @throws IllegalArgumentException If the algorithm is not known.
+     */
+    public StackProjector(int algorithm, int stepping, int start, int end)
+    {
+        switch (algorithm)
+        {
+            case IProjection.MAXIMUM_INTENSITY:
+            case IProjection.MEAN_INTENSITY:
+            case IProjection.SUM_INTENSITY:
+            case IProjection.MINIMUM_INTENSITY:
+            case IProjection.MEDIAN_INTENSITY:
+                break;
+            default:
+                throw new IllegalArgumentException(
+                        "Unknown algorithm: " + algorithm);
+        }
+        this.algorithm = algorithm;
+        this.stepping = stepping;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Projects a stack.
+     * @param from The buffer to read the optical sections from.
+     * @param c The channel of the stack.
+     * @param t The timepoint of the stack.
+     * @param to The plane to project into, of the destination pixels type.
+     * <b>NOTE:</b> When performing a <code>SUM_INTENSITY</code> or
+     * <code>MEAN_INTENSITY</code> projection, pixel values will be
+     * <i>pinned</i> to the maximum pixel value of this type.
+     * @return The minimum and maximum of the projected pixel data.
+     * @throws IOException If the sections cannot be read.
+     * @throws DimensionsOutOfBoundsException If the channel, timepoint or
+     * sections are out of range.
+     */
+    public double[] project(PixelBuffer from, int c, int t, PixelData to)
+        throws IOException, DimensionsOutOfBoundsException
+    {
+        double[] projected = new double[from.getSizeX() * from.getSizeY()];
+        switch (algorithm)
+        {
+            case IProjection.MAXIMUM_INTENSITY:
+                projectMax(from, c, t, projected);
+                break;
+            case IProjection.MEAN_INTENSITY:
+                projectMeanOrSum(from, c, t, projected, true,
+                        to.getMaximum());
+                break;
+            case IProjection.SUM_INTENSITY:
+                projectMeanOrSum(from, c, t, projected, false,
+                        to.getMaximum());
+                break;
+            case IProjection.MINIMUM_INTENSITY:
+                projectMin(from, c, t, projected);
+                break;
+            case IProjection.MEDIAN_INTENSITY:
+                projectMedian(from, c, t, projected);
+                break;
+        }
+        double minimum = Double.MAX_VALUE;
+        double maximum = Double.MIN_VALUE;
+        for (int i = 0; i < projected.length; i++)
+        {
+            double projectedValue = projected[i];
+            to.setPixelValue(i, projectedValue);
+            minimum = projectedValue < minimum? projectedValue : minimum;
+            maximum = projectedValue > maximum? projectedValue : maximum;
+        }
+        return new double[] { minimum, maximum };
+    }
+
+    /**
+     * Projects a stack based on the maximum intensity at each XY coordinate.
+     */
+    private void projectMax(PixelBuffer from, int c, int t,
+                            double[] projected)
+        throws IOException, DimensionsOutOfBoundsException
+    {
+        double[] plane = new double[projected.length];
+        for (int z = start; z <= end; z += stepping)
+        {
+            readPlane(from, z, c, t, plane);
+            for (int i = 0; i < projected.length; i++)
+            {
+                if (plane[i] > projected[i])
+                {
+                    projected[i] = plane[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Projects a stack based on the minimum intensity at each XY coordinate.
+     */
+    private void projectMin(PixelBuffer from, int c, int t,
+                            double[] projected)
+        throws IOException, DimensionsOutOfBoundsException
+    {
+        double[] plane = new double[projected.length];
+        boolean first = true;
+        for (int z = start; z <= end; z += stepping)
+        {
+            if (first)
+            {
+                readPlane(from, z, c, t, projected);
+                first = false;
+                continue;
+            }
+            readPlane(from, z, c, t, plane);
+            for (int i = 0; i < projected.length; i++)
+            {
+                if (plane[i] < projected[i])
+                {
+                    projected[i] = plane[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Projects a stack based on the sum intensity at each XY coordinate with
+     * the option to also average the sum intensity. As it always has, the
+     * sum excludes the <code>end</code> section.
+     */
+    private void projectMeanOrSum(PixelBuffer from, int c, int t,
+                                  double[] projected, boolean mean,
+                                  double planeMaximum)
+        throws IOException, DimensionsOutOfBoundsException
+    {
+        double[] plane = new double[projected.length];
+        int projectedPlaneCount = 0;
+        for (int z = start; z < end; z += stepping)
+        {
+            readPlane(from, z, c, t, plane);
+            for (int i = 0; i < projected.length; i++)
+            {
+                projected[i] += plane[i];
+            }
+            projectedPlaneCount++;
+        }
+        for (int i = 0; i < projected.length; i++)
+        {
+            double projectedValue = projected[i];
+            if (mean)
+            {
+                projectedValue = projectedValue / projectedPlaneCount;
+            }
+            if (projectedValue > planeMaximum)
+            {
+                projectedValue = planeMaximum;
+            }
+            projected[i] = projectedValue;
+        }
+    }
+
+    /**
+     * Projects a stack based on the median intensity at each XY coordinate.
+     * For an even number of sections, the mean of the two middle values is
+     * used.
+     */
+    private void projectMedian(PixelBuffer from, int c, int t,
+                               double[] projected)
+        throws IOException, DimensionsOutOfBoundsException
+    {
+        int count = 0;
+        for (int z = start; z <= end; z += stepping)
+        {
+            count++;
+        }
+        if (count == 0)
+        {
+            return;
+        }
+        int sizeX = from.getSizeX();
+        int sizeY = from.getSizeY();
+        int rows = Math.max(1, Math.min(sizeY,
+                MEDIAN_SAMPLES / Math.max(1, sizeX * count)));
+        double[] band = new double[rows * sizeX];
+        double[] samples = new double[rows * sizeX * count];
+        for (int y = 0; y < sizeY; y += rows)
+        {
+            int height = Math.min(rows, sizeY - y);
+            int n = height * sizeX;
+            int k = 0;
+            for (int z = start; z <= end; z += stepping)
+            {
+                if (height == sizeY)
+                {
+                    readPlane(from, z, c, t, band);
+                }
+                else
+                {
+                    PixelData data = from.getTile(z, c, t, 0, y, sizeX, height);
+                    try
+                    {
+                        data.getPixelValues(0, band, 0, n);
+                    }
+                    finally
+                    {
+                        data.dispose();
+                    }
+                }
+                for (int i = 0; i < n; i++)
+                {
+                    samples[i * count + k] = band[i];
+                }
+                k++;
+            }
+            int middle = count / 2;
+            for (int i = 0; i < n; i++)
+            {
+                int offset = i * count;
+                Arrays.sort(samples, offset, offset + count);
+                double median = samples[offset + middle];
+                if (count % 2 == 0)
+                {
+                    median = (samples[offset + middle - 1] + median) / 2;
+                }
+                projected[y * sizeX + i] = median;
+            }
+        }
+    }
+
+    /**
+     * Reads an optical section into <code>dst</code>. Sections which have
+     * never been written read as zeros.
+     */
+    private static void readPlane(PixelBuffer from, int z, int c, int t,
+                                  double[] dst)
+        throws IOException, DimensionsOutOfBoundsException
+    {
+        PixelData data = from.getPlane(z, c, t);
+        if (data == null)
+        {
+            Arrays.fill(dst, 0);
+            return;
+        }
+        try
+        {
+            data.getPixelValues(0, dst, 0, dst.length);
+        }
+        finally
+        {
+            data.dispose();
+        }
+    }
+}
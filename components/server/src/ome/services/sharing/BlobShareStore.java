@@ -10,9 +10,12 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -55,7 +58,6 @@ import ome.tools.hibernate.QueryBuilder;
 import ome.tools.hibernate.SessionFactory;
 import ome.util.SqlAction;
 
-import org.apache.commons.collections.CollectionUtils;
 import org.hibernate.Query;
 import org.hibernate.Session;
 import org.springframework.beans.BeansException;
@@ -86,10 +88,36 @@ public class BlobShareStore extends ShareStore implements
 
     protected SqlAction sqlAction;
 
-    protected Map<Long, Long> pixToImageCache = new HashMap<Long, Long>();
-
     protected Map<Long, List<Long>> obToImageCache = new HashMap<Long, List<Long>>();
 
+    /**
+     * Number of shares whose {@link ShareIndex} is kept in
+     * {@link #indexCache}.
+     */
+    private final static int INDEX_CACHE_SIZE = 256;
+
+    /**
+     * Maximum number of ids passed to a single "in (:ids)" query while
+     * building a {@link ShareIndex}.
+     */
+    private final static int INDEX_BATCH = 1000;
+
+    /**
+     * {@link ShareIndex} instances by share id, least recently used first.
+     * An index is only used if its version matches that of the share.
+     */
+    protected final Map<Long, ShareIndex> indexCache = Collections
+            .synchronizedMap(new LinkedHashMap<Long, ShareIndex>(16, 0.75f,
+                    true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<Long, ShareIndex> eldest) {
+                    return size() > INDEX_CACHE_SIZE;
+                }
+            });
+
     /**
      * Because there is a cyclic dependency (SF->ACLVoter->BlobStore->SF), we
      * have to lazy-load the session factory via the context.
@@ -148,6 +176,7 @@ public class BlobShareStore extends ShareStore implements
         share.setVersion((int) newOptLock);
         session.merge(share);
         synchronizeMembers(session, data);
+        indexCache.put(data.id, buildIndex(session, data));
     }
 
     @Override
@@ -202,28 +231,8 @@ public class BlobShareStore extends ShareStore implements
         }
     }
 
-    boolean imagesContainsPixels(Session s, List<Long> images, Pixels pix,
-            Map<Long, Long> cache) {
-        Long pixID = pix.getId();
-        return imagesContainsPixels(s, images, pixID, cache);
-    }
-
-    boolean imagesContainsPixels(Session s, List<Long> images, long pixID,
-            Map<Long, Long> cache) {
-        Long imgID;
-        if (cache.containsKey(pixID)) {
-            imgID = cache.get(pixID);
-        } else {
-            imgID = (Long) s
-                    .createQuery("select image.id from Pixels where id = ?")
-                    .setParameter(0, pixID).uniqueResult();
-            cache.put(pixID, imgID);
-        }
-        return images.contains(imgID);
-    }
-
     @SuppressWarnings("unchecked")
-    boolean imagesContainsInstrument(Session s, List<Long> images,
+    boolean imagesContainsInstrument(Session s, ShareIndex index,
             Instrument instr, Map<Long, List<Long>> cache) {
         if (instr == null) {
             return false;
@@ -238,17 +247,17 @@ public class BlobShareStore extends ShareStore implements
                     .setParameter(0, instrID).list();
             cache.put(instrID, imgIDs);
         }
-        return CollectionUtils.containsAny(images, imgIDs);
+        return index.containsAnyImage(imgIDs);
     }
 
-    boolean imagesContainsObjectiveSettings(Session s, List<Long> images,
+    boolean imagesContainsObjectiveSettings(Session s, ShareIndex index,
             ObjectiveSettings os, Map<Long, List<Long>> cache) {
         Long osID = os.getId();
-        return imagesContainsObjectiveSettings(s, images, osID, cache);
+        return imagesContainsObjectiveSettings(s, index, osID, cache);
     }
 
     @SuppressWarnings("unchecked")
-    boolean imagesContainsObjectiveSettings(Session s, List<Long> images,
+    boolean imagesContainsObjectiveSettings(Session s, ShareIndex index,
             long osID, Map<Long, List<Long>> cache) {
         List<Long> imgIDs;
         if (cache.containsKey(osID)) {
@@ -260,24 +269,28 @@ public class BlobShareStore extends ShareStore implements
                     .setParameter(0, osID).list();
             cache.put(osID, imgIDs);
         }
-        return CollectionUtils.containsAny(images, imgIDs);
+        return index.containsAnyImage(imgIDs);
     }
 
     @Override
     public <T extends IObject> boolean doContains(long sessionId, Class<T> kls,
             long objId) {
-        ShareData data = get(sessionId);
-        if (data == null) {
+        ShareIndex index = index(sessionId);
+        if (index == null) {
             return false;
         }
-        return doContains(data, kls, objId);
+        return doContains(index, kls, objId);
     }
 
-    @SuppressWarnings("unchecked")
     protected <T extends IObject> boolean doContains(ShareData data,
             Class<T> kls, long objId) {
-        List<Long> ids = data.objectMap.get(kls.getName());
-        if (ids != null && ids.contains(objId)) {
+        return doContains(index(session(), data), kls, objId);
+    }
+
+    @SuppressWarnings("unchecked")
+    protected <T extends IObject> boolean doContains(ShareIndex index,
+            Class<T> kls, long objId) {
+        if (index.contains(kls.getName(), objId)) {
             return true;
         }
 
@@ -299,41 +312,48 @@ public class BlobShareStore extends ShareStore implements
          * "left outer join fetch r.quantization "
          */
 
-        List<Long> images = data.objectMap.get(Image.class.getName());
-        Session s = session();
+        // Pixels, rendering settings and thumbnails of the shared images
+        // are precomputed by the index and need not be loaded. Settings
+        // and thumbnails created since the index was built are still
+        // found by loading them.
         if (Pixels.class.isAssignableFrom(kls)) {
-            return imagesContainsPixels(s, images, objId, pixToImageCache);
-        } else if (RenderingDef.class.isAssignableFrom(kls)) {
+            return index.containsPixels(objId);
+        } else if (RenderingDef.class.isAssignableFrom(kls)
+                && index.containsRenderingDef(objId)) {
+            return true;
+        } else if (Thumbnail.class.isAssignableFrom(kls)
+                && index.containsThumbnail(objId)) {
+            return true;
+        }
+
+        Session s = session();
+        if (RenderingDef.class.isAssignableFrom(kls)) {
             RenderingDef obj = (RenderingDef) s.get(RenderingDef.class, objId);
-            return imagesContainsPixels(s, images, obj.getPixels(),
-                    pixToImageCache);
+            return index.containsPixels(obj.getPixels().getId());
+        } else if (Thumbnail.class.isAssignableFrom(kls)) {
+            Thumbnail obj = (Thumbnail) s.get(Thumbnail.class, objId);
+            return index.containsPixels(obj.getPixels().getId());
         } else if (ChannelBinding.class.isAssignableFrom(kls)) {
             ChannelBinding obj = (ChannelBinding) s.get(ChannelBinding.class,
                     objId);
-            return imagesContainsPixels(s, images, obj.getRenderingDef()
-                    .getPixels(), pixToImageCache);
-        } else if (Thumbnail.class.isAssignableFrom(kls)) {
-            Thumbnail obj = (Thumbnail) s.get(Thumbnail.class, objId);
-            return imagesContainsPixels(s, images, obj.getPixels(),
-                    pixToImageCache);
+            return index.containsPixels(obj.getRenderingDef().getPixels()
+                    .getId());
         } else if (Channel.class.isAssignableFrom(kls)) {
             Channel obj = (Channel) s.get(Channel.class, objId);
-            return imagesContainsPixels(s, images, obj.getPixels(),
-                    pixToImageCache);
+            return index.containsPixels(obj.getPixels().getId());
         } else if (LogicalChannel.class.isAssignableFrom(kls)) {
             LogicalChannel obj = (LogicalChannel) s.get(LogicalChannel.class,
                     objId);
             Iterator<Channel> it = obj.iterateChannels();
             while (it.hasNext()) {
                 Channel ch = it.next();
-                if (images.contains(ch.getPixels().getImage().getId())) {
+                if (index.containsPixels(ch.getPixels().getId())) {
                     return true;
                 }
             }
         } else if (PlaneInfo.class.isAssignableFrom(kls)) {
             PlaneInfo obj = (PlaneInfo) s.get(PlaneInfo.class, objId);
-            return imagesContainsPixels(s, images, obj.getPixels(),
-                    pixToImageCache);
+            return index.containsPixels(obj.getPixels().getId());
         } else if (StatsInfo.class.isAssignableFrom(kls)
                 || QuantumDef.class.isAssignableFrom(kls)
                 || LightPath.class.isAssignableFrom(kls)
@@ -347,45 +367,45 @@ public class BlobShareStore extends ShareStore implements
         if (ObjectiveSettings.class.isAssignableFrom(kls)) {
             ObjectiveSettings obj = (ObjectiveSettings) s.get(
                     ObjectiveSettings.class, objId);
-            return imagesContainsObjectiveSettings(s, images, obj,
+            return imagesContainsObjectiveSettings(s, index, obj,
                     obToImageCache);
         } else if (Objective.class.isAssignableFrom(kls)) {
             Objective obj = (Objective) s.get(Objective.class, objId);
-            return imagesContainsInstrument(s, images, obj.getInstrument(),
+            return imagesContainsInstrument(s, index, obj.getInstrument(),
                     obToImageCache);
         } else if (Detector.class.isAssignableFrom(kls)) {
             Detector obj = (Detector) s.get(Detector.class, objId);
-            return imagesContainsInstrument(s, images, obj.getInstrument(),
+            return imagesContainsInstrument(s, index, obj.getInstrument(),
                     obToImageCache);
         } else if (Dichroic.class.isAssignableFrom(kls)) {
             Dichroic obj = (Dichroic) s.get(Dichroic.class, objId);
-            return imagesContainsInstrument(s, images, obj.getInstrument(),
+            return imagesContainsInstrument(s, index, obj.getInstrument(),
                     obToImageCache);
         } else if (FilterSet.class.isAssignableFrom(kls)) {
             FilterSet obj = (FilterSet) s.get(FilterSet.class, objId);
-            return imagesContainsInstrument(s, images, obj.getInstrument(),
+            return imagesContainsInstrument(s, index, obj.getInstrument(),
                     obToImageCache);
         } else if (Filter.class.isAssignableFrom(kls)) {
             Filter obj = (Filter) s.get(Filter.class, objId);
-            return imagesContainsInstrument(s, images, obj.getInstrument(),
+            return imagesContainsInstrument(s, index, obj.getInstrument(),
                     obToImageCache);
         } else if (LightSource.class.isAssignableFrom(kls)) {
             LightSource obj = (LightSource) s.get(LightSource.class, objId);
-            return imagesContainsInstrument(s, images, obj.getInstrument(),
+            return imagesContainsInstrument(s, index, obj.getInstrument(),
                     obToImageCache);
         } else if (Laser.class.isAssignableFrom(kls)) {
             Laser obj = (Laser) s.get(Laser.class, objId);
-            return imagesContainsInstrument(s, images, obj.getInstrument(),
+            return imagesContainsInstrument(s, index, obj.getInstrument(),
                     obToImageCache);
         } else if (LightSettings.class.isAssignableFrom(kls)) {
             LightSettings obj = (LightSettings) s.get(LightSettings.class,
                     objId);
-            return imagesContainsInstrument(s, images, obj.getLightSource()
+            return imagesContainsInstrument(s, index, obj.getLightSource()
                     .getInstrument(), obToImageCache);
         } else if (DetectorSettings.class.isAssignableFrom(kls)) {
             DetectorSettings obj = (DetectorSettings) s.get(
                     DetectorSettings.class, objId);
-            if (imagesContainsInstrument(s, images, obj.getDetector()
+            if (imagesContainsInstrument(s, index, obj.getDetector()
                     .getInstrument(), obToImageCache)) {
                 return true;
             } else {
@@ -395,7 +415,7 @@ public class BlobShareStore extends ShareStore implements
                                         + "where l.detectorSettings.id = "
                                         + obj.getId()).list();
                 for (LogicalChannel lc : lcs) {
-                    if (doContains(data, LogicalChannel.class, lc.getId())) {
+                    if (doContains(index, LogicalChannel.class, lc.getId())) {
                         return true;
                     }
                 }
@@ -422,6 +442,82 @@ public class BlobShareStore extends ShareStore implements
     // Helpers
     // =========================================================================
 
+    /**
+     * Returns the {@link ShareIndex} for the current version of the given
+     * share, loading and indexing its data if necessary, or null if the share
+     * does not exist or cannot be read.
+     */
+    private ShareIndex index(long shareId) {
+        Session session = session();
+        ShareIndex index = indexCache.get(shareId);
+        if (index != null) {
+            // Only the version is needed to check the index, not the data.
+            Integer version = (Integer) session.createQuery(
+                    "select s.version from Share s where s.id = :id")
+                    .setLong("id", shareId).uniqueResult();
+            if (version != null && index.getVersion() == version.longValue()) {
+                return index;
+            }
+        }
+        ShareData data = get(shareId);
+        if (data == null) {
+            return null;
+        }
+        return index(session, data);
+    }
+
+    /**
+     * Returns the cached {@link ShareIndex} for the given share data if it is
+     * of the same version, otherwise builds and caches a new one.
+     */
+    private ShareIndex index(Session session, ShareData data) {
+        ShareIndex index = indexCache.get(data.id);
+        if (index == null || index.getVersion() != data.optlock) {
+            index = buildIndex(session, data);
+            indexCache.put(data.id, index);
+        }
+        return index;
+    }
+
+    /**
+     * Loads the ids of the pixels, rendering settings and thumbnails of all
+     * images in the share and creates a new {@link ShareIndex} from them.
+     */
+    private ShareIndex buildIndex(Session session, ShareData data) {
+        final String imageClass = Image.class.getName();
+        List<Long> images = data.objectMap == null ? null
+                : data.objectMap.get(imageClass);
+        if (images == null) {
+            images = Collections.emptyList();
+        }
+        final List<Long> pixels = ids(session,
+                "select id from Pixels where image.id in (:ids)", images);
+        final List<Long> rdefs = ids(session,
+                "select id from RenderingDef where pixels.id in (:ids)", pixels);
+        final List<Long> thumbs = ids(session,
+                "select id from Thumbnail where pixels.id in (:ids)", pixels);
+        final ShareIndex index = new ShareIndex(data, imageClass, pixels,
+                rdefs, thumbs);
+        log.debug("Indexed share {}: {}", data.id, index);
+        return index;
+    }
+
+    /**
+     * Runs the given query with at most {@link #INDEX_BATCH} of the given ids
+     * bound to ":ids" at a time and returns all the ids found.
+     */
+    @SuppressWarnings("unchecked")
+    private List<Long> ids(Session session, String query, List<Long> ids) {
+        final List<Long> rv = new ArrayList<Long>();
+        for (int i = 0; i < ids.size(); i += INDEX_BATCH) {
+            final Collection<Long> batch =
+                    ids.subList(i, Math.min(ids.size(), i + INDEX_BATCH));
+            rv.addAll((List<Long>) session.createQuery(query)
+                    .setParameterList("ids", batch).list());
+        }
+        return rv;
+    }
+
     /**
      * Returns a list of data from all shares.
      *
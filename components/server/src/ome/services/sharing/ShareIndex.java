@@ -0,0 +1,216 @@
+/*
+ *   Copyright 2017 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.sharing;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ome.services.sharing.data.ShareData;
+
+/**
+ * Immutable lookup structure for the objects of a single share, built by
+ * {@link BlobShareStore} from the {@link ShareData} of a given version of the
+ * share. Alongside a set of ids per shared type, it holds the ids of the
+ * pixels, rendering settings and thumbnails of the shared images so that
+ * membership of these can be checked without loading them.
+ *
+ * @since 5.3.0
+ */
+public class ShareIndex {
+
+    /**
+     * Open-addressing hash set of primitive longs. Not thread-safe while being
+     * filled, but safe to read from any thread once the {@link ShareIndex}
+     * holding it has been published.
+     */
+    static final class LongSet {
+
+        private static final long FREE = Long.MIN_VALUE;
+
+        private long[] table;
+
+        private int size;
+
+        /** Whether {@link #FREE} itself has been added. */
+        private boolean hasFree;
+
+        LongSet(int expected) {
+            int capacity = 8;
+            while (capacity < expected * 2) {
+                capacity <<= 1;
+            }
+            table = newTable(capacity);
+        }
+
+        LongSet(Collection<Long> values) {
+            this(values == null ? 0 : values.size());
+            if (values != null) {
+                for (Long value : values) {
+                    if (value != null) {
+                        add(value);
+                    }
+                }
+            }
+        }
+
+        private static long[] newTable(int capacity) {
+            long[] table = new long[capacity];
+            Arrays.fill(table, FREE);
+            return table;
+        }
+
+        private static int slot(long value, int mask) {
+            long h = value * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+
+        void add(long value) {
+            if (value == FREE) {
+                hasFree = true;
+                return;
+            }
+            if ((size + 1) * 2 > table.length) {
+                rehash(table.length << 1);
+            }
+            final int mask = table.length - 1;
+            int i = slot(value, mask);
+            while (table[i] != FREE) {
+                if (table[i] == value) {
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            table[i] = value;
+            size++;
+        }
+
+        boolean contains(long value) {
+            if (value == FREE) {
+                return hasFree;
+            }
+            final int mask = table.length - 1;
+            int i = slot(value, mask);
+            while (table[i] != FREE) {
+                if (table[i] == value) {
+                    return true;
+                }
+                i = (i + 1) & mask;
+            }
+            return false;
+        }
+
+        int size() {
+            return size + (hasFree ? 1 : 0);
+        }
+
+        private void rehash(int capacity) {
+            final long[] old = table;
+            table = newTable(capacity);
+            size = 0;
+            for (long value : old) {
+                if (value != FREE) {
+                    add(value);
+                }
+            }
+        }
+    }
+
+    private static final LongSet EMPTY = new LongSet(0);
+
+    private final long version;
+
+    private final Map<String, LongSet> objects;
+
+    private final LongSet images;
+
+    private final LongSet pixels;
+
+    private final LongSet renderingDefs;
+
+    private final LongSet thumbnails;
+
+    /**
+     * @param data the share whose objects are indexed.
+     * @param imageClass the name of the image class in
+     *     {@link ShareData#objectMap}.
+     * @param pixels ids of the pixels of all shared images.
+     * @param renderingDefs ids of the rendering settings of those pixels.
+     * @param thumbnails ids of the thumbnails of those pixels.
+     */
+    public ShareIndex(ShareData data, String imageClass,
+            Collection<Long> pixels, Collection<Long> renderingDefs,
+            Collection<Long> thumbnails) {
+        this.version = data.optlock;
+        this.objects = new HashMap<String, LongSet>();
+        if (data.objectMap != null) {
+            for (Map.Entry<String, List<Long>> entry : data.objectMap
+                    .entrySet()) {
+                objects.put(entry.getKey(), new LongSet(entry.getValue()));
+            }
+        }
+        final LongSet images = objects.get(imageClass);
+        this.images = images == null ? EMPTY : images;
+        this.pixels = new LongSet(pixels);
+        this.renderingDefs = new LongSet(renderingDefs);
+        this.thumbnails = new LongSet(thumbnails);
+    }
+
+    /**
+     * Returns the {@link ShareData#optlock} of the share data indexed.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns true if an object of the given type and id was added to the
+     * share directly.
+     */
+    public boolean contains(String type, long id) {
+        final LongSet ids = objects.get(type);
+        return ids != null && ids.contains(id);
+    }
+
+    public boolean containsImage(long id) {
+        return images.contains(id);
+    }
+
+    /**
+     * Returns true if any of the given image ids was shared.
+     */
+    public boolean containsAnyImage(Collection<Long> ids) {
+        if (ids != null) {
+            for (Long id : ids) {
+                if (id != null && images.contains(id)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public boolean containsPixels(long id) {
+        return pixels.contains(id);
+    }
+
+    public boolean containsRenderingDef(long id) {
+        return renderingDefs.contains(id);
+    }
+
+    public boolean containsThumbnail(long id) {
+        return thumbnails.contains(id);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ShareIndex(v%s, images=%s, pixels=%s, "
+                + "renderingDefs=%s, thumbnails=%s)", version, images.size(),
+                pixels.size(), renderingDefs.size(), thumbnails.size());
+    }
+}
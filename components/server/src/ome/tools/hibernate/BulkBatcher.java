@@ -0,0 +1,130 @@
+/*
+ *   Copyright 2017 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.tools.hibernate;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.hibernate.HibernateException;
+import org.hibernate.Interceptor;
+import org.hibernate.jdbc.AbstractBatcher;
+import org.hibernate.jdbc.BatcherFactory;
+import org.hibernate.jdbc.ConnectionManager;
+import org.hibernate.jdbc.Expectation;
+
+/**
+ * Hibernate batcher which executes each statement immediately, as
+ * Hibernate's own non-batching batcher does, unless bulk mode has been
+ * turned on for the session with {@link #begin(int)}. Until {@link #end()}
+ * is called, consecutive inserts or updates with the same SQL are then sent
+ * to the database with JDBC batches. "hibernate.jdbc.batch_size" stays at 0
+ * so that all other sessions keep their current behavior.
+ *
+ * @since 5.3.0
+ * @see ome.api.local.LocalUpdate#saveAndReturnArrayInBulk(ome.model.IObject[], java.util.Map)
+ */
+public class BulkBatcher extends AbstractBatcher {
+
+    /**
+     * Installed via the "hibernate.jdbc.factory_class" property.
+     */
+    public static class Factory implements BatcherFactory {
+        public BulkBatcher createBatcher(ConnectionManager connectionManager,
+                Interceptor interceptor) {
+            return new BulkBatcher(connectionManager, interceptor);
+        }
+    }
+
+    /**
+     * Maximum number of statements per batch. If 0, bulk mode is off.
+     */
+    private int batchSize = 0;
+
+    private int count = 0;
+
+    private Expectation[] expectations = new Expectation[0];
+
+    public BulkBatcher(ConnectionManager connectionManager,
+            Interceptor interceptor) {
+        super(connectionManager, interceptor);
+    }
+
+    /**
+     * Executes any pending batch and turns on bulk mode.
+     *
+     * @param batchSize maximum number of statements sent in one batch
+     */
+    public void begin(int batchSize) {
+        executeBatch();
+        this.batchSize = Math.max(0, batchSize);
+        this.expectations = new Expectation[this.batchSize];
+    }
+
+    /**
+     * Executes any pending batch and turns bulk mode off again.
+     */
+    public void end() {
+        try {
+            executeBatch();
+        } finally {
+            this.batchSize = 0;
+            this.expectations = new Expectation[0];
+        }
+    }
+
+    public boolean isBulk() {
+        return batchSize > 0;
+    }
+
+    public void addToBatch(Expectation expectation) throws SQLException,
+            HibernateException {
+        final PreparedStatement statement = getStatement();
+        if (batchSize == 0) {
+            final int rowCount = statement.executeUpdate();
+            expectation.verifyOutcome(rowCount, statement, 0);
+            return;
+        }
+
+        if (!expectation.canBeBatched()) {
+            throw new HibernateException(
+                    "attempting to batch an operation which cannot be batched");
+        }
+        statement.addBatch();
+        expectations[count++] = expectation;
+        if (count == batchSize) {
+            doExecuteBatch(statement);
+        }
+    }
+
+    @Override
+    protected void doExecuteBatch(PreparedStatement statement)
+            throws SQLException, HibernateException {
+        if (count == 0) {
+            return;
+        }
+        try {
+            final int[] rowCounts = statement.executeBatch();
+            if (rowCounts.length != count) {
+                log.warn("JDBC driver did not return the expected number "
+                        + "of row counts");
+            }
+            for (int i = 0; i < rowCounts.length && i < count; i++) {
+                expectations[i].verifyOutcome(rowCounts[i], statement, i);
+            }
+        } finally {
+            count = 0;
+        }
+    }
+
+    @Override
+    public void abortBatch(SQLException sqle) {
+        try {
+            super.abortBatch(sqle);
+        } finally {
+            count = 0;
+        }
+    }
+
+}
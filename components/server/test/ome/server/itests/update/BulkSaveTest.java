@@ -0,0 +1,190 @@
+/*
+ *   Copyright 2017 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.server.itests.update;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ome.api.local.LocalUpdate;
+import ome.conditions.ValidationException;
+import ome.model.IObject;
+import ome.model.containers.Dataset;
+import ome.model.containers.Project;
+import ome.model.core.Channel;
+import ome.model.core.Image;
+import ome.model.core.LogicalChannel;
+import ome.model.core.Pixels;
+import ome.model.core.PlaneInfo;
+import ome.model.stats.StatsInfo;
+import ome.parameters.Parameters;
+import ome.services.util.Executor;
+import ome.system.ServiceFactory;
+import ome.testing.ObjectFactory;
+import ome.tools.hibernate.BulkBatcher;
+
+import org.hibernate.Session;
+import org.hibernate.engine.SessionImplementor;
+import org.springframework.transaction.annotation.Transactional;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that {@link LocalUpdate#saveAndReturnArrayInBulk(IObject[], Map)}
+ * saves the same graphs as {@link LocalUpdate#saveAndReturnArray(IObject[])}
+ * via the {@link BulkBatcher}, and that bulk mode never outlives the call.
+ * Also covers saves of graphs whose tables alternate, since
+ * "hibernate.order_inserts" is on for all sessions.
+ *
+ * @since 5.3.0
+ */
+public class BulkSaveTest extends AbstractUpdateTest {
+
+    /** More than the increment size of the id generators. */
+    private final static int IMAGES = 60;
+
+    private final static int CHANNELS = 2;
+
+    private static Image[] images(int count) {
+        Image[] images = new Image[count];
+        for (int i = 0; i < count; i++) {
+            Pixels p = ObjectFactory.createPixelGraphWithChannels(null,
+                    CHANNELS);
+            images[i] = p.getImage();
+            images[i].setName("bulk " + i);
+        }
+        return images;
+    }
+
+    private static Map<Class<? extends IObject>, Integer> counts(int count) {
+        Map<Class<? extends IObject>, Integer> counts =
+            new HashMap<Class<? extends IObject>, Integer>();
+        counts.put(Image.class, count);
+        counts.put(Pixels.class, count);
+        counts.put(Channel.class, count * CHANNELS);
+        counts.put(LogicalChannel.class, count * CHANNELS);
+        counts.put(StatsInfo.class, count * CHANNELS);
+        counts.put(PlaneInfo.class, count * CHANNELS);
+        return counts;
+    }
+
+    private static BulkBatcher batcher(Session session) {
+        Object batcher = ((SessionImplementor) session).getBatcher();
+        assertTrue(batcher.toString(), batcher instanceof BulkBatcher);
+        return (BulkBatcher) batcher;
+    }
+
+    /**
+     * Reloads the saved images and checks that each has its pixels with
+     * all of their channels and planes.
+     */
+    private void assertSaved(IObject[] saved) {
+        List<Long> ids = new ArrayList<Long>();
+        for (IObject image : saved) {
+            ids.add(image.getId());
+        }
+        List<Image> images = iQuery.findAllByQuery(
+                "select distinct i from Image i join fetch i.pixels p "
+                + "join fetch p.channels c join fetch c.logicalChannel "
+                + "join fetch c.statsInfo where i.id in (:ids)",
+                new Parameters().addIds(ids));
+        assertEquals(saved.length, images.size());
+        for (Image image : images) {
+            Pixels p = image.iteratePixels().next();
+            assertEquals(CHANNELS, p.sizeOfChannels());
+            Long planes = (Long) iQuery.projection(
+                    "select count(pi) from PlaneInfo pi "
+                    + "where pi.pixels.id = :id",
+                    new Parameters().addId(p.getId())).get(0)[0];
+            assertEquals(CHANNELS, planes.intValue());
+        }
+    }
+
+    @Test
+    public void testBulkSaveMatchesSave() {
+        assertSaved(iUpdate.saveAndReturnArray(images(IMAGES)));
+        assertSaved(iUpdate.saveAndReturnArrayInBulk(images(IMAGES),
+                counts(IMAGES)));
+    }
+
+    @Test
+    public void testBulkSaveWithoutCounts() {
+        assertSaved(iUpdate.saveAndReturnArrayInBulk(images(3), null));
+    }
+
+    /**
+     * Saves projects and datasets linked in both directions, along with
+     * images, so that the inserts of one flush alternate between tables
+     * whose rows reference each other.
+     */
+    @Test
+    public void testSaveInterleavedGraph() {
+        List<IObject> graph = new ArrayList<IObject>();
+        for (int i = 0; i < 5; i++) {
+            Project p = new Project("interleaved " + i);
+            Dataset d = new Dataset("interleaved " + i);
+            p.linkDataset(d);
+            graph.add(p);
+            graph.add(images(1)[0]);
+            Dataset d2 = new Dataset("interleaved " + i);
+            d2.linkProject(p);
+            graph.add(d2);
+        }
+        IObject[] saved = iUpdate.saveAndReturnArray(
+                graph.toArray(new IObject[graph.size()]));
+        for (int i = 0; i < saved.length; i += 3) {
+            Project p = iQuery.findByQuery("select p from Project p "
+                    + "left outer join fetch p.datasetLinks "
+                    + "where p.id = :id",
+                    new Parameters().addId(saved[i].getId()));
+            assertEquals(2, p.sizeOfDatasetLinks());
+        }
+    }
+
+    @Test
+    public void testBulkModeEndsAfterSave() {
+        final boolean[] bulk = new boolean[2];
+        executor.execute(this.loginAop.p, new Executor.SimpleWork(this,
+                "testBulkModeEndsAfterSave") {
+            @Transactional(readOnly = false)
+            public Object doWork(Session session, ServiceFactory sf) {
+                bulk[0] = batcher(session).isBulk();
+                ((LocalUpdate) sf.getUpdateService())
+                        .saveAndReturnArrayInBulk(images(3), counts(3));
+                bulk[1] = batcher(session).isBulk();
+                return null;
+            }
+        });
+        assertFalse(bulk[0]);
+        assertFalse(bulk[1]);
+    }
+
+    @Test
+    public void testBulkModeEndsAfterFailure() {
+        final Image[] images = images(3);
+        images[1].setName(null);
+        final Boolean[] bulk = new Boolean[1];
+        try {
+            executor.execute(this.loginAop.p, new Executor.SimpleWork(this,
+                    "testBulkModeEndsAfterFailure") {
+                @Transactional(readOnly = false)
+                public Object doWork(Session session, ServiceFactory sf) {
+                    try {
+                        return ((LocalUpdate) sf.getUpdateService())
+                                .saveAndReturnArrayInBulk(images, counts(3));
+                    } finally {
+                        bulk[0] = batcher(session).isBulk();
+                    }
+                }
+            });
+            fail("Must throw");
+        } catch (ValidationException ve) {
+            // good
+        }
+        assertEquals(Boolean.FALSE, bulk[0]);
+        assertNull(iQuery.find(Image.class, images[0].getId()));
+    }
+
+}
@@ -45,6 +45,8 @@ public class EventLogQueueTest extends MockObjectTestCase {
 
     List<Object[]> results;
 
+    List<Object[]> priorityResults;
+
     SqlAction sql;
 
     Mock sqlMock;
@@ -52,6 +54,7 @@ public class EventLogQueueTest extends MockObjectTestCase {
     @BeforeMethod
     public void setup() {
         results = new ArrayList<Object[]>();
+        priorityResults = new ArrayList<Object[]>();
         q = new EventLogQueue() {
             @Override
             protected List<Object[]> lookup() {
@@ -59,7 +62,15 @@ public class EventLogQueueTest extends MockObjectTestCase {
                results.clear();
                return copy;
             }
+            @Override
+            protected List<Object[]> lookupPriority() {
+               List<Object[]> copy = new ArrayList<Object[]>(priorityResults);
+               priorityResults.clear();
+               return copy;
+            }
         };
+        q.setPriorityActions(new String[]{"INTERACTIVE"});
+        q.setPriorityInterval(0);
         sqlMock = mock(SqlAction.class);
         sqlMock.setDefaultStub(new DefaultResultStub());
         sql = (SqlAction) sqlMock.proxy();
@@ -172,6 +183,44 @@ public class EventLogQueueTest extends MockObjectTestCase {
         assertFalse(q.hasNext());
     }
 
+    @Test
+    public void testPriorityOvertakesRegular() {
+        results.add(project(1, "INSERT", 0));
+        results.add(project(2, "INSERT", 0));
+        assertTrue(q.hasNext());
+        match(fields("objId", 1L));
+        priorityResults.add(project(3, "INTERACTIVE", 0));
+        match(fields("objId", 3L, "action", "INTERACTIVE"));
+        match(fields("objId", 2L, "action", "INSERT"));
+        assertFalse(q.hasNext());
+    }
+
+    @Test
+    public void testPriorityPromotesQueued() {
+        results.add(project(1, "INSERT", 0));
+        results.add(project(2, "INSERT", 0));
+        results.add(project(3, "INSERT", 0));
+        assertTrue(q.hasNext());
+        priorityResults.add(project(3, "INTERACTIVE", 0));
+        match(fields("objId", 3L, "action", "INTERACTIVE"));
+        match(fields("objId", 1L));
+        match(fields("objId", 2L));
+        assertFalse(q.hasNext());
+    }
+
+    @Test
+    public void testPriorityDoesNotMoveCurrentId() {
+        q.setDeferSave(true);
+        q.setCurrentId(-1);
+        priorityResults.add(project(1, "INTERACTIVE", 0));
+        assertTrue(q.hasNext());
+        match(fields("objId", 1L));
+        results.add(project(2, "INSERT", 0));
+        assertTrue(q.hasNext());
+        match(fields("objId", 2L));
+        assertEquals(-1L, q.getCurrentId());
+    }
+
     @Test
     public void testStopSet() {
         q.addEventLog(Project.class, 1L);
@@ -0,0 +1,154 @@
+/*
+ *   Copyright 2017 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.server.utests.sec;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import ome.model.core.Image;
+import ome.model.internal.Details;
+import ome.model.internal.Permissions;
+import ome.model.meta.Experimenter;
+import ome.model.meta.Session;
+import ome.security.SystemTypes;
+import ome.security.basic.BasicACLVoter;
+import ome.security.basic.TokenHolder;
+import ome.security.policy.DefaultPolicyService;
+import ome.services.sessions.events.UserGroupUpdateEvent;
+
+import org.jmock.MockObjectTestCase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.Test;
+
+/**
+ * Micro-benchmark of {@link BasicACLVoter#postProcess} over a result set of
+ * many objects with few distinct owners, as returned by large queries. Also
+ * checks that the restrictions are calculated once per owner in a context,
+ * that they match those calculated for a single object and that each
+ * object still gets its own {@link Permissions} (#9635).
+ *
+ * @since 5.3.0
+ */
+@Test(groups = { "unit", "permissions" })
+public class PostProcessBenchmarkTest extends MockObjectTestCase {
+
+    private final static Logger log = LoggerFactory
+            .getLogger(PostProcessBenchmarkTest.class);
+
+    final static int OBJECTS = 2000;
+
+    final static int OWNERS = 10;
+
+    /**
+     * Counts the objects for which the voter calculates the restrictions,
+     * since it checks the type of each of them.
+     */
+    static class CountingSystemTypes extends SystemTypes {
+
+        int calls;
+
+        @Override
+        public boolean isSystemType(Class<?> klass) {
+            calls++;
+            return super.isSystemType(klass);
+        }
+    }
+
+    final WritePermissionsTest fixture = new WritePermissionsTest();
+
+    final CountingSystemTypes sysTypes = new CountingSystemTypes();
+
+    final BasicACLVoter voter = new BasicACLVoter(fixture.cd, sysTypes,
+            new TokenHolder(), null, new DefaultPolicyService());
+
+    Image[] load(Session s, int count) {
+        Image[] images = new Image[count];
+        for (int i = 0; i < count; i++) {
+            Image image = new Image((long) i, true);
+            Details d = image.getDetails();
+            d.setOwner(new Experimenter(
+                    WritePermissionsTest.THE_OWNER + (i % OWNERS), false));
+            d.setGroup(s.getDetails().getGroup());
+            d.setPermissions(Permissions.parseString("rw----"));
+            images[i] = image;
+        }
+        return images;
+    }
+
+    long postProcess(Image[] images) {
+        long start = System.nanoTime();
+        for (Image image : images) {
+            voter.postProcess(image);
+        }
+        return System.nanoTime() - start;
+    }
+
+    public void testLargeResultSet() {
+        Session s = fixture.login("rwra--", WritePermissionsTest.THE_OWNER,
+                false);
+        sysTypes.calls = 0;
+        postProcess(load(s, OBJECTS));
+        assertEquals(OWNERS, sysTypes.calls);
+        Image[] images = load(s, OBJECTS);
+        long elapsed = postProcess(images);
+        log.info(String.format("postProcess: %s objects in %s ms (%s ns each)",
+                OBJECTS, elapsed / 1000000, elapsed / OBJECTS));
+        assertEquals(OWNERS, sysTypes.calls);
+
+        Map<Permissions, Boolean> distinct =
+                new IdentityHashMap<Permissions, Boolean>();
+        for (Image image : images) {
+            Permissions p = image.getDetails().getPermissions();
+            distinct.put(p, Boolean.TRUE);
+            boolean own = WritePermissionsTest.THE_OWNER.equals(
+                    image.getDetails().getOwner().getId());
+            assertEquals("rwra--", p.toString());
+            assertFalse(p.isDisallowAnnotate());
+            assertEquals(!own, p.isDisallowEdit());
+            assertEquals(!own, p.isDisallowDelete());
+            assertEquals(!own, p.isDisallowLink());
+        }
+        // #9635 - a copy for each object
+        assertEquals(OBJECTS, distinct.size());
+    }
+
+    public void testMatchesSingleObject() {
+        Session s = fixture.login("rwr---", WritePermissionsTest.GROUP_MEMBER,
+                false);
+        Image[] images = load(s, OWNERS * 2);
+        postProcess(images);
+        for (Image image : images) {
+            Permissions memoised = image.getDetails().getPermissions();
+            // A new login does not reuse the results of the last context
+            int calls = sysTypes.calls;
+            fixture.login("rwr---", WritePermissionsTest.GROUP_MEMBER, false);
+            voter.postProcess(image);
+            assertEquals(calls + 1, sysTypes.calls);
+            Permissions single = image.getDetails().getPermissions();
+            assertEquals(single.toString(), memoised.toString());
+            assertEquals(single.isDisallowAnnotate(),
+                    memoised.isDisallowAnnotate());
+            assertEquals(single.isDisallowEdit(), memoised.isDisallowEdit());
+            assertEquals(single.isDisallowDelete(),
+                    memoised.isDisallowDelete());
+            assertEquals(single.isDisallowLink(), memoised.isDisallowLink());
+        }
+    }
+
+    public void testGroupUpdateInvalidates() {
+        Session s = fixture.login("rwr---", WritePermissionsTest.THE_OWNER,
+                false);
+        sysTypes.calls = 0;
+        Image[] images = load(s, 2);
+        voter.postProcess(images[0]);
+        voter.postProcess(images[0]);
+        assertEquals(1, sysTypes.calls);
+        voter.onApplicationEvent(new UserGroupUpdateEvent(this));
+        voter.postProcess(images[0]);
+        assertEquals(2, sysTypes.calls);
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ *   Copyright 2017 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.server.utests.sharing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import junit.framework.TestCase;
+import ome.model.core.Image;
+import ome.model.core.Pixels;
+import ome.services.sharing.ShareIndex;
+import ome.services.sharing.data.ShareData;
+
+import org.testng.annotations.Test;
+
+/**
+ * @since 5.3.0
+ */
+@Test(groups = "sharing")
+public class ShareIndexTest extends TestCase {
+
+    final static String IMAGE = Image.class.getName();
+
+    ShareData data(long optlock, List<Long> images) {
+        ShareData data = new ShareData();
+        data.id = 1;
+        data.optlock = optlock;
+        data.objectMap = new HashMap<String, List<Long>>();
+        data.objectMap.put(IMAGE, images);
+        return data;
+    }
+
+    public void testDirectMembership() {
+        ShareIndex index = new ShareIndex(data(3, Arrays.asList(1L, 2L)),
+                IMAGE, Arrays.asList(10L), Arrays.asList(20L),
+                Arrays.asList(30L));
+        assertEquals(3, index.getVersion());
+        assertTrue(index.contains(IMAGE, 1L));
+        assertTrue(index.contains(IMAGE, 2L));
+        assertFalse(index.contains(IMAGE, 3L));
+        assertFalse(index.contains(Pixels.class.getName(), 10L));
+        assertTrue(index.containsImage(2L));
+        assertTrue(index.containsAnyImage(Arrays.asList(5L, 2L)));
+        assertFalse(index.containsAnyImage(Arrays.asList(5L, 6L)));
+        assertFalse(index.containsAnyImage(null));
+    }
+
+    public void testClosure() {
+        ShareIndex index = new ShareIndex(data(0, Arrays.asList(1L)), IMAGE,
+                Arrays.asList(10L, 11L), Arrays.asList(20L),
+                Arrays.asList(30L));
+        assertTrue(index.containsPixels(10L));
+        assertTrue(index.containsPixels(11L));
+        assertFalse(index.containsPixels(1L));
+        assertTrue(index.containsRenderingDef(20L));
+        assertFalse(index.containsRenderingDef(30L));
+        assertTrue(index.containsThumbnail(30L));
+        assertFalse(index.containsThumbnail(20L));
+    }
+
+    public void testManyIdsAndEdgeValues() {
+        List<Long> images = new ArrayList<Long>();
+        for (long i = 0; i < 10000; i++) {
+            images.add(i * 7);
+        }
+        images.add(Long.MIN_VALUE);
+        images.add(Long.MAX_VALUE);
+        images.add(null);
+        ShareIndex index = new ShareIndex(data(0, images), IMAGE,
+                Collections.<Long>emptyList(), null,
+                Collections.<Long>emptyList());
+        for (long i = 0; i < 10000; i++) {
+            assertTrue(index.containsImage(i * 7));
+            assertFalse(index.containsImage(i * 7 + 1));
+        }
+        assertTrue(index.containsImage(Long.MIN_VALUE));
+        assertTrue(index.containsImage(Long.MAX_VALUE));
+        assertFalse(index.containsRenderingDef(Long.MIN_VALUE));
+    }
+
+    public void testNoImages() {
+        ShareData data = data(0, null);
+        data.objectMap.clear();
+        ShareIndex index = new ShareIndex(data, IMAGE, null, null, null);
+        assertFalse(index.containsImage(1L));
+        assertFalse(index.containsPixels(1L));
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ *   Copyright 2017 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.services.pixeldata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import ome.model.meta.EventLog;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the order in which the {@link PixelDataThread} runs queued
+ * {@link PixelDataTask}s.
+ *
+ * @since 5.3.0
+ */
+@Test(groups = "unit")
+public class PixelDataTaskTest {
+
+    private final static long MB = 1024 * 1024;
+
+    private final static long AGING = 60 * 1000L;
+
+    private static PixelDataTask task(long id, long bytes, long now) {
+        EventLog log = new EventLog(id, true);
+        log.setEntityId(id);
+        PixelDataTask task = new PixelDataTask(log, bytes);
+        task.schedule(now, AGING);
+        return task;
+    }
+
+    private static List<Long> order(PixelDataTask...tasks) {
+        PriorityQueue<PixelDataTask> queue = new PriorityQueue<PixelDataTask>();
+        for (PixelDataTask task : tasks) {
+            queue.add(task);
+        }
+        List<Long> ids = new ArrayList<Long>();
+        while (!queue.isEmpty()) {
+            ids.add(queue.poll().getEventLog().getId());
+        }
+        return ids;
+    }
+
+    public void testDoublings() {
+        Assert.assertEquals(PixelDataTask.doublings(0), 0);
+        Assert.assertEquals(PixelDataTask.doublings(MB), 0);
+        Assert.assertEquals(PixelDataTask.doublings(MB + 1), 1);
+        Assert.assertEquals(PixelDataTask.doublings(4 * MB), 2);
+        Assert.assertEquals(PixelDataTask.doublings(1024 * MB), 10);
+    }
+
+    public void testDeadline() {
+        Assert.assertEquals(task(1, MB, 100).getDeadline(), 100);
+        Assert.assertEquals(task(1, 4 * MB, 100).getDeadline(),
+                100 + 2 * AGING);
+        Assert.assertEquals(task(1, 4 * MB, 100).getQueued(), 100);
+    }
+
+    public void testSmallBeforeLarge() {
+        Assert.assertEquals(order(
+                task(1, 1024 * MB, 0),
+                task(2, 16 * MB, 0),
+                task(3, MB, 0)),
+                Arrays.asList(3L, 2L, 1L));
+    }
+
+    /**
+     * Tests that a large image which has waited long enough is run before
+     * small images queued after it, so that it does not starve.
+     */
+    public void testLargeOvertakesLaterSmall() {
+        long deadline = 10 * AGING;
+        Assert.assertEquals(order(
+                task(1, 1024 * MB, 0),
+                task(2, MB, deadline - 1)),
+                Arrays.asList(2L, 1L));
+        Assert.assertEquals(order(
+                task(1, 1024 * MB, 0),
+                task(2, MB, deadline + 1)),
+                Arrays.asList(1L, 2L));
+    }
+
+    public void testFirstQueuedFirstForSameDeadline() {
+        Assert.assertEquals(order(
+                task(1, MB, AGING),
+                task(2, 2 * MB, 0)),
+                Arrays.asList(2L, 1L));
+        Assert.assertEquals(task(1, MB, 0).compareTo(task(2, MB, 0)), 0);
+    }
+
+    public void testInteractiveAction() {
+        EventLog log = new EventLog(1L, true);
+        log.setAction(PixelDataThread.INTERACTIVE_ACTION);
+        Assert.assertTrue(new PixelDataTask(log, MB).isInteractive());
+        log.setAction("PIXELDATA");
+        Assert.assertFalse(new PixelDataTask(log, MB).isInteractive());
+    }
+
+    public void testInteractiveFirst() {
+        PixelDataTask large = task(1, 1024 * MB, 5);
+        PixelDataTask other = task(2, 1024 * MB, 0);
+        large.promote();
+        other.promote();
+        Assert.assertTrue(large.isInteractive());
+        Assert.assertEquals(order(
+                task(3, MB, 0),
+                large,
+                task(4, 0, 1),
+                other),
+                Arrays.asList(2L, 1L, 3L, 4L));
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+ *   Copyright 2017 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.utests;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import ome.logic.ImageEncoder;
+import ome.system.metrics.NullMetrics;
+import ome.util.ImageUtil;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test cases for {@link ImageEncoder}.
+ */
+@Test
+public class ImageEncoderTest {
+
+    private static int[] rgb(int sizeX, int sizeY) {
+        int[] buf = new int[sizeX * sizeY];
+        for (int i = 0; i < buf.length; i++) {
+            buf[i] = (i * 7919 + (i >> 3) * 104729) & 0xFFFFFF;
+        }
+        return buf;
+    }
+
+    /**
+     * How images used to be compressed, with a new writer for every image.
+     */
+    private static byte[] reference(BufferedImage image, float quality)
+            throws Exception {
+        ImageWriter jpegWriter =
+            ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam iwp = jpegWriter.getDefaultWriteParam();
+        iwp.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        iwp.setCompressionQuality(quality);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageOutputStream imageOutputStream =
+            ImageIO.createImageOutputStream(out);
+        try {
+            jpegWriter.setOutput(imageOutputStream);
+            jpegWriter.write(null, new IIOImage(image, null, null), iwp);
+        } finally {
+            imageOutputStream.close();
+            jpegWriter.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    public void testJpegMatchesReferenceWhenReused() throws Exception {
+        ImageEncoder encoder = new ImageEncoder(new NullMetrics());
+        int[] buf = rgb(64, 48);
+        BufferedImage image = ImageUtil.createBufferedImage(buf, 64, 48);
+        for (float quality : new float[] { 0.85F, 0.25F, 0.85F }) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            encoder.encode(buf, 64, 48, ImageEncoder.JPEG, quality, out);
+            Assert.assertEquals(out.toByteArray(), reference(image, quality));
+        }
+    }
+
+    public void testPngIsLossless() throws Exception {
+        ImageEncoder encoder = new ImageEncoder(new NullMetrics());
+        int[] buf = rgb(33, 17);
+        for (int i = 0; i < 2; i++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            encoder.encode(buf, 33, 17, ImageEncoder.PNG, 0.5F, out);
+            BufferedImage decoded = ImageIO.read(
+                    new ByteArrayInputStream(out.toByteArray()));
+            Assert.assertEquals(decoded.getWidth(), 33);
+            Assert.assertEquals(decoded.getHeight(), 17);
+            for (int y = 0; y < 17; y++) {
+                for (int x = 0; x < 33; x++) {
+                    Assert.assertEquals(decoded.getRGB(x, y) & 0xFFFFFF,
+                            buf[y * 33 + x]);
+                }
+            }
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testUnknownFormat() throws Exception {
+        new ImageEncoder(new NullMetrics()).encode(rgb(2, 2), 2, 2, "nope",
+                0.5F, new ByteArrayOutputStream());
+    }
+
+}
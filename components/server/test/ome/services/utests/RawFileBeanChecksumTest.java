@@ -0,0 +1,237 @@
+/*
+ *   Copyright 2017 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.services.utests;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ome.api.IAdmin;
+import ome.api.local.LocalQuery;
+import ome.api.local.LocalUpdate;
+import ome.conditions.ResourceError;
+import ome.io.nio.FileBuffer;
+import ome.model.core.OriginalFile;
+import ome.model.enums.ChecksumAlgorithm;
+import ome.services.RawFileBean;
+import ome.util.checksum.ChecksumProvider;
+import ome.util.checksum.ChecksumProviderFactory;
+import ome.util.checksum.ChecksumProviderFactoryImpl;
+import ome.util.checksum.ChecksumType;
+
+import org.jmock.Mock;
+import org.jmock.MockObjectTestCase;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that the running checksum kept by {@link RawFileBean} while writing
+ * gives the hash of a full re-read of the file, and that {@link
+ * RawFileBean#save()} re-reads the file whenever the writes did not cover
+ * it in order.
+ *
+ * @since 5.3.0
+ */
+@Test(groups = "unit")
+public class RawFileBeanChecksumTest extends MockObjectTestCase {
+
+    /** Fails the next write after writing half of its bytes. */
+    static class FailingFileBuffer extends FileBuffer {
+
+        boolean failNext;
+
+        FailingFileBuffer(String path, String mode) {
+            super(path, mode);
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            if (failNext) {
+                failNext = false;
+                src.limit(src.position() + src.remaining() / 2);
+                super.write(src, position);
+                throw new IOException("Disk full");
+            }
+            return super.write(src, position);
+        }
+    }
+
+    /** Counts the files read by the providers it creates. */
+    static class CountingFactory implements ChecksumProviderFactory {
+
+        final ChecksumProviderFactory delegate =
+            new ChecksumProviderFactoryImpl();
+
+        final AtomicInteger filesRead = new AtomicInteger();
+
+        public ChecksumProvider getProvider(ChecksumType checksumType) {
+            final ChecksumProvider provider =
+                delegate.getProvider(checksumType);
+            return new ChecksumProvider() {
+                public ChecksumProvider putBytes(byte[] byteArray) {
+                    provider.putBytes(byteArray);
+                    return this;
+                }
+                public ChecksumProvider putBytes(byte[] byteArray,
+                        int offset, int length) {
+                    provider.putBytes(byteArray, offset, length);
+                    return this;
+                }
+                public ChecksumProvider putBytes(ByteBuffer byteBuffer) {
+                    provider.putBytes(byteBuffer);
+                    return this;
+                }
+                public ChecksumProvider putFile(String filePath) {
+                    filesRead.incrementAndGet();
+                    provider.putFile(filePath);
+                    return this;
+                }
+                public byte[] checksumAsBytes() {
+                    return provider.checksumAsBytes();
+                }
+                public String checksumAsString() {
+                    return provider.checksumAsString();
+                }
+            };
+        }
+
+        public Set<ChecksumType> getAvailableTypes() {
+            return delegate.getAvailableTypes();
+        }
+    }
+
+    private File path;
+
+    private OriginalFile file;
+
+    private FailingFileBuffer buffer;
+
+    private CountingFactory factory;
+
+    private RawFileBean bean;
+
+    @Override
+    @BeforeMethod
+    protected void setUp() throws Exception {
+        super.setUp();
+        path = File.createTempFile("RawFileBeanChecksumTest", ".bin");
+        file = new OriginalFile(1L, true);
+        file.setHasher(new ChecksumAlgorithm("SHA1-160"));
+
+        Mock mockQuery = mock(LocalQuery.class);
+        mockQuery.expects(once()).method("get").will(returnValue(file));
+        Mock mockUpdate = mock(LocalUpdate.class);
+        mockUpdate.stubs().method("flush");
+        Mock mockAdmin = mock(IAdmin.class);
+        mockAdmin.expects(once()).method("canUpdate")
+                .will(returnValue(true));
+
+        factory = new CountingFactory();
+        bean = new RawFileBean(false);
+        bean.setQueryService((LocalQuery) mockQuery.proxy());
+        bean.setUpdateService((LocalUpdate) mockUpdate.proxy());
+        bean.setAdminService((IAdmin) mockAdmin.proxy());
+        bean.setChecksumProviderFactory(factory);
+        buffer = new FailingFileBuffer(path.getAbsolutePath(), "rw");
+        bean.setFileIdWithBuffer(1L, buffer);
+    }
+
+    @Override
+    @AfterMethod
+    protected void tearDown() throws Exception {
+        bean.clean();
+        path.delete();
+        super.tearDown();
+    }
+
+    private static byte[] bytes(int seed, int length) {
+        byte[] buf = new byte[length];
+        for (int i = 0; i < length; i++) {
+            buf[i] = (byte) (seed * 31 + i);
+        }
+        return buf;
+    }
+
+    /**
+     * Saves and checks that the stored hash is that of the file's content.
+     * @return the number of times the file was read to compute it.
+     */
+    private int saveAndCheck() {
+        bean.save();
+        String expected = new ChecksumProviderFactoryImpl()
+                .getProvider(ChecksumType.SHA1)
+                .putFile(path.getAbsolutePath()).checksumAsString();
+        assertEquals(expected, file.getHash());
+        assertEquals(Long.valueOf(path.length()), file.getSize());
+        return factory.filesRead.get();
+    }
+
+    public void testSequentialWrites() {
+        bean.write(bytes(1, 1000), 0, 1000);
+        bean.write(bytes(2, 1000), 1000, 500);
+        bean.write(bytes(3, 10), 1500, 10);
+        assertEquals(0, saveAndCheck());
+    }
+
+    public void testEmptyFile() {
+        assertEquals(0, saveAndCheck());
+    }
+
+    public void testOverwrite() {
+        bean.write(bytes(1, 1000), 0, 1000);
+        bean.write(bytes(2, 100), 500, 100);
+        assertEquals(1, saveAndCheck());
+    }
+
+    public void testGap() {
+        bean.write(bytes(1, 100), 0, 100);
+        bean.write(bytes(2, 100), 200, 100);
+        assertEquals(1, saveAndCheck());
+    }
+
+    public void testTruncate() {
+        bean.write(bytes(1, 1000), 0, 1000);
+        assertTrue(bean.truncate(600));
+        assertEquals(1, saveAndCheck());
+    }
+
+    public void testTruncateThenRewrite() {
+        bean.write(bytes(1, 1000), 0, 1000);
+        assertTrue(bean.truncate(600));
+        bean.write(bytes(2, 400), 600, 400);
+        assertEquals(1, saveAndCheck());
+    }
+
+    public void testFailedWrite() {
+        bean.write(bytes(1, 100), 0, 100);
+        buffer.failNext = true;
+        try {
+            bean.write(bytes(2, 100), 100, 100);
+            fail("Expected a ResourceError");
+        } catch (ResourceError e) {
+            // expected
+        }
+        bean.write(bytes(2, 100), 100, 100);
+        assertEquals(1, saveAndCheck());
+    }
+
+    public void testSizeMismatch() throws IOException {
+        bean.write(bytes(1, 100), 0, 100);
+        // Written to by something other than the bean.
+        RandomAccessFile raf = new RandomAccessFile(path, "rw");
+        try {
+            raf.seek(100);
+            raf.write(bytes(2, 10));
+        } finally {
+            raf.close();
+        }
+        assertEquals(1, saveAndCheck());
+    }
+
+}
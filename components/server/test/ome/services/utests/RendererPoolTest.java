@@ -0,0 +1,121 @@
+/*
+ *   Copyright 2017 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.utests;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import ome.model.display.RenderingDef;
+import ome.model.enums.RenderingModel;
+import ome.model.meta.EventLog;
+import ome.services.RendererPool;
+import ome.services.messages.EventLogsMessage;
+import ome.system.metrics.NullMetrics;
+import omeis.providers.re.Renderer;
+import omeis.providers.re.utests.BaseRenderingTest;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Multimap;
+
+/**
+ * Unit test cases for {@link RendererPool}.
+ */
+@Test
+public class RendererPoolTest extends BaseRenderingTest {
+
+    @Override
+    protected int getSizeX() {
+        return 16;
+    }
+
+    @Override
+    protected int getSizeY() {
+        return 16;
+    }
+
+    private Renderer newRenderer() {
+        return new Renderer(quantumFactory,
+                pixelsMetadataService.getAllEnumerations(RenderingModel.class),
+                pixels, settings, pixelsService.getPixelBuffer(pixels, false),
+                new ArrayList<File>());
+    }
+
+    private static EventLogsMessage message(long id, String action) {
+        EventLog el = new EventLog();
+        el.setEntityType(RenderingDef.class.getName());
+        el.setEntityId(id);
+        el.setAction(action);
+        Multimap<String, EventLog> logs = ArrayListMultimap.create();
+        logs.put(RenderingDef.class.getName(), el);
+        return new EventLogsMessage(RendererPoolTest.class, logs);
+    }
+
+    public void testTakeAndRelease() {
+        RendererPool pool = new RendererPool(4, new NullMetrics());
+        Assert.assertNull(pool.take(1L, 2L, 0));
+        Renderer a = newRenderer();
+        Renderer b = newRenderer();
+        pool.release(1L, 2L, 0, a);
+        pool.release(1L, 2L, 0, b);
+        // Most recently released first, each renderer only once.
+        Assert.assertSame(pool.take(1L, 2L, 0), b);
+        Assert.assertSame(pool.take(1L, 2L, 0), a);
+        Assert.assertNull(pool.take(1L, 2L, 0));
+    }
+
+    public void testNewVersionDropsOldRenderers() {
+        RendererPool pool = new RendererPool(4, new NullMetrics());
+        pool.release(1L, 2L, 0, newRenderer());
+        pool.release(1L, 3L, 0, newRenderer());
+        Assert.assertNull(pool.take(1L, 2L, 1));
+        Assert.assertNull(pool.take(1L, 2L, 0));
+        // Other settings of the same Pixels set are kept.
+        Assert.assertNotNull(pool.take(1L, 3L, 0));
+    }
+
+    public void testEvictsLeastRecentlyUsed() {
+        RendererPool pool = new RendererPool(2, new NullMetrics());
+        Renderer a = newRenderer();
+        Renderer b = newRenderer();
+        pool.release(1L, 1L, 0, a);
+        pool.release(2L, 2L, 0, b);
+        pool.release(3L, 3L, 0, newRenderer());
+        Assert.assertNull(pool.take(1L, 1L, 0));
+        Assert.assertSame(pool.take(2L, 2L, 0), b);
+        Assert.assertNotNull(pool.take(3L, 3L, 0));
+    }
+
+    public void testDisabled() {
+        RendererPool pool = new RendererPool(0, new NullMetrics());
+        pool.release(1L, 1L, 0, newRenderer());
+        Assert.assertNull(pool.take(1L, 1L, 0));
+    }
+
+    public void testInvalidatedBySettingsChanges() {
+        RendererPool pool = new RendererPool(4, new NullMetrics());
+        pool.release(1L, 2L, 0, newRenderer());
+        pool.release(1L, 3L, 0, newRenderer());
+        pool.release(1L, 4L, 0, newRenderer());
+        pool.onApplicationEvent(message(2L, "UPDATE"));
+        pool.onApplicationEvent(message(3L, "DELETE"));
+        Assert.assertNull(pool.take(1L, 2L, 0));
+        Assert.assertNull(pool.take(1L, 3L, 0));
+        pool.invalidate(Collections.singleton(5L));
+        Assert.assertNotNull(pool.take(1L, 4L, 0));
+    }
+
+    public void testClose() {
+        RendererPool pool = new RendererPool(4, new NullMetrics());
+        pool.release(1L, 2L, 0, newRenderer());
+        pool.close();
+        Assert.assertNull(pool.take(1L, 2L, 0));
+    }
+
+}
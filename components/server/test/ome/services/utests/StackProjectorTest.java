@@ -0,0 +1,213 @@
+/*
+ *   Copyright 2017 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.utests;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import ome.api.IProjection;
+import ome.io.nio.InMemoryPlanarPixelBuffer;
+import ome.io.nio.PixelBuffer;
+import ome.model.core.Pixels;
+import ome.model.enums.PixelsType;
+import ome.services.projection.StackProjector;
+import ome.util.PixelData;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test cases for {@link StackProjector}, comparing its projections with
+ * those of the former, sample by sample, implementation of
+ * {@link ome.services.projection.ProjectionBean}.
+ */
+@Test
+public class StackProjectorTest {
+
+    private static final Logger log =
+        LoggerFactory.getLogger(StackProjectorTest.class);
+
+    private static final int[] ALGORITHMS = new int[] {
+        IProjection.MAXIMUM_INTENSITY, IProjection.MEAN_INTENSITY,
+        IProjection.SUM_INTENSITY };
+
+    private static Pixels pixels(String type, int sizeX, int sizeY,
+            int sizeZ) {
+        Pixels pixels = new Pixels();
+        pixels.setSizeX(sizeX);
+        pixels.setSizeY(sizeY);
+        pixels.setSizeZ(sizeZ);
+        pixels.setSizeC(1);
+        pixels.setSizeT(1);
+        pixels.setPixelsType(new PixelsType(type));
+        return pixels;
+    }
+
+    private static PixelBuffer buffer(Pixels pixels, long seed) {
+        int planeSize = pixels.getSizeX() * pixels.getSizeY()
+                * PixelData.getBitDepth(pixels.getPixelsType().getValue()) / 8;
+        Random random = new Random(seed);
+        byte[][][][] planes = new byte[pixels.getSizeZ()][1][1][];
+        for (int z = 0; z < planes.length; z++) {
+            planes[z][0][0] = new byte[planeSize];
+            random.nextBytes(planes[z][0][0]);
+        }
+        String type = pixels.getPixelsType().getValue();
+        if (type.equals("float") || type.equals("double")) {
+            // Keep clear of NaN and infinite samples.
+            for (int z = 0; z < planes.length; z++) {
+                PixelData data = new PixelData(type,
+                        ByteBuffer.wrap(planes[z][0][0]));
+                int n = planeSize / data.bytesPerPixel();
+                for (int i = 0; i < n; i++) {
+                    data.setPixelValue(i, random.nextInt(100000) / 8.0);
+                }
+            }
+        }
+        return new InMemoryPlanarPixelBuffer(pixels, planes);
+    }
+
+    /**
+     * The former implementation of the maximum, mean and sum projections.
+     */
+    private static byte[] reference(PixelBuffer buffer, String type,
+            int algorithm, int stepping, int start, int end) throws Exception {
+        int planeSizeInPixels = buffer.getSizeX() * buffer.getSizeY();
+        PixelData[] from = new PixelData[buffer.getSizeZ()];
+        for (int z = 0; z < from.length; z++) {
+            from[z] = buffer.getPlane(z, 0, 0);
+        }
+        byte[] buf = new byte[planeSizeInPixels
+                * PixelData.getBitDepth(type) / 8];
+        PixelData to = new PixelData(type, ByteBuffer.wrap(buf));
+        double planeMaximum = to.getMaximum();
+        for (int i = 0; i < planeSizeInPixels; i++) {
+            double projectedValue = 0;
+            if (algorithm == IProjection.MAXIMUM_INTENSITY) {
+                for (int z = start; z <= end; z += stepping) {
+                    double stackValue = from[z].getPixelValue(i);
+                    if (stackValue > projectedValue) {
+                        projectedValue = stackValue;
+                    }
+                }
+            } else {
+                int projectedPlaneCount = 0;
+                for (int z = start; z < end; z += stepping) {
+                    projectedValue += from[z].getPixelValue(i);
+                    projectedPlaneCount++;
+                }
+                if (algorithm == IProjection.MEAN_INTENSITY) {
+                    projectedValue = projectedValue / projectedPlaneCount;
+                }
+                if (projectedValue > planeMaximum) {
+                    projectedValue = planeMaximum;
+                }
+            }
+            to.setPixelValue(i, projectedValue);
+        }
+        return buf;
+    }
+
+    private static byte[] project(PixelBuffer buffer, String type,
+            int algorithm, int stepping, int start, int end) throws Exception {
+        byte[] buf = new byte[buffer.getSizeX() * buffer.getSizeY()
+                * PixelData.getBitDepth(type) / 8];
+        new StackProjector(algorithm, stepping, start, end).project(
+                buffer, 0, 0, new PixelData(type, ByteBuffer.wrap(buf)));
+        return buf;
+    }
+
+    @DataProvider(name = "types")
+    public Object[][] types() {
+        return new Object[][] { { "int8" }, { "uint8" }, { "int16" },
+                { "uint16" }, { "int32" }, { "uint32" }, { "float" },
+                { "double" } };
+    }
+
+    @Test(dataProvider = "types")
+    public void testMatchesReference(String type) throws Exception {
+        PixelBuffer buffer = buffer(pixels(type, 64, 48, 7), 17L);
+        for (int algorithm : ALGORITHMS) {
+            Assert.assertEquals(project(buffer, type, algorithm, 1, 0, 6),
+                    reference(buffer, type, algorithm, 1, 0, 6),
+                    type + " " + IProjection.METHODOLOGY_STRINGS[algorithm]);
+            Assert.assertEquals(project(buffer, type, algorithm, 2, 1, 6),
+                    reference(buffer, type, algorithm, 2, 1, 6),
+                    type + " " + IProjection.METHODOLOGY_STRINGS[algorithm]);
+            // Into another pixels type, pinning the sums.
+            Assert.assertEquals(project(buffer, "uint8", algorithm, 1, 0, 6),
+                    reference(buffer, "uint8", algorithm, 1, 0, 6),
+                    type + " " + IProjection.METHODOLOGY_STRINGS[algorithm]);
+        }
+    }
+
+    public void testMinimumAndMedian() throws Exception {
+        Pixels pixels = pixels("uint16", 2, 1, 4);
+        byte[][][][] planes = new byte[4][1][1][];
+        int[][] samples = new int[][] {
+            { 7, 60000 }, { 3, 2 }, { 9, 65535 }, { 5, 1 } };
+        for (int z = 0; z < planes.length; z++) {
+            ByteBuffer plane = ByteBuffer.allocate(4);
+            plane.putShort(0, (short) samples[z][0]);
+            plane.putShort(2, (short) samples[z][1]);
+            planes[z][0][0] = plane.array();
+        }
+        PixelBuffer buffer = new InMemoryPlanarPixelBuffer(pixels, planes);
+
+        PixelData to = new PixelData("uint16", ByteBuffer.allocate(4));
+        double[] minMax = new StackProjector(IProjection.MINIMUM_INTENSITY,
+                1, 0, 3).project(buffer, 0, 0, to);
+        Assert.assertEquals(to.getPixelValue(0), 3.0);
+        Assert.assertEquals(to.getPixelValue(1), 1.0);
+        Assert.assertEquals(minMax, new double[] { 1.0, 3.0 });
+
+        new StackProjector(IProjection.MEDIAN_INTENSITY, 1, 0, 3).project(
+                buffer, 0, 0, to);
+        Assert.assertEquals(to.getPixelValue(0), 6.0);
+        Assert.assertEquals(to.getPixelValue(1), 30001.0);
+
+        new StackProjector(IProjection.MEDIAN_INTENSITY, 1, 0, 2).project(
+                buffer, 0, 0, to);
+        Assert.assertEquals(to.getPixelValue(0), 7.0);
+        Assert.assertEquals(to.getPixelValue(1), 60000.0);
+
+        new StackProjector(IProjection.MINIMUM_INTENSITY, 2, 0, 3).project(
+                buffer, 0, 0, to);
+        Assert.assertEquals(to.getPixelValue(0), 7.0);
+        Assert.assertEquals(to.getPixelValue(1), 60000.0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testUnknownAlgorithm() {
+        new StackProjector(5, 1, 0, 1);
+    }
+
+    /**
+     * Times the former and the new projections of a large stack. Does not
+     * assert on the timings, which depend on the machine, but checks that
+     * the results are the same.
+     */
+    public void testTimings() throws Exception {
+        String type = "uint16";
+        PixelBuffer buffer = buffer(pixels(type, 1024, 1024, 32), 42L);
+        for (int algorithm : ALGORITHMS) {
+            long start = System.nanoTime();
+            byte[] expected = reference(buffer, type, algorithm, 1, 0, 31);
+            long former = System.nanoTime() - start;
+            start = System.nanoTime();
+            byte[] actual = project(buffer, type, algorithm, 1, 0, 31);
+            long current = System.nanoTime() - start;
+            Assert.assertEquals(actual, expected);
+            log.info(String.format("%s of 1024x1024x32 %s: %dms, was %dms",
+                    IProjection.METHODOLOGY_STRINGS[algorithm], type,
+                    current / 1000000, former / 1000000));
+        }
+    }
+
+}
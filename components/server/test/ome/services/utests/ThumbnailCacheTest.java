@@ -0,0 +1,106 @@
+/*
+ *   Copyright 2017 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.utests;
+
+import ome.model.display.RenderingDef;
+import ome.model.display.Thumbnail;
+import ome.model.meta.EventLog;
+import ome.services.ThumbnailCache;
+import ome.services.messages.EventLogsMessage;
+import ome.system.metrics.NullMetrics;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Multimap;
+
+/**
+ * Unit test cases for {@link ThumbnailCache}.
+ */
+@Test
+public class ThumbnailCacheTest {
+
+    private static RenderingDef settings(long id, int version) {
+        RenderingDef settings = new RenderingDef(id, true);
+        settings.setVersion(version);
+        return settings;
+    }
+
+    private static Thumbnail thumbnail(long id, int size) {
+        Thumbnail thumbnail = new Thumbnail(id, true);
+        thumbnail.setSizeX(size);
+        thumbnail.setSizeY(size);
+        return thumbnail;
+    }
+
+    private static EventLogsMessage message(Class<?> klass, long id,
+            String action) {
+        EventLog el = new EventLog();
+        el.setEntityType(klass.getName());
+        el.setEntityId(id);
+        el.setAction(action);
+        Multimap<String, EventLog> logs = ArrayListMultimap.create();
+        logs.put(klass.getName(), el);
+        return new EventLogsMessage(ThumbnailCacheTest.class, logs);
+    }
+
+    public void testHitAndMiss() {
+        ThumbnailCache cache = new ThumbnailCache(1000, new NullMetrics());
+        byte[] bytes = new byte[10];
+        cache.put(1L, settings(2L, 0), thumbnail(3L, 96), bytes);
+        Assert.assertSame(cache.get(1L, settings(2L, 0), thumbnail(3L, 96)),
+                bytes);
+        // Other settings version, size or user's settings.
+        Assert.assertNull(cache.get(1L, settings(2L, 1), thumbnail(3L, 96)));
+        Assert.assertNull(cache.get(1L, settings(2L, 0), thumbnail(3L, 64)));
+        Assert.assertNull(cache.get(1L, settings(4L, 0), thumbnail(3L, 96)));
+    }
+
+    public void testEvictsLeastRecentlyUsed() {
+        ThumbnailCache cache = new ThumbnailCache(30, new NullMetrics());
+        cache.put(1L, settings(1L, 0), thumbnail(1L, 96), new byte[10]);
+        cache.put(2L, settings(2L, 0), thumbnail(2L, 96), new byte[10]);
+        cache.put(3L, settings(3L, 0), thumbnail(3L, 96), new byte[10]);
+        Assert.assertNotNull(cache.get(1L, settings(1L, 0), thumbnail(1L, 96)));
+        cache.put(4L, settings(4L, 0), thumbnail(4L, 96), new byte[10]);
+        Assert.assertNotNull(cache.get(1L, settings(1L, 0), thumbnail(1L, 96)));
+        Assert.assertNull(cache.get(2L, settings(2L, 0), thumbnail(2L, 96)));
+        Assert.assertNotNull(cache.get(3L, settings(3L, 0), thumbnail(3L, 96)));
+        Assert.assertNotNull(cache.get(4L, settings(4L, 0), thumbnail(4L, 96)));
+    }
+
+    public void testDisabled() {
+        ThumbnailCache cache = new ThumbnailCache(0, new NullMetrics());
+        cache.put(1L, settings(1L, 0), thumbnail(1L, 96), new byte[10]);
+        Assert.assertNull(cache.get(1L, settings(1L, 0), thumbnail(1L, 96)));
+    }
+
+    public void testInvalidatePixels() {
+        ThumbnailCache cache = new ThumbnailCache(1000, new NullMetrics());
+        cache.put(1L, settings(1L, 0), thumbnail(1L, 96), new byte[10]);
+        cache.put(1L, settings(1L, 0), thumbnail(2L, 64), new byte[10]);
+        cache.put(2L, settings(2L, 0), thumbnail(3L, 96), new byte[10]);
+        cache.invalidatePixels(1L);
+        Assert.assertNull(cache.get(1L, settings(1L, 0), thumbnail(1L, 96)));
+        Assert.assertNull(cache.get(1L, settings(1L, 0), thumbnail(2L, 64)));
+        Assert.assertNotNull(cache.get(2L, settings(2L, 0), thumbnail(3L, 96)));
+    }
+
+    public void testInvalidatedByEventLogs() {
+        ThumbnailCache cache = new ThumbnailCache(1000, new NullMetrics());
+        cache.put(1L, settings(1L, 0), thumbnail(1L, 96), new byte[10]);
+        cache.put(2L, settings(2L, 0), thumbnail(2L, 96), new byte[10]);
+        cache.put(3L, settings(3L, 0), thumbnail(3L, 96), new byte[10]);
+        cache.onApplicationEvent(message(RenderingDef.class, 1L, "UPDATE"));
+        cache.onApplicationEvent(message(Thumbnail.class, 2L, "DELETE"));
+        cache.onApplicationEvent(message(Thumbnail.class, 3L, "INSERT"));
+        Assert.assertNull(cache.get(1L, settings(1L, 0), thumbnail(1L, 96)));
+        Assert.assertNull(cache.get(2L, settings(2L, 0), thumbnail(2L, 96)));
+        Assert.assertNotNull(cache.get(3L, settings(3L, 0), thumbnail(3L, 96)));
+    }
+
+}
@@ -0,0 +1,195 @@
+/*
+ *   Copyright 2017 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package omeis.providers.re;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+import ome.model.core.Pixels;
+import ome.model.display.QuantumDef;
+import ome.model.enums.Family;
+import ome.model.enums.PixelsType;
+import ome.util.PixelData;
+import omeis.providers.re.codomain.CodomainChain;
+import omeis.providers.re.codomain.ReverseIntensityContext;
+import omeis.providers.re.data.Plane2D;
+import omeis.providers.re.data.PlaneDef;
+import omeis.providers.re.quantum.Quantization_8_16_bit;
+import omeis.providers.re.quantum.QuantumFactory;
+import omeis.providers.re.quantum.QuantumStrategy;
+
+import org.testng.annotations.Test;
+
+/**
+ * Checks that {@link QuantizedLookup} maps every value of each 8 and 16-bit
+ * pixels type, including the minimum of the signed ones, to the value of
+ * {@link QuantumStrategy#quantize(double)}, and that a lookup is only reused
+ * while the settings it was built with are unchanged.
+ *
+ * @since 5.3.0
+ */
+@Test(groups = "unit")
+public class QuantizedLookupTest extends TestCase {
+
+    private static PixelsType type(String value, int bitSize) {
+        PixelsType type = new PixelsType();
+        type.setValue(value);
+        type.setBitSize(bitSize);
+        return type;
+    }
+
+    /**
+     * Creates a single row holding every value of the type once, in
+     * increasing order starting from the type minimum.
+     */
+    private static Plane2D plane(PixelsType type, int min, int size) {
+        int bytes = type.getBitSize() / 8;
+        ByteBuffer buf = ByteBuffer.allocate(size * bytes);
+        for (int i = 0; i < size; i++) {
+            if (bytes == 1) {
+                buf.put((byte) (min + i));
+            } else {
+                buf.putShort((short) (min + i));
+            }
+        }
+        Pixels pixels = new Pixels();
+        pixels.setSizeX(size);
+        pixels.setSizeY(1);
+        pixels.setPixelsType(type);
+        return new Plane2D(new PlaneDef(PlaneDef.XY, 0), pixels,
+                new PixelData(type.getValue(), buf));
+    }
+
+    /**
+     * Creates a linear strategy whose window is the range of the type with
+     * a margin, so that values are clamped at both ends.
+     */
+    private static QuantumStrategy strategy(PixelsType type, int min,
+            int size) {
+        QuantumDef qd = new QuantumDef();
+        qd.setBitResolution(QuantumFactory.DEPTH_8BIT);
+        qd.setCdStart(QuantumStrategy.MIN);
+        qd.setCdEnd(QuantumStrategy.MAX);
+        Pixels pixels = new Pixels();
+        pixels.setPixelsType(type);
+        QuantumStrategy qs = new Quantization_8_16_bit(qd, pixels);
+        qs.setExtent(min, min + size - 1);
+        Family family = new Family();
+        family.setValue(QuantumFactory.LINEAR);
+        qs.setMapping(family, 1.0, false);
+        qs.setWindow(min + size / 8, min + size - 1 - size / 8);
+        return qs;
+    }
+
+    private static CodomainChain chain(boolean reverse) {
+        CodomainChain cc = new CodomainChain(QuantumStrategy.MIN,
+                QuantumStrategy.MAX);
+        if (reverse) {
+            cc.add(new ReverseIntensityContext());
+        }
+        return cc;
+    }
+
+    private static void assertLookup(String value, int bitSize, int min,
+            boolean reverse) throws Exception {
+        int size = 1 << bitSize;
+        PixelsType type = type(value, bitSize);
+        Plane2D plane = plane(type, min, size);
+        QuantumStrategy qs = strategy(type, min, size);
+        CodomainChain cc = chain(reverse);
+        QuantizedLookup lookup = QuantizedLookup.create(plane, qs, cc, size,
+                null);
+        assertNotNull(value, lookup);
+        int[] values = new int[size];
+        lookup.lookup(plane.getData(), 0, size, values);
+        for (int i = 0; i < size; i++) {
+            int expected = qs.quantize(min + i);
+            if (reverse) {
+                expected = cc.transform(expected);
+            }
+            assertEquals(value + " " + (min + i), expected, values[i]);
+        }
+        // Also from an offset in the buffer
+        lookup.lookup(plane.getData(), 1, 1, values);
+        assertEquals(values[1], values[0]);
+    }
+
+    @Test
+    public void testUint8() throws Exception {
+        assertLookup("uint8", 8, 0, false);
+        assertLookup("uint8", 8, 0, true);
+    }
+
+    @Test
+    public void testInt8() throws Exception {
+        assertLookup("int8", 8, Byte.MIN_VALUE, false);
+        assertLookup("int8", 8, Byte.MIN_VALUE, true);
+    }
+
+    @Test
+    public void testUint16() throws Exception {
+        assertLookup("uint16", 16, 0, false);
+        assertLookup("uint16", 16, 0, true);
+    }
+
+    @Test
+    public void testInt16() throws Exception {
+        assertLookup("int16", 16, Short.MIN_VALUE, false);
+        assertLookup("int16", 16, Short.MIN_VALUE, true);
+    }
+
+    @Test
+    public void testSmallPlaneWithoutCache() throws Exception {
+        int size = 1 << 16;
+        PixelsType type = type("uint16", 16);
+        Plane2D plane = plane(type, 0, size);
+        QuantumStrategy qs = strategy(type, 0, size);
+        assertNull(QuantizedLookup.create(plane, qs, chain(false),
+                size / 2 - 1, null));
+    }
+
+    @Test
+    public void testCacheReusedUntilSettingsChange() throws Exception {
+        int size = 1 << 16;
+        PixelsType type = type("uint16", 16);
+        Plane2D plane = plane(type, 0, size);
+        QuantumStrategy qs = strategy(type, 0, size);
+        CodomainChain cc = chain(false);
+        QuantizedLookup lookup = QuantizedLookup.create(plane, qs, cc, size,
+                null);
+        // A small tile reuses the table of a previous rendering
+        assertSame(lookup, QuantizedLookup.create(plane, qs, cc, 1, lookup));
+
+        qs.setWindow(0, size / 2);
+        QuantizedLookup windowed = QuantizedLookup.create(plane, qs, cc,
+                size, lookup);
+        assertNotSame(lookup, windowed);
+        int[] values = new int[size];
+        windowed.lookup(plane.getData(), 0, size, values);
+        assertEquals(qs.quantize(size / 4), values[size / 4]);
+
+        Family family = new Family();
+        family.setValue(QuantumFactory.EXPONENTIAL);
+        qs.setQuantizationMap(family, 2.0, false);
+        QuantizedLookup mapped = QuantizedLookup.create(plane, qs, cc, size,
+                windowed);
+        assertNotSame(windowed, mapped);
+
+        cc.add(new ReverseIntensityContext());
+        QuantizedLookup reversed = QuantizedLookup.create(plane, qs, cc,
+                size, mapped);
+        assertNotSame(mapped, reversed);
+        reversed.lookup(plane.getData(), 0, size, values);
+        assertEquals(cc.transform(qs.quantize(size / 4)), values[size / 4]);
+
+        // Another channel's strategy, even with the same settings
+        assertNotSame(reversed, QuantizedLookup.create(plane,
+                strategy(type, 0, size), cc, size, reversed));
+        // Changed settings are not reused for a small tile
+        assertNull(QuantizedLookup.create(plane, strategy(type, 0, size),
+                cc, 1, reversed));
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+ *   Copyright (C) 2017 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package omeis.providers.re.utests;
+
+import omeis.providers.re.Optimizations;
+import omeis.providers.re.data.PlaneDef;
+
+import org.perf4j.LoggingStopWatch;
+import org.perf4j.StopWatch;
+import org.testng.annotations.Test;
+
+/**
+ * Times the rendering of 1 to 8 active 16-bit channels, which exercises the
+ * per-channel lookup tables of the HSB strategy, and checks that the lookup
+ * tables render exactly as the per-pixel path.
+ */
+public class TestMultiChannel16BitRenderer extends BaseRenderingTest
+{
+	@Override
+	protected int getSizeC()
+	{
+		return 8;
+	}
+
+	@Test(timeOut=60000)
+	public void testRenderAsPackedIntByActiveChannels() throws Exception
+	{
+		PlaneDef def = new PlaneDef(PlaneDef.XY, 0);
+		for (int active = 1; active <= getSizeC(); active++)
+		{
+			for (int w = 0; w < getSizeC(); w++)
+			{
+				renderer.setActive(w, w < active);
+			}
+			for (int i = 0; i < RUN_COUNT; i++)
+			{
+				StopWatch stopWatch = new LoggingStopWatch(
+						"testRenderAsPackedIntChannels" + active);
+				int[] rgba = renderer.renderAsPackedInt(def, pixelBuffer);
+				stopWatch.stop();
+				assertEquals(getSizeX() * getSizeY(), rgba.length);
+			}
+		}
+	}
+
+	@Test(timeOut=60000)
+	public void testLookupMatchesPerPixelByActiveChannels() throws Exception
+	{
+		PlaneDef def = new PlaneDef(PlaneDef.XY, 0);
+		Optimizations optimizations = renderer.getOptimizations();
+		try
+		{
+			for (int active = 1; active <= getSizeC(); active++)
+			{
+				for (int w = 0; w < getSizeC(); w++)
+				{
+					renderer.setActive(w, w < active);
+				}
+				optimizations.setQuantizedLookupEnabled(false);
+				int[] expected = renderer.renderAsPackedInt(def, pixelBuffer);
+				optimizations.setQuantizedLookupEnabled(true);
+				int[] actual = renderer.renderAsPackedInt(def, pixelBuffer);
+				assertEquals(expected.length, actual.length);
+				for (int i = 0; i < expected.length; i++)
+				{
+					if (expected[i] != actual[i])
+					{
+						fail(String.format("%s channels: pixel %s is %x " +
+								"rather than %x", active, i, actual[i],
+								expected[i]));
+					}
+				}
+			}
+		}
+		finally
+		{
+			optimizations.setQuantizedLookupEnabled(true);
+		}
+	}
+}
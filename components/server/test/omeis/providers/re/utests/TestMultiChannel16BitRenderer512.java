@@ -0,0 +1,26 @@
+/*
+ *   Copyright (C) 2017 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package omeis.providers.re.utests;
+
+/**
+ * Runs the multi-channel 16-bit tests on a 512x512 plane.
+ */
+public class TestMultiChannel16BitRenderer512
+	extends TestMultiChannel16BitRenderer
+{
+	@Override
+	protected int getSizeX()
+	{
+		return 512;
+	}
+
+	@Override
+	protected int getSizeY()
+	{
+		return 512;
+	}
+}
@@ -18,6 +18,7 @@ import ome.io.nio.DimensionsOutOfBoundsException;
 import ome.io.nio.PixelBuffer;
 import ome.model.core.Pixels;
 import ome.util.PixelData;
+import ome.util.checksum.ChecksumProvider;
 
 public class TestPixelBuffer implements PixelBuffer {
 
@@ -48,6 +49,12 @@ public class TestPixelBuffer implements PixelBuffer {
 		return null;
 	}
 
+	public byte[] calculateChecksum(ChecksumProvider provider)
+			throws IOException {
+		// TODO Auto-generated method stub
+		return null;
+	}
+
 	public void close() throws IOException {
 		// TODO Auto-generated method stub
 
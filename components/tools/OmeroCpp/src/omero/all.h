@@ -30,6 +30,7 @@
 #include<omero/api/ISession.h>
 #include<omero/api/IShare.h>
 #include<omero/api/ITimeline.h>
+#include<omero/api/ITileRendering.h>
 #include<omero/api/ITypes.h>
 #include<omero/api/IUpdate.h>
 #include<omero/api/JobHandle.h>
@@ -43,6 +43,7 @@ if omero.__import_style__ is None:
     IceImport.load("omero_api_ISession_ice")
     IceImport.load("omero_api_IShare_ice")
     IceImport.load("omero_api_ITimeline_ice")
+    IceImport.load("omero_api_ITileRendering_ice")
     IceImport.load("omero_api_ITypes_ice")
     IceImport.load("omero_api_IUpdate_ice")
     IceImport.load("omero_api_Exporter_ice")
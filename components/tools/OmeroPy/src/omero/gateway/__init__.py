@@ -7388,6 +7388,9 @@ class _ImageWrapper (BlitzObjectWrapper, OmeroRestrictionWrapper):
         'intmax': omero.constants.projection.ProjectionType.MAXIMUMINTENSITY,
         'intmean': omero.constants.projection.ProjectionType.MEANINTENSITY,
         'intsum': omero.constants.projection.ProjectionType.SUMINTENSITY,
+        'intmin': omero.constants.projection.ProjectionType.MINIMUMINTENSITY,
+        'intmedian':
+            omero.constants.projection.ProjectionType.MEDIANINTENSITY,
         }
 
     PLANEDEF = omero.romio.XY
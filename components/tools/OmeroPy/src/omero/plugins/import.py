@@ -442,6 +442,12 @@ class ImportControl(BaseControl):
         add_advjava_argument(
             "--checksum-algorithm", nargs="?", metavar="TYPE",
             help="Alternative hashing mechanisms balancing speed & accuracy")
+        add_advjava_argument(
+            "--parallel-upload", nargs="?", metavar="COUNT",
+            help="Number of chunk writes awaiting the server during upload")
+        add_advjava_argument(
+            "--parallel-fileset", nargs="?", metavar="COUNT",
+            help="Number of filesets to import at once")
 
         # Unsure on these.
         add_python_argument(